@@ -32,13 +32,19 @@ import org.jnetstream.capture.FormatType;
 import org.jnetstream.capture.InputCapture;
 import org.jnetstream.capture.PacketIterator;
 import org.jnetstream.capture.Captures.LocalFactory;
+import org.jnetstream.capture.file.nap.NapFile;
 import org.jnetstream.capture.file.pcap.PcapFile;
+import org.jnetstream.capture.file.pcapng.PcapngFile;
 import org.jnetstream.capture.file.snoop.SnoopFile;
 import org.jnetstream.filter.Filter;
 import org.jnetstream.packet.Packet;
 import org.jnetstream.packet.ProtocolFilterTarget;
 
+import com.slytechs.file.nap.NapBlock.Compression;
+import com.slytechs.file.nap.NapFileCapture;
+import com.slytechs.file.nap.NapFileReader;
 import com.slytechs.file.pcap.PcapFileCapture;
+import com.slytechs.file.pcapng.PcapngFileCapture;
 import com.slytechs.file.snoop.SnoopFileCapture;
 
 /**
@@ -73,6 +79,25 @@ public abstract class FileFactory implements LocalFactory {
 		} catch (final Exception e) {
 		}
 
+		try {
+			new PcapngFileCapture(file, FileMode.ReadOnlyNoMap, null).close();
+
+			if (logger.isTraceEnabled()) {
+				logger.trace(file.getName() + ", type=" + FormatType.Pcapng);
+			}
+
+			return FormatType.Pcapng;
+		} catch (final Exception e) {
+		}
+
+		if (NapFileReader.isNapFile(file)) {
+			if (logger.isTraceEnabled()) {
+				logger.trace(file.getName() + ", type=" + FormatType.Nap);
+			}
+
+			return FormatType.Nap;
+		}
+
 		/*
 		 * Now try InputCapture which may also yield a known format
 		 */
@@ -111,6 +136,25 @@ public abstract class FileFactory implements LocalFactory {
 		} catch (final Exception e) {
 		}
 
+		try {
+			new PcapngFileCapture(file, FileMode.ReadOnlyNoMap, null).close();
+
+			if (logger.isTraceEnabled()) {
+				logger.trace(file.getName() + ", type=" + FormatType.Pcapng);
+			}
+
+			return new DefaultFormatTypeDetail(FormatType.Pcapng);
+		} catch (final Exception e) {
+		}
+
+		if (NapFileReader.isNapFile(file)) {
+			if (logger.isTraceEnabled()) {
+				logger.trace(file.getName() + ", type=" + FormatType.Nap);
+			}
+
+			return new DefaultFormatTypeDetail(FormatType.Nap);
+		}
+
 		/*
 		 * Now try InputCapture which may also yield a known format
 		 */
@@ -140,6 +184,17 @@ public abstract class FileFactory implements LocalFactory {
 			final FileCapture snoop =
 			    SnoopFileCapture.createFile(file, FileMode.ReadWrite, null);
 			return c.cast(snoop);
+		}
+		if (c == PcapngFile.class) {
+			final FileCapture<? extends FilePacket> pcapng =
+			    PcapngFileCapture.createFile(file, FileMode.ReadWrite,
+			        ByteOrder.BIG_ENDIAN, null);
+			return c.cast(pcapng);
+		} else if (c == NapFile.class) {
+			final FileCapture<? extends FilePacket> nap =
+			    NapFileCapture.createFile(file, FileMode.ReadWrite,
+			        Compression.Deflate, null);
+			return c.cast(nap);
 		} else {
 			throw new FileFormatException("Unknown file format " + c.getName());
 		}
@@ -172,6 +227,16 @@ public abstract class FileFactory implements LocalFactory {
 		} else if (type == FormatType.Snoop) {
 			f = SnoopFileCapture.createFile(file, FileMode.ReadWrite, null);
 
+		} else if (type == FormatType.Pcapng) {
+			f =
+			    PcapngFileCapture.createFile(file, FileMode.ReadWrite,
+			        ByteOrder.BIG_ENDIAN, null);
+
+		} else if (type == FormatType.Nap) {
+			f =
+			    NapFileCapture.createFile(file, FileMode.ReadWrite,
+			        Compression.Deflate, null);
+
 		} else {
 			throw new IllegalArgumentException("Unknown file format type [" + type
 			    + "] specified");
@@ -219,6 +284,10 @@ public abstract class FileFactory implements LocalFactory {
 			capture = new PcapFileCapture(file, mode, null);
 		} else if (type == SnoopFile.class) {
 			capture = new SnoopFileCapture(file, mode, null);
+		} else if (type == PcapngFile.class) {
+			capture = new PcapngFileCapture(file, mode, null);
+		} else if (type == NapFile.class) {
+			capture = new NapFileCapture(file, mode, null);
 		} else {
 			throw new FileFormatException("Unsupported file format type, "
 			    + type.getName());
@@ -255,7 +324,11 @@ public abstract class FileFactory implements LocalFactory {
 			case Snoop:
 				capture = new SnoopFileCapture(file, mode, filter);
 				break;
+			case Pcapng:
+				capture = new PcapngFileCapture(file, mode, filter);
+				break;
 			case Nap:
+				capture = new NapFileCapture(file, mode, filter);
 				break;
 
 			default:
@@ -374,6 +447,12 @@ public abstract class FileFactory implements LocalFactory {
 				input.close();
 				break;
 
+			case Nap:
+				final NapFileReader nap = new NapFileReader(dst);
+				count = nap.getPacketCount();
+				nap.close();
+				break;
+
 			default:
 				final FileCapture capture = openFile(dst);
 				count = capture.getPacketCount();
@@ -32,12 +32,20 @@ import org.jnetstream.capture.FormatType;
 import org.jnetstream.capture.InputCapture;
 import org.jnetstream.capture.OutputCapture;
 import org.jnetstream.capture.Captures.LocalFactory;
+import org.jnetstream.capture.file.nap.NapInput;
+import org.jnetstream.capture.file.nap.NapOutput;
 import org.jnetstream.capture.file.pcap.PcapInput;
+import org.jnetstream.capture.file.pcapng.PcapngInput;
+import org.jnetstream.capture.file.pcapng.PcapngOutput;
 import org.jnetstream.capture.file.snoop.SnoopInput;
 import org.jnetstream.filter.Filter;
 import org.jnetstream.packet.ProtocolFilterTarget;
 
+import com.slytechs.file.nap.NapInputCapture;
+import com.slytechs.file.nap.NapOutputCapture;
 import com.slytechs.file.pcap.PcapInputCapture;
+import com.slytechs.file.pcapng.PcapngInputCapture;
+import com.slytechs.file.pcapng.PcapngOutputCapture;
 import com.slytechs.file.snoop.SnoopInputCapture;
 import com.slytechs.utils.factory.FactoryLoader;
 import com.slytechs.utils.memory.channel.BufferedReadableByteChannel;
@@ -82,6 +90,18 @@ public abstract class StreamFactory
 
 		b.reset();
 
+		if (PcapngInputCapture.checkFormat(b) != null) {
+			return FormatType.Pcapng;
+		}
+
+		b.reset();
+
+		if (NapInputCapture.checkFormat(b)) {
+			return FormatType.Nap;
+		}
+
+		b.reset();
+
 		if (factoryForOther.getFactory().formatType(b) != null) {
 			return FormatType.Other;
 		}
@@ -112,6 +132,18 @@ public abstract class StreamFactory
 
 		b.reset();
 
+		if (PcapngInputCapture.checkFormat(b) != null) {
+			return new DefaultFormatTypeDetail(FormatType.Pcapng);
+		}
+
+		b.reset();
+
+		if (NapInputCapture.checkFormat(b)) {
+			return new DefaultFormatTypeDetail(FormatType.Nap);
+		}
+
+		b.reset();
+
 		final FormatType.Detail detail;
 
 		detail = factoryForOther.getFactory().formatTypeDetail(b);
@@ -181,6 +213,18 @@ public abstract class StreamFactory
 
 		} else if (t == SnoopInput.class) {
 			return t.cast(new SnoopInputCapture(in, filter));
+
+		} else if (t == PcapngInput.class) {
+			final BufferedReadableByteChannel b = new BufferedReadableByteChannel(in);
+			b.mark(12);
+
+			ByteOrder order = PcapngInputCapture.checkFormat(b);
+
+			b.reset();
+			return t.cast(new PcapngInputCapture(b, order, filter));
+
+		} else if (t == NapInput.class) {
+			return t.cast(new NapInputCapture(in, filter));
 		}
 
 		throw new IllegalArgumentException("Unknown input stream format type ["
@@ -260,6 +304,17 @@ public abstract class StreamFactory
 			case Snoop:
 				return new SnoopInputCapture(b, filter);
 
+			case Pcapng:
+				b.reset();
+				order = PcapngInputCapture.checkFormat(b);
+
+				b.reset();
+				return new PcapngInputCapture(b, order, filter);
+
+			case Nap:
+				b.reset();
+				return new NapInputCapture(b, filter);
+
 				/**
 				 * Loads NPL based file formats. Use
 				 * <code>InputCapture.getFormatName()</code> to get a more accurate
@@ -281,18 +336,32 @@ public abstract class StreamFactory
 
 	public <T extends OutputCapture> T newOutput(final Class<T> t,
 	    final OutputStream out) throws IOException {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException("Not implemented yet");
+		return newOutput(t, Channels.newChannel(out));
 	}
 
 	public <T extends OutputCapture> T newOutput(final Class<T> t,
 	    final WritableByteChannel out) throws IOException {
+		if (t == PcapngOutput.class) {
+			return t.cast(new PcapngOutputCapture(out, ByteOrder.nativeOrder()));
+
+		} else if (t == NapOutput.class) {
+			return t.cast(new NapOutputCapture(out));
+		}
+
 		// TODO Auto-generated method stub
 		throw new UnsupportedOperationException("Not implemented yet");
 	}
 
 	public OutputCapture newOutput(final FormatType type, final OutputStream out)
 	    throws IOException {
+		if (type == FormatType.Pcapng) {
+			return new PcapngOutputCapture(Channels.newChannel(out), ByteOrder
+			    .nativeOrder());
+
+		} else if (type == FormatType.Nap) {
+			return new NapOutputCapture(Channels.newChannel(out));
+		}
+
 		// TODO Auto-generated method stub
 		throw new UnsupportedOperationException("Not implemented yet");
 	}
@@ -49,4 +49,15 @@ public abstract class AbstractBlockRecord
   	super(buffer, position);
   }
 
+	/**
+	 * @param file
+	 *          file the record was read from
+	 * @param buffer
+	 * @param position
+	 */
+	public AbstractBlockRecord(FileCapture<?> file, ByteBuffer buffer,
+	    long position) {
+		super(file, buffer, position);
+	}
+
 }
@@ -27,6 +27,7 @@ import org.jnetstream.capture.PacketIndexer;
 import org.jnetstream.capture.PacketIterator;
 import org.jnetstream.capture.file.BlockRecord;
 import org.jnetstream.capture.file.HeaderReader;
+import org.jnetstream.capture.file.PacketCountEstimate;
 import org.jnetstream.capture.file.PacketCounterModel;
 import org.jnetstream.capture.file.RawIndexer;
 import org.jnetstream.capture.file.RawIterator;
@@ -34,18 +35,23 @@ import org.jnetstream.capture.file.Record;
 import org.jnetstream.capture.file.RecordFilterTarget;
 import org.jnetstream.capture.file.RecordIndexer;
 import org.jnetstream.capture.file.RecordIterator;
+import org.jnetstream.capture.file.SeekPattern;
 import org.jnetstream.filter.Filter;
 import org.jnetstream.packet.ProtocolFilterTarget;
 
 import com.slytechs.capture.DefaultCaptureDevice;
 import com.slytechs.capture.file.editor.FileEditor;
+import com.slytechs.capture.file.editor.PartialLoader;
 import com.slytechs.capture.file.indexer.PacketIndexerImpl;
+import com.slytechs.capture.file.indexer.ParallelRegionIndexer;
+import com.slytechs.capture.file.indexer.PersistentRegionIndexer;
 import com.slytechs.capture.file.indexer.PositionIndexer;
 import com.slytechs.capture.file.indexer.RawIndexerImpl;
 import com.slytechs.capture.file.indexer.RecordIndexerImpl;
 import com.slytechs.capture.file.indexer.RecordPositionIndexer;
 import com.slytechs.utils.collection.IOIterator;
 import com.slytechs.utils.collection.IOIterator.IteratorAdapter;
+import com.slytechs.utils.collection.SeekResult;
 import com.slytechs.utils.io.IORuntimeException;
 import com.slytechs.utils.number.Version;
 
@@ -55,7 +61,27 @@ import com.slytechs.utils.number.Version;
  */
 public abstract class AbstractFile<T extends FilePacket, R extends Record, B extends BlockRecord>
     implements FileCapture<T>, RawIteratorBuilder {
-	
+
+	/**
+	 * Number of evenly spaced regions sampled by the statistical packet counter
+	 */
+	public final static int STATISTICAL_SAMPLES = 32;
+
+	/**
+	 * Number of records read from each sampled region
+	 */
+	public final static int STATISTICAL_SAMPLE_RECORDS = 64;
+
+	/**
+	 * Files with less packet data then this are always counted exactly
+	 */
+	public final static long STATISTICAL_THRESHOLD = PartialLoader.BUFFER_MEMORY_MAP;
+
+	/**
+	 * Z value for the 95% confidence interval of statistical packet counts
+	 */
+	private final static double Z_95 = 1.96;
+
 	protected B block;
 
 	private DefaultCaptureDevice captureDevice;
@@ -68,6 +94,12 @@ public abstract class AbstractFile<T extends FilePacket, R extends Record, B ext
 
 	private SoftReference<PositionIndexer> indexer;
 
+	/**
+	 * Format's record header pattern, used to resynchronize on record
+	 * boundaries when large files are indexed in parallel. Set by the subclass.
+	 */
+	protected SeekPattern pattern;
+
 	@SuppressWarnings("unused")
   private final Log logger;
 
@@ -124,6 +156,113 @@ public abstract class AbstractFile<T extends FilePacket, R extends Record, B ext
 
 		return count;
 	}
+
+	/**
+	 * Estimates the number of packets within the file by sampling evenly spaced
+	 * regions of the file. At each sample point the iterator resynchronizes on
+	 * the next record boundary using the format's seek pattern and then measures
+	 * how many bytes the next <code>records</code> packet records occupy. The
+	 * packet density (packets per byte) of all the samples is extrapolated over
+	 * the entire length of the packet data. The variance between the samples is
+	 * used to calculate a 95% confidence interval.
+	 * <p>
+	 * Files whose packet data is shorter then {@link #STATISTICAL_THRESHOLD} or
+	 * whose count is already known, are counted exactly.
+	 * </p>
+	 * 
+	 * @param samples
+	 *          number of regions to sample
+	 * @param records
+	 *          number of records to read from each region
+	 * @return the estimated packet count with its confidence interval
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public PacketCountEstimate estimatePacketCount(int samples, int records)
+	    throws IOException {
+		if (samples <= 0 || records <= 0) {
+			throw new IllegalArgumentException(
+			    "Number of samples and records must be greater then 0");
+		}
+
+		if (packetCount != -1) {
+			return new PacketCountEstimate(packetCount);
+		}
+
+		final PacketIterator<T> i = getPacketIterator();
+		if (i.hasNext() == false) {
+			return new PacketCountEstimate(getPacketCount());
+		}
+
+		final long first = i.getPosition();
+		final long span = getLength() - first;
+
+		if (span < STATISTICAL_THRESHOLD) {
+			return new PacketCountEstimate(getPacketCount());
+		}
+
+		final double[] density = new double[samples];
+		long totalCount = 0;
+		long totalBytes = 0;
+		int taken = 0;
+
+		for (int s = 0; s < samples; s++) {
+			final long start = first + (long) ((double) span * s / samples);
+
+			if (s != 0 && i.seek(start) != SeekResult.Fullfilled) {
+				continue; // Nothing left in this region
+			}
+
+			final long p = i.getPosition();
+			int count = 0;
+			while (count < records && i.hasNext()) {
+				i.skip();
+				count++;
+			}
+
+			final long bytes = i.getPosition() - p;
+			if (count == 0 || bytes <= 0) {
+				continue;
+			}
+
+			density[taken++] = (double) count / bytes;
+			totalCount += count;
+			totalBytes += bytes;
+		}
+
+		if (taken < 2) {
+			return new PacketCountEstimate(getPacketCount());
+		}
+
+		final double mean = (double) totalCount / totalBytes;
+
+		double variance = 0;
+		for (int s = 0; s < taken; s++) {
+			final double d = density[s] - mean;
+			variance += d * d;
+		}
+		variance /= (taken - 1);
+
+		final double error = Z_95 * Math.sqrt(variance / taken) * span;
+		final long estimate = Math.round(mean * span);
+		final long lower = Math.max(totalCount, (long) (estimate - error));
+		final long upper = Math.max(lower, (long) Math.ceil(estimate + error));
+
+		return new PacketCountEstimate(estimate, lower, upper, taken);
+	}
+
+	/**
+	 * Estimates the number of packets within the file using the default number
+	 * of samples.
+	 * 
+	 * @return the estimated packet count with its confidence interval
+	 * @throws IOException
+	 *           any IO errors
+	 * @see #estimatePacketCount(int, int)
+	 */
+	public PacketCountEstimate estimatePacketCount() throws IOException {
+		return estimatePacketCount(STATISTICAL_SAMPLES, STATISTICAL_SAMPLE_RECORDS);
+	}
 	
 	protected abstract PacketIterator<T> createPacketIterator(
 	    final RawIterator raw) throws IOException;
@@ -176,6 +315,9 @@ public abstract class AbstractFile<T extends FilePacket, R extends Record, B ext
 			case RealCount:
 				return getPacketCount();
 
+			case StatisticalCount:
+				return estimatePacketCount().getCount();
+
 			default:
 				throw new UnsupportedOperationException("Model not implemented yet");
 
@@ -207,7 +349,11 @@ public abstract class AbstractFile<T extends FilePacket, R extends Record, B ext
 	}
 
 	/**
-	 * Caches an indexer and creates a new instance if one is not cached.
+	 * Caches an indexer and creates a new instance if one is not cached. Record
+	 * positions within the physical file are memory mapped from a sidecar index
+	 * file when a valid one exists, see {@link PersistentRegionIndexer}. Large
+	 * files without a valid sidecar are scanned in parallel using the format's
+	 * seek pattern, see {@link ParallelRegionIndexer}.
 	 * 
 	 * @return position indexer for all records
 	 * @throws IOException
@@ -216,7 +362,7 @@ public abstract class AbstractFile<T extends FilePacket, R extends Record, B ext
 	public PositionIndexer getPositionIndexer() throws IOException {
 		if (this.indexer == null || this.indexer.get() == null) {
 			this.indexer = new SoftReference<PositionIndexer>(
-			    new RecordPositionIndexer(this.editor.getFlexRegion()));
+			    new RecordPositionIndexer(this.editor.getFlexRegion(), pattern));
 		}
 
 		return this.indexer.get();
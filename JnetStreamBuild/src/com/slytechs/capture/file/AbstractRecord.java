@@ -75,7 +75,21 @@ public abstract class AbstractRecord {
 	 * @param position
 	 */
 	public AbstractRecord(ByteBuffer buffer, long position) {
-		this.file = null;
+		this(null, buffer, position);
+	}
+
+	/**
+	 * A static buffer based record that still belongs to a file, for file
+	 * formats whose records are not addressable through an editor.
+	 * 
+	 * @param file
+	 *          file the record was read from
+	 * @param buffer
+	 * @param position
+	 */
+	public AbstractRecord(FileCapture<?> file, ByteBuffer buffer,
+	    long position) {
+		this.file = file;
 		this.editor = null;
 		this.handle = null;
 		this.lengthGetter = null;
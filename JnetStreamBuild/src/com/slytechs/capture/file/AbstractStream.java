@@ -77,9 +77,6 @@ public abstract class AbstractStream<T extends FilePacket, B extends BlockRecord
 		this.in = new CountedReadableByteChannel(marked);
 
 		this.block = readBlockRecord();
-		
-		this.dlt = ProtocolRegistry.lookup(getCaptureDevice().getLinkType());
-
 	}
 
 	/**
@@ -170,6 +167,7 @@ public abstract class AbstractStream<T extends FilePacket, B extends BlockRecord
 
 	public void setCaptureDevice(final CaptureDevice captureDevice) {
 		this.captureDevice = captureDevice;
+		this.dlt = ProtocolRegistry.lookup(captureDevice.getLinkType());
 
 	}
 
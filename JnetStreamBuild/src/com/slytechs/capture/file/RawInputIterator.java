@@ -25,6 +25,7 @@ import org.jnetstream.filter.Filter;
 
 
 import com.slytechs.utils.collection.SeekResult;
+import com.slytechs.utils.memory.BitBuffer;
 import com.slytechs.utils.memory.BufferBlock;
 import com.slytechs.utils.memory.BufferUtils;
 import com.slytechs.utils.memory.channel.CountedReadableByteChannel;
@@ -83,12 +84,17 @@ public class RawInputIterator implements InputIterator<ByteBuffer> {
 
 		this.buffer = ByteBuffer.allocate(cap);
 		this.buffer.order(order);
-		this.rwBlock = new BufferBlock(this.buffer, null, 0, cap);
-		this.buffer.limit(0);
+		this.rwBlock = new BufferBlock(this.buffer, BitBuffer.wrap(this.buffer), 0,
+		    cap);
 
+		/*
+		 * The bit buffers prefetch from their byte buffer, the limits are cleared
+		 * after both blocks are created
+		 */
 		this.view = BufferUtils.asReadonly(buffer);
-		this.roBlock = new BufferBlock(this.view, null, 0, cap);
+		this.roBlock = new BufferBlock(this.view, BitBuffer.wrap(this.view), 0, cap);
 		this.view.limit(0);
+		this.buffer.limit(0);
 
 		/*
 		 * Lastly copy any remnants left in the old view buffer into our new buffer.
@@ -21,6 +21,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,9 +32,11 @@ import org.jnetstream.capture.file.RawIterator;
 import org.jnetstream.capture.file.RecordError;
 import org.jnetstream.capture.file.RecordFilterTarget;
 import org.jnetstream.capture.file.SeekPattern;
+import org.jnetstream.filter.BatchFilter;
 import org.jnetstream.filter.Filter;
 
 import com.slytechs.capture.file.Files;
+import com.slytechs.utils.collection.IOIterator;
 import com.slytechs.utils.collection.IOPositional;
 import com.slytechs.utils.collection.SeekResult;
 import com.slytechs.utils.event.RuntimeIOException;
@@ -62,6 +65,21 @@ public abstract class AbstractRawIterator implements RawIterator {
 
 	protected static final int SEARCH_LENGTH = 64 * 1024;
 
+	/**
+	 * Maximum number of records evaluated by a single batch filter call
+	 */
+	protected static final int MAX_BATCH = 256;
+
+	/**
+	 * Number of records between 2 consecutive entries of the checkpoint table
+	 */
+	protected static final int CHECKPOINT_INTERVAL = 1024;
+
+	/**
+	 * Maximum number of timestamps remembered from previous timestamp seeks
+	 */
+	protected static final int TIME_INDEX_SIZE = 256;
+
 	private AutoflushMonitor autoflush;
 
 	private PartialBuffer blockBuffer;
@@ -84,6 +102,44 @@ public abstract class AbstractRawIterator implements RawIterator {
 
 	private RegionSegment<PartialLoader> segment;
 
+	private final long[] batchPositions = new long[MAX_BATCH];
+
+	private final int[] batchOffsets = new int[MAX_BATCH];
+
+	private final int[] batchLengths = new int[MAX_BATCH];
+
+	private final long[] batchMatches = new long[MAX_BATCH / 64];
+
+	/**
+	 * Sparse index of record positions. Entry i holds the global position of
+	 * record number i * CHECKPOINT_INTERVAL, counting only records that pass the
+	 * filter. The table is built as records are iterated over in order and is
+	 * only valid for the edits change ID it was built for.
+	 */
+	private long[] checkpoints = new long[64];
+
+	private int checkpointCount = 0;
+
+	private long checkpointChangeId;
+
+	/**
+	 * Index of the record at recordIndexPosition or -1 if not known
+	 */
+	private long recordIndex = -1;
+
+	private long recordIndexPosition;
+
+	/**
+	 * Sparse time index of records probed by previous timestamp seeks, sorted by
+	 * position. Just like the checkpoints, the index is only valid for the edits
+	 * change ID it was built for.
+	 */
+	private final long[] timePositions = new long[TIME_INDEX_SIZE];
+
+	private final long[] timeStamps = new long[TIME_INDEX_SIZE];
+
+	private int timeCount = 0;
+
 	public AbstractRawIterator(final FlexRegion<PartialLoader> edits,
 	    final HeaderReader headerReader, final AutoflushMonitor autoflush,
 	    final Closeable closeable, final Filter<RecordFilterTarget> filter)
@@ -94,13 +150,16 @@ public abstract class AbstractRawIterator implements RawIterator {
 		this.autoflush = autoflush;
 		this.closeable = closeable;
 		this.filter = filter;
+		this.checkpointChangeId = edits.getChangeId();
 
 		this.setPosition(0);
 
 		/*
-		 * Align on the first record that matches our filter
+		 * Align on the first record that matches our filter, which is the first
+		 * record, so checkpoints are recorded from the start while iterating
 		 */
 		seekFilter();
+		this.setRecordIndex(0);
 	}
 
 	/*
@@ -144,7 +203,9 @@ public abstract class AbstractRawIterator implements RawIterator {
 		    headerReader);
 
 		// Now do the insert
+		final long changeId = this.edits.getChangeId();
 		this.edits.insert(this.global, additions.getLength(), additions);
+		this.checkpointEdit(this.global, changeId);
 
 		// Instead of skipping over all the records, its easier to simply increase
 		// the position by total we just computed and be done with it.
@@ -172,7 +233,9 @@ public abstract class AbstractRawIterator implements RawIterator {
 
 		// Create a partial loader for our cache memory buffer and do the insert
 		final PartialLoader record = new MemoryCacheLoader(b1, b2, headerReader);
+		final long changeId = this.edits.getChangeId();
 		this.edits.insert(this.global, length, record);
+		this.checkpointEdit(this.global, changeId);
 
 		// Advance past the record we just added
 		this.setPosition(this.global + length);
@@ -192,7 +255,9 @@ public abstract class AbstractRawIterator implements RawIterator {
 		    elements);
 
 		// Now do the insert
+		final long changeId = this.edits.getChangeId();
 		this.edits.insert(this.global, additions.getLength(), additions);
+		this.checkpointEdit(this.global, changeId);
 
 		// Instead of skipping over all the records, its easier to simply increase
 		// the position by total we just computed and be done with it.
@@ -295,7 +360,7 @@ public abstract class AbstractRawIterator implements RawIterator {
 			this.blockBuffer.reposition(regional, min);
 		}
 
-		final ByteBuffer buffer = this.blockBuffer.getByteBuffer();
+		ByteBuffer buffer = this.blockBuffer.getByteBuffer();
 
 		final int length = (int) this.getRecordLength(buffer, lengthGetter);
 		final int allocation = this.loader.getBufferAllocation(length);
@@ -309,7 +374,12 @@ public abstract class AbstractRawIterator implements RawIterator {
 				throw new BufferUnderflowException();
 			}
 
+			/*
+			 * Record crosses the end of the current block, the new block's buffer
+			 * replaces the one holding just the record's header
+			 */
 			this.blockBuffer = this.loader.fetchBlock(regional, length);
+			buffer = this.blockBuffer.getByteBuffer();
 		}
 
 		try {
@@ -462,12 +532,23 @@ public abstract class AbstractRawIterator implements RawIterator {
 	 * @see com.slytechs.utils.collection.IOIterator#next()
 	 */
 	public ByteBuffer next() throws IOException {
+		final long index = this.getRecordIndex();
 		final ByteBuffer buffer = this.nextNoFilter(this.headerReader);
+		final int position = buffer.position();
+		final int limit = buffer.limit();
 
 		/*
 		 * Next, apply the filter and advance the position to the next record
 		 */
 		this.seekFilter();
+		this.setRecordIndex((index == -1) ? -1 : index + 1);
+
+		/*
+		 * Filtering reads the following records through the same block buffer,
+		 * restore the returned record's bounds
+		 */
+		buffer.limit(limit);
+		buffer.position(position);
 
 		return buffer;
 	}
@@ -491,7 +572,7 @@ public abstract class AbstractRawIterator implements RawIterator {
 			this.blockBuffer.reposition(regional, min);
 		}
 
-		final ByteBuffer buffer = this.blockBuffer.getByteBuffer();
+		ByteBuffer buffer = this.blockBuffer.getByteBuffer();
 
 		final int length = (int) this.getRecordLength(buffer, lengthGetter);
 		final int allocation = this.loader.getBufferAllocation(length);
@@ -508,7 +589,12 @@ public abstract class AbstractRawIterator implements RawIterator {
 				throw new BufferUnderflowException();
 			}
 
+			/*
+			 * Record crosses the end of the current block, the new block's buffer
+			 * replaces the one holding just the record's header
+			 */
 			this.blockBuffer = this.loader.fetchBlock(regional, length);
+			buffer = this.blockBuffer.getByteBuffer();
 		}
 
 		try {
@@ -541,7 +627,9 @@ public abstract class AbstractRawIterator implements RawIterator {
 		final long length = this.getRecordLength(this.segment
 		    .mapGlobalToRegional(this.global), this.headerReader);
 
+		final long changeId = this.edits.getChangeId();
 		this.edits.remove(this.global, length);
+		this.checkpointEdit(this.global, changeId);
 
 		this.setPosition(this.global);
 
@@ -618,7 +706,9 @@ public abstract class AbstractRawIterator implements RawIterator {
 		}
 
 		// Do one large remove of all the records
+		final long changeId = this.edits.getChangeId();
 		this.edits.remove(start, total);
+		this.checkpointEdit(start, changeId);
 
 		// reinitize segment and buffer
 		this.setPosition();
@@ -663,8 +753,10 @@ public abstract class AbstractRawIterator implements RawIterator {
 		final PartialLoader replacement = new MemoryCacheLoader(element, copy,
 		    headerReader);
 
+		final long changeId = this.edits.getChangeId();
 		this.edits.replace(this.global, length, replacement.getLength(),
 		    replacement);
+		this.checkpointEdit(this.global, changeId);
 
 		this.autoflush.autoflushChange(length + replacement.getLength());
 	}
@@ -689,7 +781,9 @@ public abstract class AbstractRawIterator implements RawIterator {
 		    headerReader);
 
 		// now the replacement by region with the new buffer
+		final long changeId = this.edits.getChangeId();
 		this.edits.replace(p, length, length, loader);
+		this.checkpointEdit(p, changeId);
 
 		this.autoflush.autoflushChange(length * 2);
 	}
@@ -713,6 +807,8 @@ public abstract class AbstractRawIterator implements RawIterator {
 		final ByteBuffer b = this.next();
 		final int length = (int) this.getRecordLength(b);
 
+		final long changeId = this.edits.getChangeId();
+
 		if (size == length) {
 			return; // Nothing to do
 
@@ -740,6 +836,8 @@ public abstract class AbstractRawIterator implements RawIterator {
 			this.edits.replace(p, length, size, loader);
 		}
 
+		this.checkpointEdit(p, changeId);
+
 		this.autoflush.autoflushChange(length + size);
 	}
 
@@ -884,6 +982,10 @@ public abstract class AbstractRawIterator implements RawIterator {
 			return (this.global < length ? OK : NOT_OK);
 		}
 
+		if (filter instanceof BatchFilter) {
+			return seekBatch((BatchFilter<RecordFilterTarget>) filter, length);
+		}
+
 		ByteBuffer buffer = null;
 
 		long nextPosition = this.global;
@@ -904,6 +1006,64 @@ public abstract class AbstractRawIterator implements RawIterator {
 		return (this.global < length ? OK : NOT_OK);
 	}
 
+	/**
+	 * Same as {@link #seek(Filter)} but evaluates the filter against a batch of
+	 * records at a time. A batch holds consecutive records that reside in the
+	 * same block buffer and share the same filter target. The batch size starts
+	 * at 1 record and doubles, up to {@link #MAX_BATCH}, every time a batch
+	 * contains no matches. This way densely matching filters do not evaluate
+	 * records ahead of the iterator, while sparse filters are evaluated hundreds
+	 * of records per call.
+	 */
+	private SeekResult seekBatch(final BatchFilter<RecordFilterTarget> filter,
+	    final long length) throws IOException {
+
+		int size = 1;
+
+		while (true) {
+			if (this.global >= length) {
+				return NOT_OK;
+			}
+
+			ByteBuffer batch = null;
+			RecordFilterTarget target = null;
+			int count = 0;
+
+			while (count < size && this.global < length) {
+				final long position = this.global;
+				final ByteBuffer buffer = this.nextNoFilter(this.headerReader);
+				final RecordFilterTarget t = headerReader
+				    .readRecordFilterTarget(buffer);
+
+				if (count != 0 && (buffer != batch || t != target)) {
+					this.setPosition(position); // Starts the next batch
+					break;
+				}
+
+				batch = buffer;
+				target = t;
+				batchPositions[count] = position;
+				batchOffsets[count] = buffer.position();
+				batchLengths[count] = buffer.limit() - buffer.position();
+				count++;
+			}
+
+			if (filter.accept(batch, batchOffsets, batchLengths, count, target,
+			    batchMatches) != 0) {
+
+				for (int i = 0; i < count; i++) {
+					if ((batchMatches[i >>> 6] & (1L << i)) != 0) {
+						this.setPosition(batchPositions[i]);
+
+						return (this.global < length ? OK : NOT_OK);
+					}
+				}
+			}
+
+			size = Math.min(size * 2, MAX_BATCH);
+		}
+	}
+
 	public SeekResult seek(long global) throws IOException {
 
 		if (global == this.global) {
@@ -1026,7 +1186,10 @@ public abstract class AbstractRawIterator implements RawIterator {
 	public SeekResult seekFirst() throws IOException {
 		this.setPosition(this.getBoundaryStart());
 
-		return (this.hasNext() ? OK : NOT_OK);
+		final boolean hasNext = this.hasNext();
+		this.setRecordIndex(0);
+
+		return (hasNext ? OK : NOT_OK);
 	}
 
 	public SeekResult seekSecond() throws IOException {
@@ -1111,21 +1274,324 @@ public abstract class AbstractRawIterator implements RawIterator {
 		return NOT_OK;
 	}
 
+	/**
+	 * Seeks to the record at the specified index, counting only records that
+	 * pass the filter. The search starts at the closest checkpoint before the
+	 * record, or at the current record if it is closer, so at most
+	 * {@link #CHECKPOINT_INTERVAL} records are skipped over once the
+	 * checkpoints have been built by iterating through the records before it.
+	 * 
+	 * @see org.jnetstream.capture.file.RawIterator#seekToIndex(long)
+	 */
+	public SeekResult seekToIndex(final long recordIndex) throws IOException {
+		final long current = this.getRecordIndex();
+		final int c = (int) Math.min(recordIndex / CHECKPOINT_INTERVAL,
+		    this.checkpointCount - 1);
+
+		if (recordIndex < 0) {
+			this.seekFirst();
+
+		} else if (current != -1 && current <= recordIndex
+		    && current >= (long) c * CHECKPOINT_INTERVAL) {
+			// Current record is closer than any checkpoint
+
+		} else if (c > 0) {
+			this.setPosition(this.checkpoints[c]);
+			this.setRecordIndex((long) c * CHECKPOINT_INTERVAL);
+
+		} else {
+			this.seekFirst();
+		}
+
+		long remaining = recordIndex - this.getRecordIndex();
+
+		while (this.hasNext() && (remaining > 0)) {
+			remaining--;
+
+			this.skip();
+		}
+
+		return (remaining == 0 ? OK : NOT_OK);
+	}
+
+	/**
+	 * Returns the index of the record at the current position, if known. The
+	 * index is known after seekFirst, seekToIndex and while iterating from
+	 * there using next and skip, as long as the edits are not changed.
+	 * 
+	 * @return the record index or -1 if not known
+	 */
+	private long getRecordIndex() {
+		this.checkCheckpoints();
+
+		return (this.recordIndex != -1 && this.recordIndexPosition == this.global)
+		    ? this.recordIndex : -1;
+	}
+
+	/**
+	 * Sets the index of the record at the current position and adds a checkpoint
+	 * if the record is the next one due in the checkpoint table.
+	 * 
+	 * @param index
+	 *          the record index or -1 if not known
+	 */
+	private void setRecordIndex(final long index) {
+		this.recordIndex = index;
+		this.recordIndexPosition = this.global;
+
+		if ((index == -1) || (index % CHECKPOINT_INTERVAL != 0)
+		    || (index / CHECKPOINT_INTERVAL != this.checkpointCount)
+		    || (this.global >= this.edits.getLength())) {
+			return;
+		}
+
+		if (this.checkpointCount == this.checkpoints.length) {
+			this.checkpoints = Arrays.copyOf(this.checkpoints,
+			    this.checkpointCount * 2);
+		}
+
+		this.checkpoints[this.checkpointCount++] = this.global;
+	}
+
+	/**
+	 * Drops the checkpoint table if the edits have been changed since the table
+	 * was built.
+	 */
+	private void checkCheckpoints() {
+		if (this.edits.isChanged(this.checkpointChangeId)) {
+			this.checkpointCount = 0;
+			this.timeCount = 0;
+			this.recordIndex = -1;
+			this.checkpointChangeId = this.edits.getChangeId();
+		}
+	}
+
+	/**
+	 * Updates the checkpoint table after a change made by this iterator. Only the
+	 * checkpoints at or after the changed position are dropped, unless the edits
+	 * had also been changed elsewhere in which case the entire table is dropped.
+	 * 
+	 * @param global
+	 *          position of the change
+	 * @param changeId
+	 *          change ID of the edits before the change
+	 */
+	private void checkpointEdit(final long global, final long changeId) {
+		if (this.checkpointChangeId != changeId) {
+			this.checkpointCount = 0;
+			this.timeCount = 0;
+
+		} else {
+			int i = Arrays.binarySearch(this.checkpoints, 0, this.checkpointCount,
+			    global);
+			this.checkpointCount = (i < 0) ? -(i + 1) : i;
+
+			i = Arrays.binarySearch(this.timePositions, 0, this.timeCount, global);
+			this.timeCount = (i < 0) ? -(i + 1) : i;
+		}
+
+		this.recordIndex = -1;
+		this.checkpointChangeId = this.edits.getChangeId();
+	}
+
+	/**
+	 * Returns the capture timestamp of the record at the buffer's position.
+	 * 
+	 * @param buffer
+	 *          buffer containing atleast the record's header
+	 * @return timestamp in nanos or -1 if the record does not have a timestamp,
+	 *         such as a block record
+	 */
+	protected abstract long getRecordTimestamp(ByteBuffer buffer);
+
+	/**
+	 * Reads the timestamp of the record at the current position without advancing
+	 * to the next record. Only the record header is fetched and the bounds of the
+	 * buffer last returned by next are preserved.
+	 * 
+	 * @return timestamp in nanos or -1 if the record does not have a timestamp
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private long readTimestamp() throws IOException {
+		final ByteBuffer current = (this.blockBuffer == BufferBlock.EMPTY_BUFFER)
+		    ? null : this.blockBuffer.getByteBuffer();
+		final int position = (current == null) ? 0 : current.position();
+		final int limit = (current == null) ? 0 : current.limit();
+
+		final long regional = this.segment.mapGlobalToRegional(this.global);
+		final int min = this.headerReader.getMinLength();
+
+		try {
+			ByteBuffer buffer = this.loader.fetchBlock(regional, min).getByteBuffer();
+
+			final int length = (int) Math.min(this.headerReader.readLength(buffer),
+			    this.getRecordHeaderLength(buffer));
+			if (length > min) {
+				buffer = this.loader.fetchBlock(regional, length).getByteBuffer();
+			}
+
+			return this.getRecordTimestamp(buffer);
+
+		} finally {
+			if (current != null) {
+				current.limit(limit);
+				current.position(position);
+			}
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see org.jnetstream.capture.file.RawIterator#seekToIndex(long)
+	 * @see org.jnetstream.capture.file.FileIterator#seek(long, long)
 	 */
-	public SeekResult seekToIndex(long recordIndex) throws IOException {
-		this.seekFirst();
+	public SeekResult seek(final long seconds, final long nanos)
+	    throws IOException {
+		return this.seekTime(seconds * 1000000000L + nanos);
+	}
+
+	/**
+	 * Seeks to the first record with a timestamp equal or later than the
+	 * timestamp. Records are assumed to be in timestamp order. The search first
+	 * narrows down the part of the file to search using the time index of
+	 * previous seeks, then does a binary search over record positions,
+	 * resynchronizing on a record start at every probe, until the remaining part
+	 * is smaller than {@link #SEARCH_LENGTH} and then iterates over the remaining
+	 * records. A seek costs O(log n) record reads.
+	 * 
+	 * @see org.jnetstream.capture.file.RawIterator#seekTime(long)
+	 */
+	public SeekResult seekTime(final long timestamp) throws IOException {
+		this.checkCheckpoints();
+
+		long start = this.getBoundaryStart();
+		long end = this.edits.getLength();
 
-		while (this.hasNext() && (recordIndex > 0)) {
-			recordIndex--;
+		for (int i = 0; i < this.timeCount; i++) {
+			if (this.timeStamps[i] < timestamp) {
+				start = this.timePositions[i];
+			} else {
+				end = this.timePositions[i];
+				break;
+			}
+		}
+
+		while (end - start > SEARCH_LENGTH) {
+			final long middle = start + (end - start) / 2;
+
+			if ((this.seek(middle) != OK) || (this.global >= end)) {
+				end = middle; // No records in the upper half
+				continue;
+			}
+
+			final long position = this.global;
+			final long ts = this.readTimestamp();
+			this.addTimeIndex(position, ts);
+
+			if (ts < timestamp) {
+				start = position;
+			} else {
+				end = position;
+			}
+		}
+
+		this.setPosition(start);
+
+		while (this.hasNext()) {
+			final long ts = this.readTimestamp();
+			if (ts >= timestamp) {
+				return OK;
+			}
 
 			this.skip();
 		}
 
-		return (recordIndex == 0 ? OK : NOT_OK);
+		/*
+		 * The timestamp is later then any record in the file, leave the iterator
+		 * positioned at the end where records with later timestamps would go
+		 */
+		return NOT_OK;
+	}
+
+	/**
+	 * Remembers the timestamp of a record probed by a timestamp seek.
+	 * 
+	 * @param global
+	 *          position of the record
+	 * @param timestamp
+	 *          timestamp of the record in nanos
+	 */
+	private void addTimeIndex(final long global, final long timestamp) {
+		if (timestamp == -1) {
+			return;
+		}
+
+		final int i = Arrays.binarySearch(this.timePositions, 0, this.timeCount,
+		    global);
+		if (i >= 0) {
+			return; // Already indexed
+		}
+
+		if (this.timeCount == TIME_INDEX_SIZE) {
+			this.timeCount = 0; // Full, start over with the current search
+			this.addTimeIndex(global, timestamp);
+			return;
+		}
+
+		final int insert = -(i + 1);
+		final int move = this.timeCount - insert;
+		System.arraycopy(this.timePositions, insert, this.timePositions,
+		    insert + 1, move);
+		System.arraycopy(this.timeStamps, insert, this.timeStamps, insert + 1,
+		    move);
+
+		this.timePositions[insert] = global;
+		this.timeStamps[insert] = timestamp;
+		this.timeCount++;
+	}
+
+	/**
+	 * Returns an iterator over all the records with timestamps within the time
+	 * range. The iterator is first positioned using {@link #seekTime(long)} and
+	 * then shares the position of this raw iterator while iterating. The
+	 * iteration ends at the first record with a timestamp equal or later than the
+	 * end of the range, so the cost of iterating over a time range is the cost of
+	 * the seek plus the records within the range.
+	 * 
+	 * @see org.jnetstream.capture.file.RawIterator#timeRange(long, long)
+	 */
+	public IOIterator<ByteBuffer> timeRange(final long startTimestamp,
+	    final long endTimestamp) throws IOException {
+		this.seekTime(startTimestamp);
+
+		return new IOIterator<ByteBuffer>() {
+
+			public boolean hasNext() throws IOException {
+				while (AbstractRawIterator.this.hasNext()) {
+					final long ts = readTimestamp();
+					if (ts != -1) {
+						return ts < endTimestamp;
+					}
+
+					skip(); // No timestamp, not part of any time range
+				}
+
+				return false;
+			}
+
+			public ByteBuffer next() throws IOException {
+				if (this.hasNext() == false) {
+					throw new NoSuchElementException();
+				}
+
+				return AbstractRawIterator.this.next();
+			}
+
+			public void remove() throws IOException {
+				AbstractRawIterator.this.remove();
+			}
+		};
 	}
 
 	public void setAutoflush(final boolean state) throws IOException {
@@ -1186,6 +1652,7 @@ public abstract class AbstractRawIterator implements RawIterator {
 	 * @see com.slytechs.utils.collection.IOSkippable#skip()
 	 */
 	public void skip() throws IOException {
+		final long index = this.getRecordIndex();
 		final long regional = this.segment.mapGlobalToRegional(this.global);
 		final long length = this.getRecordLength(regional, this.headerReader);
 
@@ -1200,7 +1667,7 @@ public abstract class AbstractRawIterator implements RawIterator {
 		 * Align to the next record that matches our filter
 		 */
 		this.seekFilter();
-
+		this.setRecordIndex((index == -1) ? -1 : index + 1);
 	}
 
 	/*
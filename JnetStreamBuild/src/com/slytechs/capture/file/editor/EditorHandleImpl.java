@@ -20,6 +20,7 @@ import org.jnetstream.capture.file.HeaderReader;
 
 
 import com.slytechs.utils.memory.BitBuffer;
+import com.slytechs.utils.memory.BlockCache;
 import com.slytechs.utils.memory.PartialBuffer;
 import com.slytechs.utils.region.RegionHandle;
 
@@ -43,6 +44,8 @@ public class EditorHandleImpl implements EditorHandle {
 
 	private boolean readonly = false;
 
+	private PartialBuffer pinned;
+
 	/**
 	 * @param name
 	 * @param headerReader
@@ -87,6 +90,7 @@ public class EditorHandleImpl implements EditorHandle {
 			bblock = loader.fetchBlock(regional, (int) length);
 		}
 		
+		pin(bblock);
 		buffer = bblock.getByteBuffer();
 		this.readonly = buffer.isReadOnly();
 		bblock.reposition(regional, (int) length);
@@ -129,6 +133,7 @@ public class EditorHandleImpl implements EditorHandle {
 			bblock = loader.fetchBlock(regional, (int) length);
 		}
 		
+		pin(bblock);
 		buffer = bblock.getByteBuffer();
 		this.readonly = buffer.isReadOnly();
 		bblock.reposition(regional, (int) length);
@@ -138,6 +143,27 @@ public class EditorHandleImpl implements EditorHandle {
 
 	
 
+	/**
+	 * Keeps the block this handle is referencing from being evicted from the
+	 * shared block cache, while releasing the previously referenced block.
+	 * 
+	 * @param block
+	 *          block now referenced by this handle
+	 */
+	private void pin(final PartialBuffer block) {
+		if (block == pinned) {
+			return;
+		}
+
+		final BlockCache cache = BlockCache.getDefault();
+		if (pinned != null) {
+			cache.unpin(pinned, this);
+		}
+
+		cache.pin(block, this);
+		pinned = block;
+	}
+
 	/* (non-Javadoc)
    * @see com.slytechs.capture.file.editor.EditorHandleInt#getPositionGlobal()
    */
@@ -13,13 +13,24 @@
 package com.slytechs.capture.file.editor;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 
 import org.apache.commons.logging.Log;
@@ -35,6 +46,7 @@ import com.slytechs.capture.file.RawIteratorBuilder;
 import com.slytechs.utils.collection.IOIterator.IteratorAdapter;
 import com.slytechs.utils.io.AutoflushMonitor;
 import com.slytechs.utils.io.IORuntimeException;
+import com.slytechs.utils.memory.BufferUtils;
 import com.slytechs.utils.memory.PartialBuffer;
 import com.slytechs.utils.region.FlexRegion;
 import com.slytechs.utils.region.RegionSegment;
@@ -48,6 +60,38 @@ public class FileEditorImpl implements FileEditor, Closeable,
 
 	public static final long AUTOFLUSH_AMOUNT = 1000000;
 
+	/**
+	 * Minimum number of bytes copied by each thread of a parallel flush
+	 */
+	public static final long FLUSH_PARALLEL_LENGTH = 64 * 1024 * 1024;
+
+	/**
+	 * Maximum number of threads that copy segments during a flush
+	 */
+	public static final int FLUSH_THREADS = Math.min(4, Runtime.getRuntime()
+	    .availableProcessors());
+
+	/**
+	 * Size of the buffer used to move content within the file
+	 */
+	private static final int MOVE_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * Number of attempts made to truncate, delete or rename a file that may
+	 * still be memory mapped
+	 */
+	private static final int MAPPED_ATTEMPTS = 8;
+
+	private static final ThreadFactory flushThreads = new ThreadFactory() {
+
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, "FileEditorImpl-flush");
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	};
+
 	public boolean autoflush = true;
 
 	public ByteOrder order;
@@ -60,6 +104,11 @@ public class FileEditorImpl implements FileEditor, Closeable,
 
 	public final HeaderReader headerReader;
 
+	/**
+	 * Loader of the file's content as of the last flush
+	 */
+	private PartialFileLoader loader;
+
 	@SuppressWarnings("unused")
 	private final Log logger = LogFactory.getLog(FileEditorImpl.class);
 
@@ -90,16 +139,14 @@ public class FileEditorImpl implements FileEditor, Closeable,
 		this.order = order;
 		this.protocolFilter = protocolFilter;
 		this.rawBuilder = rawBuilder;
-		this.channel = new RandomAccessFile(file, (mode.isContent()
-		    || mode.isAppend() ? "rw" : "r")).getChannel();
 		this.mode = mode;
+		this.channel = new RandomAccessFile(file, getAccessMode()).getChannel();
 		this.headerReader = headerReader;
 
 		final boolean readonly = !mode.isStructure();
 		final boolean append = mode.isAppend();
 
-		final PartialLoader loader = new PartialFileLoader(channel, mode,
-		    headerReader, file);
+		this.loader = new PartialFileLoader(channel, mode, headerReader, file);
 		this.edits = new FlexRegion<PartialLoader>(readonly, append,
 		    channel.size(), loader);
 	}
@@ -151,14 +198,16 @@ public class FileEditorImpl implements FileEditor, Closeable,
 			}
 
 			/*
-			 * Need to clear the region and run GC as memory mapped buffers may still
-			 * remain and hold the channel open. This may cause that associated file
-			 * can not be removed. Running GC seems to help, although officially Sun
-			 * says that memory mapped buffers are not unmappable and may remain in
-			 * memory until VM terminates and even beyond that.
+			 * Memory mapped buffers hold the file open, which may cause that the
+			 * associated file can not be removed. Closing the loaders releases their
+			 * blocks from the shared block cache, the mappings are released by the
+			 * garbage collector or immediately if "jnetstream.unmap" is enabled.
 			 */
+			for (final RegionSegment<PartialLoader> segment : this.edits) {
+				segment.getData().close();
+			}
+
 			this.edits.clear();
-			System.gc();
 		}
 		
 		edits.close();
@@ -223,10 +272,17 @@ public class FileEditorImpl implements FileEditor, Closeable,
 	 * RegionOverlays which now contain the flattened changes.
 	 * </p>
 	 * <p>
-	 * The algorithm in this flush method is optimized for changes that simply
-	 * append record to the end. If anyother type of changes, besides the appended
-	 * records, have been applied, the changes are flushed using a more generic
-	 * algrorithm that ensure entegrity of the entire file.
+	 * Changes that only remove content from the file or add content after all of
+	 * the original content, such as removed records and appended records, are
+	 * written directly into the file and only the content after the first change
+	 * is moved. Any other changes are flushed using a more generic algrorithm
+	 * that copies the entire content into a temporary file, which ensures
+	 * entegrity of the entire file. Blocks of the original content are released
+	 * from the shared block cache once flushed. Mapped blocks are unmapped by the
+	 * garbage collector, or immediately if unmapping is enabled using the
+	 * "jnetstream.unmap" system property, see {@link PartialFileLoader#release()}.
+	 * Platforms that refuse to truncate, delete or rename a file that is still
+	 * mapped are handled by retrying after a garbage collection.
 	 * </p>
 	 * 
 	 * @see java.io.Flushable#flush()
@@ -238,52 +294,208 @@ public class FileEditorImpl implements FileEditor, Closeable,
 			return;
 		}
 
-		if (this.edits.isModifiedByAppendOnly()) {
-			this.flushByAppendInPlace();
+		if (this.isFlushableInPlace()) {
+			this.flushInPlace();
 		} else {
-			/*
-			 * We flatten inside inorder to release any Memory MAPPED regions before
-			 * closing the source channel
-			 */
 			this.flushByCopy();
 		}
 
-		final PartialLoader loader = new PartialFileLoader(this.channel, this.mode,
+		this.loader = new PartialFileLoader(this.channel, this.mode,
 		    this.headerReader, file);
-		loader.order(this.order);
-		this.edits.flatten(loader);
-
-		System.gc();
+		this.loader.order(this.order);
+		this.edits.flatten(this.loader);
 
 		this.totalChange = 0;
 	}
 
 	/**
+	 * Checks if the changes can be written directly into the file. The original
+	 * content must only move towards the start of the file and any new content
+	 * must come after all of the original content. The original content can then
+	 * be moved in a single pass from start to end, without overwriting any
+	 * content that has not been moved yet.
+	 * 
+	 * @return true if the changes can be flushed in place
+	 */
+	private boolean isFlushableInPlace() {
+		if ("rw".equals(getAccessMode()) == false) {
+			return false;
+		}
+
+		boolean added = false;
+		for (final RegionSegment<PartialLoader> segment : this.edits) {
+			if (segment.getData() != this.loader) {
+				added = true;
+
+			} else if (added
+			    || (segment.getStartGlobal() > segment.getStartRegional())) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Writes the changes directly into the file. Segments of the original
+	 * content that have not moved are skipped, the ones that have are moved
+	 * within the file and new segments are transfered from their loaders.
+	 * Lastly the file is truncated to the new length.
+	 * 
 	 * @throws IOException
+	 *           any IO errors
 	 */
-	private void flushByAppendInPlace() throws IOException {
-		/*
-		 * Position channel cursor at the end of the file, ready for append.
-		 */
-		this.channel.position(this.channel.size());
+	private void flushInPlace() throws IOException {
+		ByteBuffer buffer = null;
+
+		for (final RegionSegment<PartialLoader> segment : this.edits) {
+			final long global = segment.getStartGlobal();
+			final long regional = segment.getStartRegional();
+
+			if (segment.getData() != this.loader) {
+				transfer(segment.getData(), regional, segment.getLength(),
+				    this.channel, global);
+
+			} else if (global != regional) {
+				if (buffer == null) {
+					buffer = ByteBuffer.allocateDirect(MOVE_BUFFER_SIZE);
+				}
+
+				this.move(regional, global, segment.getLength(), buffer);
+			}
+		}
+
+		if (buffer != null) {
+			BufferUtils.unmap(buffer);
+		}
 
 		/*
-		 * Skip and align to the first change
+		 * Release the original blocks before truncating. Unless unmapping is
+		 * enabled they stay mapped until collected, which truncate() works around
+		 * on platforms that refuse to truncate a mapped file.
 		 */
-		final Iterator<RegionSegment<PartialLoader>> i = this.edits.iterator();
-		if (i.hasNext() == false) {
-			throw new IllegalStateException(
-			    "Editor has no changes, can not flush in place");
+		this.loader.release();
+
+		final long length = this.edits.getLength();
+		if (this.channel.size() > length) {
+			this.truncate(length);
+		}
+	}
+
+	/**
+	 * Truncates the file. Some platforms, such as Windows, refuse to truncate a
+	 * file while any part of it is still memory mapped. Mapped buffers are only
+	 * unmapped when garbage collected, unless "jnetstream.unmap" is enabled, so a
+	 * failed truncate is retried after requesting a garbage collection.
+	 * 
+	 * @param length
+	 *          new length of the file
+	 * @throws IOException
+	 *           any IO errors, or if the file is still mapped after the last
+	 *           attempt
+	 */
+	private void truncate(final long length) throws IOException {
+		for (int attempt = 1;; attempt++) {
+			try {
+				this.channel.truncate(length);
+
+				return;
+			} catch (final ClosedChannelException e) {
+				throw e;
+
+			} catch (final IOException e) {
+				if (attempt == MAPPED_ATTEMPTS) {
+					throw e;
+				}
+
+				collectMappings(attempt);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the original file and renames the temporary file in its place,
+	 * retrying after a garbage collection when the platform refuses to delete or
+	 * rename a file that is still memory mapped, see {@link #truncate(long)}.
+	 * 
+	 * @param temp
+	 *          temporary file with the flushed content
+	 * @throws IOException
+	 *           if the original file could not be replaced
+	 */
+	private void replace(final File temp) throws IOException {
+		for (int attempt = 1; file.exists() && file.delete() == false; attempt++) {
+			if (attempt == MAPPED_ATTEMPTS) {
+				throw new IOException(
+				    "Unable to delete original file during flushByCopy()");
+			}
+
+			collectMappings(attempt);
+		}
+
+		for (int attempt = 1; temp.renameTo(file) == false; attempt++) {
+			if (attempt == MAPPED_ATTEMPTS) {
+				throw new IOException(
+				    "Unable to move temporary file during flushByCopy()");
+			}
+
+			collectMappings(attempt);
+		}
+	}
+
+	/**
+	 * Requests a garbage collection, so that mapped buffers no longer referenced
+	 * are unmapped, and waits a little longer with each attempt.
+	 * 
+	 * @param attempt
+	 *          number of attempts made so far
+	 */
+	private static void collectMappings(final int attempt) {
+		System.gc();
+		System.runFinalization();
+
+		try {
+			Thread.sleep(10L * attempt);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
+	}
+
+	/**
+	 * Moves content within the file towards the start of the file.
+	 * 
+	 * @param from
+	 *          current position of the content
+	 * @param to
+	 *          new position of the content, less than from
+	 * @param length
+	 *          number of bytes to move
+	 * @param buffer
+	 *          buffer to move the content through
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private void move(final long from, final long to, final long length,
+	    final ByteBuffer buffer) throws IOException {
+
+		for (long done = 0; done < length;) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), length - done));
+
+			while (buffer.hasRemaining()) {
+				if (this.channel.read(buffer, from + done + buffer.position()) == -1) {
+					throw new EOFException("Unexpected end of file at position ("
+					    + (from + done + buffer.position()) + ")");
+				}
+			}
 
-		i.next(); // Skip over the first region, the second is the first change
+			buffer.flip();
 
-		while (i.hasNext()) {
-			final RegionSegment<PartialLoader> segment = i.next();
-			final PartialLoader loader = new ConstrainedPartialLoader(segment
-			    .getData(), segment);
+			while (buffer.hasRemaining()) {
+				this.channel.write(buffer, to + done + buffer.position());
+			}
 
-			loader.transferTo(this.channel);
+			done += buffer.limit();
 		}
 	}
 
@@ -295,10 +507,12 @@ public class FileEditorImpl implements FileEditor, Closeable,
 	 * the contents of the "edits" buffer.
 	 * </p>
 	 * <p>
-	 * All the regions and their overlays are iterated over one segment at a time,
-	 * this includes the big segment consiting of the original file content, and
-	 * their reader's are asked to copy their buffers out to the temporary file's
-	 * channel in their individual smaller segments.
+	 * The temporary file is created next to the original, so that the rename
+	 * does not cross file systems, and is preallocated to its final length. The
+	 * content is then split into equal ranges which are copied in parallel, each
+	 * segment of each range is transfered by its loader using
+	 * FileChannel.transferTo where possible, so that the original file content
+	 * does not pass through user space buffers.
 	 * </p>
 	 * 
 	 * @throws IOException
@@ -307,50 +521,182 @@ public class FileEditorImpl implements FileEditor, Closeable,
 	 */
 	private void flushByCopy() throws IOException {
 
+		final long length = this.edits.getLength();
+		final File temp = File.createTempFile(this.file.getName(), null, this.file
+		    .getAbsoluteFile().getParentFile());
+
+		boolean copied = false;
+		try {
+			final RandomAccessFile out = new RandomAccessFile(temp, "rw");
+			try {
+				out.setLength(length);
+			} finally {
+				out.close();
+			}
+
+			this.copy(temp, length);
+			copied = true;
+
+		} finally {
+			if (copied == false) {
+				temp.delete();
+			}
+		}
+
 		/*
-		 * Create a temp file
+		 * We're done with the original file. All changes are now in the temp file.
+		 * Closing the loader releases its blocks and closes the channel, so the
+		 * original file can be replaced.
 		 */
+		this.loader.close();
 
-		final File temp = File.createTempFile(this.file.getName(), null);
-
-		final FileChannel tempChannel = new RandomAccessFile(temp, "rw")
-		    .getChannel();
+		this.replace(temp);
 
 		/*
-		 * Copy entire edits tree, including the root file, to temp file
+		 * Now we need to reopen the channel
 		 */
+		this.channel = new RandomAccessFile(file, getAccessMode()).getChannel();
+	}
+
+	/**
+	 * Copies the entire edits tree, including the root file, into the
+	 * preallocated temporary file. Large files are split into ranges that are
+	 * copied in parallel, each through its own channel.
+	 * 
+	 * @param temp
+	 *          destination file
+	 * @param length
+	 *          length of the edits
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private void copy(final File temp, final long length) throws IOException {
+		final List<RegionSegment<PartialLoader>> segments = new ArrayList<RegionSegment<PartialLoader>>();
 		for (final RegionSegment<PartialLoader> segment : this.edits) {
-			final PartialLoader loader = new ConstrainedPartialLoader(segment
-			    .getData(), segment);
+			segments.add(segment);
+		}
 
-			loader.transferTo(tempChannel);
+		final int threads = (int) Math.max(1, Math.min(FLUSH_THREADS, length
+		    / FLUSH_PARALLEL_LENGTH));
+		if (threads == 1) {
+			copy(segments, temp, 0, length);
+			return;
 		}
-		this.channel.close();
-		tempChannel.close();
 
-		System.gc();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads,
+		    flushThreads);
+		try {
+			final List<Future<Object>> results = new ArrayList<Future<Object>>(
+			    threads);
 
-		/*
-		 * We're done with the original file. All changes are now in the temp file
-		 * Try rename first, if it doesn't exist then do it by copy
-		 */
-		if (file.delete() == false) {
-			throw new IOException(
-			    "Unable to delete original file during flushByCopy()");
+			for (int i = 0; i < threads; i++) {
+				final long start = length * i / threads;
+				final long end = length * (i + 1) / threads;
+
+				results.add(executor.submit(new Callable<Object>() {
+
+					public Object call() throws Exception {
+						copy(segments, temp, start, end);
+						return null;
+					}
+				}));
+			}
+
+			for (final Future<Object> result : results) {
+				try {
+					result.get();
+
+				} catch (final InterruptedException e) {
+					throw new InterruptedIOException("Interrupted during flush");
+
+				} catch (final ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+
+					throw new IllegalStateException("Unable to flush", e.getCause());
+				}
+			}
+
+		} finally {
+			executor.shutdownNow();
 		}
-		if (temp.renameTo(file) == false) {
-			throw new IOException(
-			    "Unable to move temporary file during flushByCopy()");
+	}
+
+	/**
+	 * Copies a range of the edits into the same range of the temporary file.
+	 * 
+	 * @param segments
+	 *          all the segments of the edits
+	 * @param temp
+	 *          destination file
+	 * @param start
+	 *          start of the range
+	 * @param end
+	 *          end of the range, exclusive
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private static void copy(final List<RegionSegment<PartialLoader>> segments,
+	    final File temp, final long start, final long end) throws IOException {
+
+		final FileChannel out = new RandomAccessFile(temp, "rw").getChannel();
+		try {
+			for (final RegionSegment<PartialLoader> segment : segments) {
+				final long s = Math.max(start, segment.getStartGlobal());
+				final long e = Math.min(end, segment.getEndGlobal());
+
+				if (s < e) {
+					transfer(segment.getData(), segment.mapGlobalToRegional(s), e - s,
+					    out, s);
+				}
+			}
+		} finally {
+			out.close();
 		}
+	}
 
-		final String accessMode = (mode.isContent() ? "rw" : "r");
+	/**
+	 * Transfers content from a loader to a position within a channel. A single
+	 * transferTo may transfer less than requested, so it is repeated until all
+	 * of the content has been transfered.
+	 * 
+	 * @param loader
+	 *          source of the content
+	 * @param regional
+	 *          regional position of the content within the loader
+	 * @param length
+	 *          number of bytes to transfer
+	 * @param out
+	 *          destination channel
+	 * @param position
+	 *          position within the destination channel
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private static void transfer(final PartialLoader loader, final long regional,
+	    final long length, final FileChannel out, final long position)
+	    throws IOException {
 
-		/*
-		 * Now we need to reopen the channel
-		 */
-		this.channel = new RandomAccessFile(file, accessMode).getChannel();
+		out.position(position);
+
+		for (long done = 0; done < length;) {
+			final long n = loader.transferTo(regional + done, length - done, out);
+			if (n <= 0) {
+				throw new EOFException("Unable to transfer content at position ("
+				    + (regional + done) + ")");
+			}
+
+			done += n;
+		}
 	}
 
+	/**
+	 * @return access mode of the channel based on file mode
+	 */
+	private String getAccessMode() {
+		return (mode.isContent() || mode.isAppend() ? "rw" : "r");
+	}
 
 	/**
 	 * Creates a handle that keeps track of position and buffer forwards after the
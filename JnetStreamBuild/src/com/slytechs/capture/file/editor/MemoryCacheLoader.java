@@ -24,6 +24,7 @@ import org.jnetstream.filter.Filter;
 import org.jnetstream.packet.ProtocolFilterTarget;
 
 import com.slytechs.utils.memory.BitBuffer;
+import com.slytechs.utils.memory.BlockCache;
 import com.slytechs.utils.memory.BufferBlock;
 import com.slytechs.utils.memory.BufferUtils;
 import com.slytechs.utils.memory.MemoryModel;
@@ -39,7 +40,12 @@ public class MemoryCacheLoader implements PartialLoader {
 
 	private final int length;
 
-	private final PartialBuffer partial;
+	private final BufferBlock partial;
+
+	/**
+	 * Memory held by this loader is accounted for in the shared cache's budget
+	 */
+	private final BlockCache cache = BlockCache.getDefault();
 
 	private boolean readonly = false;
 
@@ -60,6 +66,7 @@ public class MemoryCacheLoader implements PartialLoader {
 		this.partial =
 		    new BufferBlock(this.buffer, BitBuffer.wrap(this.buffer), 0,
 		        this.length);
+		this.cache.reserve(this, this.partial);
 
 		// Copy contents from all the elements buffer into our large buffer
 		for (final ByteBuffer b : buffers) {
@@ -101,6 +108,7 @@ public class MemoryCacheLoader implements PartialLoader {
 		this.partial =
 		    new BufferBlock(this.buffer, BitBuffer.wrap(this.buffer), 0,
 		        this.length);
+		this.cache.reserve(this, this.partial);
 	}
 
 	/**
@@ -140,6 +148,7 @@ public class MemoryCacheLoader implements PartialLoader {
 		this.partial =
 		    new BufferBlock(this.buffer, BitBuffer.wrap(this.buffer), 0,
 		        this.length);
+		this.cache.reserve(this, this.partial);
 	}
 
 	/**
@@ -158,6 +167,7 @@ public class MemoryCacheLoader implements PartialLoader {
 
 		this.partial =
 		    new BufferBlock(this.buffer, BitBuffer.wrap(this.buffer), 0, length);
+		this.cache.reserve(this, this.partial);
 	}
 
 	private static HeaderReader overrideOffset(final HeaderReader lengthGetter) {
@@ -257,7 +267,7 @@ public class MemoryCacheLoader implements PartialLoader {
 	 * @see java.io.Closeable#close()
 	 */
 	public void close() throws IOException {
-		// Empty, nothing to do
+		cache.release(this);
 	}
 
 	/*
@@ -447,10 +457,15 @@ public class MemoryCacheLoader implements PartialLoader {
 	public long transferTo(final long position, final long length,
 	    final FileChannel out) throws IOException {
 
-		this.buffer.position((int) position);
-		this.buffer.limit((int) (position + length));
+		/*
+		 * Transfer through a duplicate, so that segments sharing this loader can
+		 * be transfered concurrently
+		 */
+		final ByteBuffer b = this.buffer.duplicate();
+		b.limit((int) (position + length));
+		b.position((int) position);
 
-		return out.write(this.buffer);
+		return out.write(b);
 	}
 
 	/*
@@ -17,16 +17,23 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
-import java.util.List;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.jnetstream.capture.FileMode;
 import org.jnetstream.capture.file.BufferFetchException;
 import org.jnetstream.capture.file.HeaderReader;
 
-import com.slytechs.utils.collection.WeakArrayList;
 import com.slytechs.utils.memory.BitBuffer;
+import com.slytechs.utils.memory.BlockCache;
 import com.slytechs.utils.memory.BufferBlock;
 import com.slytechs.utils.memory.BufferUtils;
 import com.slytechs.utils.memory.MemoryModel;
@@ -105,19 +112,70 @@ import com.slytechs.utils.memory.PartialBuffer;
  * of the buffer's data is overriden in anyway as the result of the iteratation
  * once returned.
  * </p>
+ * <p>
+ * In {@link FileMode#ReadOnlySequential} mode the file is mapped in windows of
+ * {@link #SEQUENTIAL_WINDOW} octets. Every time a new window is mapped, the
+ * following window is mapped and loaded into physical memory by a background
+ * thread. The next window overlaps the current one by
+ * {@link #SEQUENTIAL_OVERLAP} octets, so that a record that crosses the end of
+ * the current window is entirely contained in the next one.
+ * </p>
  * 
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
  */
 public class PartialFileLoader implements Closeable, PartialLoader {
 
+	private static final Log logger = LogFactory.getLog(PartialFileLoader.class);
+
+	/**
+	 * Size of each memory mapped window in {@link FileMode#ReadOnlySequential}
+	 * mode
+	 */
+	public final static int SEQUENTIAL_WINDOW = 64 * 1024 * 1024;
+
+	/**
+	 * Number of octets by which consecutive sequential windows overlap. Must be
+	 * larger then the largest record.
+	 */
+	public final static int SEQUENTIAL_OVERLAP = 256 * 1024;
+
+	/**
+	 * Release the memory of mapped blocks as soon as the loader is released,
+	 * instead of when they are garbage collected. Set using the "jnetstream.unmap"
+	 * system property, defaults to false.
+	 * <p>
+	 * Only blocks pinned by an editor are protected. Buffers, packets and
+	 * iterators handed out earlier still view the blocks and any access to them
+	 * after the capture is closed or flushed, when unmapping is enabled, reads
+	 * unmapped memory and crashes the JVM. Enable only if the application never
+	 * keeps such references past close or flush.
+	 * </p>
+	 */
+	private static final boolean UNMAP = Boolean.valueOf(System.getProperty(
+	    "jnetstream.unmap", "false"));
+
+	private static final ThreadFactory prefetchThreads = new ThreadFactory() {
+
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, "PartialFileLoader-prefetch");
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	};
+
 	private int bufferSize;
 
 	private long bufferStart;
 
 	private ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
 
-	public final List<BufferBlock> cache = new WeakArrayList<BufferBlock>();
+	/**
+	 * Shared cache, bounded by its memory budget, that holds the blocks loaded
+	 * by all file loaders
+	 */
+	public final BlockCache cache = BlockCache.getDefault();
 
 	private final FileChannel channel;
 
@@ -129,12 +187,14 @@ public class PartialFileLoader implements Closeable, PartialLoader {
 
 	private FileMode mode;
 
-	public static List<BufferBlock> globalCache = new WeakArrayList<BufferBlock>();
-
 	private final HeaderReader lengthGetter;
 
 	private final File file;
 
+	private ExecutorService prefetcher;
+
+	private Future<BufferBlock> prefetch;
+
 	/**
 	 * Initializes a record channel capable of iterating over generic records that
 	 * make up the structure of the channel. The reader automatically determines
@@ -197,10 +257,44 @@ public class PartialFileLoader implements Closeable, PartialLoader {
 	 * @see java.io.Closeable#close()
 	 */
 	public void close() throws IOException {
-
+		release();
 		channel.close();
 	}
 
+	/**
+	 * Releases all the blocks fetched by this loader from the shared cache,
+	 * without closing the channel. The memory of the blocks is left to the
+	 * garbage collector, unless unmapping is enabled using the
+	 * "jnetstream.unmap" system property, in which case the memory mapped blocks
+	 * that are not pinned are unmapped immediately and no buffer previously
+	 * returned by this loader may be accessed after this call. A prefetched
+	 * window that was never handed out is always unmapped. The loader can still
+	 * be used to fetch new blocks.
+	 */
+	public void release() {
+
+		if (prefetcher != null) {
+			prefetcher.shutdownNow();
+
+			/*
+			 * A completed prefetch was never handed out, so it is safe to unmap
+			 */
+			if (prefetch != null && prefetch.isDone()
+			    && prefetch.isCancelled() == false) {
+				try {
+					BufferUtils.unmap(prefetch.get().getByteBuffer());
+				} catch (final Exception e) {
+					logger.debug("Prefetch failed: " + e.getMessage());
+				}
+			}
+
+			prefetcher = null;
+			prefetch = null;
+		}
+
+		cache.release(this, UNMAP);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -255,28 +349,7 @@ public class PartialFileLoader implements Closeable, PartialLoader {
 	}
 
 	private PartialBuffer fetchFromCache(final long start, final int size) {
-		PartialBuffer blockBuffer = null;
-
-		final long last = start + size - 1;
-
-		/*
-		 * cache size is always fluctuating as weak references are retired, must use
-		 * the dynamic for, also note that you are not allowed to use the list
-		 * iterator as its disabled.
-		 */
-		for (int i = 0; i < cache.size(); i++) {
-			blockBuffer = cache.get(i);
-			if (blockBuffer == null) {
-				return null;
-			}
-
-			if (start >= blockBuffer.getStartRegional()
-			    && last < blockBuffer.getEndRegional()) {
-				return blockBuffer;
-			}
-		}
-
-		return null;
+		return cache.get(this, start, start + size - 1);
 	}
 
 	/**
@@ -301,9 +374,12 @@ public class PartialFileLoader implements Closeable, PartialLoader {
 		 * Needed to make sure the file is synched. There were some intermittened
 		 * failures with HardRegionIndexer while it was scanning the entire file
 		 * without this force. Therefore it must be here. Some portions of the file
-		 * were lagging with the synch to the physical file.
+		 * were lagging with the synch to the physical file. Sequential mode is
+		 * strictly readonly and never has anything to synch.
 		 */
-		channel.force(true);
+		if (mode.isSequential() == false) {
+			channel.force(true);
+		}
 
 		switch (memoryModel) {
 			case MappedFile:
@@ -315,8 +391,6 @@ public class PartialFileLoader implements Closeable, PartialLoader {
 				block = new BufferBlock(buf, BitBuffer.wrap(buf), regional, buf.capacity());
 				block.getByteBuffer().order(this.byteOrder);
 
-				System.gc();
-
 				break;
 
 			case DirectBuffer:
@@ -372,16 +446,107 @@ public class PartialFileLoader implements Closeable, PartialLoader {
 	private PartialBuffer fetchFromChannelAndCache(long regional, int length,
 	    MemoryModel memoryModel) throws IOException {
 
-		final BufferBlock partial = fetchFromChannel(regional, length, mode,
-		    memoryModel);
-		partial.reposition(regional, length);
+		BufferBlock partial = null;
+		if (mode.isSequential()) {
+			partial = takePrefetched(regional);
+		}
+
+		if (partial == null) {
+			partial = fetchFromChannel(regional, length, mode, memoryModel);
+		}
+
+		final long available = partial.getEndRegional() - regional;
+		partial.reposition(regional, (int) Math.min(length, available));
+
+		cache.put(this, partial);
 
-		cache.add(partial);
-		globalCache.add(partial);
+		if (mode.isSequential()) {
+			prefetch(partial);
+		}
 
 		return partial;
 	}
 
+	/**
+	 * Starts mapping the window that follows the supplied block in the
+	 * background. Any previous prefetch that was not used is abandoned.
+	 * 
+	 * @param current
+	 *          block that was just fetched
+	 */
+	private void prefetch(final BufferBlock current) {
+		final long end = current.getEndRegional();
+		final long start = end - SEQUENTIAL_OVERLAP;
+
+		if (end >= channelSize || start <= current.getStartRegional()) {
+			return;
+		}
+
+		if (prefetch != null) {
+			prefetch.cancel(false);
+		}
+
+		if (prefetcher == null) {
+			prefetcher = Executors.newSingleThreadExecutor(prefetchThreads);
+		}
+
+		final int size = pickBlockSize(start, SEQUENTIAL_WINDOW);
+
+		prefetch = prefetcher.submit(new Callable<BufferBlock>() {
+
+			public BufferBlock call() throws Exception {
+				final MappedByteBuffer buf = channel.map(MapMode.READ_ONLY, start,
+				    size);
+
+				/*
+				 * Touches every page of the window, so the kernel reads it in ahead of
+				 * the iteration
+				 */
+				buf.load();
+				buf.clear();
+
+				return new BufferBlock(buf, BitBuffer.wrap(buf), start, size);
+			}
+		});
+	}
+
+	/**
+	 * Retrieves the window mapped in the background by the last prefetch, if it
+	 * contains the requested position.
+	 * 
+	 * @param regional
+	 *          position that needs to be fetched
+	 * @return prefetched block or null if none or it does not contain the
+	 *         position
+	 */
+	private BufferBlock takePrefetched(final long regional) {
+		if (prefetch == null) {
+			return null;
+		}
+
+		final Future<BufferBlock> f = prefetch;
+		prefetch = null;
+
+		final BufferBlock block;
+		try {
+			block = f.get();
+		} catch (final Exception e) {
+			logger.debug("Prefetch failed: " + e.getMessage());
+
+			return null;
+		}
+
+		final long end = block.getEndRegional();
+		if (regional < block.getStartRegional()
+		    || (regional + SEQUENTIAL_OVERLAP > end && end != channelSize)) {
+			return null;
+		}
+
+		block.getByteBuffer().order(this.byteOrder);
+
+		return block;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -437,6 +602,10 @@ public class PartialFileLoader implements Closeable, PartialLoader {
 	 *          allocation decision
 	 */
 	public int getBufferAllocation(long length) {
+		if (mode.isSequential()) {
+			return SEQUENTIAL_WINDOW;
+		}
+
 		if (mode.isMap()) {
 			return PartialLoader.BUFFER_MEMORY_MAP;
 		}
@@ -633,10 +802,8 @@ public class PartialFileLoader implements Closeable, PartialLoader {
 		/*
 		 * Change the byte order in any buffers in the cache as well
 		 */
-		for (int i = 0; i < cache.size(); i++) {
-			final ByteBuffer b = cache.get(i).getByteBuffer();
-			b.order(order);
-
+		for (final BufferBlock block : cache.getBlocks(this)) {
+			block.getByteBuffer().order(order);
 		}
 	}
 
@@ -687,6 +854,20 @@ public class PartialFileLoader implements Closeable, PartialLoader {
 		return channel.transferTo(position, length, out);
 	}
 
+	/**
+	 * @return the file this loader reads from
+	 */
+	public final File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * @return the mode the file was opened in
+	 */
+	public final FileMode getMode() {
+		return this.mode;
+	}
+
 	/**
 	 * @return the headerReader
 	 */
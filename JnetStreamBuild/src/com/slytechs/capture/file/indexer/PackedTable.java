@@ -0,0 +1,312 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.capture.file.indexer;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * An index table which stores record positions using block based delta
+ * encoding. Positions are grouped into blocks of {@link #BLOCK_SIZE} records.
+ * Each block keeps the position of its first record as a full long and every
+ * position within the block as an offset from that base. The offsets are
+ * packed into 1, 2, 3 or 4 bytes depending on the largest offset within the
+ * block. For typical capture files this requires 2 to 3 bytes per record,
+ * compared to 8 bytes for a long[] and several times that for a List<Long>.
+ * </p>
+ * <p>
+ * Since the offsets are relative to the block's base and not to the previous
+ * record, {@link #get(int)} is O(1). The table is built incrementally using a
+ * {@link Builder} which accepts primitive positions, so no boxing takes place
+ * while the records are being scanned.
+ * </p>
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class PackedTable implements IndexTable {
+
+	/**
+	 * Builds a packed table from record positions supplied in ascending order.
+	 *
+	 * @author Mark Bednarczyk
+	 * @author Sly Technologies, Inc.
+	 */
+	public static class Builder {
+
+		private long[] bases;
+
+		private int[] offsets;
+
+		private byte[] widths;
+
+		private byte[] data;
+
+		private int dataLength;
+
+		private final long[] block = new long[BLOCK_SIZE];
+
+		private int blockLength;
+
+		private int blocks;
+
+		private int length;
+
+		/**
+		 * @param capacity
+		 *          estimated number of records that will be added
+		 */
+		public Builder(final int capacity) {
+			final int b = capacity / BLOCK_SIZE + 1;
+
+			this.bases = new long[b];
+			this.offsets = new int[b];
+			this.widths = new byte[b];
+			this.data = new byte[capacity * 2 + BLOCK_SIZE];
+		}
+
+		/**
+		 * Adds the position of the next record. Positions must be added in
+		 * ascending order.
+		 *
+		 * @param position
+		 *          regional position of the record
+		 */
+		public void add(final long position) {
+			if (length != 0 && position <= last()) {
+				throw new IllegalArgumentException("Position [" + position
+				    + "] is out of order");
+			}
+
+			block[blockLength++] = position;
+			length++;
+
+			if (blockLength == BLOCK_SIZE) {
+				flushBlock();
+			}
+		}
+
+		private long last() {
+			if (blockLength != 0) {
+				return block[blockLength - 1];
+			}
+
+			final int b = blocks - 1;
+			final int w = widths[b];
+			final int o = offsets[b] + (BLOCK_SIZE - 1) * w;
+
+			return bases[b] + read(data, o, w);
+		}
+
+		/**
+		 * @return number of positions added so far
+		 */
+		public int size() {
+			return length;
+		}
+
+		/**
+		 * Creates the table from all the positions added so far and resets the
+		 * builder so it can be reused.
+		 *
+		 * @return the packed table
+		 */
+		public PackedTable build() {
+			if (blockLength != 0) {
+				flushBlock();
+			}
+
+			final PackedTable table = new PackedTable(Arrays.copyOf(bases, blocks),
+			    Arrays.copyOf(offsets, blocks), Arrays.copyOf(widths, blocks), Arrays
+			        .copyOf(data, dataLength), length);
+
+			this.blocks = 0;
+			this.dataLength = 0;
+			this.length = 0;
+
+			return table;
+		}
+
+		private void flushBlock() {
+			if (blocks == bases.length) {
+				final int b = blocks * 2;
+				bases = Arrays.copyOf(bases, b);
+				offsets = Arrays.copyOf(offsets, b);
+				widths = Arrays.copyOf(widths, b);
+			}
+
+			final long base = block[0];
+			final long max = block[blockLength - 1] - base;
+			final int w = width(max);
+
+			if (dataLength + BLOCK_SIZE * w > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, dataLength
+				    + BLOCK_SIZE * w));
+			}
+
+			bases[blocks] = base;
+			offsets[blocks] = dataLength;
+			widths[blocks] = (byte) w;
+
+			for (int i = 0; i < blockLength; i++) {
+				write(data, dataLength + i * w, w, block[i] - base);
+			}
+
+			dataLength += blockLength * w;
+			blocks++;
+			blockLength = 0;
+		}
+
+		private static int width(final long max) {
+			if (max < 0x100L) {
+				return 1;
+			} else if (max < 0x10000L) {
+				return 2;
+			} else if (max < 0x1000000L) {
+				return 3;
+			} else if (max < 0x100000000L) {
+				return 4;
+			}
+
+			throw new IllegalArgumentException("Records within a block span more "
+			    + "then 4GB");
+		}
+	}
+
+	/**
+	 * Number of records per block. Each block stores one full position.
+	 */
+	public static final int BLOCK_SIZE = 64;
+
+	private static final int SHIFT = 6; // log2(BLOCK_SIZE)
+
+	private static final int MASK = BLOCK_SIZE - 1;
+
+	private static long read(final byte[] data, final int o, final int w) {
+		long v = 0;
+		for (int i = 0; i < w; i++) {
+			v |= (long) (data[o + i] & 0xFF) << (i * 8);
+		}
+
+		return v;
+	}
+
+	private static void write(final byte[] data, final int o, final int w,
+	    final long v) {
+		for (int i = 0; i < w; i++) {
+			data[o + i] = (byte) (v >>> (i * 8));
+		}
+	}
+
+	private final long[] bases;
+
+	private final int[] offsets;
+
+	private final byte[] widths;
+
+	private final byte[] data;
+
+	private final int length;
+
+	private PackedTable(final long[] bases, final int[] offsets,
+	    final byte[] widths, final byte[] data, final int length) {
+		this.bases = bases;
+		this.offsets = offsets;
+		this.widths = widths;
+		this.data = data;
+		this.length = length;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.indexer.IndexTable#get(int)
+	 */
+	public long get(final int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index [" + index
+			    + "] is out of bounds [0 - " + (length - 1) + "].");
+		}
+
+		final int b = index >>> SHIFT;
+		final int w = widths[b];
+
+		return bases[b] + read(data, offsets[b] + (index & MASK) * w, w);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.indexer.IndexTable#getLength()
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return approximate number of bytes used to store the positions
+	 */
+	public long getMemoryUsage() {
+		return bases.length * 13L + data.length;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.indexer.IndexTable#keepInMemory(long, long)
+	 */
+	public Object keepInMemory(final long start, final long length) {
+		return data;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.indexer.IndexTable#search(long)
+	 */
+	public long search(final long regional) {
+		if (length == 0 || regional < bases[0]
+		    || regional > get(length - 1)) {
+			return -1;
+		}
+
+		/*
+		 * First find the block, then the record within the block
+		 */
+		int b = Arrays.binarySearch(bases, regional);
+		if (b >= 0) {
+			return (long) b << SHIFT;
+		}
+
+		b = -b - 2;
+
+		final int first = b << SHIFT;
+		int low = first + 1;
+		int high = Math.min(first + BLOCK_SIZE, length) - 1;
+
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final long p = get(mid);
+
+			if (p < regional) {
+				low = mid + 1;
+			} else if (p > regional) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -1;
+	}
+}
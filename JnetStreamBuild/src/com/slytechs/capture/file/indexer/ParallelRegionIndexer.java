@@ -0,0 +1,414 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.capture.file.indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jnetstream.capture.file.HeaderReader;
+import org.jnetstream.capture.file.SeekPattern;
+
+import com.slytechs.capture.file.editor.PartialLoader;
+
+/**
+ * <p>
+ * Indexes a large physical file using multiple threads. The file is split into
+ * byte ranges, one per worker. Each worker resynchronizes on the first record
+ * boundary within its range using the format's {@link SeekPattern}, which
+ * must match a chain of consecutive records before the boundary is accepted,
+ * and then indexes every record that starts within its range into its own
+ * {@link PackedTable}.
+ * </p>
+ * <p>
+ * When the tables are stitched together, the position following the last
+ * record of each range must be the first record of the next range. If a worker
+ * resynchronized on a false boundary, its range is rescanned from the correct
+ * position. The result is therefore always identical to a sequential scan.
+ * </p>
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class ParallelRegionIndexer implements RegionIndexer {
+
+	/**
+	 * Result of indexing a single range
+	 */
+	private static class Range {
+		private long start = -1;
+
+		private long next;
+
+		private PackedTable table;
+	}
+
+	private static final Log logger = LogFactory
+	    .getLog(ParallelRegionIndexer.class);
+
+	/**
+	 * Files smaller then this are indexed sequentially
+	 */
+	public static final long MIN_RANGE = 16 * 1024 * 1024;
+
+	/**
+	 * Maximum number of worker threads, defaults to number of processors
+	 */
+	public static int threads = Runtime.getRuntime().availableProcessors();
+
+	private static final int BUFFER = 1024 * 1024;
+
+	private static final int SEARCH_LENGTH = 64 * 1024;
+
+	private static final int VERIFY_COUNT = 8;
+
+	/**
+	 * Indexes the loader in parallel if the file is large enough to benefit.
+	 *
+	 * @param file
+	 *          physical file the loader reads from
+	 * @param loader
+	 *          loader for the entire physical file
+	 * @param pattern
+	 *          format's record header pattern used to resynchronize
+	 * @return the indexer or null if parallel indexing is not possible or not
+	 *         worth it
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public static ParallelRegionIndexer create(final File file,
+	    final PartialLoader loader, final SeekPattern pattern) throws IOException {
+
+		final long length = loader.getLength();
+		final int n = (int) Math.min(threads, length / MIN_RANGE);
+
+		if (file == null || pattern == null || n < 2) {
+			return null;
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(n);
+		final List<Future<Range>> futures = new ArrayList<Future<Range>>(n);
+
+		try {
+			for (int i = 0; i < n; i++) {
+				final long start = length * i / n;
+				final long end = length * (i + 1) / n;
+				final boolean first = (i == 0);
+
+				futures.add(executor.submit(new Callable<Range>() {
+					public Range call() throws Exception {
+						return index(file, loader, pattern, start, end, first);
+					}
+				}));
+			}
+
+			final Range[] ranges = new Range[n];
+			for (int i = 0; i < n; i++) {
+				ranges[i] = futures.get(i).get();
+			}
+
+			return new ParallelRegionIndexer(stitch(file, loader, pattern, ranges,
+			    length));
+
+		} catch (final InterruptedException e) {
+			throw new IOException("Interrupted while indexing " + file.getName());
+
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+
+			throw new IOException("Unable to index " + file.getName(), cause);
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Verifies that each range starts exactly where the previous one ended and
+	 * rescans any range that does not.
+	 */
+	private static PackedTable[] stitch(final File file,
+	    final PartialLoader loader, final SeekPattern pattern,
+	    final Range[] ranges, final long length) throws IOException {
+
+		final PackedTable[] tables = new PackedTable[ranges.length];
+		tables[0] = ranges[0].table;
+
+		for (int i = 1; i < ranges.length; i++) {
+			final long expected = ranges[i - 1].next;
+
+			if (ranges[i].start != expected) {
+				logger.debug("Range " + i + " resynchronized at " + ranges[i].start
+				    + " instead of " + expected + ", rescanning");
+
+				final long end = (i + 1 == ranges.length ? length : length * (i + 1)
+				    / ranges.length);
+				ranges[i] = scan(file, loader, expected, end);
+			}
+
+			tables[i] = ranges[i].table;
+		}
+
+		return tables;
+	}
+
+	private static Range index(final File file, final PartialLoader loader,
+	    final SeekPattern pattern, final long start, final long end,
+	    final boolean first) throws IOException {
+
+		final long boundary = (first ? start : resync(file, loader, pattern,
+		    start, end));
+
+		if (boundary == -1) {
+			final Range range = new Range();
+			range.table = new PackedTable.Builder(0).build();
+
+			return range;
+		}
+
+		return scan(file, loader, boundary, end);
+	}
+
+	/**
+	 * Indexes all records starting at start and ending with the last record that
+	 * starts before end.
+	 */
+	private static Range scan(final File file, final PartialLoader loader,
+	    final long start, final long end) throws IOException {
+
+		final HeaderReader reader = loader.getLengthGetter();
+		final int min = reader.getMinLength();
+		final long length = loader.getLength();
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		final FileChannel channel = raf.getChannel();
+
+		try {
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+			buffer.order(loader.getByteOrder());
+
+			final PackedTable.Builder builder = new PackedTable.Builder(
+			    (int) Math.min(Integer.MAX_VALUE / 4, (end - start) / 64 + 1));
+
+			long bufferStart = -1;
+			long p = start;
+
+			while (p < end && p < length) {
+				if (bufferStart == -1 || p < bufferStart
+				    || p + min > bufferStart + buffer.limit()) {
+					bufferStart = p;
+					fill(channel, buffer, p);
+				}
+
+				buffer.position((int) (p - bufferStart));
+				final long l = reader.readLength(buffer);
+
+				if (l < min) {
+					throw new IOException("Invalid record length (" + l
+					    + ") at position (" + p + ")");
+				}
+
+				builder.add(p);
+				p += l;
+			}
+
+			final Range range = new Range();
+			range.start = start;
+			range.next = p;
+			range.table = builder.build();
+
+			return range;
+
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Searches for the first record boundary at or after start. A boundary is
+	 * accepted only if the pattern matches it and the next
+	 * {@link #VERIFY_COUNT} records that follow it.
+	 */
+	private static long resync(final File file, final PartialLoader loader,
+	    final SeekPattern pattern, final long start, final long end)
+	    throws IOException {
+
+		final HeaderReader reader = loader.getLengthGetter();
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			final ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+			buffer.order(loader.getByteOrder());
+			fill(raf.getChannel(), buffer, start);
+
+			final int limit = Math.min(SEARCH_LENGTH, buffer.limit());
+
+			for (int i = 0; i < limit && start + i < end; i++) {
+				if (verify(buffer, i, reader, pattern)) {
+					return start + i;
+				}
+			}
+
+			return -1;
+
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static boolean verify(final ByteBuffer buffer, int offset,
+	    final HeaderReader reader, final SeekPattern pattern) throws IOException {
+
+		final int min = Math.max(pattern.minLength(), reader.getMinLength());
+
+		for (int i = 0; i < VERIFY_COUNT; i++) {
+			if (offset + min > buffer.limit()) {
+				return i != 0; // Ran out of data, accept partial chain
+			}
+
+			buffer.position(offset);
+			if (pattern.match(buffer) == false) {
+				return false;
+			}
+
+			buffer.position(offset);
+			final long l = reader.readLength(buffer);
+			if (l < reader.getMinLength()) {
+				return false;
+			}
+
+			offset += l;
+		}
+
+		return true;
+	}
+
+	private static void fill(final FileChannel channel, final ByteBuffer buffer,
+	    final long position) throws IOException {
+		buffer.clear();
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) == -1) {
+				break;
+			}
+		}
+
+		buffer.flip();
+	}
+
+	private final PackedTable[] tables;
+
+	private final int[] starts;
+
+	private final int length;
+
+	private ParallelRegionIndexer(final PackedTable[] tables) {
+		this.tables = tables;
+		this.starts = new int[tables.length];
+
+		int total = 0;
+		for (int i = 0; i < tables.length; i++) {
+			starts[i] = total;
+			total += tables[i].getLength();
+		}
+
+		this.length = total;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.indexer.RegionIndexer#getLength()
+	 */
+	public long getLength() {
+		return this.length;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.indexer.RegionIndexer#keepInMemory(long,
+	 *      long)
+	 */
+	public Object keepInMemory(final long p, final long l) {
+		return tables;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.indexer.RegionIndexer#mapIndexToPositionRegional(int)
+	 */
+	public long mapIndexToPositionRegional(final int regional) {
+		if ((regional < 0) || (regional >= this.length)) {
+			throw new IndexOutOfBoundsException("Regional index [" + regional
+			    + "] is out of bounds [0 - " + (this.length - 1) + "].");
+		}
+
+		int low = 0;
+		int high = starts.length - 1;
+		while (low < high) {
+			final int mid = (low + high + 1) >>> 1;
+			if (starts[mid] <= regional) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		/*
+		 * Skip over any empty tables that share the same start
+		 */
+		while (regional - starts[low] >= tables[low].getLength()) {
+			low++;
+		}
+
+		return tables[low].get(regional - starts[low]);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.indexer.RegionIndexer#mapSRegionalToTRegional(long)
+	 */
+	public long mapSRegionalToTRegional(final long sRegional) {
+		for (int i = 0; i < tables.length; i++) {
+			final long r = tables[i].search(sRegional);
+			if (r >= 0) {
+				return r + starts[i];
+			}
+		}
+
+		return -1;
+	}
+
+	public String toString() {
+		return "Idx";
+	}
+}
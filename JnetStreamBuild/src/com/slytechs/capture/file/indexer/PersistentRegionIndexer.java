@@ -0,0 +1,614 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.capture.file.indexer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jnetstream.capture.file.SeekPattern;
+
+import com.slytechs.capture.file.editor.BasicRecordIterator;
+import com.slytechs.capture.file.editor.PartialLoader;
+import com.slytechs.utils.region.FlexRegion;
+
+/**
+ * <p>
+ * A region indexer whose record positions are stored in a sidecar index file
+ * next to the capture file. The index file is memory mapped, so reopening a
+ * large capture file for random access does not require a scan of the entire
+ * file. If the sidecar does not exist or is stale, the capture file is scanned
+ * once and a new sidecar is written, unless the capture file was opened read
+ * only, in which case an existing sidecar is only used if it is valid. After a
+ * flush the sidecar is written from the positions already known to the index
+ * region, without a scan.
+ * </p>
+ * <p>
+ * Sidecars are disabled by default, see {@link #enabled}, since they add a
+ * file next to the user's capture file.
+ * </p>
+ * <p>
+ * Positions are stored in fixed size pages. The first position of every page
+ * is kept in a page directory as an absolute value, the remaining positions in
+ * the page are stored as varint encoded deltas from the previous position,
+ * which for typical records takes 1 or 2 bytes per record. The sidecar is
+ * invalidated by comparing the capture file's length, last modification
+ * timestamp and a checksum of the beginning of the file, which contains the
+ * file's block header.
+ * </p>
+ *
+ * <pre>
+ * header    magic(4) version(4) length(8) modified(8) checksum(8) count(8)
+ *           pageSize(4) pageCount(4) directory(8) reserved(8)
+ * data      varint deltas, pageSize - 1 per page
+ * directory pageCount * [base position(8) data offset(4)]
+ * </pre>
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class PersistentRegionIndexer implements RegionIndexer {
+
+	private static final Log logger = LogFactory
+	    .getLog(PersistentRegionIndexer.class);
+
+	/**
+	 * Suffix appended to the capture file's name to form the sidecar's name
+	 */
+	public static final String SUFFIX = ".jidx";
+
+	/**
+	 * Enables or disables use of sidecar index files. Defaults to the value of
+	 * "jnetstream.index.sidecar" system property or false if not set.
+	 */
+	public static boolean enabled = Boolean.parseBoolean(System.getProperty(
+	    "jnetstream.index.sidecar", "false"));
+
+	private static final int MAGIC = 0x4A494458; // "JIDX"
+
+	private static final int VERSION = 1;
+
+	private static final int PAGE_SIZE = 256;
+
+	private static final int HEADER_LENGTH = 64;
+
+	private static final int DIRECTORY_ENTRY = 12;
+
+	private static final int CHECKSUM_LENGTH = 4096;
+
+	private static final int WRITE_BUFFER = 64 * 1024;
+
+	/**
+	 * Opens a sidecar index for the capture file, building and writing a new
+	 * one if the existing sidecar is missing or stale.
+	 *
+	 * @param file
+	 *          capture file the loader reads from
+	 * @param loader
+	 *          loader for the entire capture file
+	 * @return the indexer or null if sidecar could not be opened or written, in
+	 *         which case the caller should fall back to an in-memory indexer
+	 */
+	public static PersistentRegionIndexer open(final File file,
+	    final PartialLoader loader) {
+		return open(file, loader, null, false);
+	}
+
+	/**
+	 * Opens a sidecar index for the capture file. If the existing sidecar is
+	 * missing or stale, a new one is built and written unless the capture file
+	 * is read only. Large files are scanned in parallel when a seek pattern is
+	 * supplied.
+	 * 
+	 * @param file
+	 *          capture file the loader reads from
+	 * @param loader
+	 *          loader for the entire capture file
+	 * @param pattern
+	 *          format's record header pattern or null to scan sequentially
+	 * @param readOnly
+	 *          true if the capture file was opened read only, in which case no
+	 *          sidecar is ever written
+	 * @return the indexer or null if sidecar could not be opened or written, in
+	 *         which case the caller should fall back to an in-memory indexer
+	 */
+	public static PersistentRegionIndexer open(final File file,
+	    final PartialLoader loader, final SeekPattern pattern,
+	    final boolean readOnly) {
+		if (enabled == false || file == null) {
+			return null;
+		}
+
+		final File index = new File(file.getPath() + SUFFIX);
+
+		try {
+			final long checksum = checksum(file);
+
+			PersistentRegionIndexer indexer = map(index, file, loader, checksum);
+			if (indexer != null || readOnly) {
+				return indexer;
+			}
+
+			write(index, file, loader, scan(file, loader, pattern), checksum);
+
+			return map(index, file, loader, checksum);
+
+		} catch (final IOException e) {
+			logger.debug("Unable to use sidecar index " + index.getName() + ": "
+			    + e.getMessage());
+
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a new sidecar index for the capture file from the record positions
+	 * of an index region that is about to be flattened. The positions of the
+	 * region are the positions of the records within the flushed capture file,
+	 * so the capture file does not need to be scanned.
+	 * 
+	 * @param file
+	 *          capture file the loader reads from
+	 * @param loader
+	 *          loader for the entire, just flushed, capture file
+	 * @param region
+	 *          index region before it is flattened
+	 * @return the indexer or null if sidecar could not be written, in which
+	 *         case the caller should fall back to an in-memory indexer
+	 */
+	public static PersistentRegionIndexer save(final File file,
+	    final PartialLoader loader, final FlexRegion<RegionIndexer> region) {
+		if (enabled == false || file == null) {
+			return null;
+		}
+
+		final File index = new File(file.getPath() + SUFFIX);
+
+		try {
+			final long checksum = checksum(file);
+			final RegionPositions positions = new RegionPositions(region);
+
+			write(index, file, loader, new Positions() {
+
+				public boolean hasNext() {
+					return positions.hasNext();
+				}
+
+				public long next() {
+					return positions.next();
+				}
+
+			}, checksum);
+
+			return map(index, file, loader, checksum);
+
+		} catch (final IOException e) {
+			logger.debug("Unable to save sidecar index " + index.getName() + ": "
+			    + e.getMessage());
+
+			return null;
+		}
+	}
+
+	/**
+	 * Record positions written to a sidecar, in ascending order
+	 */
+	private interface Positions {
+		public boolean hasNext() throws IOException;
+
+		public long next() throws IOException;
+	}
+
+	/**
+	 * Scans the capture file for record positions, in parallel if possible.
+	 */
+	private static Positions scan(final File file, final PartialLoader loader,
+	    final SeekPattern pattern) throws IOException {
+
+		final ParallelRegionIndexer parallel = ParallelRegionIndexer.create(file,
+		    loader, pattern);
+		if (parallel != null) {
+			return new Positions() {
+				private int count = 0;
+
+				public boolean hasNext() {
+					return count < parallel.getLength();
+				}
+
+				public long next() {
+					return parallel.mapIndexToPositionRegional(count++);
+				}
+			};
+		}
+
+		final BasicRecordIterator iterator = new BasicRecordIterator(loader,
+		    loader.getLengthGetter());
+
+		return new Positions() {
+
+			public boolean hasNext() throws IOException {
+				return iterator.hasNext();
+			}
+
+			public long next() throws IOException {
+				final long regional = iterator.getPosition();
+				iterator.skip();
+
+				return regional;
+			}
+		};
+	}
+
+	private static long checksum(final File file) throws IOException {
+		final byte[] b = new byte[CHECKSUM_LENGTH];
+		final FileInputStream in = new FileInputStream(file);
+		int length = 0;
+		try {
+			int c;
+			while (length < b.length && (c = in.read(b, length, b.length - length)) != -1) {
+				length += c;
+			}
+		} finally {
+			in.close();
+		}
+
+		final CRC32 crc = new CRC32();
+		crc.update(b, 0, length);
+
+		return crc.getValue();
+	}
+
+	private static PersistentRegionIndexer map(final File index,
+	    final File file, final PartialLoader loader, final long checksum)
+	    throws IOException {
+
+		if (index.exists() == false || index.length() < HEADER_LENGTH
+		    || index.length() > Integer.MAX_VALUE) {
+			return null;
+		}
+
+		final RandomAccessFile raf = new RandomAccessFile(index, "r");
+		final ByteBuffer buffer;
+		try {
+			buffer = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+		    || buffer.getLong(8) != loader.getLength()
+		    || buffer.getLong(16) != file.lastModified()
+		    || buffer.getLong(24) != checksum) {
+			return null; // Stale
+		}
+
+		final long count = buffer.getLong(32);
+		final int pageSize = buffer.getInt(40);
+		final int pageCount = buffer.getInt(44);
+		final long directory = buffer.getLong(48);
+
+		if (count > Integer.MAX_VALUE || pageSize <= 0
+		    || directory + (long) pageCount * DIRECTORY_ENTRY > buffer.capacity()) {
+			return null; // Corrupt
+		}
+
+		return new PersistentRegionIndexer(buffer, (int) count, pageSize,
+		    pageCount, (int) directory);
+	}
+
+	private static void write(final File index, final File file,
+	    final PartialLoader loader, final Positions positions,
+	    final long checksum) throws IOException {
+
+		final long modified = file.lastModified();
+		final File temp = new File(index.getPath() + ".tmp");
+		boolean replaced = false;
+
+		try {
+			writeTemp(temp, loader, positions, modified, checksum);
+
+			if (index.exists() && index.delete() == false) {
+				throw new IOException("Unable to replace stale sidecar index");
+			}
+
+			if (temp.renameTo(index) == false) {
+				throw new IOException("Unable to rename temporary sidecar index");
+			}
+
+			replaced = true;
+
+		} finally {
+			if (replaced == false) {
+				temp.delete();
+			}
+		}
+	}
+
+	private static void writeTemp(final File temp, final PartialLoader loader,
+	    final Positions positions, final long modified, final long checksum)
+	    throws IOException {
+
+		final RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+
+		try {
+			final FileChannel out = raf.getChannel();
+			out.truncate(0);
+			out.position(HEADER_LENGTH);
+
+			final ByteBuffer b = ByteBuffer.allocate(WRITE_BUFFER);
+			long[] bases = new long[1024];
+			int[] offsets = new int[1024];
+			int pages = 0;
+			long count = 0;
+			long written = HEADER_LENGTH;
+			long previous = 0;
+
+			while (positions.hasNext()) {
+				final long regional = positions.next();
+
+				if (count % PAGE_SIZE == 0) {
+					if (pages == bases.length) {
+						bases = Arrays.copyOf(bases, pages * 2);
+						offsets = Arrays.copyOf(offsets, pages * 2);
+					}
+
+					final long offset = written + b.position();
+					if (offset > Integer.MAX_VALUE) {
+						throw new IOException("Sidecar index too large");
+					}
+
+					bases[pages] = regional;
+					offsets[pages] = (int) offset;
+					pages++;
+
+				} else {
+					if (b.remaining() < 10) {
+						b.flip();
+						written += out.write(b);
+						b.clear();
+					}
+
+					putVarint(b, regional - previous);
+				}
+
+				previous = regional;
+				count++;
+			}
+
+			final long directory = written + b.position();
+
+			for (int i = 0; i < pages; i++) {
+				if (b.remaining() < DIRECTORY_ENTRY) {
+					b.flip();
+					written += out.write(b);
+					b.clear();
+				}
+
+				b.putLong(bases[i]);
+				b.putInt(offsets[i]);
+			}
+
+			b.flip();
+			while (b.hasRemaining()) {
+				out.write(b);
+			}
+
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putLong(loader.getLength());
+			header.putLong(modified);
+			header.putLong(checksum);
+			header.putLong(count);
+			header.putInt(PAGE_SIZE);
+			header.putInt(pages);
+			header.putLong(directory);
+			header.putLong(0L);
+			header.flip();
+
+			out.write(header, 0);
+			out.force(false);
+
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void putVarint(final ByteBuffer b, long value) {
+		while ((value & ~0x7FL) != 0) {
+			b.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+
+		b.put((byte) value);
+	}
+
+	private static long readVarint(final ByteBuffer b) {
+		long value = 0;
+		int shift = 0;
+		byte c;
+		do {
+			c = b.get();
+			value |= (long) (c & 0x7F) << shift;
+			shift += 7;
+		} while (c < 0);
+
+		return value;
+	}
+
+	private final ByteBuffer buffer;
+
+	private final int length;
+
+	private final int pageSize;
+
+	private final int pageCount;
+
+	private final int directory;
+
+	private PersistentRegionIndexer(final ByteBuffer buffer, final int length,
+	    final int pageSize, final int pageCount, final int directory) {
+		this.buffer = buffer;
+		this.length = length;
+		this.pageSize = pageSize;
+		this.pageCount = pageCount;
+		this.directory = directory;
+	}
+
+	/**
+	 * @return number of positions stored per page
+	 */
+	int getPageSize() {
+		return this.pageSize;
+	}
+
+	/**
+	 * Decodes all the positions of a page.
+	 * 
+	 * @param first
+	 *          regional index of the first record of the page
+	 * @param positions
+	 *          array, at least page size long, to receive the positions
+	 * @return number of positions decoded
+	 */
+	int decodePage(final int first, final long[] positions) {
+		final int page = first / pageSize;
+		final int count = Math.min(pageSize, length - page * pageSize);
+
+		final ByteBuffer deltas = deltas(page);
+		long position = base(page);
+
+		for (int i = 0; i < count; i++) {
+			if (i != 0) {
+				position += readVarint(deltas);
+			}
+
+			positions[i] = position;
+		}
+
+		return count;
+	}
+
+	private long base(final int page) {
+		return buffer.getLong(directory + page * DIRECTORY_ENTRY);
+	}
+
+	/**
+	 * @return a view of the buffer positioned at the deltas of the page
+	 */
+	private ByteBuffer deltas(final int page) {
+		final ByteBuffer b = buffer.duplicate();
+		b.position(buffer.getInt(directory + page * DIRECTORY_ENTRY + 8));
+
+		return b;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.indexer.RegionIndexer#getLength()
+	 */
+	public long getLength() {
+		return this.length;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.indexer.RegionIndexer#keepInMemory(long,
+	 *      long)
+	 */
+	public Object keepInMemory(final long p, final long l) {
+		return buffer;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.indexer.RegionIndexer#mapIndexToPositionRegional(int)
+	 */
+	public long mapIndexToPositionRegional(final int regional) {
+		if ((regional < 0) || (regional >= this.length)) {
+			throw new IndexOutOfBoundsException("Regional index [" + regional
+			    + "] is out of bounds [0 - " + (this.length - 1) + "].");
+		}
+
+		final int page = regional / pageSize;
+		final int count = regional % pageSize;
+
+		final ByteBuffer deltas = deltas(page);
+		long position = base(page);
+
+		for (int i = 0; i < count; i++) {
+			position += readVarint(deltas);
+		}
+
+		return position;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.indexer.RegionIndexer#mapSRegionalToTRegional(long)
+	 */
+	public long mapSRegionalToTRegional(final long sRegional) {
+		if (pageCount == 0 || sRegional < base(0)) {
+			return -1;
+		}
+
+		/*
+		 * Binary search the page directory for the last page whose base position
+		 * is not greater then the position we are looking for
+		 */
+		int low = 0;
+		int high = pageCount - 1;
+		while (low < high) {
+			final int mid = (low + high + 1) >>> 1;
+			if (base(mid) <= sRegional) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		final int first = low * pageSize;
+		final int last = Math.min(first + pageSize, length);
+
+		final ByteBuffer deltas = deltas(low);
+		long position = base(low);
+
+		for (int i = first; i < last; i++) {
+			if (position == sRegional) {
+				return i;
+			} else if (position > sRegional || i + 1 == last) {
+				break;
+			}
+
+			position += readVarint(deltas);
+		}
+
+		return -1;
+	}
+
+	public String toString() {
+		return "Idx";
+	}
+}
@@ -2,6 +2,10 @@ package com.slytechs.capture.file.indexer;
 
 import java.io.IOException;
 
+import org.jnetstream.capture.FileMode;
+import org.jnetstream.capture.file.SeekPattern;
+
+import com.slytechs.capture.file.editor.PartialFileLoader;
 import com.slytechs.capture.file.editor.PartialLoader;
 import com.slytechs.utils.io.IORuntimeException;
 import com.slytechs.utils.region.FlexRegion;
@@ -33,14 +37,30 @@ public final class PositionToIndexTranslator implements
 		return global;
 	}
 
+	private final SeekPattern pattern;
+
 	/**
 	 */
 	public PositionToIndexTranslator() {
+		this(null);
+	}
+
+	/**
+	 * @param pattern
+	 *          format's record header pattern used to index large files in
+	 *          parallel, or null to always index sequentially
+	 */
+	public PositionToIndexTranslator(SeekPattern pattern) {
+		this.pattern = pattern;
 	}
 
 	public RegionIndexer data(FlexRegion<RegionIndexer> target, PartialLoader source) {
 
-		RegionIndexer indexer;
+		RegionIndexer indexer = openPersistent(source);
+		if (indexer != null) {
+			return indexer;
+		}
+
 		try {
 			indexer = new SoftRegionIndexer(source);
 		} catch (IOException e) {
@@ -50,6 +70,40 @@ public final class PositionToIndexTranslator implements
 		return indexer;
 	}
 
+	/**
+	 * Loaders that read from the entire physical file can be indexed using a
+	 * sidecar index file that persists between sessions. A new sidecar is never
+	 * written for a read only file. If a sidecar can not be used, large files
+	 * are indexed in parallel.
+	 * 
+	 * @param source
+	 *          loader to index
+	 * @return persistent indexer or null if not available for this loader
+	 */
+	private RegionIndexer openPersistent(PartialLoader source) {
+		if (source instanceof PartialFileLoader) {
+			final PartialFileLoader loader = (PartialFileLoader) source;
+
+			final FileMode mode = loader.getMode();
+			final boolean readOnly = mode.isContent() == false
+			    && mode.isStructure() == false && mode.isAppend() == false;
+
+			final RegionIndexer indexer = PersistentRegionIndexer.open(loader
+			    .getFile(), loader, pattern, readOnly);
+			if (indexer != null) {
+				return indexer;
+			}
+
+			try {
+				return ParallelRegionIndexer.create(loader.getFile(), loader, pattern);
+			} catch (IOException e) {
+				throw new IORuntimeException(e);
+			}
+		}
+
+		return null;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -62,18 +116,26 @@ public final class PositionToIndexTranslator implements
 		/*
 		 * The current indexes are correct for the flattened state, therefore we're
 		 * not going to rebuild the index table by scanning the source, simply
-		 * create 1 large index region and copy the indexes as global indexes into
-		 * this single large index region.
+		 * copy the indexes as global indexes into 1 large index region. A file
+		 * loader also gets a new sidecar written from the same indexes, so that
+		 * the next open does not have to scan the file either.
 		 */
 
-		RegionIndexer init;
-    try {
-	    init = new SoftRegionIndexer(target, target.getLength(), sData);
-    } catch (IOException e) {
-	    throw new IORuntimeException(e);
-    }
+		if (sData instanceof PartialFileLoader) {
+			final PartialFileLoader loader = (PartialFileLoader) sData;
+
+			final RegionIndexer indexer = PersistentRegionIndexer.save(loader
+			    .getFile(), loader, target);
+			if (indexer != null) {
+				return indexer;
+			}
+		}
 
-		return init;
+		try {
+			return new SoftRegionIndexer(target, target.getLength(), sData);
+		} catch (IOException e) {
+			throw new IORuntimeException(e);
+		}
 	}
 
 	/*
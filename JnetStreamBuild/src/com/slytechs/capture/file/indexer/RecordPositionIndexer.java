@@ -16,6 +16,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.jnetstream.capture.file.SeekPattern;
+
 import com.slytechs.capture.file.editor.PartialLoader;
 import com.slytechs.utils.region.FlexRegion;
 import com.slytechs.utils.region.RegionSegment;
@@ -34,8 +36,20 @@ public class RecordPositionIndexer implements PositionIndexer {
 	 */
 	public RecordPositionIndexer(final FlexRegion<PartialLoader> records)
 	    throws IOException {
+		this(records, null);
+	}
+
+	/**
+	 * @param records
+	 * @param pattern
+	 *          format's record header pattern which allows large files to be
+	 *          indexed in parallel, or null to always index sequentially
+	 * @throws IOException
+	 */
+	public RecordPositionIndexer(final FlexRegion<PartialLoader> records,
+	    final SeekPattern pattern) throws IOException {
 
-		indexes = records.linkedRegion(new PositionToIndexTranslator());
+		indexes = records.linkedRegion(new PositionToIndexTranslator(pattern));
 	}
 
 	/* (non-Javadoc)
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.capture.file.indexer;
+
+import java.util.Iterator;
+
+import com.slytechs.utils.region.FlexRegion;
+import com.slytechs.utils.region.RegionSegment;
+
+/**
+ * Walks the record positions of an index region in global order, mapping each
+ * regional record position through the segment's linked source segment. When
+ * the index region is walked just before it is flattened, the positions are
+ * the record positions within the flattened content, so a new index can be
+ * built without scanning the content again.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+final class RegionPositions {
+
+	private final Iterator<RegionSegment<RegionIndexer>> segments;
+
+	private RegionSegment<?> linked;
+
+	private RegionIndexer indexer;
+
+	private long index;
+
+	private long end;
+
+	/*
+	 * Decoded page of a persistent indexer, so sequential positions are not
+	 * decoded from the start of their page every time
+	 */
+	private long[] page;
+
+	private int pageStart = -1;
+
+	private int pageLength;
+
+	public RegionPositions(final FlexRegion<RegionIndexer> region) {
+		this.segments = region.getSegmentIterable().iterator();
+	}
+
+	public boolean hasNext() {
+		while (index >= end) {
+			if (segments.hasNext() == false) {
+				return false;
+			}
+
+			final RegionSegment<RegionIndexer> segment = segments.next();
+
+			this.linked = (RegionSegment<?>) segment.getLinkedSegment();
+			this.indexer = segment.getData();
+			this.index = segment.getStartRegional();
+			this.end = segment.getEndRegional();
+			this.pageStart = -1;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the global position of the next record. {@link #hasNext()} must
+	 * be called first.
+	 *
+	 * @return global position of the record
+	 */
+	public long next() {
+		final int regional = (int) index++;
+
+		return linked.mapRegionalToGlobal(positionRegional(regional));
+	}
+
+	private long positionRegional(final int regional) {
+		if ((indexer instanceof PersistentRegionIndexer) == false) {
+			return indexer.mapIndexToPositionRegional(regional);
+		}
+
+		final PersistentRegionIndexer persistent = (PersistentRegionIndexer) indexer;
+
+		if (pageStart == -1 || regional < pageStart
+		    || regional >= pageStart + pageLength) {
+			if (page == null || page.length < persistent.getPageSize()) {
+				page = new long[persistent.getPageSize()];
+			}
+
+			pageStart = regional - regional % persistent.getPageSize();
+			pageLength = persistent.decodePage(pageStart, page);
+		}
+
+		return page[regional - pageStart];
+	}
+}
@@ -65,39 +65,54 @@ public class SoftRegionIndexer implements RegionIndexer {
 	private ProgressTask scanTask;
 
 	/**
-	 * @param data
-	 * @param name
+	 * Builds the index of a flattened region from the record positions of the
+	 * index region, before it is flattened. The positions in global address
+	 * space of the region are the positions within the flattened content,
+	 * therefore the content does not need to be scanned again.
+	 * 
+	 * @param region
+	 *          index region that is about to be flattened
+	 * @param length
+	 *          number of records within the region
+	 * @param sData
+	 *          loader of the flattened content
 	 * @throws IOException
 	 */
 	public SoftRegionIndexer(final FlexRegion<RegionIndexer> region,
 	    final long length, final PartialLoader sData) throws IOException {
 
-		this(sData);
-		/*
-		 * Just in case we have use soft indexes which will require rescanning using
-		 * the partial loader
-		 */
-		// this.loader = sData;
-		// this.lengthGetter = sData.getLengthGetter();
-		//
-		// RegionSegment<RegionIndexer> segment = region.getSegment(0);
-		// RegionSegment linked = (RegionSegment) segment.getLinkedSegment();
-		// RegionIndexer indexer = segment.getData();
-		//
-		// for (int i = 0; i < length; i++) {
-		//
-		// if (segment.checkBoundsGlobal(i) == false) {
-		// segment = region.getSegment(i);
-		// linked = (RegionSegment) segment.getLinkedSegment();
-		// indexer = segment.getData();
-		// }
-		//
-		// final long regional = segment.mapGlobalToRegional(i);
-		//
-		// final long position = linked.mapRegionalToGlobal(indexer
-		// .mapIndexToPositionRegional((int) regional));
-		//
-		// }
+		task = new SuperProgressTask("indexer");
+		scanTask = task.addTask("copy indexes", length);
+
+		this.loader = sData;
+		this.lengthGetter = sData.getLengthGetter();
+
+		this.factor = (int) (length / SoftRegionIndexer.MAX_HARD_RECORDS);
+		if ((this.factor != 0) && (this.factor < SoftRegionIndexer.MIN_FACTOR_SIZE)) {
+			this.factor = SoftRegionIndexer.MIN_FACTOR_SIZE;
+		}
+
+		final RegionPositions positions = new RegionPositions(region);
+		final PackedTable.Builder temp = new PackedTable.Builder(
+		    (factor == 0 ? (int) length : factor));
+		final List<IndexTable> it = new ArrayList<IndexTable>(100);
+
+		while (positions.hasNext()) {
+			temp.add(positions.next());
+
+			this.length++;
+			if ((factor != 0) && (this.length % factor == 0)) {
+				it.add(temp.build());
+			}
+		}
+
+		scanTask.finish();
+
+		if (temp.size() != 0) {
+			it.add(temp.build());
+		}
+
+		this.table = it.toArray(new IndexTable[it.size()]);
 	}
 
 	/**
@@ -172,7 +187,11 @@ public class SoftRegionIndexer implements RegionIndexer {
 		    new BasicRecordIterator(loader, this.lengthGetter);
 		final int capacity = (factor == 0 ? 10000 : factor);
 
-		final List<Long> temp = new ArrayList<Long>(capacity); // Rough estimate
+		/*
+		 * Positions are packed as they are scanned, no boxing and no intermediate
+		 * list of positions
+		 */
+		final PackedTable.Builder temp = new PackedTable.Builder(capacity);
 		final List<IndexTable> it = new ArrayList<IndexTable>(100);
 
 		long next = 0;
@@ -184,8 +203,7 @@ public class SoftRegionIndexer implements RegionIndexer {
 
 			this.length++;
 			if ((factor != 0) && (this.length % factor == 0)) {
-				it.add(new SoftTable(temp, loader));
-				temp.clear();
+				it.add(temp.build());
 			}
 			
 			if (regional > next) {
@@ -198,14 +216,8 @@ public class SoftRegionIndexer implements RegionIndexer {
 		
 		scanTask.finish();
 
-		if (temp.isEmpty() == false) {
-
-			if (factor > 2) {
-				it.add(new HardTable(temp));
-
-			} else {
-				it.add(new SoftTable(temp, loader));
-			}
+		if (temp.size() != 0) {
+			it.add(temp.build());
 		}
 
 		/*
@@ -252,15 +264,15 @@ public class SoftRegionIndexer implements RegionIndexer {
 
 		try {
 			for (int i = 0; i < this.table.length; i++) {
-				if ((r = this.table[i].search(sRegional)) != -1) {
-					r += i * this.factor;
+				if ((r = this.table[i].search(sRegional)) >= 0) {
+					return r + i * this.factor;
 				}
 			}
 		} catch (final IOException e) {
 			throw new IORuntimeException(e);
 		}
 
-		return r;
+		return -1;
 	}
 
 	/**
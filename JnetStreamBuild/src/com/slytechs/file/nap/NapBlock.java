@@ -0,0 +1,335 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.nio.ByteBuffer;
+
+import org.jnetstream.capture.file.nap.NAPBlockRecord;
+import org.jnetstream.capture.file.nap.NAPType;
+import org.jnetstream.capture.file.nap.NapFile;
+
+/**
+ * <p>
+ * Layout of the block records and packet records of a NAP file. A NAP file is
+ * a sequence of block records, each block record is a self contained unit that
+ * holds up to {@link NapFile#BLOCKING_FACTOR} bytes of packet records. All
+ * fields are stored in big endian byte order.
+ * </p>
+ * 
+ * <pre>
+ * Block record header, BLOCK_HEADER_LENGTH bytes:
+ *   0  magic number        8 bytes, see MAGIC_PATTERN
+ *   8  major version       1 byte
+ *   9  minor version       1 byte
+ *   10 flags               2 bytes, NAPBlockRecord.Flag
+ *   12 block id            4 bytes
+ *   16 next block id       4 bytes
+ *   20 packet count        4 bytes
+ *   24 block length        4 bytes, entire block including this header
+ *   28 compression         1 byte, see Compression
+ *   29 reserved            1 byte
+ *   30 link type           2 bytes, DLT of all packets within the block
+ *   32 payload length      4 bytes, uncompressed length of the payload
+ *   36 stored length       4 bytes, length of the payload as stored
+ *   40 payload             stored length bytes
+ * 
+ * Payload, after decompression:
+ *   0  packet index        packet count * 4 bytes, offset of each packet
+ *                          record from the start of the payload
+ *   .. data records
+ * 
+ * Packet record header, PACKET_HEADER_LENGTH bytes:
+ *   0  record type         1 byte, NAPType.PacketRecord
+ *   1  reserved            1 byte
+ *   2  flags               2 bytes, NAPFlag
+ *   4  record length       4 bytes, entire record including this header
+ *   8  seconds             4 bytes, capture timestamp
+ *   12 nanos               4 bytes, fraction of the capture timestamp
+ *   16 original length     4 bytes, length of the packet on the wire
+ *   20 packet data         record length - PACKET_HEADER_LENGTH bytes
+ * </pre>
+ * <p>
+ * Since every block carries its own packet index, the reader locates any
+ * packet by reading only the block headers once and then decompressing only
+ * the single block that contains the packet. No separate indexing pass over
+ * the packet records is ever required.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public final class NapBlock {
+
+	/**
+	 * Compression applied to the payload of a block
+	 */
+	public enum Compression {
+		/**
+		 * Payload is stored as is
+		 */
+		None(0),
+
+		/**
+		 * Payload is compressed using the java.util.zip Deflater
+		 */
+		Deflate(1), ;
+
+		private final int code;
+
+		private Compression(int code) {
+			this.code = code;
+		}
+
+		/**
+		 * @return the code stored in the block header
+		 */
+		public int getCode() {
+			return code;
+		}
+
+		/**
+		 * @param code
+		 *          code stored in the block header
+		 * @return the compression or null if the code is unknown
+		 */
+		public static Compression valueOf(int code) {
+			for (Compression c : values()) {
+				if (c.code == code) {
+					return c;
+				}
+			}
+
+			return null;
+		}
+	}
+
+	public static final byte[] MAGIC_PATTERN = {
+	    'N',
+	    'A',
+	    'P',
+	    0x00,
+	    0x0D,
+	    0x0A,
+	    0x1A,
+	    0x0A };
+
+	public static final int MAJOR_VERSION = 1;
+
+	public static final int MINOR_VERSION = 0;
+
+	public static final int HDR_BLOCK_LENGTH = 24;
+
+	public static final int HDR_COMPRESSION = 28;
+
+	public static final int HDR_LINK_TYPE = 30;
+
+	public static final int HDR_PAYLOAD_LENGTH = 32;
+
+	public static final int HDR_STORED_LENGTH = 36;
+
+	public static final int BLOCK_HEADER_LENGTH = 40;
+
+	public static final int HDR_RECORD_FLAGS = 2;
+
+	public static final int HDR_SECONDS = 8;
+
+	public static final int HDR_NANOS = 12;
+
+	public static final int HDR_ORIGINAL_LENGTH = 16;
+
+	public static final int PACKET_HEADER_LENGTH = 20;
+
+	/**
+	 * Size of each entry of the packet index
+	 */
+	public static final int INDEX_ENTRY_LENGTH = 4;
+
+	private NapBlock() {
+		// Empty
+	}
+
+	/**
+	 * Checks if the buffer contains the magic number of a block record at its
+	 * position.
+	 * 
+	 * @param buffer
+	 *          buffer to check
+	 * @return true if the magic number matches
+	 */
+	public static boolean validateMagicNumber(ByteBuffer buffer) {
+		final int p = buffer.position() + NAPBlockRecord.HDR_MAGIC_NUMBER;
+
+		if (buffer.limit() - p < MAGIC_PATTERN.length) {
+			return false;
+		}
+
+		for (int i = 0; i < MAGIC_PATTERN.length; i++) {
+			if (buffer.get(p + i) != MAGIC_PATTERN[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param record
+	 *          buffer with the packet record at its position
+	 * @return capture timestamp seconds
+	 */
+	public static long getSeconds(ByteBuffer record) {
+		return record.getInt(record.position() + HDR_SECONDS) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @param record
+	 *          buffer with the packet record at its position
+	 * @return nano second fraction of the capture timestamp
+	 */
+	public static long getNanos(ByteBuffer record) {
+		return record.getInt(record.position() + HDR_NANOS) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @param record
+	 *          buffer with the packet record at its position
+	 * @return capture timestamp in nanos
+	 */
+	public static long getTimestamp(ByteBuffer record) {
+		return getSeconds(record) * 1000000000L + getNanos(record);
+	}
+
+	/**
+	 * @param record
+	 *          buffer with the packet record at its position
+	 * @return original length of the packet on the wire
+	 */
+	public static long getOriginalLength(ByteBuffer record) {
+		return record.getInt(record.position() + HDR_ORIGINAL_LENGTH) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @param record
+	 *          buffer with the packet record at its position
+	 * @return number of packet data bytes within the record
+	 */
+	public static int getIncludedLength(ByteBuffer record) {
+		return getRecordLength(record) - PACKET_HEADER_LENGTH;
+	}
+
+	/**
+	 * @param record
+	 *          buffer with the record at its position
+	 * @return length of the entire record
+	 */
+	public static int getRecordLength(ByteBuffer record) {
+		return record.getInt(record.position() + NapFile.HDR_RECORD_LENGTH);
+	}
+
+	/**
+	 * @param record
+	 *          buffer with the record at its position
+	 * @return NAPFlag bits of the record
+	 */
+	public static int getFlags(ByteBuffer record) {
+		return record.getShort(record.position() + HDR_RECORD_FLAGS) & 0xFFFF;
+	}
+
+	/**
+	 * Creates a view of the packet data within the packet record.
+	 * 
+	 * @param record
+	 *          buffer with the packet record at its position
+	 * @return new buffer containing only the packet data
+	 */
+	public static ByteBuffer getPacketData(ByteBuffer record) {
+		final ByteBuffer data = record.duplicate();
+		data.position(record.position() + PACKET_HEADER_LENGTH);
+		data.limit(record.position() + getRecordLength(record));
+
+		return data.slice();
+	}
+
+	/**
+	 * Builds a packet record.
+	 * 
+	 * @param seconds
+	 *          capture timestamp in seconds
+	 * @param nanos
+	 *          nano second fraction of the capture timestamp
+	 * @param originalLength
+	 *          length of the packet on the wire
+	 * @param data
+	 *          packet data between the buffer's position and limit, not
+	 *          modified
+	 * @param flags
+	 *          NAPFlag bits of the packet
+	 * @return buffer containing the record, ready to be read
+	 */
+	public static ByteBuffer createPacketRecord(long seconds, long nanos,
+	    long originalLength, ByteBuffer data, int flags) {
+		final int length = PACKET_HEADER_LENGTH + data.remaining();
+		final ByteBuffer b = ByteBuffer.allocate(length);
+
+		b.put((byte) NAPType.PacketRecord.getType());
+		b.put((byte) 0);
+		b.putShort((short) flags);
+		b.putInt(length);
+		b.putInt((int) seconds);
+		b.putInt((int) nanos);
+		b.putInt((int) originalLength);
+		b.put(data.duplicate());
+		b.clear();
+
+		return b;
+	}
+
+	/**
+	 * Checks that a buffer contains exactly one packet record, as accepted by
+	 * the captures that add packet records to NAP files and streams.
+	 * 
+	 * @param record
+	 *          buffer with the packet record between its position and limit
+	 * @throws IllegalArgumentException
+	 *           if the buffer does not contain a single packet record
+	 */
+	public static void checkPacketRecord(ByteBuffer record) {
+		final int p = record.position();
+
+		if (record.remaining() < PACKET_HEADER_LENGTH
+		    || record.get(p + NapFile.HDR_TYPE) != NAPType.PacketRecord.getType()
+		    || getRecordLength(record) != record.remaining()) {
+			throw new IllegalArgumentException(
+			    "Buffer does not contain a single NAP packet record");
+		}
+	}
+
+	/**
+	 * Copies a record out of a decoded block, which is only valid until the next
+	 * block is decoded.
+	 * 
+	 * @param record
+	 *          buffer with the record at its position
+	 * @return new buffer containing only the record, starting at position 0
+	 */
+	public static ByteBuffer copyRecord(ByteBuffer record) {
+		final ByteBuffer b = record.duplicate();
+		b.limit(record.position() + getRecordLength(record));
+
+		final ByteBuffer copy = ByteBuffer.allocate(b.remaining());
+		copy.put(b);
+		copy.clear();
+
+		return copy;
+	}
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.jnetstream.capture.FileFormatException;
+import org.jnetstream.capture.file.nap.NAPBlockRecord;
+import org.jnetstream.capture.file.nap.NapFile;
+
+import com.slytechs.file.nap.NapBlock.Compression;
+
+/**
+ * Checks block headers and decodes block payloads, for both the file reader
+ * and the input stream. The stored payload of a block is read into the buffer
+ * returned by {@link #getStoredBuffer(ByteBuffer)}, then {@link #decode} turns
+ * it into the uncompressed payload and checks the block's packet index. The
+ * decoded payload stays valid until the next block is decoded.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+final class NapBlockDecoder {
+
+	/**
+	 * Largest ratio of uncompressed to compressed length the Deflate format can
+	 * achieve, used to reject payload lengths no block can decompress to
+	 */
+	private static final long MAX_DEFLATE_RATIO = 1032;
+
+	/**
+	 * Checks a block header and the lengths it claims.
+	 *
+	 * @param header
+	 *          buffer with the block header at position 0
+	 * @param file
+	 *          file being read or null for a stream
+	 * @param position
+	 *          position of the block, for error messages
+	 * @param available
+	 *          number of bytes available from the start of the block, or -1 if
+	 *          not known
+	 * @throws FileFormatException
+	 *           if the header is not a NAP block header or its lengths are
+	 *           inconsistent
+	 */
+	static void checkHeader(final ByteBuffer header, final File file,
+	    final long position, final long available) throws FileFormatException {
+
+		if (header.remaining() != NapBlock.BLOCK_HEADER_LENGTH
+		    || NapBlock.validateMagicNumber(header) == false) {
+			throw new FileFormatException("Invalid NAP block header", file, position);
+		}
+
+		final int length = header.getInt(NapBlock.HDR_BLOCK_LENGTH);
+		final int storedLength = header.getInt(NapBlock.HDR_STORED_LENGTH);
+		if (storedLength < 0
+		    || length != NapBlock.BLOCK_HEADER_LENGTH + storedLength
+		    || (available != -1 && length > available)) {
+			throw new FileFormatException("Truncated NAP block", file, position);
+		}
+
+		final int count = header.getInt(NAPBlockRecord.HDR_PACKET_COUNT);
+		final int payloadLength = header.getInt(NapBlock.HDR_PAYLOAD_LENGTH);
+		final Compression c =
+		    Compression.valueOf(header.get(NapBlock.HDR_COMPRESSION));
+
+		if (count < 0 || payloadLength < 0
+		    || (long) count * NapBlock.INDEX_ENTRY_LENGTH > payloadLength
+		    || (c == Compression.None && payloadLength != storedLength)
+		    || (c == Compression.Deflate
+		        && payloadLength > storedLength * MAX_DEFLATE_RATIO)) {
+			throw new FileFormatException("Invalid NAP block lengths", file,
+			    position);
+		}
+	}
+
+	private Inflater inflater;
+
+	private byte[] stored = new byte[0];
+
+	private byte[] payload = new byte[0];
+
+	/**
+	 * Returns a buffer to read the stored payload of a block into. An
+	 * uncompressed payload is read straight into the payload buffer.
+	 *
+	 * @param header
+	 *          checked block header
+	 * @return buffer with room for exactly the stored payload
+	 */
+	ByteBuffer getStoredBuffer(final ByteBuffer header) {
+		final int storedLength = header.getInt(NapBlock.HDR_STORED_LENGTH);
+		final int payloadLength = header.getInt(NapBlock.HDR_PAYLOAD_LENGTH);
+
+		if (payload.length < payloadLength) {
+			payload = new byte[payloadLength];
+		}
+
+		if (header.get(NapBlock.HDR_COMPRESSION) == Compression.None.getCode()) {
+			return ByteBuffer.wrap(payload, 0, storedLength);
+		}
+
+		if (stored.length < storedLength) {
+			stored = new byte[storedLength];
+		}
+
+		return ByteBuffer.wrap(stored, 0, storedLength);
+	}
+
+	/**
+	 * Decompresses the stored payload read into the buffer returned by
+	 * {@link #getStoredBuffer(ByteBuffer)} and checks the block's packet index.
+	 *
+	 * @param header
+	 *          checked block header
+	 * @param file
+	 *          file being read or null for a stream
+	 * @param position
+	 *          position of the block, for error messages
+	 * @return the payload, starting with the packet index at position 0
+	 * @throws FileFormatException
+	 *           if the compression is unknown, the payload does not decompress
+	 *           to its claimed length or the packet index is corrupt
+	 */
+	ByteBuffer decode(final ByteBuffer header, final File file,
+	    final long position) throws FileFormatException {
+		final int storedLength = header.getInt(NapBlock.HDR_STORED_LENGTH);
+		final int payloadLength = header.getInt(NapBlock.HDR_PAYLOAD_LENGTH);
+		final byte code = header.get(NapBlock.HDR_COMPRESSION);
+		final Compression c = Compression.valueOf(code);
+
+		if (c == null) {
+			throw new FileFormatException("Unsupported NAP block compression "
+			    + code, file, position);
+		}
+
+		if (c == Compression.Deflate) {
+			if (inflater == null) {
+				inflater = new Inflater();
+			}
+
+			inflater.reset();
+			inflater.setInput(stored, 0, storedLength);
+
+			try {
+				int n = 0;
+				while (n < payloadLength && inflater.finished() == false) {
+					final int r = inflater.inflate(payload, n, payloadLength - n);
+					if (r == 0 && inflater.needsInput()) {
+						break;
+					}
+					n += r;
+				}
+
+				if (n != payloadLength) {
+					throw new FileFormatException("Corrupt NAP block payload", file,
+					    position);
+				}
+
+			} catch (DataFormatException e) {
+				throw new FileFormatException("Corrupt NAP block payload: "
+				    + e.getMessage(), file, position);
+			}
+		}
+
+		final ByteBuffer block = ByteBuffer.wrap(payload, 0, payloadLength).slice();
+		validateIndex(block, header.getInt(NAPBlockRecord.HDR_PACKET_COUNT), file,
+		    position);
+
+		return block;
+	}
+
+	/**
+	 * Checks that every entry of the packet index of a decoded block points at a
+	 * packet record that lies entirely within the payload, after the index.
+	 *
+	 * @param block
+	 *          the decoded payload
+	 * @param count
+	 *          number of packets in the block
+	 * @throws FileFormatException
+	 *           if an entry or the length of its record is out of bounds
+	 */
+	private static void validateIndex(final ByteBuffer block, final int count,
+	    final File file, final long position) throws FileFormatException {
+		final int start = count * NapBlock.INDEX_ENTRY_LENGTH;
+		final int end = block.limit();
+
+		for (int i = 0; i < count; i++) {
+			final int offset = block.getInt(i * NapBlock.INDEX_ENTRY_LENGTH);
+			if (offset < start || offset > end - NapBlock.PACKET_HEADER_LENGTH) {
+				throw new FileFormatException("Corrupt NAP packet index entry " + i,
+				    file, position);
+			}
+
+			final int length = block.getInt(offset + NapFile.HDR_RECORD_LENGTH);
+			if (length < NapBlock.PACKET_HEADER_LENGTH || length > end - offset) {
+				throw new FileFormatException("Corrupt NAP packet record length "
+				    + length, file, position);
+			}
+		}
+	}
+
+	/**
+	 * Releases the inflater's native resources.
+	 */
+	void end() {
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+	}
+}
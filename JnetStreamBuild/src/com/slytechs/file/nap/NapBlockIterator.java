@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+
+import org.jnetstream.capture.file.RawIterator;
+import org.jnetstream.capture.file.nap.NAPBlockRecord;
+import org.jnetstream.capture.file.nap.NAPBlockRecordIterator;
+
+import com.slytechs.capture.file.editor.AbstractIterator;
+
+/**
+ * Iterates over the block headers of a NAP file. The position of the iterator
+ * is the index of the block. Blocks are only added by {@link #addBlock()}.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class NapBlockIterator
+    extends AbstractIterator implements NAPBlockRecordIterator {
+
+	private final NapFileCapture file;
+
+	public NapBlockIterator(final NapFileCapture file, final RawIterator raw)
+	    throws IOException {
+		super(raw);
+		this.file = file;
+	}
+
+	/**
+	 * Blocks are made up of packets, use {@link #addBlock()} instead.
+	 */
+	public void add(final NAPBlockRecord element) throws IOException {
+		throw new UnsupportedOperationException(
+		    "Blocks are added with NAPBlockRecordIterator.addBlock()");
+	}
+
+	public void addAll(final List<NAPBlockRecord> elements) throws IOException {
+		throw new UnsupportedOperationException(
+		    "Blocks are added with NAPBlockRecordIterator.addBlock()");
+	}
+
+	public void addAll(final NAPBlockRecord... elements) throws IOException {
+		throw new UnsupportedOperationException(
+		    "Blocks are added with NAPBlockRecordIterator.addBlock()");
+	}
+
+	/**
+	 * Appends a block at the end of the file containing any packets added since
+	 * the last block was written, or an empty block if there are none. The
+	 * iterator is positioned at the end of the file, after the new block.
+	 *
+	 * @return header of the new block
+	 * @see org.jnetstream.capture.file.nap.NAPBlockRecordModifier#addBlock()
+	 */
+	public NAPBlockRecord addBlock() throws IOException {
+		file.addBlock();
+
+		final int b = file.getReader().getBlockCount() - 1;
+		this.raw.seekEnd();
+
+		return new NapBlockRecordImpl(file, file.getReader().getBlockHeader(b), b);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.utils.collection.IOIterator#next()
+	 */
+	public NAPBlockRecord next() throws IOException {
+		final long position = this.raw.getPosition();
+		final ByteBuffer b = this.raw.next();
+
+		return new NapBlockRecordImpl(file, b, position);
+	}
+
+	public void removeAll(final Collection<NAPBlockRecord> elements)
+	    throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void removeAll(final NAPBlockRecord... elements) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void replace(final NAPBlockRecord element) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void retainAll(final List<NAPBlockRecord> elements)
+	    throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void retainAll(final NAPBlockRecord... elements) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void swap(final NAPBlockRecord dst, final NAPBlockRecord src)
+	    throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Properties;
+import java.util.Set;
+
+import org.jnetstream.capture.FileCapture;
+import org.jnetstream.capture.file.DataRecord;
+import org.jnetstream.capture.file.Record;
+import org.jnetstream.capture.file.RecordIterator;
+import org.jnetstream.capture.file.RecordType;
+import org.jnetstream.capture.file.nap.NAPBlockRecord;
+
+import com.slytechs.capture.file.AbstractBlockRecord;
+import com.slytechs.utils.number.Version;
+
+/**
+ * The header of a NAP block. The record buffer contains only the block header,
+ * as the payload that follows it is usually compressed. Blocks are never
+ * rewritten, so the header fields are read only.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class NapBlockRecordImpl
+    extends AbstractBlockRecord implements NAPBlockRecord {
+
+	private static final String READ_ONLY = "NAP block headers are read only";
+
+	/**
+	 * @param file
+	 *          file the block was read from or null for a stream
+	 * @param header
+	 *          buffer containing only the block header starting at position 0
+	 * @param position
+	 *          index of the block
+	 */
+	public NapBlockRecordImpl(final FileCapture<?> file,
+	    final ByteBuffer header, final long position) {
+		super(file, header.asReadOnlyBuffer(), position);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.Record#asType(java.lang.Class)
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Record> T asType(final Class<T> c) {
+		return (T) this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.nap.NAPBlockRecord#getBlockId()
+	 */
+	public long getBlockId() {
+		return staticBuffer.getInt(HDR_BLOCK_ID) & 0xFFFFFFFFL;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.nap.NAPBlockRecord#getFlags()
+	 */
+	public Set<Flag> getFlags() {
+		return Flag.toEnumSet(staticBuffer.getShort(HDR_FLAGS) & 0xFFFF);
+	}
+
+	/**
+	 * @return link type of the packets in the block
+	 */
+	public int getLinkType() {
+		return staticBuffer.getShort(NapBlock.HDR_LINK_TYPE) & 0xFFFF;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.BlockRecord#getMagicPattern()
+	 */
+	public byte[] getMagicPattern() throws IOException {
+		return NapBlock.MAGIC_PATTERN.clone();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.nap.NAPBlockRecord#getNextBlockId()
+	 */
+	public long getNextBlockId() {
+		return staticBuffer.getInt(HDR_NEXT_BLOCK_ID) & 0xFFFFFFFFL;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.nap.NAPBlockRecord#getPacketCount()
+	 */
+	public long getPacketCount() {
+		return staticBuffer.getInt(HDR_PACKET_COUNT) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * No properties are written to NAP blocks.
+	 *
+	 * @return empty properties
+	 */
+	public Properties getProperties() throws IOException {
+		return new Properties();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.AbstractRecord#getRecordHeaderLength()
+	 */
+	@Override
+	public int getRecordHeaderLength() {
+		return NapBlock.BLOCK_HEADER_LENGTH;
+	}
+
+	/**
+	 * Records are iterated over through {@link NapFileCapture#getRecordIterator()},
+	 * block headers are not linked to the records in their payload.
+	 */
+	public RecordIterator<? extends DataRecord> getRecordIterator()
+	    throws IOException {
+		throw new UnsupportedOperationException(
+		    "NAP records are iterated over through NapFile.getRecordIterator()");
+	}
+
+	/**
+	 * @return length of the entire block, including its stored payload
+	 */
+	@Override
+	public long getRecordLength() throws IOException {
+		return staticBuffer.getInt(NapBlock.HDR_BLOCK_LENGTH);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.Record#getRecordType()
+	 */
+	public RecordType getRecordType() {
+		return RecordType.BlockRecord;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.nap.NAPBlockRecord#getVersion()
+	 */
+	public Version getVersion() {
+		return new Version(staticBuffer.get(HDR_MAJOR_VERSION), staticBuffer
+		    .get(HDR_MINOR_VERSION));
+	}
+
+	/**
+	 * Block headers are copies and remain valid after the file is modified.
+	 */
+	@Override
+	public boolean isValid() {
+		return true;
+	}
+
+	/**
+	 * All NAP fields are stored in big endian byte order.
+	 */
+	public ByteOrder order() {
+		return ByteOrder.BIG_ENDIAN;
+	}
+
+	public void setBlockId(final long blockId) {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setMajorVersion(final long major) throws IOException {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setNextBlockId(final long id) {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setPacketCount(final int count) {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setVersion(final Version version) {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.nap.NAPBlockRecord#validateMagicNumber()
+	 */
+	public boolean validateMagicNumber() {
+		return NapBlock.validateMagicNumber(staticBuffer);
+	}
+
+	@Override
+	public String toString() {
+		return "[NAP block " + getBlockId() + ", packets=" + getPacketCount()
+		    + ", length=" + staticBuffer.getInt(NapBlock.HDR_BLOCK_LENGTH) + "]";
+	}
+}
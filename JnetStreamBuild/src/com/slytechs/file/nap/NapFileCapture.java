@@ -0,0 +1,618 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.util.Iterator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jnetstream.capture.CaptureType;
+import org.jnetstream.capture.FileFormatException;
+import org.jnetstream.capture.FileMode;
+import org.jnetstream.capture.FormatType;
+import org.jnetstream.capture.PacketIndexer;
+import org.jnetstream.capture.PacketIterator;
+import org.jnetstream.capture.file.PacketCounterModel;
+import org.jnetstream.capture.file.RawIndexer;
+import org.jnetstream.capture.file.RawIterator;
+import org.jnetstream.capture.file.RecordFilterTarget;
+import org.jnetstream.capture.file.RecordIndexer;
+import org.jnetstream.capture.file.RecordIterator;
+import org.jnetstream.capture.file.nap.NAPBlockRecord;
+import org.jnetstream.capture.file.nap.NAPBlockRecordIterator;
+import org.jnetstream.capture.file.nap.NAPPacket;
+import org.jnetstream.capture.file.nap.NAPRecord;
+import org.jnetstream.capture.file.nap.NAPType;
+import org.jnetstream.capture.file.nap.NapFile;
+import org.jnetstream.capture.file.pcap.PcapDLT;
+import org.jnetstream.filter.Filter;
+import org.jnetstream.packet.ProtocolFilterTarget;
+import org.jnetstream.protocol.Protocol;
+
+import com.slytechs.capture.DefaultCaptureDevice;
+import com.slytechs.capture.file.indexer.PacketIndexerImpl;
+import com.slytechs.capture.file.indexer.RawIndexerImpl;
+import com.slytechs.capture.file.indexer.RecordIndexerImpl;
+import com.slytechs.file.nap.NapBlock.Compression;
+import com.slytechs.utils.collection.IOIterator.IteratorAdapter;
+import com.slytechs.utils.io.IORuntimeException;
+import com.slytechs.utils.number.Version;
+
+/**
+ * <p>
+ * A NAP file. Packets are read through a {@link NapFileReader}, so opening the
+ * file only reads the block headers and any packet is reached by decoding a
+ * single block. Since packet records within a compressed block have no
+ * position within the file, positions of the iterators and of the packets
+ * returned are packet indexes, and positions of the block iterator are block
+ * indexes.
+ * </p>
+ * <p>
+ * Blocks are never rewritten. Files opened in one of the append modes accept
+ * new packets at the end of the file, which are written through a
+ * {@link NapFileWriter} in new blocks. Packets added are buffered until their
+ * block is full, the file is flushed or one of the packets is read back. All
+ * other modifications throw an <code>UnsupportedOperationException</code>.
+ * </p>
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class NapFileCapture implements NapFile {
+
+	private static final Log logger = LogFactory.getLog(NapFile.class);
+
+	/**
+	 * Message of the exception thrown by all modifications other then appending
+	 * packets
+	 */
+	static final String APPEND_ONLY =
+	    "NAP blocks can not be modified, packets can only be appended at the end "
+	        + "of the file";
+
+	/**
+	 * Creates a new file containing a single empty block, then closes the
+	 * created file. The file is reopened in the mode requested.
+	 *
+	 * @param file
+	 *          file to create
+	 * @param mode
+	 *          mode to reopen the file in
+	 * @param compression
+	 *          compression of the blocks appended to the file
+	 * @param filter
+	 *          protocol filter of the reopened file
+	 * @return the reopened file
+	 * @throws FileNotFoundException
+	 *           unable to find parent directory inorder to create a new file
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public static NapFile createFile(final File file, final FileMode mode,
+	    final Compression compression, final Filter<ProtocolFilterTarget> filter)
+	    throws FileNotFoundException, IOException {
+
+		if (logger.isDebugEnabled()) {
+			logger.debug(file.getName() + ", mode=" + mode + ", compression="
+			    + compression + (filter == null ? "" : filter));
+		}
+
+		if (file.createNewFile() == false) {
+			throw new FileNotFoundException("Unable to create new file ["
+			    + file.getName() + "]");
+		}
+
+		final NapFileWriter writer = new NapFileWriter(file, compression);
+		try {
+			writer.addBlock();
+		} finally {
+			writer.close();
+		}
+
+		return new NapFileCapture(file, mode, filter, compression);
+	}
+
+	private final File file;
+
+	private final FileMode mode;
+
+	private final Filter<ProtocolFilterTarget> filter;
+
+	private final Compression compression;
+
+	private final NapFileReader reader;
+
+	private NapFileWriter writer;
+
+	private final DefaultCaptureDevice captureDevice;
+
+	private boolean open = true;
+
+	/**
+	 * Opens a NAP file. Packets appended are deflated.
+	 *
+	 * @param file
+	 *          file to open
+	 * @param mode
+	 *          file mode, only the append modes allow packets to be added
+	 * @param filter
+	 *          protocol filter applied to packets or null
+	 * @throws FileFormatException
+	 *           if the file contains an invalid block header
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public NapFileCapture(final File file, final FileMode mode,
+	    final Filter<ProtocolFilterTarget> filter) throws FileFormatException,
+	    IOException {
+		this(file, mode, filter, Compression.Deflate);
+	}
+
+	/**
+	 * Opens a NAP file.
+	 *
+	 * @param file
+	 *          file to open
+	 * @param mode
+	 *          file mode, only the append modes allow packets to be added
+	 * @param filter
+	 *          protocol filter applied to packets or null
+	 * @param compression
+	 *          compression of the blocks appended to the file
+	 * @throws FileFormatException
+	 *           if the file contains an invalid block header
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public NapFileCapture(final File file, final FileMode mode,
+	    final Filter<ProtocolFilterTarget> filter, final Compression compression)
+	    throws FileFormatException, IOException {
+
+		if (logger.isDebugEnabled()) {
+			logger.debug(file.getName() + ", mode=" + mode
+			    + (filter == null ? "" : filter));
+		}
+
+		if (file.canRead() == false) {
+			throw new FileNotFoundException("File [" + file.getName()
+			    + "] is not readable, can not open in [" + mode.toString() + "]mode");
+		}
+
+		if (mode.isAppend() && file.canWrite() == false) {
+			throw new FileNotFoundException("File [" + file.getName()
+			    + "] is readonly, can not open in append mode");
+		}
+
+		this.file = file;
+		this.mode = mode;
+		this.filter = filter;
+		this.compression = compression;
+		this.reader = new NapFileReader(file);
+
+		if (reader.getBlockCount() == 0) {
+			reader.close();
+			throw new FileFormatException("File does not contain any NAP blocks",
+			    file, 0);
+		}
+
+		this.captureDevice = new DefaultCaptureDevice(PcapDLT.asConst(reader
+		    .getBlockLinkType(0)));
+	}
+
+	/**
+	 * Blocks are written as soon as they are full and can not be taken back.
+	 *
+	 * @see org.jnetstream.capture.FileCapture#abortChanges()
+	 */
+	public void abortChanges() throws IOException {
+		throw new UnsupportedOperationException(APPEND_ONLY);
+	}
+
+	/**
+	 * Writes out the block of any packets added and closes the file.
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	public void close() throws IOException {
+		if (open == false) {
+			return;
+		}
+
+		open = false;
+
+		try {
+			if (writer != null) {
+				writer.close();
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Writes out the block of any packets added, so that they become readable.
+	 * The next packet added starts a new block.
+	 *
+	 * @see java.io.Flushable#flush()
+	 */
+	public void flush() throws IOException {
+		if (writer != null) {
+			writer.flush();
+			reader.update();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.nap.NapFile#getBlockIterator()
+	 */
+	public NAPBlockRecordIterator getBlockIterator() throws IOException {
+		return new NapBlockIterator(this,
+		    new NapRawIterator(this, true, null, null));
+	}
+
+	/**
+	 * @return the capture device, reflecting the link type of the first block
+	 */
+	public final DefaultCaptureDevice getCaptureDevice() {
+		return captureDevice;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.FileCapture#getFile()
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.Capture#getFilter()
+	 */
+	public Filter<ProtocolFilterTarget> getFilter() {
+		return filter;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.FileCapture#getFormatType()
+	 */
+	public FormatType getFormatType() {
+		return FormatType.Nap;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.FileCapture#getLength()
+	 */
+	public long getLength() {
+		return file.length();
+	}
+
+	/**
+	 * Unfiltered files are counted from the block headers without decoding any
+	 * blocks.
+	 */
+	public long getPacketCount() throws IOException {
+		if (filter == null) {
+			return size();
+		}
+
+		final PacketIterator<NAPPacket> i = getPacketIterator();
+		long count = 0;
+		while (i.hasNext()) {
+			i.skip();
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * The count is always exact, as it is known from the block headers.
+	 */
+	public long getPacketCount(final PacketCounterModel model)
+	    throws IOException {
+		return getPacketCount();
+	}
+
+	/**
+	 * Indexes all packets of the file by their packet index, regardless of the
+	 * file's filter.
+	 */
+	public PacketIndexer<NAPPacket> getPacketIndexer() throws IOException {
+		final RawIterator raw = new NapRawIterator(this, false, null, null);
+
+		return new PacketIndexerImpl<NAPPacket>(new NapPositionIndexer(this),
+		    new NapPacketIterator(this, raw));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.FileCapture#getPacketIterator()
+	 */
+	public PacketIterator<NAPPacket> getPacketIterator() throws IOException {
+		return new NapPacketIterator(this, new NapRawIterator(this, false, null,
+		    filter));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.FileCapture#getRawIndexer()
+	 */
+	public RawIndexer getRawIndexer() throws IOException {
+		return new RawIndexerImpl(getRawIterator(), new NapPositionIndexer(this));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.FileCapture#getRawIterator()
+	 */
+	public RawIterator getRawIterator() throws IOException {
+		return getRawIterator(null);
+	}
+
+	/**
+	 * Iterates over the packet records, record filters are passed the
+	 * {@link NAPType#PacketRecord} record type.
+	 */
+	public RawIterator getRawIterator(final Filter<RecordFilterTarget> filter)
+	    throws IOException {
+		return new NapRawIterator(this, false, filter, null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.FileCapture#getRecordIndexer()
+	 */
+	public RecordIndexer<NAPRecord> getRecordIndexer() throws IOException {
+		return new RecordIndexerImpl<NAPRecord>(new NapPositionIndexer(this),
+		    getRecordIterator());
+	}
+
+	/**
+	 * Iterates over the data records of all blocks, block records are returned
+	 * by {@link #getBlockIterator()}.
+	 */
+	public RecordIterator<NAPRecord> getRecordIterator() throws IOException {
+		return getRecordIterator(null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.FileCapture#getRecordIterator(org.jnetstream.filter.Filter)
+	 */
+	public RecordIterator<NAPRecord> getRecordIterator(
+	    final Filter<RecordFilterTarget> filter) throws IOException {
+		return new NapRecordIterator(this, getRawIterator(filter));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.Capture#getType()
+	 */
+	public CaptureType getType() {
+		return CaptureType.FileCapture;
+	}
+
+	/**
+	 * The version of the first block.
+	 */
+	public Version getVersion() throws IOException {
+		final ByteBuffer header = reader.getBlockHeader(0);
+
+		return new Version(header.get(NAPBlockRecord.HDR_MAJOR_VERSION), header
+		    .get(NAPBlockRecord.HDR_MINOR_VERSION));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.FileCapture#isEmpty()
+	 */
+	public boolean isEmpty() throws IOException {
+		return getPacketIterator().hasNext() == false;
+	}
+
+	/**
+	 * Files opened in one of the append modes are mutable.
+	 */
+	public boolean isMutable() {
+		return mode.isAppend();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.FileCapture#isOpen()
+	 */
+	public boolean isOpen() {
+		return open;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.Capture#iterator()
+	 */
+	public Iterator<NAPPacket> iterator() {
+		try {
+			return new IteratorAdapter<NAPPacket>(getPacketIterator());
+
+		} catch (final IOException e) {
+			throw new IORuntimeException(e);
+		}
+	}
+
+	/**
+	 * All NAP fields are stored in big endian byte order.
+	 */
+	public ByteOrder order() {
+		return ByteOrder.BIG_ENDIAN;
+	}
+
+	/**
+	 * @return number of packets, including the ones added but not yet written
+	 *         out in a block
+	 */
+	long size() {
+		return reader.getPacketCount()
+		    + ((writer == null) ? 0 : writer.getPendingCount());
+	}
+
+	/**
+	 * @return the reader of the blocks written so far
+	 */
+	NapFileReader getReader() {
+		return reader;
+	}
+
+	/**
+	 * Returns a packet record, see {@link NapFileReader#getPacket(long)}. Any
+	 * packets added are written out first if the record is one of them.
+	 *
+	 * @param index
+	 *          index of the packet
+	 * @return buffer containing the record
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	ByteBuffer getRecord(final long index) throws IOException {
+		if (index >= reader.getPacketCount()) {
+			flush();
+		}
+
+		return reader.getPacket(index);
+	}
+
+	/**
+	 * Returns the link type of a packet.
+	 *
+	 * @param index
+	 *          index of the packet
+	 * @return DLT of the packet
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	int getLinkType(final long index) throws IOException {
+		if (index >= reader.getPacketCount()) {
+			flush();
+		}
+
+		return reader.getLinkType(index);
+	}
+
+	/**
+	 * Returns the link type as a protocol.
+	 *
+	 * @param linkType
+	 *          DLT
+	 * @return the protocol or null if the link type is not registered
+	 */
+	static Protocol protocolOf(final int linkType) {
+		return PcapDLT.asConst(linkType);
+	}
+
+	/**
+	 * Sets the link type of the packets that are added next.
+	 *
+	 * @param linkType
+	 *          DLT of the packets
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	void setLinkType(final int linkType) throws IOException {
+		getWriter().setLinkType(linkType);
+	}
+
+	/**
+	 * Appends a packet record at the end of the file.
+	 *
+	 * @param record
+	 *          buffer containing exactly one packet record between its position
+	 *          and limit
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	void add(final ByteBuffer record) throws IOException {
+		NapBlock.checkPacketRecord(record);
+
+		getWriter().add(NapBlock.getSeconds(record), NapBlock.getNanos(record),
+		    NapBlock.getOriginalLength(record), NapBlock.getPacketData(record),
+		    NapBlock.getFlags(record));
+	}
+
+	/**
+	 * Writes out the block of any packets added, or an empty block if there are
+	 * none.
+	 *
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	void addBlock() throws IOException {
+		getWriter().addBlock();
+		reader.update();
+	}
+
+	/**
+	 * Opens the writer the first time packets are appended. Appended packets
+	 * have the link type of the last block, until another link type is set.
+	 *
+	 * @return the writer
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private NapFileWriter getWriter() throws IOException {
+		if (open == false) {
+			throw new IllegalStateException("File is closed");
+		}
+
+		if (mode.isAppend() == false) {
+			throw new ReadOnlyBufferException();
+		}
+
+		if (writer == null) {
+			final int last = reader.getBlockCount() - 1;
+
+			writer = new NapFileWriter(new FileOutputStream(file, true).getChannel(),
+			    compression, reader.getBlockCount());
+			writer.setLinkType(reader.getBlockLinkType(last));
+		}
+
+		return writer;
+	}
+
+	public String toString() {
+		return "[NapFile " + file.getName() + ", blocks=" + reader.getBlockCount()
+		    + ", packets=" + size() + "]";
+	}
+}
@@ -0,0 +1,416 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import org.jnetstream.capture.FileFormatException;
+import org.jnetstream.capture.file.nap.NAPBlockRecord;
+
+import com.slytechs.utils.collection.IOIterator;
+
+/**
+ * <p>
+ * Reads packets from a NAP file, see {@link NapBlock} for the layout. When the
+ * file is opened only the block headers are read, which is enough to know the
+ * number of packets and in which block each packet is stored. A packet is
+ * accessed by decoding its block, which is cached until a packet from another
+ * block is requested, and looking up the packet in the block's packet index.
+ * Random access to a packet therefore costs a binary search over the blocks
+ * and at most one block decode, no matter where the packet is in the file.
+ * </p>
+ * <p>
+ * Blocks appended to the file after it was opened are picked up by
+ * {@link #update()}.
+ * </p>
+ * <p>
+ * The reader is not thread safe.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class NapFileReader implements Closeable {
+
+	/**
+	 * Checks if the file starts with a NAP block.
+	 * 
+	 * @param file
+	 *          file to check
+	 * @return true if the file is a NAP file, otherwise false
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public static boolean isNapFile(File file) throws IOException {
+		final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+		try {
+			final ByteBuffer b = ByteBuffer.allocate(NapBlock.MAGIC_PATTERN.length);
+			while (b.hasRemaining() && channel.read(b, b.position()) != -1) {
+			}
+			b.flip();
+
+			return b.remaining() == NapBlock.MAGIC_PATTERN.length
+			    && NapBlock.validateMagicNumber(b);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private final File file;
+
+	private final FileChannel channel;
+
+	private final NapBlockDecoder decoder = new NapBlockDecoder();
+
+	private final ByteBuffer header =
+	    ByteBuffer.allocate(NapBlock.BLOCK_HEADER_LENGTH);
+
+	private int blockCount = 0;
+
+	private long packetCount = 0;
+
+	/**
+	 * Position right after the last block scanned
+	 */
+	private long end = 0;
+
+	private long[] positions = new long[16];
+
+	/**
+	 * Index of the first packet of each block, plus an extra entry with the
+	 * total packet count
+	 */
+	private long[] firstIndex = new long[17];
+
+	private int[] linkTypes = new int[16];
+
+	private ByteBuffer block;
+
+	private int cachedBlock = -1;
+
+	/**
+	 * Opens a NAP file for reading and scans its block headers.
+	 * 
+	 * @param file
+	 *          file to open
+	 * @throws IOException
+	 *           any IO errors
+	 * @throws FileFormatException
+	 *           if a block does not start with a valid NAP block header or its
+	 *           lengths are inconsistent
+	 */
+	public NapFileReader(File file) throws IOException, FileFormatException {
+		this.file = file;
+		this.channel = new RandomAccessFile(file, "r").getChannel();
+
+		try {
+			scan();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Scans the headers of any blocks appended to the file since it was opened
+	 * or last updated.
+	 * 
+	 * @throws IOException
+	 *           any IO errors
+	 * @throws FileFormatException
+	 *           if an appended block is invalid
+	 */
+	public void update() throws IOException {
+		scan();
+	}
+
+	/**
+	 * Reads every block header after the last block scanned, skipping over the
+	 * block contents.
+	 * 
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private void scan() throws IOException {
+		final long size = channel.size();
+
+		while (end < size) {
+			final long position = end;
+
+			readHeader(position);
+			NapBlockDecoder.checkHeader(header, file, position, size - position);
+
+			if (blockCount == positions.length) {
+				grow(blockCount * 2);
+			}
+
+			positions[blockCount] = position;
+			firstIndex[blockCount] = packetCount;
+			linkTypes[blockCount] = header.getShort(NapBlock.HDR_LINK_TYPE) & 0xFFFF;
+
+			blockCount++;
+			packetCount += header.getInt(NAPBlockRecord.HDR_PACKET_COUNT);
+			end += header.getInt(NapBlock.HDR_BLOCK_LENGTH);
+
+			firstIndex[blockCount] = packetCount;
+		}
+	}
+
+	private void grow(int length) {
+		positions = Arrays.copyOf(positions, length);
+		firstIndex = Arrays.copyOf(firstIndex, length + 1);
+		linkTypes = Arrays.copyOf(linkTypes, length);
+	}
+
+	private void readHeader(long position) throws IOException {
+		header.clear();
+		read(header, position);
+		header.flip();
+	}
+
+	private void read(ByteBuffer buffer, long position) throws IOException {
+		final int start = buffer.position();
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position() - start) == -1) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return number of packets in the file
+	 */
+	public long getPacketCount() {
+		return packetCount;
+	}
+
+	/**
+	 * @return number of blocks in the file
+	 */
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * Returns the link type of a packet.
+	 * 
+	 * @param index
+	 *          index of the packet
+	 * @return DLT of the packet
+	 */
+	public int getLinkType(long index) {
+		return linkTypes[blockOf(index)];
+	}
+
+	/**
+	 * Finds the block that contains a packet.
+	 * 
+	 * @param index
+	 *          index of the packet
+	 * @return index of the block
+	 */
+	public int getBlockOf(long index) {
+		return blockOf(index);
+	}
+
+	/**
+	 * @param b
+	 *          index of the block
+	 * @return position of the block within the file
+	 */
+	public long getBlockPosition(int b) {
+		checkBlock(b);
+
+		return positions[b];
+	}
+
+	/**
+	 * @param b
+	 *          index of the block
+	 * @return index of the first packet stored in the block
+	 */
+	public long getFirstPacket(int b) {
+		checkBlock(b);
+
+		return firstIndex[b];
+	}
+
+	/**
+	 * @param b
+	 *          index of the block
+	 * @return DLT of the packets stored in the block
+	 */
+	public int getBlockLinkType(int b) {
+		checkBlock(b);
+
+		return linkTypes[b];
+	}
+
+	/**
+	 * Reads the header of a block. The block's payload is not read.
+	 * 
+	 * @param b
+	 *          index of the block
+	 * @return new buffer containing only the block header
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public ByteBuffer getBlockHeader(int b) throws IOException {
+		checkBlock(b);
+
+		final ByteBuffer h = ByteBuffer.allocate(NapBlock.BLOCK_HEADER_LENGTH);
+		read(h, positions[b]);
+		h.flip();
+
+		return h;
+	}
+
+	private void checkBlock(int b) {
+		if (b < 0 || b >= blockCount) {
+			throw new IndexOutOfBoundsException("Block index " + b
+			    + " out of bounds [0, " + blockCount + ")");
+		}
+	}
+
+	private int blockOf(long index) {
+		if (index < 0 || index >= packetCount) {
+			throw new IndexOutOfBoundsException("Packet index " + index
+			    + " out of bounds [0, " + packetCount + ")");
+		}
+
+		if (cachedBlock != -1 && index >= firstIndex[cachedBlock]
+		    && index < firstIndex[cachedBlock + 1]) {
+			return cachedBlock;
+		}
+
+		int i = Arrays.binarySearch(firstIndex, 0, blockCount, index);
+		if (i < 0) {
+			i = -i - 2;
+		}
+
+		/*
+		 * Skip over any empty blocks which share the same first index
+		 */
+		while (firstIndex[i + 1] <= index) {
+			i++;
+		}
+
+		return i;
+	}
+
+	/**
+	 * Returns a packet record. The returned buffer's position and limit are set
+	 * to the start and end of the record and the buffer shares its content with
+	 * the decoded block. The content is only valid until a packet from another
+	 * block is requested. Use the {@link NapBlock} methods to read the record's
+	 * fields.
+	 * 
+	 * @param index
+	 *          index of the packet
+	 * @return buffer containing the record
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public ByteBuffer getPacket(long index) throws IOException {
+		final int b = blockOf(index);
+		if (b != cachedBlock) {
+			decode(b);
+		}
+
+		final int entry = (int) (index - firstIndex[b]);
+		final int offset = block.getInt(entry * NapBlock.INDEX_ENTRY_LENGTH);
+
+		final ByteBuffer record = block.duplicate();
+		record.limit(offset + NapBlock.getRecordLength((ByteBuffer) record
+		    .position(offset)));
+
+		return record;
+	}
+
+	/**
+	 * Reads a block and decompresses its payload into the block buffer.
+	 * 
+	 * @param b
+	 *          index of the block
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private void decode(int b) throws IOException {
+		cachedBlock = -1;
+
+		readHeader(positions[b]);
+
+		read(decoder.getStoredBuffer(header), positions[b]
+		    + NapBlock.BLOCK_HEADER_LENGTH);
+
+		block = decoder.decode(header, file, positions[b]);
+
+		cachedBlock = b;
+	}
+
+	/**
+	 * Returns an iterator over all of the packet records in file order. The
+	 * buffers returned follow the same rules as {@link #getPacket(long)}.
+	 * 
+	 * @return iterator over the packet records
+	 */
+	public IOIterator<ByteBuffer> getRawIterator() {
+		return new IOIterator<ByteBuffer>() {
+
+			private long index = 0;
+
+			public boolean hasNext() {
+				return index < packetCount;
+			}
+
+			public ByteBuffer next() throws IOException {
+				if (index >= packetCount) {
+					throw new NoSuchElementException();
+				}
+
+				return getPacket(index++);
+			}
+
+			public void remove() throws IOException {
+				throw new UnsupportedOperationException(
+				    "NAP files are read only through this reader");
+			}
+		};
+	}
+
+	/**
+	 * @return the file being read
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Closes the underlying file.
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	public void close() throws IOException {
+		decoder.end();
+
+		channel.close();
+	}
+}
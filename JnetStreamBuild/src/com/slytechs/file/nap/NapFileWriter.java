@@ -0,0 +1,384 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import org.jnetstream.capture.file.nap.NAPBlockRecord;
+import org.jnetstream.capture.file.nap.NAPFlag;
+import org.jnetstream.capture.file.nap.NAPType;
+import org.jnetstream.capture.file.nap.NapFile;
+
+import com.slytechs.file.nap.NapBlock.Compression;
+
+/**
+ * <p>
+ * Writes packets into a NAP file, see {@link NapBlock} for the layout. Packet
+ * records are accumulated in memory until the block is full, that is the next
+ * record would grow the block's payload past {@link NapFile#BLOCKING_FACTOR},
+ * or the link type changes. The block is then written out with its packet
+ * index, compressing the payload when compression is enabled and actually
+ * makes the payload smaller.
+ * </p>
+ * <p>
+ * The writer is not thread safe.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class NapFileWriter implements Closeable, Flushable {
+
+	private final WritableByteChannel out;
+
+	private final Compression compression;
+
+	private final Deflater deflater;
+
+	private ByteBuffer records = ByteBuffer
+	    .allocate((int) NapFile.BLOCKING_FACTOR);
+
+	private int[] offsets = new int[1024];
+
+	private int count = 0;
+
+	private int linkType = 1; // Ethernet
+
+	private long blockId;
+
+	private byte[] payload = new byte[0];
+
+	private byte[] stored = new byte[0];
+
+	private final ByteBuffer header = ByteBuffer
+	    .allocate(NapBlock.BLOCK_HEADER_LENGTH);
+
+	/**
+	 * Creates a new NAP file, overwriting any existing file.
+	 * 
+	 * @param file
+	 *          file to create
+	 * @param compression
+	 *          compression to apply to each block
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public NapFileWriter(File file, Compression compression) throws IOException {
+		this(new FileOutputStream(file).getChannel(), compression);
+	}
+
+	/**
+	 * Writes a NAP file into a channel. The channel is closed when the writer is
+	 * closed.
+	 * 
+	 * @param out
+	 *          channel to write blocks to
+	 * @param compression
+	 *          compression to apply to each block
+	 */
+	public NapFileWriter(WritableByteChannel out, Compression compression) {
+		this(out, compression, 0);
+	}
+
+	/**
+	 * Writes blocks into a channel, numbering them from the given block id. Used
+	 * to append blocks to an existing NAP file. The channel is closed when the
+	 * writer is closed.
+	 * 
+	 * @param out
+	 *          channel to write blocks to
+	 * @param compression
+	 *          compression to apply to each block
+	 * @param blockId
+	 *          id of the first block written
+	 */
+	public NapFileWriter(WritableByteChannel out, Compression compression,
+	    long blockId) {
+		this.out = out;
+		this.compression = compression;
+		this.deflater =
+		    (compression == Compression.Deflate) ? new Deflater() : null;
+		this.blockId = blockId;
+	}
+
+	/**
+	 * Sets the link type of the packets that are added next. Changing the link
+	 * type completes the current block, as all packets within a block share the
+	 * same link type.
+	 * 
+	 * @param linkType
+	 *          DLT of the packets
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void setLinkType(int linkType) throws IOException {
+		if (linkType != this.linkType && count != 0) {
+			flush();
+		}
+
+		this.linkType = linkType;
+	}
+
+	/**
+	 * @return the link type of the packets that are added next
+	 */
+	public int getLinkType() {
+		return linkType;
+	}
+
+	/**
+	 * @return number of packets added, but not yet written out in a block
+	 */
+	public int getPendingCount() {
+		return count;
+	}
+
+	/**
+	 * Adds a packet record.
+	 * 
+	 * @param seconds
+	 *          capture timestamp in seconds
+	 * @param nanos
+	 *          nano second fraction of the capture timestamp
+	 * @param originalLength
+	 *          length of the packet on the wire
+	 * @param data
+	 *          packet data between the buffer's position and limit, the buffer's
+	 *          properties are not modified
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void add(long seconds, long nanos, long originalLength,
+	    ByteBuffer data) throws IOException {
+		add(seconds, nanos, originalLength, data, 0);
+	}
+
+	/**
+	 * Adds a packet record with flags.
+	 * 
+	 * @param seconds
+	 *          capture timestamp in seconds
+	 * @param nanos
+	 *          nano second fraction of the capture timestamp
+	 * @param originalLength
+	 *          length of the packet on the wire
+	 * @param data
+	 *          packet data between the buffer's position and limit, the buffer's
+	 *          properties are not modified
+	 * @param flags
+	 *          flags of the packet
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void add(long seconds, long nanos, long originalLength,
+	    ByteBuffer data, Set<NAPFlag> flags) throws IOException {
+		int bits = 0;
+		for (NAPFlag f : flags) {
+			bits |= f.getFlag();
+		}
+
+		add(seconds, nanos, originalLength, data, bits);
+	}
+
+	/**
+	 * Adds a packet record with flags.
+	 * 
+	 * @param seconds
+	 *          capture timestamp in seconds
+	 * @param nanos
+	 *          nano second fraction of the capture timestamp
+	 * @param originalLength
+	 *          length of the packet on the wire
+	 * @param data
+	 *          packet data between the buffer's position and limit, the buffer's
+	 *          properties are not modified
+	 * @param flags
+	 *          NAPFlag bits of the packet
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void add(long seconds, long nanos, long originalLength,
+	    ByteBuffer data, int flags) throws IOException {
+
+		final int length = NapBlock.PACKET_HEADER_LENGTH + data.remaining();
+		final int index = (count + 1) * NapBlock.INDEX_ENTRY_LENGTH;
+
+		if (count != 0
+		    && index + records.position() + length > NapFile.BLOCKING_FACTOR) {
+			flush();
+		}
+
+		/*
+		 * A packet larger then the blocking factor is stored alone in an
+		 * oversized block
+		 */
+		if (records.remaining() < length) {
+			records = ByteBuffer.allocate(length);
+		}
+
+		if (count == offsets.length) {
+			offsets = Arrays.copyOf(offsets, count * 2);
+		}
+
+		offsets[count++] = records.position();
+
+		records.put((byte) NAPType.PacketRecord.getType());
+		records.put((byte) 0);
+		records.putShort((short) flags);
+		records.putInt(length);
+		records.putInt((int) seconds);
+		records.putInt((int) nanos);
+		records.putInt((int) originalLength);
+		records.put(data.duplicate());
+	}
+
+	/**
+	 * Writes out the current block, if it contains any packets. The next packet
+	 * starts a new block.
+	 * 
+	 * @see java.io.Flushable#flush()
+	 */
+	public void flush() throws IOException {
+		if (count == 0) {
+			return;
+		}
+
+		addBlock();
+	}
+
+	/**
+	 * Writes out the current block, even if it does not contain any packets. A
+	 * new file starts out with an empty block so that it is recognized as a NAP
+	 * file before any packets are added. The next packet starts a new block.
+	 * 
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void addBlock() throws IOException {
+
+		/*
+		 * Assemble the uncompressed payload, the packet index followed by the
+		 * records
+		 */
+		final int indexLength = count * NapBlock.INDEX_ENTRY_LENGTH;
+		final int payloadLength = indexLength + records.position();
+		if (payload.length < payloadLength) {
+			payload = new byte[payloadLength];
+		}
+
+		final ByteBuffer p = ByteBuffer.wrap(payload);
+		for (int i = 0; i < count; i++) {
+			p.putInt(offsets[i] + indexLength);
+		}
+		p.put(records.array(), 0, records.position());
+
+		Compression c = Compression.None;
+		byte[] data = payload;
+		int storedLength = payloadLength;
+
+		if (deflater != null) {
+			final int n = deflate(payloadLength);
+			if (n != -1) {
+				c = compression;
+				data = stored;
+				storedLength = n;
+			}
+		}
+
+		header.clear();
+		header.put(NapBlock.MAGIC_PATTERN);
+		header.put(NAPBlockRecord.HDR_MAJOR_VERSION, (byte) NapBlock.MAJOR_VERSION);
+		header.put(NAPBlockRecord.HDR_MINOR_VERSION, (byte) NapBlock.MINOR_VERSION);
+		header.putShort(NAPBlockRecord.HDR_FLAGS,
+		    (short) NAPBlockRecord.Flag.toIntFlag(EnumSet
+		        .of(NAPBlockRecord.Flag.PacketCount)));
+		header.putInt(NAPBlockRecord.HDR_BLOCK_ID, (int) blockId);
+		header.putInt(NAPBlockRecord.HDR_NEXT_BLOCK_ID, (int) blockId + 1);
+		header.putInt(NAPBlockRecord.HDR_PACKET_COUNT, count);
+		header.putInt(NapBlock.HDR_BLOCK_LENGTH, NapBlock.BLOCK_HEADER_LENGTH
+		    + storedLength);
+		header.put(NapBlock.HDR_COMPRESSION, (byte) c.getCode());
+		header.putShort(NapBlock.HDR_LINK_TYPE, (short) linkType);
+		header.putInt(NapBlock.HDR_PAYLOAD_LENGTH, payloadLength);
+		header.putInt(NapBlock.HDR_STORED_LENGTH, storedLength);
+		header.clear();
+
+		write(header);
+		write(ByteBuffer.wrap(data, 0, storedLength));
+
+		blockId++;
+		count = 0;
+		if (records.capacity() != NapFile.BLOCKING_FACTOR) {
+			records = ByteBuffer.allocate((int) NapFile.BLOCKING_FACTOR);
+		}
+		records.clear();
+	}
+
+	/**
+	 * Compresses the payload into the stored buffer.
+	 * 
+	 * @param length
+	 *          length of the payload
+	 * @return compressed length or -1 if compression did not make the payload
+	 *         any smaller
+	 */
+	private int deflate(int length) {
+		if (stored.length < length) {
+			stored = new byte[length];
+		}
+
+		deflater.reset();
+		deflater.setInput(payload, 0, length);
+		deflater.finish();
+
+		int n = 0;
+		while (deflater.finished() == false && n < length) {
+			n += deflater.deflate(stored, n, length - n);
+		}
+
+		return (deflater.finished() && n < length) ? n : -1;
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+	}
+
+	/**
+	 * Writes out the last block and closes the channel.
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			if (deflater != null) {
+				deflater.end();
+			}
+
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,451 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.jnetstream.capture.CaptureDevice;
+import org.jnetstream.capture.CaptureType;
+import org.jnetstream.capture.FileFormatException;
+import org.jnetstream.capture.FormatType;
+import org.jnetstream.capture.InputIterator;
+import org.jnetstream.capture.file.RecordFilterTarget;
+import org.jnetstream.capture.file.nap.NAPBlockRecord;
+import org.jnetstream.capture.file.nap.NAPPacket;
+import org.jnetstream.capture.file.nap.NAPRecord;
+import org.jnetstream.capture.file.nap.NAPType;
+import org.jnetstream.capture.file.nap.NapFile;
+import org.jnetstream.capture.file.nap.NapInput;
+import org.jnetstream.capture.file.pcap.PcapDLT;
+import org.jnetstream.filter.Filter;
+import org.jnetstream.packet.ProtocolFilterTarget;
+import org.jnetstream.protocol.Protocol;
+
+import com.slytechs.capture.DefaultCaptureDevice;
+import com.slytechs.capture.file.Files;
+import com.slytechs.utils.collection.IOIterator.IteratorAdapter;
+import com.slytechs.utils.io.IORuntimeException;
+
+/**
+ * A NAP input stream. The stream is read in a single pass, one block at a
+ * time. Each block is checked and decoded the same way as blocks of a NAP
+ * file, and its records are returned in the order of the block's packet
+ * index. As with NAP files, the position of a packet is its index within the
+ * stream. The capture device reflects the link type of the first block once
+ * it has been read and defaults to ethernet until then.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class NapInputCapture implements NapInput {
+
+	private static final String READ_ONLY =
+	    "Inputstream is readonly. Operation not supported";
+
+	/**
+	 * Checks the format of the stream. The magic pattern at the start of the
+	 * first block header is compared to the NAP magic pattern. The method
+	 * consumes 8 bytes from the channel.
+	 *
+	 * @param in
+	 *          input channel to check
+	 * @return true if the stream starts with a NAP block header, otherwise false
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public static boolean checkFormat(final ReadableByteChannel in)
+	    throws IOException {
+		final int length =
+		    NAPBlockRecord.HDR_MAGIC_NUMBER + NapBlock.MAGIC_PATTERN.length;
+
+		final ByteBuffer b = ByteBuffer.allocate(length);
+		if (in.read(b) < length) {
+			return false;
+		}
+		b.flip();
+
+		return NapBlock.validateMagicNumber(b);
+	}
+
+	private final ReadableByteChannel in;
+
+	private final Filter<ProtocolFilterTarget> filter;
+
+	private final NapBlockDecoder decoder = new NapBlockDecoder();
+
+	private CaptureDevice captureDevice;
+
+	/**
+	 * @param in
+	 *          channel to read from
+	 * @param filter
+	 *          protocol filter to apply to packets
+	 */
+	public NapInputCapture(final ReadableByteChannel in,
+	    final Filter<ProtocolFilterTarget> filter) {
+		this.in = in;
+		this.filter = filter;
+		this.captureDevice =
+		    new DefaultCaptureDevice(PcapDLT.asConst(PcapDLT.EN10.intValue()));
+	}
+
+	public void close() throws IOException {
+		try {
+			decoder.end();
+		} finally {
+			in.close();
+		}
+	}
+
+	public long countPackets() throws IOException {
+		final InputIterator<NAPPacket> i = getPacketIterator();
+		long count = 0;
+
+		while (i.hasNext()) {
+			i.skip();
+
+			count++;
+		}
+
+		return count;
+	}
+
+	public final CaptureDevice getCaptureDevice() {
+		return this.captureDevice;
+	}
+
+	public Filter<ProtocolFilterTarget> getFilter() {
+		return this.filter;
+	}
+
+	public String getFormatName() {
+		return FormatType.Nap.toString();
+	}
+
+	public InputIterator<NAPPacket> getPacketIterator() throws IOException {
+		return getPacketIterator(filter);
+	}
+
+	/**
+	 * The protocol filter is applied to packet records using the link type of
+	 * each packet's block. Packets of blocks with an unknown link type do not
+	 * match any filter.
+	 */
+	public InputIterator<NAPPacket> getPacketIterator(
+	    final Filter<ProtocolFilterTarget> filter) throws IOException {
+
+		final BlockInput raw = new BlockInput(null);
+
+		return new InputIterator<NAPPacket>() {
+
+			private ByteBuffer prefetch;
+
+			public void close() throws IOException {
+				raw.close();
+			}
+
+			public long getPosition() {
+				return raw.getPosition();
+			}
+
+			public boolean hasNext() throws IOException {
+				while (prefetch == null && raw.hasNext()) {
+					final ByteBuffer b = raw.next();
+					if (b.get(b.position() + NapFile.HDR_TYPE) != NAPType.PacketRecord
+					    .getType()) {
+						continue;
+					}
+
+					final Protocol dlt = NapFileCapture.protocolOf(raw.getLinkType());
+					if (filter == null
+					    || (dlt != null && Files.checkProtocolFilter(filter, dlt, b,
+					        NapBlock.PACKET_HEADER_LENGTH))) {
+						prefetch = b;
+					}
+				}
+
+				return prefetch != null;
+			}
+
+			public NAPPacket next() throws IOException {
+				if (hasNext() == false) {
+					throw new NoSuchElementException();
+				}
+
+				final ByteBuffer b = prefetch;
+				prefetch = null;
+
+				return new NapPacketImpl(NapBlock.copyRecord(b),
+				    raw.getPosition() - 1, raw.getBlockPosition(), b.position(), raw
+				        .getLinkType(), captureDevice);
+			}
+
+			public void remove() throws IOException {
+				throw new UnsupportedOperationException(READ_ONLY);
+			}
+
+			public void skip() throws IOException {
+				hasNext();
+
+				prefetch = null;
+			}
+		};
+	}
+
+	public InputIterator<ByteBuffer> getRawIterator() throws IOException {
+		return getRawIterator(null);
+	}
+
+	/**
+	 * The returned buffers are views into the decoded payload of the current
+	 * block and are only valid until the next block is read.
+	 */
+	public InputIterator<ByteBuffer> getRawIterator(
+	    final Filter<RecordFilterTarget> filter) throws IOException {
+		return new BlockInput(filter);
+	}
+
+	public InputIterator<NAPRecord> getRecordIterator() throws IOException {
+		return getRecordIterator(null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.InputCapture#getRecordIterator(org.jnetstream.filter.Filter)
+	 */
+	public InputIterator<NAPRecord> getRecordIterator(
+	    final Filter<RecordFilterTarget> filter) throws IOException {
+
+		final InputIterator<ByteBuffer> raw = getRawIterator(filter);
+
+		return new InputIterator<NAPRecord>() {
+
+			public void close() throws IOException {
+				raw.close();
+			}
+
+			public long getPosition() {
+				return raw.getPosition();
+			}
+
+			public boolean hasNext() throws IOException {
+				return raw.hasNext();
+			}
+
+			public NAPRecord next() throws IOException {
+				final long position = raw.getPosition();
+
+				return new NapRecordImpl(null, NapBlock.copyRecord(raw.next()),
+				    position);
+			}
+
+			public void remove() throws IOException {
+				raw.remove();
+			}
+
+			public void skip() throws IOException {
+				raw.skip();
+			}
+		};
+	}
+
+	public CaptureType getType() {
+		return CaptureType.StreamCapture;
+	}
+
+	public boolean isMutable() {
+		return false;
+	}
+
+	public Iterator<NAPPacket> iterator() {
+		try {
+			return new IteratorAdapter<NAPPacket>(getPacketIterator());
+		} catch (IOException e) {
+			throw new IORuntimeException(e);
+		}
+	}
+
+	/**
+	 * Reads blocks from the stream and returns the records of their payloads.
+	 * The position is the index of the next record within the stream.
+	 */
+	private class BlockInput implements InputIterator<ByteBuffer> {
+
+		private final Filter<RecordFilterTarget> filter;
+
+		private final ByteBuffer header =
+		    ByteBuffer.allocate(NapBlock.BLOCK_HEADER_LENGTH);
+
+		private ByteBuffer block;
+
+		private ByteBuffer prefetch;
+
+		private int count;
+
+		private int index;
+
+		private int linkType;
+
+		private long blockPosition;
+
+		private long streamPosition = 0;
+
+		private long position = 0;
+
+		private boolean first = true;
+
+		public BlockInput(final Filter<RecordFilterTarget> filter) {
+			this.filter = filter;
+		}
+
+		public void close() throws IOException {
+			NapInputCapture.this.close();
+		}
+
+		/**
+		 * @return link type of the block the last record was returned from
+		 */
+		public int getLinkType() {
+			return linkType;
+		}
+
+		/**
+		 * @return stream position of the block the last record was returned from
+		 */
+		public long getBlockPosition() {
+			return blockPosition;
+		}
+
+		public long getPosition() {
+			return position;
+		}
+
+		public boolean hasNext() throws IOException {
+			while (prefetch == null) {
+				if (block == null || index == count) {
+					if (readBlock() == false) {
+						return false;
+					}
+					continue;
+				}
+
+				final int offset = block.getInt(index * NapBlock.INDEX_ENTRY_LENGTH);
+				final ByteBuffer b = block.duplicate();
+				b.limit(offset + b.getInt(offset + NapFile.HDR_RECORD_LENGTH));
+				b.position(offset);
+				index++;
+
+				if (filter == null
+				    || Files.checkRecordFilter(filter, b, NAPType.valueOf(b.get(offset
+				        + NapFile.HDR_TYPE)))) {
+					prefetch = b;
+				} else {
+					position++;
+				}
+			}
+
+			return true;
+		}
+
+		public ByteBuffer next() throws IOException {
+			if (hasNext() == false) {
+				throw new NoSuchElementException();
+			}
+
+			final ByteBuffer b = prefetch;
+			prefetch = null;
+			position++;
+
+			return b;
+		}
+
+		/**
+		 * Reads and decodes the next block.
+		 *
+		 * @return true if a block was read or false at the end of the stream
+		 * @throws FileFormatException
+		 *           if the block is invalid or the stream ends within it
+		 * @throws IOException
+		 *           any IO errors
+		 */
+		private boolean readBlock() throws IOException {
+			header.clear();
+			if (read(header) == false) {
+				return false;
+			}
+			header.flip();
+
+			NapBlockDecoder.checkHeader(header, null, streamPosition, -1);
+
+			final ByteBuffer stored = decoder.getStoredBuffer(header);
+			if (read(stored) == false) {
+				throw new FileFormatException("Truncated NAP block", null,
+				    streamPosition);
+			}
+
+			block = decoder.decode(header, null, streamPosition);
+			count = header.getInt(NAPBlockRecord.HDR_PACKET_COUNT);
+			index = 0;
+			linkType = header.getShort(NapBlock.HDR_LINK_TYPE) & 0xFFFF;
+			blockPosition = streamPosition;
+			streamPosition += header.getInt(NapBlock.HDR_BLOCK_LENGTH);
+
+			if (first) {
+				first = false;
+				captureDevice =
+				    new DefaultCaptureDevice(NapFileCapture.protocolOf(linkType));
+			}
+
+			return true;
+		}
+
+		/**
+		 * Fills the buffer from the stream.
+		 *
+		 * @return false if the stream ended before any bytes were read
+		 * @throws FileFormatException
+		 *           if the stream ended after some of the bytes were read
+		 * @throws IOException
+		 *           any IO errors
+		 */
+		private boolean read(final ByteBuffer b) throws IOException {
+			final int start = b.position();
+
+			while (b.hasRemaining()) {
+				if (in.read(b) == -1) {
+					if (b.position() == start) {
+						return false;
+					}
+
+					throw new FileFormatException("Truncated NAP block", null,
+					    streamPosition);
+				}
+			}
+
+			return true;
+		}
+
+		public void remove() throws IOException {
+			throw new UnsupportedOperationException(READ_ONLY);
+		}
+
+		public void skip() throws IOException {
+			next();
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+
+import org.jnetstream.capture.CapturePacket;
+import org.jnetstream.capture.CaptureType;
+import org.jnetstream.capture.FormatType;
+import org.jnetstream.capture.file.Record;
+import org.jnetstream.capture.file.nap.NAPFlag;
+import org.jnetstream.capture.file.nap.NAPPacket;
+import org.jnetstream.capture.file.nap.NAPRecord;
+import org.jnetstream.capture.file.nap.NapOutput;
+import org.jnetstream.capture.file.pcap.PcapFile;
+import org.jnetstream.filter.Filter;
+import org.jnetstream.packet.Packet;
+import org.jnetstream.packet.ProtocolFilterTarget;
+import org.jnetstream.protocol.Protocol;
+import org.jnetstream.protocol.ProtocolRegistry;
+
+import com.slytechs.file.nap.NapBlock.Compression;
+import com.slytechs.jnetstream.packet.APacket;
+import com.slytechs.utils.collection.IOSkippableIterator;
+
+/**
+ * A NAP output stream. Packets are collected into blocks, which are written
+ * out once they reach the blocking factor or when a packet with a different
+ * link type is added. The last block is written out when the stream is
+ * closed. A stream that no packets were added to still gets an empty block,
+ * so that it is recognized as NAP.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class NapOutputCapture implements NapOutput {
+
+	private final NapFileWriter writer;
+
+	private boolean empty = true;
+
+	/**
+	 * Blocks are compressed with the Deflate compression.
+	 *
+	 * @param out
+	 *          channel to write to
+	 */
+	public NapOutputCapture(final WritableByteChannel out) {
+		this(out, Compression.Deflate);
+	}
+
+	/**
+	 * @param out
+	 *          channel to write to
+	 * @param compression
+	 *          compression of the block payloads
+	 */
+	public NapOutputCapture(final WritableByteChannel out,
+	    final Compression compression) {
+		this.writer = new NapFileWriter(out, compression);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.OutputCapture#add(org.jnetstream.packet.Packet)
+	 */
+	public void add(final Packet packet) throws IOException {
+		final int linkType;
+
+		if (packet instanceof NapPacketImpl) {
+			linkType = ((NapPacketImpl) packet).getLinkType();
+
+		} else {
+			final Protocol dlt = (packet instanceof APacket && ((APacket) packet)
+			    .getDlt() != null) ? ((APacket) packet).getDlt().getProtocol() : null;
+
+			if (dlt == null) {
+				throw new IllegalArgumentException("Packet's link type is unknown");
+			}
+
+			linkType = ProtocolRegistry.translate(PcapFile.class, dlt);
+			if (linkType == -1) {
+				throw new IllegalArgumentException("Protocol (" + dlt
+				    + ") does not have a pcap link type");
+			}
+		}
+
+		int flags = 0;
+		if (packet instanceof NAPPacket) {
+			for (final NAPFlag f : ((NAPPacket) packet).getFlags()) {
+				flags |= f.getFlag();
+			}
+		}
+
+		writer.setLinkType(linkType);
+		writer.add(packet.getTimestampSeconds(), packet.getTimestampNanos(),
+		    packet.getOriginalLength(), packet.getBuffer().toByteBuffer(), flags);
+		empty = false;
+	}
+
+	/**
+	 * Only NAP records can be written.
+	 */
+	public <T extends Record> void add(final T record) throws IOException {
+		if (record instanceof NAPRecord == false) {
+			throw new IllegalArgumentException(
+			    "Only NAP records can be written to a NAP output");
+		}
+
+		add((NAPRecord) record);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.nap.NapOutput#add(org.jnetstream.capture.file.nap.NAPRecord)
+	 */
+	public void add(final NAPRecord record) throws IOException {
+		add(record.getRecordBuffer());
+	}
+
+	/**
+	 * Writes an already formatted packet record, with the link type of the
+	 * packets added before it. Block headers are written by the stream itself
+	 * and can not be added.
+	 */
+	public void add(final ByteBuffer raw) throws IOException {
+		NapBlock.checkPacketRecord(raw);
+
+		writer.add(NapBlock.getSeconds(raw), NapBlock.getNanos(raw), NapBlock
+		    .getOriginalLength(raw), NapBlock.getPacketData(raw), NapBlock
+		    .getFlags(raw));
+		empty = false;
+	}
+
+	public void close() throws IOException {
+		try {
+			if (empty) {
+				writer.addBlock(); // An empty stream is still a valid NAP file
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	public Filter<ProtocolFilterTarget> getFilter() {
+		return null;
+	}
+
+	public FormatType getFormatType() {
+		return FormatType.Nap;
+	}
+
+	public IOSkippableIterator<CapturePacket> getPacketIterator()
+	    throws IOException {
+		throw new UnsupportedOperationException(
+		    "Output stream is writeonly. Operation not supported");
+	}
+
+	public CaptureType getType() {
+		return CaptureType.StreamCapture;
+	}
+
+	public boolean isMutable() {
+		return false;
+	}
+
+	public Iterator<CapturePacket> iterator() {
+		throw new UnsupportedOperationException(
+		    "Output stream is writeonly. Operation not supported");
+	}
+}
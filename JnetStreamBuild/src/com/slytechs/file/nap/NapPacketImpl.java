@@ -0,0 +1,368 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.jnetstream.capture.CaptureDevice;
+import org.jnetstream.capture.file.RecordType;
+import org.jnetstream.capture.file.nap.NAPCaptureInfo;
+import org.jnetstream.capture.file.nap.NAPFlag;
+import org.jnetstream.capture.file.nap.NAPPacket;
+import org.jnetstream.capture.file.nap.NapFile;
+import org.jnetstream.packet.Header;
+import org.jnetstream.protocol.Protocol;
+import org.jnetstream.protocol.ProtocolEntry;
+import org.jnetstream.protocol.ProtocolNotFoundException;
+import org.jnetstream.protocol.ProtocolRegistry;
+
+import com.slytechs.jnetstream.packet.AFilePacket;
+import com.slytechs.utils.memory.BitBuffer;
+
+/**
+ * A packet from a NAP block. The packet record is copied out of the decoded
+ * block, so the packet remains valid after other blocks are decoded. Blocks
+ * are never rewritten, so the packet's fields are read only.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class NapPacketImpl
+    extends AFilePacket implements NAPPacket {
+
+	private static final String READ_ONLY = "NAP packets are read only";
+
+	private final long regional;
+
+	private final int local;
+
+	private final int linkType;
+
+	private final CaptureDevice captureDevice;
+
+	/**
+	 * @param buffer
+	 *          buffer containing only the packet record starting at position 0
+	 * @param position
+	 *          index of the packet
+	 * @param regional
+	 *          position of the packet's block
+	 * @param local
+	 *          offset of the packet record within the block's payload
+	 * @param linkType
+	 *          link type of the packet's block
+	 * @param captureDevice
+	 *          capture device of the file or stream
+	 */
+	public NapPacketImpl(final ByteBuffer buffer, final long position,
+	    final long regional, final int local, final int linkType,
+	    final CaptureDevice captureDevice) {
+		super(entryOf(linkType), buffer, BitBuffer.wrap(buffer), position);
+
+		this.regional = regional;
+		this.local = local;
+		this.linkType = linkType;
+		this.captureDevice = captureDevice;
+	}
+
+	/*
+	 * An unregistered link type leaves the packet without a first protocol,
+	 * instead of decoding it as another link type
+	 */
+	private static ProtocolEntry entryOf(final int linkType) {
+		final Protocol dlt = NapFileCapture.protocolOf(linkType);
+
+		return (dlt == null) ? null : ProtocolRegistry.lookup(dlt);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.packet.Packet#getBuffer()
+	 */
+	public BitBuffer getBuffer() throws IOException {
+		final int included = (int) getIncludedLength();
+		final int start = offset + getRecordHeaderLength();
+
+		final BitBuffer b = getRecordBitBuffer();
+		b.limit((start + included) * 8);
+		b.position(start * 8);
+
+		return b;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.jnetstream.packet.AFilePacket#getCaptureDevice()
+	 */
+	@Override
+	public CaptureDevice getCaptureDevice() {
+		return captureDevice;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.nap.NAPPacket#getCaptureNanos()
+	 */
+	public long getCaptureNanos() throws IOException {
+		final ByteBuffer b = getRecordByteBuffer();
+
+		return b.getInt(offset + NapBlock.HDR_NANOS) & 0xFFFFFFFFL;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.nap.NAPPacket#getCaptureSeconds()
+	 */
+	public long getCaptureSeconds() throws IOException {
+		final ByteBuffer b = getRecordByteBuffer();
+
+		return b.getInt(offset + NapBlock.HDR_SECONDS) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Capture systems are described by meta records, which are not written.
+	 */
+	public NAPCaptureInfo getCaptureSystem() throws IOException {
+		throw new UnsupportedOperationException("Not implemented yet");
+	}
+
+	/**
+	 * Capture systems are described by meta records, which are not written.
+	 */
+	public int getCaptureSystemId() throws IOException {
+		throw new UnsupportedOperationException("Not implemented yet");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.nap.NAPPacket#getCaptureTimestamp()
+	 */
+	public Timestamp getCaptureTimestamp() throws IOException {
+		return getTimestamp();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.nap.NAPPacket#getFlags()
+	 */
+	public Set<NAPFlag> getFlags() throws IOException {
+		final int bits = getRecordByteBuffer().getShort(
+		    offset + NapBlock.HDR_RECORD_FLAGS) & 0xFFFF;
+
+		final Set<NAPFlag> flags = EnumSet.noneOf(NAPFlag.class);
+		for (final NAPFlag f : NAPFlag.values()) {
+			if ((bits & f.getFlag()) != 0) {
+				flags.add(f);
+			}
+		}
+
+		return flags;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.CapturePacket#getIncludedLength()
+	 */
+	public long getIncludedLength() throws IOException {
+		return getRecordLength() - NapBlock.PACKET_HEADER_LENGTH;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.packet.Packet#getLastHeader(java.lang.Class)
+	 */
+	public <T extends Header> T getLastHeader(Class<T> c)
+	    throws ProtocolNotFoundException, IllegalStateException {
+		throw new UnsupportedOperationException("Not implemented yet");
+	}
+
+	/**
+	 * Packets keep the raw link type of their block, which is copied along with
+	 * the packet even if no protocol is registered for it.
+	 *
+	 * @return link type of the packet's block
+	 */
+	int getLinkType() {
+		return linkType;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.CapturePacket#getOriginalLength()
+	 */
+	public long getOriginalLength() throws IOException {
+		final ByteBuffer b = getRecordByteBuffer();
+
+		return b.getInt(offset + NapBlock.HDR_ORIGINAL_LENGTH) & 0xFFFFFFFFL;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.nap.NAPPacket#getPacketBuffer()
+	 */
+	public ByteBuffer getPacketBuffer() throws IOException {
+		final ByteBuffer b = getRecordByteBuffer().duplicate();
+		b.position(offset);
+
+		return NapBlock.getPacketData(b);
+	}
+
+	/**
+	 * @return offset of the packet record within its block's decoded payload
+	 */
+	public int getPositionLocal() throws IOException {
+		return local;
+	}
+
+	/**
+	 * @return position of the packet's block within the file or stream
+	 */
+	public long getPositionRegional() throws IOException {
+		return regional;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.jnetstream.packet.AFilePacket#getRecordHeaderLength()
+	 */
+	@Override
+	public int getRecordHeaderLength() {
+		return NapBlock.PACKET_HEADER_LENGTH;
+	}
+
+	/**
+	 * The length is read from the record's header, so it does not depend on
+	 * the buffer's properties.
+	 */
+	@Override
+	public long getRecordLength() throws IOException {
+		return getRecordByteBuffer().getInt(offset + NapFile.HDR_RECORD_LENGTH);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.Record#getRecordType()
+	 */
+	public RecordType getRecordType() {
+		return RecordType.PacketRecord;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.packet.Packet#getTimestamp()
+	 */
+	public Timestamp getTimestamp() throws IOException {
+		final Timestamp ts = new Timestamp(getCaptureSeconds() * 1000L);
+		ts.setNanos((int) getCaptureNanos());
+
+		return ts;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.packet.Packet#getTimestampNanos()
+	 */
+	public long getTimestampNanos() throws IOException {
+		return getCaptureNanos();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.packet.Packet#getTimestampSeconds()
+	 */
+	public long getTimestampSeconds() throws IOException {
+		return getCaptureSeconds();
+	}
+
+	/**
+	 * Packets are copies and remain valid after the file is modified.
+	 */
+	@Override
+	public boolean isValid() {
+		return true;
+	}
+
+	public void setCaptureDevice(final CaptureDevice device) {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setCaptureNanos() throws IOException {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setCaptureSeconds() throws IOException {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setCaptureSystem(final NAPCaptureInfo captureSystem)
+	    throws IOException {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setCaptureSystemId(final int id) throws IOException {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setCaptureTimestamp(final Timestamp captureTimestamp)
+	    throws IOException {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setFlags(final Set<NAPFlag> flags) throws IOException {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setIncludedLength(final int length) throws IOException {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setOriginalLength() throws IOException {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setOriginalLength(final int length) throws IOException {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setPacketBuffer(final ByteBuffer buffer) throws IOException {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setTimestamp(final long seconds, final int nanos)
+	    throws IllegalArgumentException, IOException {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+
+	public void setTimestamp(final Timestamp time) throws IOException {
+		throw new UnsupportedOperationException(READ_ONLY);
+	}
+}
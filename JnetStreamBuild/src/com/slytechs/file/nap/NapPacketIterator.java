@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+
+import org.jnetstream.capture.PacketIterator;
+import org.jnetstream.capture.file.RawIterator;
+import org.jnetstream.capture.file.nap.NAPFlag;
+import org.jnetstream.capture.file.nap.NAPPacket;
+import org.jnetstream.capture.file.pcap.PcapFile;
+import org.jnetstream.packet.Packet;
+import org.jnetstream.protocol.Protocol;
+import org.jnetstream.protocol.ProtocolRegistry;
+
+import com.slytechs.capture.file.editor.AbstractIterator;
+import com.slytechs.jnetstream.packet.APacket;
+
+/**
+ * Iterates over the packets of a NAP file. The first protocol of each packet
+ * is the link type of its block. Packets can only be added at the end of the
+ * file. A packet with a different link type than the packets before it starts
+ * a new block.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class NapPacketIterator
+    extends AbstractIterator implements PacketIterator<NAPPacket> {
+
+	private final NapFileCapture file;
+
+	public NapPacketIterator(final NapFileCapture file, final RawIterator raw)
+	    throws IOException {
+		super(raw);
+		this.file = file;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.PacketIterator#add(java.nio.ByteBuffer)
+	 */
+	public void add(final ByteBuffer data) throws IOException {
+		this.add(data, null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.PacketIterator#add(java.nio.ByteBuffer, int,
+	 *      long, long, long)
+	 */
+	public void add(final ByteBuffer data, final int dlt, final long original,
+	    final long seconds, final long nanos) throws IOException {
+
+		file.setLinkType(dlt);
+
+		this.raw.add(NapBlock.createPacketRecord(seconds, nanos, original, data,
+		    0));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.PacketIterator#add(java.nio.ByteBuffer,
+	 *      org.jnetstream.protocol.Protocol)
+	 */
+	public void add(final ByteBuffer data, final Protocol dlt) throws IOException {
+		final long original = data.limit() - data.position();
+
+		this.add(data, dlt, original);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.PacketIterator#add(java.nio.ByteBuffer,
+	 *      org.jnetstream.protocol.Protocol, long)
+	 */
+	public void add(final ByteBuffer data, final Protocol dlt, final long original)
+	    throws IOException {
+		final long millis = System.currentTimeMillis();
+		final long seconds = millis / 1000;
+		final long nanos = (millis % 1000) * 1000000L;
+
+		this.add(data, dlt, original, seconds, nanos);
+	}
+
+	/**
+	 * A null link type adds the packet with the link type of the packets
+	 * before it.
+	 *
+	 * @see org.jnetstream.capture.PacketIterator#add(java.nio.ByteBuffer,
+	 *      org.jnetstream.protocol.Protocol, long, long, long)
+	 */
+	public void add(final ByteBuffer data, final Protocol dlt,
+	    final long original, final long seconds, final long nanos)
+	    throws IOException {
+
+		if (dlt != null) {
+			file.setLinkType(linkTypeOf(dlt));
+		}
+
+		this.raw.add(NapBlock.createPacketRecord(seconds, nanos, original, data,
+		    0));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.FileModifier#add(java.lang.Object)
+	 */
+	public void add(final Packet element) throws IOException {
+		int flags = 0;
+		if (element instanceof NAPPacket) {
+			for (final NAPFlag f : ((NAPPacket) element).getFlags()) {
+				flags |= f.getFlag();
+			}
+		}
+
+		if (element instanceof NapPacketImpl) {
+			file.setLinkType(((NapPacketImpl) element).getLinkType());
+
+		} else {
+			final Protocol dlt = (element instanceof APacket && ((APacket) element)
+			    .getDlt() != null) ? ((APacket) element).getDlt().getProtocol() : null;
+
+			if (dlt == null) {
+				throw new IllegalArgumentException("Packet's link type is unknown");
+			}
+
+			file.setLinkType(linkTypeOf(dlt));
+		}
+
+		this.raw.add(NapBlock.createPacketRecord(element.getTimestampSeconds(),
+		    element.getTimestampNanos(), element.getOriginalLength(), element
+		        .getBuffer().toByteBuffer(), flags));
+	}
+
+	/**
+	 * Packets are added one at a time, as each one may change the link type of
+	 * the block.
+	 *
+	 * @see org.jnetstream.capture.file.FileModifier#add(java.util.List)
+	 */
+	public void addAll(final List<Packet> elements) throws IOException {
+		for (final Packet packet : elements) {
+			this.add(packet);
+		}
+	}
+
+	/**
+	 * Packets are added one at a time, as each one may change the link type of
+	 * the block.
+	 *
+	 * @see org.jnetstream.capture.file.FileModifier#add(T[])
+	 */
+	public void addAll(final Packet... elements) throws IOException {
+		for (final Packet packet : elements) {
+			this.add(packet);
+		}
+	}
+
+	private int linkTypeOf(final Protocol dlt) {
+		final int linkType = ProtocolRegistry.translate(PcapFile.class, dlt);
+		if (linkType == -1) {
+			throw new IllegalArgumentException("Protocol (" + dlt
+			    + ") does not have a pcap link type");
+		}
+
+		return linkType;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.utils.collection.IOIterator#next()
+	 */
+	public NAPPacket next() throws IOException {
+		final long position = this.raw.getPosition();
+		final ByteBuffer b = this.raw.next();
+
+		final NapFileReader reader = file.getReader();
+		final int block = reader.getBlockOf(position);
+
+		return new NapPacketImpl(NapBlock.copyRecord(b), position, reader
+		    .getBlockPosition(block), b.position(), reader
+		    .getBlockLinkType(block), file.getCaptureDevice());
+	}
+
+	public void removeAll(final Collection<NAPPacket> elements)
+	    throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void removeAll(final NAPPacket... elements) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void replace(final Packet element) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void retainAll(final List<NAPPacket> elements) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void retainAll(final NAPPacket... elements) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void swap(final NAPPacket dst, final NAPPacket src)
+	    throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+}
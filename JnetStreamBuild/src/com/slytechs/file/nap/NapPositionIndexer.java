@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.io.IOException;
+
+import com.slytechs.capture.file.indexer.PacketPositionIndexer;
+
+/**
+ * Position indexer for NAP files. The positions of NAP iterators are packet
+ * indexes, so no table is needed and every index translates to itself. The
+ * per-block offset table that locates a packet is kept by the
+ * {@link NapFileReader}.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class NapPositionIndexer implements PacketPositionIndexer {
+
+	private final NapFileCapture file;
+
+	NapPositionIndexer(final NapFileCapture file) {
+		this.file = file;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.indexer.PositionIndexer#get(long)
+	 */
+	public Long get(final long globalIndex) throws IOException {
+		if (globalIndex < 0 || globalIndex >= file.size()) {
+			throw new IndexOutOfBoundsException("Packet index " + globalIndex
+			    + " out of range 0 to " + file.size());
+		}
+
+		return globalIndex;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.indexer.PositionIndexer#size()
+	 */
+	public long size() {
+		return file.size();
+	}
+
+	/**
+	 * The whole file is a single segment.
+	 *
+	 * @see com.slytechs.capture.file.indexer.PositionIndexer#getSegmentCount()
+	 */
+	public int getSegmentCount() {
+		return 1;
+	}
+
+	/**
+	 * Nothing needs to be kept in memory, as indexes are not looked up.
+	 *
+	 * @see com.slytechs.capture.file.indexer.PositionIndexer#keepInMemory(long,
+	 *      long)
+	 */
+	public Object keepInMemory(final long start, final long length)
+	    throws IOException {
+		return null;
+	}
+}
@@ -0,0 +1,683 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.jnetstream.capture.FileFormatException;
+import org.jnetstream.capture.file.RawIterator;
+import org.jnetstream.capture.file.RecordError;
+import org.jnetstream.capture.file.RecordFilterTarget;
+import org.jnetstream.capture.file.nap.NAPType;
+import org.jnetstream.filter.Filter;
+import org.jnetstream.packet.ProtocolFilterTarget;
+import org.jnetstream.protocol.Protocol;
+
+import com.slytechs.capture.file.Files;
+import com.slytechs.utils.collection.IOIterator;
+import com.slytechs.utils.collection.IOPositional;
+import com.slytechs.utils.collection.SeekResult;
+import com.slytechs.utils.collection.IOIterator.IteratorAdapter;
+
+/**
+ * <p>
+ * Iterates over the packet records or the block headers of a NAP file. The
+ * position of the iterator is the index of the packet or block, which is also
+ * what {@link #seek(long)} and {@link #setPosition(long)} take. The index of a
+ * packet is resolved to its block using the per-block packet counts scanned by
+ * the {@link NapFileReader}, so any packet is reached by decoding a single
+ * block.
+ * </p>
+ * <p>
+ * Packet records returned share their content with the decoded block and are
+ * only valid until a packet from another block is read. New packet records
+ * can only be added at the end of the file.
+ * </p>
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public final class NapRawIterator implements RawIterator {
+
+	private final NapFileCapture file;
+
+	private final boolean blocks;
+
+	private final Filter<RecordFilterTarget> recordFilter;
+
+	private final Filter<ProtocolFilterTarget> protocolFilter;
+
+	private long position = 0;
+
+	/**
+	 * @param file
+	 *          file to iterate over
+	 * @param blocks
+	 *          true to iterate over the block headers, false to iterate over the
+	 *          packet records
+	 * @param recordFilter
+	 *          record filter or null, packet records are passed the
+	 *          {@link NAPType#PacketRecord} target and block headers the
+	 *          {@link NAPType#BlockRecord} target
+	 * @param protocolFilter
+	 *          protocol filter applied to the packet data or null
+	 */
+	public NapRawIterator(final NapFileCapture file, final boolean blocks,
+	    final Filter<RecordFilterTarget> recordFilter,
+	    final Filter<ProtocolFilterTarget> protocolFilter) {
+		this.file = file;
+		this.blocks = blocks;
+		this.recordFilter = recordFilter;
+		this.protocolFilter = protocolFilter;
+	}
+
+	/**
+	 * @return number of records, including packets added but not yet written
+	 *         out
+	 */
+	private long size() {
+		return blocks ? file.getReader().getBlockCount() : file.size();
+	}
+
+	/**
+	 * @param index
+	 *          index of the packet or block
+	 * @return the record or the block header
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private ByteBuffer read(final long index) throws IOException {
+		if (blocks) {
+			return file.getReader().getBlockHeader((int) index);
+		}
+
+		return file.getRecord(index);
+	}
+
+	/**
+	 * @param index
+	 *          index of the packet or block
+	 * @return true if the record passes the filters
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private boolean accept(final long index) throws IOException {
+		if (recordFilter == null && (protocolFilter == null || blocks)) {
+			return true;
+		}
+
+		final ByteBuffer b = read(index);
+
+		if (recordFilter != null
+		    && Files.checkRecordFilter(recordFilter, b, blocks ? NAPType.BlockRecord
+		        : NAPType.PacketRecord) == false) {
+			return false;
+		}
+
+		if (protocolFilter != null && blocks == false) {
+			final Protocol dlt = NapFileCapture.protocolOf(file.getLinkType(index));
+
+			return dlt != null
+			    && Files.checkProtocolFilter(protocolFilter, dlt, b,
+			        NapBlock.PACKET_HEADER_LENGTH);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Capture timestamp of a packet record or the first packet of a block.
+	 *
+	 * @param index
+	 *          index of the packet or block
+	 * @return timestamp in nanos or -1 if the block is empty
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private long readTimestamp(final long index) throws IOException {
+		if (blocks) {
+			final NapFileReader reader = file.getReader();
+			final int b = (int) index;
+			final long first = reader.getFirstPacket(b);
+
+			if (b + 1 < reader.getBlockCount() ? first == reader
+			    .getFirstPacket(b + 1) : first == reader.getPacketCount()) {
+				return -1;
+			}
+
+			return NapBlock.getTimestamp(file.getRecord(first));
+		}
+
+		return NapBlock.getTimestamp(file.getRecord(index));
+	}
+
+	/**
+	 * Blocks are written as soon as they are full and can not be taken back.
+	 *
+	 * @see org.jnetstream.capture.file.FileModifier#abortChanges()
+	 */
+	public void abortChanges() throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	/**
+	 * Appends a packet record at the end of the file and advances past it.
+	 *
+	 * @param b
+	 *          buffer containing a single packet record, not modified
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void add(final ByteBuffer b) throws IOException {
+		if (blocks) {
+			throw new UnsupportedOperationException(
+			    "Blocks are added with NAPBlockRecordIterator.addBlock()");
+		}
+
+		if (position != size()) {
+			throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+		}
+
+		file.add(b.duplicate());
+		position++;
+	}
+
+	/**
+	 * The record is always copied into the block being assembled.
+	 *
+	 * @see org.jnetstream.capture.file.RawIterator#add(java.nio.ByteBuffer,
+	 *      boolean)
+	 */
+	public void add(final ByteBuffer b, final boolean copy) throws IOException {
+		add(b);
+	}
+
+	/**
+	 * Adds a packet record split across 2 buffers, such as a header and its
+	 * packet data.
+	 *
+	 * @see org.jnetstream.capture.file.RawIterator#add(java.nio.ByteBuffer,
+	 *      java.nio.ByteBuffer)
+	 */
+	public void add(final ByteBuffer b1, final ByteBuffer b2) throws IOException {
+		final ByteBuffer b = ByteBuffer.allocate(b1.remaining() + b2.remaining());
+		b.put(b1.duplicate());
+		b.put(b2.duplicate());
+		b.flip();
+
+		add(b);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.FileModifier#addAll(S[])
+	 */
+	public void addAll(final ByteBuffer... elements) throws IOException {
+		for (final ByteBuffer b : elements) {
+			add(b);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.FileModifier#addAll(java.util.List)
+	 */
+	public void addAll(final List<ByteBuffer> elements) throws IOException {
+		for (final ByteBuffer b : elements) {
+			add(b);
+		}
+	}
+
+	/**
+	 * The file is shared by all iterators and is not closed.
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	public void close() throws IOException {
+		// Empty
+	}
+
+	/**
+	 * Writes out the block of any packets added.
+	 *
+	 * @see java.io.Flushable#flush()
+	 */
+	public void flush() throws IOException {
+		file.flush();
+	}
+
+	/**
+	 * @return the record filter, or the protocol filter of a packet iterator if
+	 *         there is no record filter
+	 */
+	public Filter<?> getFilter() {
+		return (recordFilter != null) ? recordFilter : (blocks ? null
+		    : protocolFilter);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.utils.collection.IOPositional#getPosition()
+	 */
+	public long getPosition() throws IOException {
+		return position;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.utils.collection.IOIterator#hasNext()
+	 */
+	public boolean hasNext() throws IOException {
+		final long size = size();
+
+		while (position < size) {
+			if (accept(position)) {
+				return true;
+			}
+
+			position++;
+		}
+
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Iterable#iterator()
+	 */
+	public Iterator<ByteBuffer> iterator() {
+		return new IteratorAdapter<ByteBuffer>(this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.utils.collection.IOIterator#next()
+	 */
+	public ByteBuffer next() throws IOException {
+		if (hasNext() == false) {
+			throw new NoSuchElementException();
+		}
+
+		final ByteBuffer b = read(position);
+		position++;
+
+		return b;
+	}
+
+	public void remove() throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void removeAll() throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void removeAll(final Collection<Long> elements) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void removeAll(final long count) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void removeAll(final Long... elements) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void replace(final ByteBuffer element) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void replace(final ByteBuffer element, final boolean copy)
+	    throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void replaceInPlace() throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void resize(final long size) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void retainAll(final List<Long> elements) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void retainAll(final Long... elements) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void swap(final Long dst, final Long src) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	/**
+	 * Seeks to the record at the relative position, measured in records.
+	 *
+	 * @see com.slytechs.utils.collection.IOSeekable#seek(double)
+	 */
+	public SeekResult seek(final double percentage) throws IOException {
+		if ((percentage < 0.0) || (percentage > 1.0)) {
+			throw new IllegalArgumentException(
+			    "percentage is out of range, must be between 0.0 and 1.0");
+		}
+
+		return seek((long) (percentage * size()));
+	}
+
+	/**
+	 * Seeks to the first record that passes the filter at or after the index of
+	 * a record.
+	 *
+	 * @see com.slytechs.utils.collection.IOSeekable#seek(long)
+	 */
+	public SeekResult seek(final long index) throws IOException {
+		setPosition(index);
+
+		return hasNext() ? SeekResult.Fullfilled : SeekResult.NotFullfilled;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.FileIterator#seek(long, long)
+	 */
+	public SeekResult seek(final long seconds, final long nanos)
+	    throws IOException {
+		return seekTime(seconds * 1000000000L + nanos);
+	}
+
+	/**
+	 * Seeks to the first record at or after the current position that passes
+	 * the filter, in addition to the iterator's own filters.
+	 *
+	 * @see org.jnetstream.capture.file.RawIterator#seek(org.jnetstream.filter.Filter)
+	 */
+	public SeekResult seek(final Filter<RecordFilterTarget> filter)
+	    throws IOException {
+
+		while (hasNext()) {
+			if (filter == null
+			    || Files.checkRecordFilter(filter, read(position),
+			        blocks ? NAPType.BlockRecord : NAPType.PacketRecord)) {
+				return SeekResult.Fullfilled;
+			}
+
+			position++;
+		}
+
+		return SeekResult.NotFullfilled;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.utils.collection.IOSeekableFirstLast#seekEnd()
+	 */
+	public SeekResult seekEnd() throws IOException {
+		position = size();
+
+		return SeekResult.Fullfilled;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.utils.collection.IOSeekableFirstLast#seekFirst()
+	 */
+	public SeekResult seekFirst() throws IOException {
+		return seek(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.utils.collection.IOSeekableFirstLast#seekLast()
+	 */
+	public SeekResult seekLast() throws IOException {
+		for (long i = size() - 1; i >= 0; i--) {
+			if (accept(i)) {
+				position = i;
+
+				return SeekResult.Fullfilled;
+			}
+		}
+
+		position = 0;
+
+		return SeekResult.NotFullfilled;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.RawIterator#seekSecond()
+	 */
+	public SeekResult seekSecond() throws IOException {
+		if (seekFirst() == SeekResult.NotFullfilled) {
+			return SeekResult.NotFullfilled;
+		}
+
+		position++;
+
+		return hasNext() ? SeekResult.Fullfilled : SeekResult.NotFullfilled;
+	}
+
+	/**
+	 * Seeks to the record with the index among the records that pass the
+	 * filters. Without filters this does not read any records.
+	 *
+	 * @see org.jnetstream.capture.file.RawIterator#seekToIndex(long)
+	 */
+	public SeekResult seekToIndex(final long recordIndex) throws IOException {
+		if (getFilter() == null) {
+			return seek(Math.min(recordIndex, size()));
+		}
+
+		seekFirst();
+		for (long i = 0; i < recordIndex; i++) {
+			if (hasNext() == false) {
+				return SeekResult.NotFullfilled;
+			}
+
+			position++;
+		}
+
+		return hasNext() ? SeekResult.Fullfilled : SeekResult.NotFullfilled;
+	}
+
+	/**
+	 * Seeks to the first record with a timestamp equal or later than the
+	 * timestamp, by a binary search over the record indexes. Records are
+	 * assumed to be in timestamp order. The timestamp of a block is the
+	 * timestamp of its first packet, empty blocks are skipped over.
+	 *
+	 * @see org.jnetstream.capture.file.RawIterator#seekTime(long)
+	 */
+	public SeekResult seekTime(final long timestamp) throws IOException {
+		long start = 0;
+		long end = size();
+
+		while (start < end) {
+			final long middle = start + (end - start) / 2;
+
+			long probe = middle;
+			long ts = readTimestamp(probe);
+			while (ts == -1 && ++probe < end) {
+				ts = readTimestamp(probe);
+			}
+
+			if (ts == -1 || ts >= timestamp) {
+				end = middle;
+			} else {
+				start = probe + 1;
+			}
+		}
+
+		position = start;
+
+		while (hasNext()) {
+			final long ts = readTimestamp(position);
+			if (ts >= timestamp) {
+				return SeekResult.Fullfilled;
+			}
+
+			position++;
+		}
+
+		/*
+		 * The timestamp is later then any record in the file, leave the iterator
+		 * positioned at the end where records with later timestamps would go
+		 */
+		return SeekResult.NotFullfilled;
+	}
+
+	/**
+	 * Returns an iterator over all the records with timestamps within the time
+	 * range, see {@link #seekTime(long)}. The iterator shares the position of
+	 * this raw iterator.
+	 *
+	 * @see org.jnetstream.capture.file.RawIterator#timeRange(long, long)
+	 */
+	public IOIterator<ByteBuffer> timeRange(final long startTimestamp,
+	    final long endTimestamp) throws IOException {
+		seekTime(startTimestamp);
+
+		return new IOIterator<ByteBuffer>() {
+
+			public boolean hasNext() throws IOException {
+				while (NapRawIterator.this.hasNext()) {
+					final long ts = readTimestamp(position);
+					if (ts != -1) {
+						return ts < endTimestamp;
+					}
+
+					position++; // Empty block, not part of any time range
+				}
+
+				return false;
+			}
+
+			public ByteBuffer next() throws IOException {
+				if (this.hasNext() == false) {
+					throw new NoSuchElementException();
+				}
+
+				return NapRawIterator.this.next();
+			}
+
+			public void remove() throws IOException {
+				NapRawIterator.this.remove();
+			}
+		};
+	}
+
+	/**
+	 * Packets added are buffered until their block is full or the file is
+	 * flushed, regardless of the autoflush state.
+	 *
+	 * @see org.jnetstream.capture.file.FileIterator#setAutoflush(boolean)
+	 */
+	public void setAutoflush(final boolean state) throws IOException {
+		// Empty
+	}
+
+	/**
+	 * Sets the position to the index of a record, without applying any filters.
+	 *
+	 * @see com.slytechs.utils.collection.IOPositional#setPosition(long)
+	 */
+	public long setPosition(final long index) throws IOException {
+		if (index < 0 || index > size()) {
+			throw new IndexOutOfBoundsException("Record index " + index
+			    + " out of range 0 to " + size());
+		}
+
+		position = index;
+
+		return position;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.utils.collection.IOPositional#setPosition(com.slytechs.utils.collection.IOPositional)
+	 */
+	public long setPosition(final IOPositional position) throws IOException {
+		return setPosition(position.getPosition());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.utils.collection.IOSkippable#skip()
+	 */
+	public void skip() throws IOException {
+		if (hasNext() == false) {
+			throw new NoSuchElementException();
+		}
+
+		position++;
+	}
+
+	/**
+	 * Skips over the rest of a block that fails to decode. Packet records are
+	 * only reachable through their block, so the packets of a corrupt block are
+	 * lost. Block headers are checked when the file is opened, so the block
+	 * iterator never encounters errors.
+	 *
+	 * @return the error of the corrupt block or an empty array if the record at
+	 *         the position decodes fine
+	 * @see org.jnetstream.capture.file.RawIterator#skipOverErrors()
+	 */
+	public RecordError[] skipOverErrors() throws IOException {
+		if (blocks || position >= size()) {
+			return new RecordError[0];
+		}
+
+		try {
+			file.getRecord(position);
+
+			return new RecordError[0];
+
+		} catch (final FileFormatException e) {
+			final NapFileReader reader = file.getReader();
+			final int b = reader.getBlockOf(position);
+			final RecordError error =
+			    new RecordError(position, e.getMessage(), e);
+
+			position = (b + 1 < reader.getBlockCount()) ? reader
+			    .getFirstPacket(b + 1) : reader.getPacketCount();
+
+			return new RecordError[] { error };
+		}
+	}
+
+	public String toString() {
+		return "[NapRawIterator " + (blocks ? "blocks" : "packets") + ", position="
+		    + position + "]";
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.jnetstream.capture.FileCapture;
+import org.jnetstream.capture.file.Record;
+import org.jnetstream.capture.file.RecordType;
+import org.jnetstream.capture.file.nap.NAPRecord;
+import org.jnetstream.capture.file.nap.NAPType;
+import org.jnetstream.capture.file.nap.NapFile;
+
+import com.slytechs.capture.file.AbstractRecord;
+
+/**
+ * A record from within the payload of a NAP block. Records are copied out of
+ * the decoded block into a read only buffer of their own, as blocks can not be
+ * modified in place.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class NapRecordImpl
+    extends AbstractRecord implements NAPRecord {
+
+	/**
+	 * Length of the type, flags and length fields common to all NAP records
+	 */
+	private static final int RECORD_HEADER_LENGTH = 8;
+
+	/**
+	 * @param file
+	 *          file the record was read from or null for a stream
+	 * @param buffer
+	 *          buffer containing only the record starting at position 0
+	 * @param position
+	 *          index of the record
+	 */
+	public NapRecordImpl(final FileCapture<?> file, final ByteBuffer buffer,
+	    final long position) {
+		super(file, buffer.asReadOnlyBuffer(), position);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.Record#asType(java.lang.Class)
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Record> T asType(final Class<T> c) {
+		return (T) this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.nap.NAPRecord#getNapRecordType()
+	 */
+	public NAPType getNapRecordType() {
+		return NAPType.valueOf(staticBuffer.get(NapFile.HDR_TYPE) & 0xFF);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.capture.file.AbstractRecord#getRecordHeaderLength()
+	 */
+	@Override
+	public int getRecordHeaderLength() {
+		return (getNapRecordType() == NAPType.PacketRecord)
+		    ? NapBlock.PACKET_HEADER_LENGTH : RECORD_HEADER_LENGTH;
+	}
+
+	/**
+	 * The length is read from the record's header, so it does not depend on
+	 * the buffer's properties.
+	 */
+	@Override
+	public long getRecordLength() throws IOException {
+		return staticBuffer.getInt(NapFile.HDR_RECORD_LENGTH);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.Record#getRecordType()
+	 */
+	public RecordType getRecordType() {
+		return (getNapRecordType() == NAPType.PacketRecord)
+		    ? RecordType.PacketRecord : RecordType.MetaRecord;
+	}
+
+	/**
+	 * Records are copies and remain valid after the file is modified.
+	 */
+	@Override
+	public boolean isValid() {
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + getNapRecordType() + ", length="
+		    + staticBuffer.getInt(NapFile.HDR_RECORD_LENGTH) + "]";
+	}
+}
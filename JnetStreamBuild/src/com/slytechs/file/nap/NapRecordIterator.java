@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+
+import org.jnetstream.capture.file.RawIterator;
+import org.jnetstream.capture.file.RecordIterator;
+import org.jnetstream.capture.file.nap.NAPRecord;
+
+import com.slytechs.capture.file.editor.AbstractIterator;
+
+/**
+ * Iterates over the records within the payloads of the blocks of a NAP file.
+ * Records can only be added at the end of the file.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class NapRecordIterator
+    extends AbstractIterator implements RecordIterator<NAPRecord> {
+
+	private final NapFileCapture file;
+
+	public NapRecordIterator(final NapFileCapture file, final RawIterator raw)
+	    throws IOException {
+		super(raw);
+		this.file = file;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.FileModifier#add(java.lang.Object)
+	 */
+	public void add(final NAPRecord element) throws IOException {
+		this.raw.add(element.getRecordBuffer());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.FileModifier#add(java.util.List)
+	 */
+	public void addAll(final List<NAPRecord> elements) throws IOException {
+		for (final NAPRecord record : elements) {
+			this.add(record);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.capture.file.FileModifier#add(T[])
+	 */
+	public void addAll(final NAPRecord... elements) throws IOException {
+		for (final NAPRecord record : elements) {
+			this.add(record);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.utils.collection.IOIterator#next()
+	 */
+	public NAPRecord next() throws IOException {
+		final long position = this.raw.getPosition();
+		final ByteBuffer b = this.raw.next();
+
+		return new NapRecordImpl(this.file, NapBlock.copyRecord(b), position);
+	}
+
+	public void removeAll(final Collection<NAPRecord> elements)
+	    throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void removeAll(final NAPRecord... elements) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void replace(final NAPRecord element) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void retainAll(final List<NAPRecord> elements) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void retainAll(final NAPRecord... elements) throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+
+	public void swap(final NAPRecord dst, final NAPRecord src)
+	    throws IOException {
+		throw new UnsupportedOperationException(NapFileCapture.APPEND_ONLY);
+	}
+}
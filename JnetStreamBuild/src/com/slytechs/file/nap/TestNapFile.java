@@ -0,0 +1,511 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.nap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.jnetstream.capture.Captures;
+import org.jnetstream.capture.FileCapture;
+import org.jnetstream.capture.FileFormatException;
+import org.jnetstream.capture.FileMode;
+import org.jnetstream.capture.InputCapture;
+import org.jnetstream.capture.InputIterator;
+import org.jnetstream.capture.PacketIterator;
+import org.jnetstream.capture.file.RawIterator;
+import org.jnetstream.capture.file.RecordError;
+import org.jnetstream.capture.file.nap.NAPBlockRecord;
+import org.jnetstream.capture.file.nap.NAPPacket;
+import org.jnetstream.capture.file.nap.NapFile;
+import org.jnetstream.capture.file.nap.NapInput;
+import org.jnetstream.capture.file.nap.NapOutput;
+
+import com.slytechs.file.nap.NapBlock.Compression;
+
+/**
+ * Writes NAP files with and without compression and reads them back through
+ * the block codec, then through the NAP file and stream captures. The codec
+ * files hold Ethernet packets, raw IP packets (link type 101), then a packet
+ * larger than the blocking factor, which is stored in a block of its own, and
+ * one more Ethernet packet. Every packet must keep its link type, timestamp
+ * and data. Each kind of corrupt block must be reported as a
+ * FileFormatException instead of failing with a runtime exception or
+ * returning garbage.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestNapFile {
+
+	private static final long SECONDS = 1700000000L;
+
+	/**
+	 * Offset of the first packet record of a single block file with 2 packets,
+	 * after the block header and the packet index
+	 */
+	private static final int FIRST_RECORD = NapBlock.BLOCK_HEADER_LENGTH + 2
+	    * NapBlock.INDEX_ENTRY_LENGTH;
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 * @throws FileFormatException
+	 */
+	public static void main(String[] args) throws IOException,
+	    FileFormatException {
+
+		final File none = checkCodec(Compression.None);
+		final File deflate = checkCodec(Compression.Deflate);
+
+		checkCorruptBlocks();
+		checkFileCapture(deflate);
+		checkSkipOverErrors();
+		checkStreams(none);
+
+		System.out.println("NAP codec and captures ok");
+	}
+
+	/**
+	 * Writes the codec file and reads its packets back in random order.
+	 */
+	private static File checkCodec(final Compression compression)
+	    throws IOException {
+		final File file = File.createTempFile("codec", ".nap");
+		file.deleteOnExit();
+
+		final NapFileWriter writer = new NapFileWriter(file, compression);
+		try {
+			for (int k = 0; k < 7; k++) {
+				writer.setLinkType(linkType(k));
+				writer.add(SECONDS + k, k, data(k).length + 4, ByteBuffer
+				    .wrap(data(k)));
+			}
+		} finally {
+			writer.close();
+		}
+
+		final NapFileReader reader = new NapFileReader(file);
+		try {
+			check(reader.getPacketCount() == 7, compression + " packets "
+			    + reader.getPacketCount());
+			check(reader.getBlockCount() == 4, compression + " blocks "
+			    + reader.getBlockCount());
+			check(reader.getBlockOf(5) == 2 && reader.getFirstPacket(3) == 6,
+			    compression + " oversized block");
+
+			for (int k = 6; k >= 0; k--) {
+				final ByteBuffer b = reader.getPacket(k);
+
+				check(reader.getLinkType(k) == linkType(k), compression
+				    + " link type of packet " + k);
+				check(NapBlock.getSeconds(b) == SECONDS + k
+				    && NapBlock.getNanos(b) == k, compression
+				    + " timestamp of packet " + k);
+				check(NapBlock.getOriginalLength(b) == data(k).length + 4,
+				    compression + " original length of packet " + k);
+				check(Arrays.equals(bytes(NapBlock.getPacketData(b)), data(k)),
+				    compression + " data of packet " + k);
+			}
+
+		} finally {
+			reader.close();
+		}
+
+		return file;
+	}
+
+	/**
+	 * Corrupts the header, index and payload of a single block file and checks
+	 * that every corruption is reported when the block is opened or decoded.
+	 */
+	private static void checkCorruptBlocks() throws IOException {
+		final byte[] none = block(Compression.None);
+		final byte[] deflate = block(Compression.Deflate);
+
+		check(deflate[NapBlock.HDR_COMPRESSION] == Compression.Deflate.getCode(),
+		    "deflated block is stored uncompressed");
+
+		final int stored =
+		    ByteBuffer.wrap(deflate).getInt(NapBlock.HDR_STORED_LENGTH);
+
+		ByteBuffer b = copy(none);
+		b.put(NAPBlockRecord.HDR_MAGIC_NUMBER, (byte) 'X');
+		checkCorrupt(b, "bad magic pattern");
+
+		b = copy(none);
+		b.limit(b.limit() - 1);
+		checkCorrupt(b, "truncated block");
+
+		b = copy(none);
+		b.putInt(NAPBlockRecord.HDR_PACKET_COUNT, -1);
+		checkCorrupt(b, "negative packet count");
+
+		b = copy(none);
+		b.putInt(NAPBlockRecord.HDR_PACKET_COUNT, 1000);
+		checkCorrupt(b, "packet count larger than the payload");
+
+		b = copy(none);
+		b.putInt(NapBlock.HDR_PAYLOAD_LENGTH, b
+		    .getInt(NapBlock.HDR_PAYLOAD_LENGTH) + 1);
+		checkCorrupt(b, "uncompressed payload length differs from stored length");
+
+		b = copy(deflate);
+		b.putInt(NapBlock.HDR_PAYLOAD_LENGTH, stored * 1033);
+		checkCorrupt(b, "payload length beyond the deflate ratio");
+
+		b = copy(none);
+		b.putInt(NapBlock.BLOCK_HEADER_LENGTH, 0);
+		checkCorrupt(b, "index entry pointing into the index");
+
+		b = copy(none);
+		b.putInt(NapBlock.BLOCK_HEADER_LENGTH, b.limit());
+		checkCorrupt(b, "index entry pointing past the payload");
+
+		b = copy(none);
+		b.putInt(FIRST_RECORD + NapFile.HDR_RECORD_LENGTH, 100000);
+		checkCorrupt(b, "record length past the payload");
+
+		b = copy(none);
+		b.putInt(FIRST_RECORD + NapFile.HDR_RECORD_LENGTH, 4);
+		checkCorrupt(b, "record length shorter than the record header");
+
+		b = copy(deflate);
+		b.put(NapBlock.BLOCK_HEADER_LENGTH, (byte) 0xFF);
+		checkCorrupt(b, "corrupt deflate data");
+
+		b = copy(deflate);
+		b.putInt(NapBlock.HDR_PAYLOAD_LENGTH, b
+		    .getInt(NapBlock.HDR_PAYLOAD_LENGTH) + 1);
+		checkCorrupt(b, "payload shorter than its length");
+
+		b = copy(none);
+		b.put(NapBlock.HDR_COMPRESSION, (byte) 9);
+		checkCorrupt(b, "unknown compression");
+	}
+
+	/**
+	 * Creates a NAP file with Captures, adds packets through its packet
+	 * iterator, then reopens it by auto detection and appends to it.
+	 */
+	private static void checkFileCapture(final File codec) throws IOException,
+	    FileFormatException {
+		final File file = File.createTempFile("capture", ".nap");
+		file.deleteOnExit();
+		file.delete();
+
+		final NapFile created = Captures.newFile(NapFile.class, file);
+		try {
+			final PacketIterator<NAPPacket> i = created.getPacketIterator();
+			for (int k = 0; k < 3; k++) {
+				i.add(ByteBuffer.wrap(data(k)), linkType(k), data(k).length,
+				    SECONDS + k, k);
+			}
+
+			created.flush();
+			check(created.getPacketCount() == 3, "created packets "
+			    + created.getPacketCount());
+
+		} finally {
+			created.close();
+		}
+
+		final FileCapture<?> opened = Captures.openFile(file);
+		try {
+			check(opened instanceof NapFile, "NAP file opened as " + opened);
+			check(opened.getPacketCount() == 3, "opened packets "
+			    + opened.getPacketCount());
+
+			int k = 0;
+			for (final Object o : opened) {
+				final NAPPacket p = (NAPPacket) o;
+
+				check(p.getTimestampSeconds() == SECONDS + k
+				    && p.getTimestampNanos() == k, "timestamp of packet " + k);
+				check(Arrays.equals(bytes(p.getBuffer().toByteBuffer()), data(k)),
+				    "data of packet " + k);
+				k++;
+			}
+
+			check(k == 3, "iterated packets " + k);
+
+		} finally {
+			opened.close();
+		}
+
+		final NapFile file2 =
+		    Captures.openFile(NapFile.class, file, FileMode.ReadWrite);
+		try {
+			final PacketIterator<NAPPacket> i = file2.getPacketIterator();
+			i.next();
+
+			try {
+				i.add(ByteBuffer.wrap(data(3)), linkType(3), data(3).length,
+				    SECONDS + 3, 3);
+				throw new IllegalStateException("packet inserted before another");
+
+			} catch (final UnsupportedOperationException e) {
+				// Expected
+			}
+
+			while (i.hasNext()) {
+				i.next();
+			}
+
+			i.add(ByteBuffer.wrap(data(3)), linkType(3), data(3).length,
+			    SECONDS + 3, 3);
+			file2.flush();
+
+			check(file2.getPacketCount() == 4, "appended packets "
+			    + file2.getPacketCount());
+
+			final NAPPacket last = file2.getPacketIndexer().get(3);
+			check(last.getTimestampSeconds() == SECONDS + 3,
+			    "appended packet's timestamp");
+			check(Arrays.equals(bytes(last.getBuffer().toByteBuffer()), data(3)),
+			    "appended packet's data");
+
+		} finally {
+			file2.close();
+		}
+
+		final NapFile source = Captures.openFile(NapFile.class, codec);
+		try {
+			for (int k = 6; k >= 0; k--) {
+				final NAPPacket p = source.getPacketIndexer().get(k);
+
+				check(p.getPositionLocal() >= 0 && p.getTimestampNanos() == k,
+				    "indexed packet " + k);
+				check(Arrays.equals(bytes(p.getBuffer().toByteBuffer()), data(k)),
+				    "data of indexed packet " + k);
+			}
+
+		} finally {
+			source.close();
+		}
+	}
+
+	/**
+	 * A corrupt block is skipped over, up to the first packet of the next
+	 * block.
+	 */
+	private static void checkSkipOverErrors() throws IOException,
+	    FileFormatException {
+		final byte[] block = block(Compression.None);
+		final ByteBuffer b = ByteBuffer.allocate(block.length * 2);
+		b.put(block).put(block);
+		b.putInt(NapBlock.BLOCK_HEADER_LENGTH, 0);
+		b.clear();
+
+		final File file = write(b);
+
+		final NapFile nap = Captures.openFile(NapFile.class, file);
+		try {
+			final RawIterator raw = nap.getRawIterator();
+
+			final RecordError[] errors = raw.skipOverErrors();
+			check(errors.length == 1, "errors " + errors.length);
+			check(raw.getPosition() == 2, "position after the corrupt block "
+			    + raw.getPosition());
+
+			check(raw.skipOverErrors().length == 0, "error in the good block");
+			check(raw.hasNext() && NapBlock.getSeconds(raw.next()) == SECONDS,
+			    "first packet of the good block");
+
+		} finally {
+			nap.close();
+		}
+	}
+
+	/**
+	 * Copies the codec file to a NAP output stream and reads it back as an
+	 * input stream.
+	 */
+	private static void checkStreams(final File codec) throws IOException,
+	    FileFormatException {
+		final File file = File.createTempFile("stream", ".nap");
+		file.deleteOnExit();
+
+		final NapFile source = Captures.openFile(NapFile.class, codec);
+		final NapOutput out =
+		    Captures.newOutput(NapOutput.class, new FileOutputStream(file));
+		try {
+			for (final NAPPacket p : source) {
+				out.add(p);
+			}
+		} finally {
+			out.close();
+			source.close();
+		}
+
+		final InputCapture<?> input = Captures.newInput(file);
+		try {
+			check(input instanceof NapInput, "NAP stream opened as " + input);
+
+			final InputIterator<NAPPacket> i = ((NapInput) input).getPacketIterator();
+			int k = 0;
+			while (i.hasNext()) {
+				final NAPPacket p = i.next();
+
+				check(p.getPositionGlobal() == k, "position of stream packet " + k);
+				check(((NapPacketImpl) p).getLinkType() == linkType(k),
+				    "link type of stream packet " + k);
+				check(p.getTimestampSeconds() == SECONDS + k
+				    && p.getTimestampNanos() == k, "timestamp of stream packet " + k);
+				check(Arrays.equals(bytes(p.getBuffer().toByteBuffer()), data(k)),
+				    "data of stream packet " + k);
+				k++;
+			}
+
+			check(k == 7, "stream packets " + k);
+
+		} finally {
+			input.close();
+		}
+
+		/*
+		 * An empty output stream is still recognized as NAP
+		 */
+		Captures.newOutput(NapOutput.class, new FileOutputStream(file)).close();
+
+		final NapFileReader reader = new NapFileReader(file);
+		try {
+			check(reader.getBlockCount() == 1 && reader.getPacketCount() == 0,
+			    "empty stream");
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Opens the block and decodes all of its packets, which must fail with a
+	 * FileFormatException.
+	 */
+	private static void checkCorrupt(final ByteBuffer block, final String name)
+	    throws IOException {
+		final File file = write(block);
+
+		try {
+			final NapFileReader reader = new NapFileReader(file);
+			try {
+				for (long k = 0; k < reader.getPacketCount(); k++) {
+					reader.getPacket(k);
+				}
+			} finally {
+				reader.close();
+			}
+
+		} catch (final FileFormatException e) {
+			return; // Expected
+		}
+
+		throw new IllegalStateException("corruption not detected: " + name);
+	}
+
+	/**
+	 * Writes a single block with 2 packets, whose data compresses well.
+	 */
+	private static byte[] block(final Compression compression)
+	    throws IOException {
+		final File file = File.createTempFile("block", ".nap");
+		file.deleteOnExit();
+
+		final NapFileWriter writer = new NapFileWriter(file, compression);
+		try {
+			writer.add(SECONDS, 0, 64, ByteBuffer.allocate(64));
+			writer.add(SECONDS + 1, 0, 64, ByteBuffer.allocate(64));
+		} finally {
+			writer.close();
+		}
+
+		final RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			final byte[] b = new byte[(int) in.length()];
+			in.readFully(b);
+
+			return b;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static File write(final ByteBuffer b) throws IOException {
+		final File file = File.createTempFile("corrupt", ".nap");
+		file.deleteOnExit();
+
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.getChannel().write(b);
+		} finally {
+			out.close();
+		}
+
+		return file;
+	}
+
+	private static ByteBuffer copy(final byte[] block) {
+		return ByteBuffer.wrap(block.clone());
+	}
+
+	/**
+	 * Packets 3 and 4 are raw IP, packet 5 is larger than the blocking factor
+	 */
+	private static int linkType(final int k) {
+		return (k == 3 || k == 4) ? 101 : 1;
+	}
+
+	private static byte[] data(final int k) {
+		final byte[] b = ip();
+		if (linkType(k) == 101) {
+			return b;
+		}
+
+		final int length = (k == 5) ? (int) NapFile.BLOCKING_FACTOR + 100 : 14
+		    + b.length;
+		final ByteBuffer frame = ByteBuffer.allocate(length);
+		frame.put(new byte[] { 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, (byte) k });
+		frame.putShort((short) 0x0800).put(b);
+
+		return frame.array();
+	}
+
+	private static byte[] ip() {
+		final byte[] b = new byte[20];
+		b[0] = 0x45;
+		b[3] = 20;
+		b[8] = 64;
+		b[12] = 10;
+		b[15] = 1;
+		b[16] = 10;
+		b[19] = 2;
+
+		return b;
+	}
+
+	private static byte[] bytes(final ByteBuffer buffer) {
+		final ByteBuffer b = buffer.duplicate();
+		final byte[] a = new byte[b.remaining()];
+		b.get(a);
+
+		return a;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (condition == false) {
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -30,6 +30,7 @@ import org.jnetstream.capture.file.pcap.PcapBlockRecord;
 import org.jnetstream.capture.file.pcap.PcapDLT;
 import org.jnetstream.capture.file.pcap.PcapFile;
 import org.jnetstream.capture.file.pcap.PcapPacket;
+import org.jnetstream.capture.file.pcap.PcapPacketRecord;
 import org.jnetstream.capture.file.pcap.PcapRecord;
 import org.jnetstream.filter.Filter;
 import org.jnetstream.packet.ProtocolFilterTarget;
@@ -106,6 +107,7 @@ public class PcapFileCapture
 	    Filter<ProtocolFilterTarget> filter) throws FileFormatException,
 	    IOException {
 		super(logger, filter, headerReader);
+		super.pattern = PcapPacketRecord.pattern;
 		
 		if (logger.isDebugEnabled()) {
 			logger.debug(f.getName() + ", mode=" + mode
@@ -115,6 +117,12 @@ public class PcapFileCapture
 		this.mode = mode;
 
 		this.openFile(f, filter);
+
+		/*
+		 * Record lengths are bounded by the snaplen of this file, not by typical
+		 * frame lengths
+		 */
+		super.pattern = new PcapPacketRecord.SnaplenPattern(block.getSnaplen());
 	}
 
 	/**
@@ -125,6 +133,7 @@ public class PcapFileCapture
 	public PcapFileCapture(final FileMode mode,
 	    Filter<ProtocolFilterTarget> filter) {
 		super(logger, filter, headerReader);
+		super.pattern = PcapPacketRecord.pattern;
 		
 		
 
@@ -312,6 +321,7 @@ public class PcapFileCapture
 	public RawIterator createRawIterator(Filter<RecordFilterTarget> filter)
 	    throws IOException {
 
-		return new PcapRawIterator(editor.getFlexRegion(), editor, this, filter);
+		return new PcapRawIterator(editor.getFlexRegion(), editor, this, filter,
+		    pattern);
 	}
 }
@@ -226,6 +226,8 @@ public class PcapInputCapture
 	 */
 	@Override
 	protected PcapBlockRecord createBlockRecord(ByteBuffer b) {
+		b.order(order);
+
 		return new PcapBlockRecordImpl(b, 0);
 	}
 
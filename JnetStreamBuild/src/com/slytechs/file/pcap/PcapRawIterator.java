@@ -18,7 +18,8 @@ import java.nio.ByteBuffer;
 import java.util.Iterator;
 
 import org.jnetstream.capture.file.RecordFilterTarget;
-import org.jnetstream.capture.file.pcap.PcapBlockRecord;
+import org.jnetstream.capture.file.RecordType;
+import org.jnetstream.capture.file.SeekPattern;
 import org.jnetstream.capture.file.pcap.PcapFile;
 import org.jnetstream.capture.file.pcap.PcapPacketRecord;
 import org.jnetstream.filter.Filter;
@@ -26,7 +27,6 @@ import org.jnetstream.filter.Filter;
 
 import com.slytechs.capture.file.editor.AbstractRawIterator;
 import com.slytechs.capture.file.editor.PartialLoader;
-import com.slytechs.utils.collection.SeekResult;
 import com.slytechs.utils.io.AutoflushMonitor;
 import com.slytechs.utils.region.FlexRegion;
 
@@ -53,127 +53,46 @@ public class PcapRawIterator
 	 */
 	public PcapRawIterator(FlexRegion<PartialLoader> edits, AutoflushMonitor autoflush,
 	    Closeable closeable, Filter<RecordFilterTarget> filter) throws IOException {
-		super(edits, PcapFile.headerReader, autoflush, closeable, filter);
-
-		super.pattern = PcapPacketRecord.pattern;
+		this(edits, autoflush, closeable, filter, PcapPacketRecord.pattern);
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Creates a bounded raw iterator which resynchronizes on record boundaries
+	 * using the supplied pattern.
 	 * 
-	 * @see org.jnetstream.capture.file.FileIterator#seek(long, long)
+	 * @param edits
+	 * @param autoflush
+	 * @param closeable
+	 * @param filter
+	 * @param pattern
+	 *          record header pattern, typically one that checks lengths against
+	 *          the file's snaplen
+	 * @throws IOException
 	 */
-	public SeekResult seek(final long seconds, final long nanos)
+	public PcapRawIterator(FlexRegion<PartialLoader> edits,
+	    AutoflushMonitor autoflush, Closeable closeable,
+	    Filter<RecordFilterTarget> filter, SeekPattern pattern)
 	    throws IOException {
-		// Convert nanos to micros since PCAP only supports micros
-		final long micros = nanos / 1000;
-
-		// Calculate the start of the first record as a percentage
-		final double start = (double) PcapBlockRecord.HEADER_LENGTH
-		    / edits.getLength();
-
-		/*
-		 * Now search for the record starting at the first record and ending at the
-		 * last record
-		 */
-		return seek(seconds, micros, start, 1. - start);
-	}
-
-	private SeekResult seek(final long seconds, final long micros, double start,
-	    double length) throws IOException {
-		ByteBuffer buffer;
-		long s, m;
-
-		seek(start);
-
-		/*
-		 * If the search area, the length as a percentage is smaller then typical
-		 * SEARCH_LENGTH, then we simply iterate over packets until we find what we
-		 * are looking for
-		 */
-		final long lengthInBytes = (long) ((double) edits.getLength() * length);
-		if (lengthInBytes <= SEARCH_LENGTH) {
-			return seekByIteration(seconds, micros);
-		}
-
-		/*
-		 * Otherwise, We divide the file into 2 half sections. Then we check which
-		 * half our timestamp should reside and we recursively call on ourselves to
-		 * subdivide each of the halfs until we narrow in on the right record
-		 */
-		if (hasNext() == false) {
-			throw new IllegalStateException(
-			    "Exhausted all records while searching for timestamp");
-		} else {
-			buffer = next();
-			s = (Long) SECONDS.read(buffer, buffer.position());
-			m = (Long) MICROS.read(buffer, buffer.position());
-
-		}
-
-		// Check if we are not already passed it
-		if (seconds < s || (seconds == s && micros < m)) {
-			seek(start);
-			return SeekResult.Fullfilled;
-		}
-
-		final double half = start + length / 2.;
-
-		seek(half);
-
-		if (hasNext() == false) {
-			throw new IllegalStateException(
-			    "Exhausted all records while searching for timestamp");
-		} else {
-			buffer = next();
-			s = (Long) SECONDS.read(buffer, buffer.position());
-			m = (Long) MICROS.read(buffer, buffer.position());
-		}
+		super(edits, PcapFile.headerReader, autoflush, closeable, filter);
 
-		// Check if we are not already passed it
-		if (seconds < s || (seconds == s && micros < m)) {
-			return seek(seconds, micros, start, length / 2.);
-		} else {
-			return seek(seconds, micros, half, length / 2.);
-		}
+		super.pattern = pattern;
 	}
 
-	/**
-	 * @param seconds
-	 * @param micros
-	 * @return
-	 * @throws IOException
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.slytechs.capture.file.editor.AbstractRawIterator#getRecordTimestamp(java.nio.ByteBuffer)
 	 */
-	private SeekResult seekByIteration(long seconds, long micros)
-	    throws IOException {
-
-		long p = getPosition();
-		long s, m;
-
-		while (hasNext()) {
-			p = getPosition();
-			ByteBuffer buffer = next();
-
-			s = (Long) SECONDS.read(buffer, buffer.position());
-			m = (Long) MICROS.read(buffer, buffer.position());
-
-			if (s > seconds || (s == seconds && m >= micros)) {
-				setPosition(p);
-
-				return SeekResult.Fullfilled;
-			}
+	@Override
+	protected long getRecordTimestamp(final ByteBuffer buffer) {
+		if (PcapFile.headerReader.readType(buffer) != RecordType.PacketRecord) {
+			return -1;
 		}
 
-		/*
-		 * If we go passed the end record, we simply align on the last record. That
-		 * is if the timestamp is way in the future, past any timestamp in the file,
-		 * then we simply use the last/oldest record as the closest one to the
-		 * timestamp.
-		 */
-
-		setPosition(p);
+		final long s = (Long) SECONDS.read(buffer, buffer.position());
+		final long m = (Long) MICROS.read(buffer, buffer.position());
 
-		return SeekResult.Fullfilled;
+		return s * 1000000000L + m * 1000L;
 	}
 
 	/* (non-Javadoc)
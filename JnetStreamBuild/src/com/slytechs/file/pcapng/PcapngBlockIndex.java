@@ -0,0 +1,413 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.pcapng;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jnetstream.capture.FileFormatException;
+import org.jnetstream.capture.file.RawIterator;
+import org.jnetstream.capture.file.pcapng.PcapngBlockType;
+import org.jnetstream.capture.file.pcapng.PcapngInterface;
+import org.jnetstream.capture.file.pcapng.PcapngPacket;
+import org.jnetstream.protocol.Protocol;
+
+import com.slytechs.capture.file.editor.PartialLoader;
+import com.slytechs.utils.region.FlexRegion;
+
+/**
+ * Block level index of a pcapng file. Block headers are walked incrementally
+ * and only as far as a request requires. The walk records where each section
+ * starts, the interfaces described in each section, interface statistics and
+ * the record index of every block that is not a packet. Since non-packet
+ * blocks are few compared to packets, a packet index is translated to a record
+ * index with a binary search over the non-packet blocks, which lets the
+ * generic record position indexer do the actual positioning.
+ * <p>
+ * The index is thrown away and rebuilt lazily whenever the file is edited.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+final class PcapngBlockIndex {
+
+	private final PcapngFileCapture file;
+
+	private final FlexRegion<PartialLoader> edits;
+
+	private long changeId;
+
+	private RawIterator walker;
+
+	/**
+	 * Global position of the first block not walked yet
+	 */
+	private long scanned;
+
+	private long records;
+
+	private long packets;
+
+	private boolean complete;
+
+	private long[] sections = new long[4];
+
+	private int sectionCount;
+
+	private final List<List<PcapngInterfaceImpl>> interfaces = new ArrayList<List<PcapngInterfaceImpl>>();
+
+	/**
+	 * Global positions of the interface description blocks of each section
+	 */
+	private final List<List<Long>> descriptions = new ArrayList<List<Long>>();
+
+	/**
+	 * Record indexes of all non-packet blocks in ascending order
+	 */
+	private long[] meta = new long[64];
+
+	private int metaCount;
+
+	public PcapngBlockIndex(final PcapngFileCapture file,
+	    final FlexRegion<PartialLoader> edits) throws IOException {
+		this.file = file;
+		this.edits = edits;
+
+		reset();
+	}
+
+	private void reset() throws IOException {
+		this.changeId = edits.getChangeId();
+
+		/*
+		 * The walker is not closed, closing a raw iterator closes the file
+		 */
+		this.walker = file.getRawIterator();
+
+		this.scanned = 0;
+		this.records = 0;
+		this.packets = 0;
+		this.complete = false;
+		this.sectionCount = 0;
+		this.metaCount = 0;
+		this.interfaces.clear();
+		this.descriptions.clear();
+	}
+
+	private void check() throws IOException {
+		if (edits.getChangeId() != changeId) {
+			reset();
+		}
+	}
+
+	/**
+	 * Walks one block header.
+	 * 
+	 * @return false if there are no more blocks
+	 */
+	private boolean walkOne() throws IOException {
+		if (complete || walker.hasNext() == false) {
+			complete = true;
+			return false;
+		}
+
+		final long position = walker.getPosition();
+		final ByteBuffer b = walker.next();
+		final int p = b.position();
+		final PcapngBlockType type = PcapngBlockType.valueOf(b.getInt(p));
+
+		switch (type) {
+			case SectionHeader:
+				if (PcapngBlockRecordImpl.determineByteOrder(b, p) != b.order()) {
+					throw new FileFormatException(
+					    "PCAPNG sections with different byte orders are not supported",
+					    file.getFile(), position);
+				}
+
+				addSection(position);
+				addMeta(records);
+				break;
+
+			case InterfaceDescription:
+				final List<PcapngInterfaceImpl> list = current(position);
+				list.add(new PcapngInterfaceImpl(list.size(), b, p));
+				descriptions.get(sectionCount - 1).add(position);
+				addMeta(records);
+				break;
+
+			case InterfaceStatistics:
+				final List<PcapngInterfaceImpl> section = current(position);
+				final int id = b.getInt(p + PcapngPacket.HDR_INTERFACE_ID);
+				if (id >= 0 && id < section.size()) {
+					section.get(id).setStatistics(b, p);
+				}
+				addMeta(records);
+				break;
+
+			case Packet:
+			case EnhancedPacket:
+			case SimplePacket:
+				packets++;
+				break;
+
+			default:
+				addMeta(records);
+		}
+
+		records++;
+		scanned = walker.getPosition();
+
+		return true;
+	}
+
+	private void addSection(final long position) {
+		if (sectionCount == sections.length) {
+			sections = Arrays.copyOf(sections, sections.length * 2);
+		}
+
+		sections[sectionCount++] = position;
+		interfaces.add(new ArrayList<PcapngInterfaceImpl>());
+		descriptions.add(new ArrayList<Long>());
+	}
+
+	private void addMeta(final long record) {
+		if (metaCount == meta.length) {
+			meta = Arrays.copyOf(meta, meta.length * 2);
+		}
+
+		meta[metaCount++] = record;
+	}
+
+	private List<PcapngInterfaceImpl> current(final long position)
+	    throws FileFormatException {
+		if (sectionCount == 0) {
+			throw new FileFormatException("PCAPNG block outside of a section",
+			    file.getFile(), position);
+		}
+
+		return interfaces.get(sectionCount - 1);
+	}
+
+	/**
+	 * Makes sure that all blocks up to and including the block at the global
+	 * position have been walked.
+	 */
+	private void ensure(final long position) throws IOException {
+		check();
+
+		while (scanned <= position && walkOne()) {
+			// Empty
+		}
+	}
+
+	private void ensureAll() throws IOException {
+		check();
+
+		while (walkOne()) {
+			// Empty
+		}
+	}
+
+	/**
+	 * Looks up an interface by its id within the section which contains the
+	 * global position.
+	 * 
+	 * @param position
+	 *          global position of a block within the section
+	 * @param id
+	 *          interface id
+	 * @return the interface or null if not described
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public PcapngInterface getInterface(final long position, final int id)
+	    throws IOException {
+		final List<PcapngInterfaceImpl> list = section(position);
+
+		return (id >= 0 && id < list.size()) ? list.get(id) : null;
+	}
+
+	/**
+	 * Interfaces a block inserted at the global position can refer to. These are
+	 * the interfaces of the section the block joins, which are described before
+	 * the position.
+	 * 
+	 * @param position
+	 *          global position the block is inserted at
+	 * @return list of interfaces, indexed by interface id
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public List<PcapngInterface> getInterfacesBefore(final long position)
+	    throws IOException {
+		final int section = sectionOf(Math.max(0, position - 1));
+		final List<PcapngInterface> list = new ArrayList<PcapngInterface>();
+		if (section < 0) {
+			return list;
+		}
+
+		final List<Long> at = descriptions.get(section);
+		for (int i = 0; i < at.size() && at.get(i) < position; i++) {
+			list.add(interfaces.get(section).get(i));
+		}
+
+		return list;
+	}
+
+	/**
+	 * Checks if the section a block inserted at the global position joins
+	 * describes any interfaces at or after the position. The section is walked
+	 * to its end.
+	 * 
+	 * @param position
+	 *          global position the block is inserted at
+	 * @return true if an interface description block follows the position
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public boolean hasInterfacesAfter(final long position) throws IOException {
+		final int section = sectionOf(Math.max(0, position - 1));
+		if (section < 0) {
+			return false;
+		}
+
+		while (sectionCount - 1 == section && walkOne()) {
+			// Empty
+		}
+
+		final List<Long> at = descriptions.get(section);
+
+		return at.isEmpty() == false && at.get(at.size() - 1) >= position;
+	}
+
+	private List<PcapngInterfaceImpl> section(final long position)
+	    throws IOException {
+		final int section = sectionOf(position);
+		if (section < 0) {
+			return new ArrayList<PcapngInterfaceImpl>();
+		}
+
+		return interfaces.get(section);
+	}
+
+	/**
+	 * @return index of the section which contains the global position or -1 if
+	 *         the position is before the first section
+	 */
+	private int sectionOf(final long position) throws IOException {
+		ensure(position);
+
+		final int s = Arrays.binarySearch(sections, 0, sectionCount, position);
+
+		return (s >= 0) ? s : -s - 2;
+	}
+
+	/**
+	 * Interfaces of all sections in file order.
+	 */
+	public List<PcapngInterface> getInterfaces() throws IOException {
+		ensureAll();
+
+		final List<PcapngInterface> list = new ArrayList<PcapngInterface>();
+		for (final List<PcapngInterfaceImpl> section : interfaces) {
+			list.addAll(section);
+		}
+
+		return list;
+	}
+
+	/**
+	 * Interfaces described in the first section before its first packet.
+	 */
+	public List<PcapngInterface> getFirstInterfaces() throws IOException {
+		check();
+
+		while (packets == 0 && walkOne()) {
+			// Empty
+		}
+
+		if (sectionCount == 0) {
+			return new ArrayList<PcapngInterface>();
+		}
+
+		return new ArrayList<PcapngInterface>(interfaces.get(0));
+	}
+
+	/**
+	 * Link types of the first section's interfaces indexed by interface id.
+	 */
+	public Protocol[] getProtocols() throws IOException {
+		final List<PcapngInterface> list = getFirstInterfaces();
+		final Protocol[] protocols = new Protocol[list.size()];
+
+		for (int i = 0; i < protocols.length; i++) {
+			protocols[i] = list.get(i).getProtocol();
+		}
+
+		return protocols;
+	}
+
+	/**
+	 * Global positions of all section headers.
+	 */
+	public long[] getSections() throws IOException {
+		ensureAll();
+
+		return Arrays.copyOf(sections, sectionCount);
+	}
+
+	public long getPacketCount() throws IOException {
+		ensureAll();
+
+		return packets;
+	}
+
+	/**
+	 * Translates a packet index to a record index.
+	 * 
+	 * @param packet
+	 *          packet index, 0 based
+	 * @return record index of the packet block
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public long getRecordIndex(final long packet) throws IOException {
+		check();
+
+		while (packets <= packet && walkOne()) {
+			// Empty
+		}
+
+		/*
+		 * meta[j] - j is the number of packets before the j-th non-packet block
+		 * and never decreases. Count the non-packet blocks in front of the packet.
+		 */
+		int low = 0;
+		int high = metaCount;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+
+			if (meta[mid] - mid <= packet) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return packet + low;
+	}
+}
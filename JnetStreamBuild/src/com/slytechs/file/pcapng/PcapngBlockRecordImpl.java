@@ -0,0 +1,330 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.pcapng;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.jnetstream.capture.FileCapture;
+import org.jnetstream.capture.FileFormatException;
+import org.jnetstream.capture.FilePacket;
+import org.jnetstream.capture.file.Record;
+import org.jnetstream.capture.file.RecordType;
+import org.jnetstream.capture.file.pcap.PcapDLT;
+import org.jnetstream.capture.file.pcap.PcapFormat;
+import org.jnetstream.capture.file.pcapng.PcapngBlockRecord;
+import org.jnetstream.capture.file.pcapng.PcapngBlockType;
+import org.jnetstream.capture.file.pcapng.PcapngFile;
+import org.jnetstream.capture.file.pcapng.PcapngRecord;
+
+import com.slytechs.capture.file.AbstractBlockRecord;
+import com.slytechs.capture.file.editor.EditorHandle;
+import com.slytechs.capture.file.editor.FileEditor;
+import com.slytechs.utils.number.Version;
+
+/**
+ * Section header block of a pcapng file.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class PcapngBlockRecordImpl
+    extends AbstractBlockRecord implements PcapngBlockRecord, Flushable {
+
+	/**
+	 * Adds a section header block, followed by a single ethernet interface
+	 * description block, to an empty file. The editor is not flushed so changes
+	 * remain only in memory.
+	 * 
+	 * @param parent
+	 *          main file capture
+	 * @param editor
+	 *          empty file editor
+	 * @return new block record bound to the file capture
+	 * @throws IOException
+	 *           any IO errors
+	 * @throws FileFormatException
+	 */
+	public static PcapngBlockRecordImpl createBlock(
+	    final FileCapture<? extends FilePacket> parent,
+	    final FileEditor editor) throws IOException, FileFormatException {
+		if (editor.getLength() != 0) {
+			throw new IllegalArgumentException("Editor is no empty."
+			    + " Can only add new block record to completely empty file.");
+		}
+
+		final ByteBuffer shb = createBuffer(editor.order());
+		final ByteBuffer idb = PcapngInterfaceImpl.createBlock(editor.order(),
+		    (int) PcapDLT.EN10.intValue(), PcapFormat.DEFAULT_SNAPLEN);
+
+		final ByteBuffer b = ByteBuffer.allocate(shb.limit() + idb.limit());
+		b.order(editor.order());
+		b.put(shb);
+		b.put(idb);
+		b.clear();
+
+		/*
+		 * Add both blocks at byte offset 0 to the editor.
+		 */
+		editor.add(b, 0);
+
+		return new PcapngBlockRecordImpl(parent, editor);
+	}
+
+	/**
+	 * Builds a section header block of unknown section length without any
+	 * options.
+	 * 
+	 * @param order
+	 *          byte order of the new section
+	 * @return buffer containing the block, ready to be read
+	 */
+	public static ByteBuffer createBuffer(final ByteOrder order) {
+		final int length = HEADER_LENGTH + PcapngRecord.BLOCK_TRAILER_LENGTH;
+		final ByteBuffer b = ByteBuffer.allocate(length);
+		b.order(order);
+
+		b.putInt(PcapngBlockType.SectionHeader.intValue());
+		b.putInt(length);
+		b.putInt(PcapngFile.BYTE_ORDER_MAGIC);
+		b.putShort((short) PcapngFile.MAJOR_VERSION);
+		b.putShort((short) PcapngFile.MINOR_VERSION);
+		b.putLong(SECTION_LENGTH_UNKNOWN);
+		b.putInt(length);
+
+		b.clear();
+
+		return b;
+	}
+
+	/**
+	 * Determines the byte order of a section from its byte order magic.
+	 * 
+	 * @param header
+	 *          buffer containing the section header
+	 * @param offset
+	 *          offset of the section header within the buffer
+	 * @return byte order of the section
+	 * @throws FileFormatException
+	 *           not a section header or invalid byte order magic
+	 */
+	public static ByteOrder determineByteOrder(final ByteBuffer header,
+	    final int offset) throws FileFormatException {
+
+		if (header.getInt(offset) != PcapngBlockType.SectionHeader.intValue()) {
+			throw new FileFormatException("Invalid PCAPNG section header block type");
+		}
+
+		final int magic = header.getInt(offset + HDR_BYTE_ORDER_MAGIC);
+
+		if (magic == PcapngFile.BYTE_ORDER_MAGIC) {
+			return header.order();
+
+		} else if (Integer.reverseBytes(magic) == PcapngFile.BYTE_ORDER_MAGIC) {
+			return (header.order() == ByteOrder.BIG_ENDIAN) ? ByteOrder.LITTLE_ENDIAN
+			    : ByteOrder.BIG_ENDIAN;
+
+		} else {
+			throw new FileFormatException(
+			    "Invalid PCAPNG section header byte order magic");
+		}
+	}
+
+	public PcapngBlockRecordImpl(final FileCapture<? extends FilePacket> file,
+	    final FileEditor editor) throws IOException, FileFormatException {
+		this(file, editor, editor.generateHandle(0));
+	}
+
+	/**
+	 * The first section header sets the byte order of the editor. Sections
+	 * further in the file must be in the same byte order.
+	 */
+	public PcapngBlockRecordImpl(final FileCapture<? extends FilePacket> file,
+	    final FileEditor editor, final EditorHandle handle) throws IOException,
+	    FileFormatException {
+		super(file, editor, handle, PcapngFile.headerReader);
+
+		final ByteBuffer b = this.getRecordBuffer();
+		final ByteOrder order = determineByteOrder(b, this.offset);
+
+		if (handle.getPositionGlobal() == 0) {
+			editor.order(order);
+
+		} else if (order != editor.order()) {
+			throw new FileFormatException(
+			    "PCAPNG sections with different byte orders are not supported,"
+			        + " section at " + handle.getPositionGlobal());
+		}
+	}
+
+	public PcapngBlockRecordImpl(final ByteBuffer buffer, final long position) {
+		super(buffer, position);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.Record#asType(java.lang.Class)
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Record> T asType(final Class<T> c) {
+		return (T) this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.Flushable#flush()
+	 */
+	public void flush() throws IOException {
+		this.editor.flush();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngRecord#getBlockType()
+	 */
+	public PcapngBlockType getBlockType() throws IOException {
+		return PcapngBlockType.SectionHeader;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.BlockRecord#getMagicPattern()
+	 */
+	public byte[] getMagicPattern() throws IOException {
+		final ByteBuffer b = this.getRecordBuffer();
+		final byte[] magic = new byte[4];
+		for (int i = 0; i < magic.length; i++) {
+			magic[i] = b.get(this.offset + HDR_BYTE_ORDER_MAGIC + i);
+		}
+
+		return magic;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngBlockRecord#getMajorVersion()
+	 */
+	public long getMajorVersion() throws IOException {
+		return this.getRecordBuffer().getShort(this.offset + HDR_MAJOR_VERSION) & 0xFFFFL;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngBlockRecord#getMinorVersion()
+	 */
+	public int getMinorVersion() throws IOException {
+		return this.getRecordBuffer().getShort(this.offset + HDR_MINOR_VERSION) & 0xFFFF;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngRecord#getOption(int)
+	 */
+	public byte[] getOption(final int code) throws IOException {
+		return PcapngOptions.find(this.getRecordBuffer(), this.offset,
+		    PcapngBlockType.SectionHeader, code);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.Record#getRecordHeaderLength()
+	 */
+	@Override
+	public int getRecordHeaderLength() {
+		return HEADER_LENGTH;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.Record#getRecordType()
+	 */
+	public RecordType getRecordType() {
+		return RecordType.BlockRecord;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngBlockRecord#getSectionLength()
+	 */
+	public long getSectionLength() throws IOException {
+		return this.getRecordBuffer().getLong(this.offset + HDR_SECTION_LENGTH);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.BlockRecord#getVersion()
+	 */
+	public Version getVersion() throws IOException {
+		return new Version((int) this.getMajorVersion(), this.getMinorVersion());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.BlockRecord#order()
+	 */
+	public ByteOrder order() {
+		return (this.editor == null) ? this.staticBuffer.order() : this.editor
+		    .order();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.BlockRecord#setMajorVersion(long)
+	 */
+	public void setMajorVersion(final long major) throws IOException {
+		final ByteBuffer b = this.getEditBuffer();
+		b.putShort(this.offset + HDR_MAJOR_VERSION, (short) major);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngBlockRecord#setMinorVersion(int)
+	 */
+	public void setMinorVersion(final int minor) throws IOException {
+		final ByteBuffer b = this.getEditBuffer();
+		b.putShort(this.offset + HDR_MINOR_VERSION, (short) minor);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder b = new StringBuilder();
+
+		b.append('[');
+		try {
+			b.append(this.getVersion()).append(',');
+			b.append(this.order()).append(',');
+			b.append(this.getSectionLength());
+		} catch (final IOException e) {
+			b.append(e.getMessage());
+		}
+		b.append(']');
+
+		return b.toString();
+	}
+}
@@ -0,0 +1,374 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.pcapng;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.Log;
+import org.jnetstream.capture.FileFormatException;
+import org.jnetstream.capture.FileMode;
+import org.jnetstream.capture.FormatType;
+import org.jnetstream.capture.PacketIndexer;
+import org.jnetstream.capture.PacketIterator;
+import org.jnetstream.capture.file.HeaderReader;
+import org.jnetstream.capture.file.RawIterator;
+import org.jnetstream.capture.file.Record;
+import org.jnetstream.capture.file.RecordFilterTarget;
+import org.jnetstream.capture.file.RecordIterator;
+import org.jnetstream.capture.file.pcap.PcapDLT;
+import org.jnetstream.capture.file.pcapng.PcapngBlockRecord;
+import org.jnetstream.capture.file.pcapng.PcapngFile;
+import org.jnetstream.capture.file.pcapng.PcapngInterface;
+import org.jnetstream.capture.file.pcapng.PcapngPacket;
+import org.jnetstream.capture.file.pcapng.PcapngRecord;
+import org.jnetstream.capture.file.pcapng.PcapngRecordFilter;
+import org.jnetstream.filter.Filter;
+import org.jnetstream.packet.ProtocolFilterTarget;
+import org.jnetstream.protocol.Protocol;
+
+import com.slytechs.capture.DefaultCaptureDevice;
+import com.slytechs.capture.file.AbstractFile;
+import com.slytechs.capture.file.RawIteratorBuilder;
+import com.slytechs.capture.file.editor.FileEditor;
+import com.slytechs.capture.file.editor.FileEditorImpl;
+import com.slytechs.capture.file.indexer.PacketIndexerImpl;
+import com.slytechs.utils.collection.IOSkippableIterator;
+
+/**
+ * A pcapng file. Block headers are indexed lazily by {@link PcapngBlockIndex}
+ * which supplies the interfaces packets were captured on, the packet count and
+ * the translation of packet indexes to record indexes.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class PcapngFileCapture
+    extends AbstractFile<PcapngPacket, PcapngRecord, PcapngBlockRecord>
+    implements PcapngFile {
+
+	private static final Log logger = PcapngFile.logger;
+
+	private static HeaderReader headerReader = PcapngFile.headerReader;
+
+	/**
+	 * Creates a new file with a single section and a single ethernet interface,
+	 * then closes the created file. The file has to be reopened as a normal file
+	 * if you need access to its contents.
+	 * 
+	 * @param file
+	 *          file to create
+	 * @param mode
+	 *          mode to reopen the file in
+	 * @param order
+	 *          byte order of the section
+	 * @param filter
+	 *          protocol filter of the reopened file
+	 * @return the reopened file
+	 * @throws FileNotFoundException
+	 *           unable to find parent directory inorder to create a new file
+	 * @throws IOException
+	 *           any IO errors
+	 * @throws FileFormatException
+	 */
+	public static PcapngFile createFile(final File file, final FileMode mode,
+	    final ByteOrder order, Filter<ProtocolFilterTarget> filter)
+	    throws FileNotFoundException, IOException, FileFormatException {
+
+		if (logger.isDebugEnabled()) {
+			logger.debug(file.getName() + ", mode=" + mode + ", order=" + order
+			    + (filter == null ? "" : filter));
+		}
+
+		// Create empty file?
+		if (file.createNewFile() == false) {
+			throw new FileNotFoundException("Unable to create new file ["
+			    + file.getName() + "]");
+		}
+
+		PcapngFile capture = new PcapngFileCapture(FileMode.ReadWrite);
+
+		final FileEditor editor = new FileEditorImpl(file, FileMode.ReadWrite,
+		    headerReader, order, filter, (RawIteratorBuilder) capture);
+
+		PcapngBlockRecordImpl.createBlock(capture, editor);
+
+		editor.close(); // Flush and close
+
+		capture = new PcapngFileCapture(file, mode, filter);
+
+		return capture;
+	}
+
+	private final FileMode mode;
+
+	private PcapngBlockIndex index;
+
+	public PcapngFileCapture(final File f, final FileMode mode,
+	    Filter<ProtocolFilterTarget> filter) throws FileFormatException,
+	    IOException {
+		super(logger, filter, headerReader);
+		super.pattern = PcapngRecord.pattern;
+
+		this.mode = mode;
+
+		if (logger.isDebugEnabled()) {
+			logger.debug(f.getName() + ", mode=" + mode
+			    + (filter == null ? "" : filter));
+		}
+
+		this.openFile(f, this.filter);
+	}
+
+	private PcapngFileCapture(final FileMode mode) {
+		super(logger, null, headerReader);
+		super.pattern = PcapngRecord.pattern;
+		this.mode = mode;
+	}
+
+	private void openFile(final File file, Filter<ProtocolFilterTarget> filter)
+	    throws IOException, FileFormatException {
+
+		if (file.canRead() == false) {
+			throw new FileNotFoundException("File [" + file.getName()
+			    + "] is not readable, can not open in [" + mode.toString() + "]mode");
+		}
+
+		if (mode.isAppend() || mode.isContent() || mode.isStructure()) {
+			if (file.canWrite() == false) {
+				throw new FileNotFoundException("File [" + file.getName()
+				    + "] is readonly, can not open in read-write mode");
+			}
+		}
+
+		this.editor = new FileEditorImpl(file, this.mode, headerReader,
+		    ByteOrder.BIG_ENDIAN, filter, this);
+		try {
+			this.block = new PcapngBlockRecordImpl(this, this.editor);
+			this.index = new PcapngBlockIndex(this, this.editor.getFlexRegion());
+
+			/*
+			 * The capture device reflects the first interface of the first section
+			 */
+			final List<PcapngInterface> list = index.getFirstInterfaces();
+			final Protocol dlt = list.isEmpty() ? null : list.get(0).getProtocol();
+
+			setCaptureDevice(new DefaultCaptureDevice((dlt == null) ? PcapDLT
+			    .asConst(PcapDLT.EN10.intValue()) : dlt));
+
+		} finally {
+			if (this.index == null) {
+				/*
+				 * Make sure to close the editor in case any errors occured, otherwise
+				 * we could keep the file open until the VM terminates
+				 */
+				this.editor.close();
+			}
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("edito=" + editor.getFlexRegion().toString());
+		}
+	}
+
+	/**
+	 * Packet blocks are always selected by a record filter since they are
+	 * interleaved with other blocks. A protocol filter is applied using the link
+	 * type of each packet's interface.
+	 */
+	@Override
+	public PacketIterator<PcapngPacket> getPacketIterator() throws IOException {
+		final Filter<RecordFilterTarget> filter = (this.filter == null)
+		    ? PACKET_FILTER : new PcapngRecordFilter(this.filter, index
+		        .getProtocols());
+
+		return createPacketIterator(getRawIterator(filter));
+	}
+
+	/**
+	 * Unfiltered files are counted from the block index without reading any
+	 * packet data.
+	 */
+	@Override
+	public long countPackets() throws IOException {
+		if (this.filter == null) {
+			return index.getPacketCount();
+		}
+
+		return super.countPackets();
+	}
+
+	@Override
+	public PacketIndexer<PcapngPacket> getPacketIndexer() throws IOException {
+		final PcapngPacketPositionIndexer indexer = new PcapngPacketPositionIndexer(
+		    getPositionIndexer(), index);
+
+		return new PacketIndexerImpl<PcapngPacket>(indexer, getPacketIterator());
+	}
+
+	@Override
+	public boolean isEmpty() throws IOException {
+		return getPacketIterator().hasNext() == false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngFile#getBlockIterator()
+	 */
+	public IOSkippableIterator<PcapngBlockRecord> getBlockIterator()
+	    throws IOException {
+
+		final long[] sections = index.getSections();
+
+		return new IOSkippableIterator<PcapngBlockRecord>() {
+
+			private int i = 0;
+
+			public boolean hasNext() throws IOException {
+				return i < sections.length;
+			}
+
+			public PcapngBlockRecord next() throws IOException {
+				if (i >= sections.length) {
+					throw new NoSuchElementException();
+				}
+
+				final long position = sections[i++];
+
+				return new PcapngBlockRecordImpl(PcapngFileCapture.this, editor,
+				    editor.generateHandle(position));
+			}
+
+			public void remove() throws IOException {
+				throw new UnsupportedOperationException(
+				    "Section headers can not be removed through the block iterator");
+			}
+
+			public void skip() throws IOException {
+				i++;
+			}
+
+		};
+	}
+
+	/**
+	 * Looks up an interface by its id within the section which contains the
+	 * global position.
+	 * 
+	 * @param position
+	 *          global position of a block within the section
+	 * @param id
+	 *          interface id
+	 * @return the interface or null if not described
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public PcapngInterface getInterface(final long position, final int id)
+	    throws IOException {
+		return index.getInterface(position, id);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngFile#getInterfaces()
+	 */
+	public List<PcapngInterface> getInterfaces() throws IOException {
+		return index.getInterfaces();
+	}
+
+	/**
+	 * Interfaces a block inserted at the global position can refer to, the ones
+	 * described before the position in the section the block joins.
+	 * 
+	 * @param position
+	 *          global position the block is inserted at
+	 * @return list of interfaces, indexed by interface id
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public List<PcapngInterface> getInterfacesBefore(final long position)
+	    throws IOException {
+		return index.getInterfacesBefore(position);
+	}
+
+	/**
+	 * Checks if the section a block inserted at the global position joins
+	 * describes any interfaces after the position.
+	 * 
+	 * @param position
+	 *          global position the block is inserted at
+	 * @return true if an interface description block follows the position
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public boolean hasInterfacesAfter(final long position) throws IOException {
+		return index.hasInterfacesAfter(position);
+	}
+
+	protected PacketIterator<PcapngPacket> createPacketIterator(
+	    final RawIterator raw) throws IOException {
+		return new PcapngPacketIterator(this.editor, raw, getCaptureDevice(), this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngFile#getRecordIterator()
+	 */
+	public RecordIterator<PcapngRecord> getRecordIterator() throws IOException {
+		return new PcapngRecordIterator(this, this.editor, this.block,
+		    getRawIterator());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.FileCapture#getRecordIterator(org.jnetstream.filter.Filter)
+	 */
+	public RecordIterator<? extends Record> getRecordIterator(
+	    Filter<RecordFilterTarget> filter) throws IOException {
+		return new PcapngRecordIterator(this, this.editor, this.block,
+		    getRawIterator(filter));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.FileCapture#order()
+	 */
+	public ByteOrder order() {
+		return this.block.order();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.FileCapture#getFormatType()
+	 */
+	public FormatType getFormatType() {
+		return FormatType.Pcapng;
+	}
+
+	public RawIterator createRawIterator(Filter<RecordFilterTarget> filter)
+	    throws IOException {
+
+		return new PcapngRawIterator(editor.getFlexRegion(), editor, this, filter,
+		    this);
+	}
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.pcapng;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jnetstream.capture.FileFormatException;
+import org.jnetstream.capture.FormatType;
+import org.jnetstream.capture.InputIterator;
+import org.jnetstream.capture.file.HeaderReader;
+import org.jnetstream.capture.file.RecordFilterTarget;
+import org.jnetstream.capture.file.pcap.PcapDLT;
+import org.jnetstream.capture.file.pcapng.PcapngBlockRecord;
+import org.jnetstream.capture.file.pcapng.PcapngBlockType;
+import org.jnetstream.capture.file.pcapng.PcapngFile;
+import org.jnetstream.capture.file.pcapng.PcapngInput;
+import org.jnetstream.capture.file.pcapng.PcapngInterface;
+import org.jnetstream.capture.file.pcapng.PcapngPacket;
+import org.jnetstream.capture.file.pcapng.PcapngRecord;
+import org.jnetstream.capture.file.pcapng.PcapngRecordFilter;
+import org.jnetstream.filter.Filter;
+import org.jnetstream.packet.ProtocolFilterTarget;
+import org.jnetstream.protocol.Protocol;
+import org.jnetstream.protocol.ProtocolEntry;
+import org.jnetstream.protocol.ProtocolRegistry;
+
+import com.slytechs.capture.DefaultCaptureDevice;
+import com.slytechs.capture.file.AbstractStream;
+import com.slytechs.utils.memory.BufferUtils;
+
+/**
+ * A pcapng input stream. The stream is read in a single pass, interfaces are
+ * picked up from interface description blocks as they are read. The capture
+ * device reflects the first interface once its description has been read and
+ * defaults to ethernet until then.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class PcapngInputCapture
+    extends AbstractStream<PcapngPacket, PcapngBlockRecord> implements
+    PcapngInput {
+
+	public static final HeaderReader headerReader = PcapngFile.headerReader;
+
+	/**
+	 * Checks the format of the stream. The block type is compared to the
+	 * section header block type and the byte order magic determines the byte
+	 * order of the first section. The method consumes 12 bytes from the channel.
+	 * 
+	 * @param in
+	 *          input channel to check
+	 * @return either the byte order of the first section or null if this is an
+	 *         invalid format
+	 * @throws IOException
+	 */
+	public static ByteOrder checkFormat(ReadableByteChannel in)
+	    throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(PcapngRecord.MIN_BLOCK_LENGTH);
+		if (in.read(b) < PcapngRecord.MIN_BLOCK_LENGTH) {
+			return null;
+		}
+		b.flip();
+
+		try {
+			return PcapngBlockRecordImpl.determineByteOrder(b, 0);
+		} catch (final FileFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param in
+	 * @param order
+	 *          byte order of the first section
+	 * @param filter
+	 *          protocol filter to apply to packets
+	 * @throws IOException
+	 */
+	public PcapngInputCapture(final ReadableByteChannel in, ByteOrder order,
+	    Filter<ProtocolFilterTarget> filter) throws IOException {
+		super(in, order, headerReader, filter);
+
+		setCaptureDevice(new DefaultCaptureDevice(PcapDLT.asConst(PcapDLT.EN10
+		    .intValue())));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.InputCapture#getFormatType()
+	 */
+	public FormatType getFormatType() {
+		return FormatType.Pcapng;
+	}
+
+	public InputIterator<PcapngPacket> getPacketIterator() throws IOException {
+		return getPacketIterator(filter);
+	}
+
+	/**
+	 * All blocks are read in order to track the interfaces of the current
+	 * section. The protocol filter is applied to packet blocks using the link
+	 * type of each packet's interface.
+	 */
+	public InputIterator<PcapngPacket> getPacketIterator(
+	    final Filter<ProtocolFilterTarget> filter) throws IOException {
+
+		final InputIterator<ByteBuffer> raw = getRawIterator(null);
+
+		return new InputIterator<PcapngPacket>() {
+
+			private final List<PcapngInterfaceImpl> interfaces = new ArrayList<PcapngInterfaceImpl>();
+
+			private PcapngRecordFilter rf = new PcapngRecordFilter(filter);
+
+			private ByteBuffer prefetch;
+
+			private long prefetchPosition;
+
+			private long position = 0;
+
+			private int sections = 0;
+
+			public void close() throws IOException {
+				raw.close();
+			}
+
+			public long getPosition() {
+				return raw.getPosition();
+			}
+
+			public boolean hasNext() throws IOException {
+				while (prefetch == null && raw.hasNext()) {
+					final ByteBuffer b = raw.next();
+					final long start = position;
+					position += b.remaining();
+
+					final int p = b.position();
+					final PcapngBlockType type = PcapngBlockType.valueOf(b.getInt(p));
+
+					switch (type) {
+						case SectionHeader:
+							if (PcapngBlockRecordImpl.determineByteOrder(b, p) != b.order()) {
+								throw new FileFormatException(
+								    "PCAPNG sections with different byte orders are not supported",
+								    null, start);
+							}
+
+							interfaces.clear();
+							sections++;
+							break;
+
+						case InterfaceDescription:
+							interfaces.add(new PcapngInterfaceImpl(interfaces.size(), b, p));
+							rf = new PcapngRecordFilter(filter, protocols());
+
+							if (sections == 1 && interfaces.size() == 1) {
+								setCaptureDevice(new DefaultCaptureDevice(protocols()[0]));
+							}
+							break;
+
+						case InterfaceStatistics:
+							final int id = b.getInt(p + PcapngPacket.HDR_INTERFACE_ID);
+							if (id >= 0 && id < interfaces.size()) {
+								interfaces.get(id).setStatistics(b, p);
+							}
+							break;
+
+						default:
+							if (type.isPacket() && rf.accept(b, type)) {
+								prefetch = b;
+								prefetchPosition = start;
+							}
+					}
+				}
+
+				return prefetch != null;
+			}
+
+			public PcapngPacket next() throws IOException {
+				hasNext();
+
+				final ByteBuffer buffer = BufferUtils.slice(prefetch);
+				prefetch = null;
+
+				final PcapngInterface netif = interfaceOf(buffer);
+
+				return new PcapngPacketImpl(buffer, prefetchPosition, entryOf(netif),
+				    netif);
+			}
+
+			public void remove() throws IOException {
+				throw new UnsupportedOperationException(
+				    "Inputstream is readonly. Operation not supported");
+			}
+
+			public void skip() throws IOException {
+				hasNext();
+
+				prefetch = null;
+			}
+
+			private Protocol[] protocols() {
+				final Protocol[] protocols = new Protocol[interfaces.size()];
+				for (int i = 0; i < protocols.length; i++) {
+					protocols[i] = interfaces.get(i).getProtocol();
+				}
+
+				return protocols;
+			}
+
+			private PcapngInterface interfaceOf(final ByteBuffer b) {
+				final int id;
+				switch (PcapngBlockType.valueOf(b.getInt(0))) {
+					case EnhancedPacket:
+						id = b.getInt(PcapngPacket.HDR_INTERFACE_ID);
+						break;
+
+					case Packet:
+						id = b.getShort(PcapngPacket.HDR_INTERFACE_ID) & 0xFFFF;
+						break;
+
+					default:
+						id = 0;
+				}
+
+				return (id >= 0 && id < interfaces.size()) ? interfaces.get(id) : null;
+			}
+
+			/*
+			 * An unregistered link type leaves the packet without one, instead of
+			 * decoding it as another interface's link type
+			 */
+			private ProtocolEntry entryOf(final PcapngInterface netif) {
+				final Protocol protocol = (netif == null) ? null : netif.getProtocol();
+
+				return (protocol == null) ? null : ProtocolRegistry.lookup(protocol);
+			}
+		};
+	}
+
+	public InputIterator<PcapngRecord> getRecordIterator() throws IOException {
+		return getRecordIterator(null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.InputCapture#getRecordIterator(org.jnetstream.filter.Filter)
+	 */
+	public InputIterator<PcapngRecord> getRecordIterator(
+	    Filter<RecordFilterTarget> filter) throws IOException {
+
+		final InputIterator<ByteBuffer> raw = getRawIterator(filter);
+
+		return new InputIterator<PcapngRecord>() {
+
+			public void close() throws IOException {
+				raw.close();
+			}
+
+			public long getPosition() {
+				return raw.getPosition();
+			}
+
+			public boolean hasNext() throws IOException {
+				return raw.hasNext();
+			}
+
+			public PcapngRecord next() throws IOException {
+				final long position = raw.getPosition();
+				final ByteBuffer buffer = BufferUtils.slice(raw.next());
+
+				if (buffer.getInt(0) == PcapngBlockType.SectionHeader.intValue()) {
+					return new PcapngBlockRecordImpl(buffer, position);
+				}
+
+				return new PcapngRecordImpl(buffer, position);
+			}
+
+			public void remove() throws IOException {
+				raw.remove();
+			}
+
+			public void skip() throws IOException {
+				raw.skip();
+			}
+
+		};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.slytechs.capture.file.AbstractStream#createBlockRecord(java.nio.ByteBuffer)
+	 */
+	@Override
+	protected PcapngBlockRecord createBlockRecord(ByteBuffer b) {
+		b.order(order);
+
+		return new PcapngBlockRecordImpl(b, 0);
+	}
+
+}
@@ -0,0 +1,375 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.pcapng;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import org.jnetstream.capture.file.pcap.PcapDLT;
+import org.jnetstream.capture.file.pcapng.PcapngBlockType;
+import org.jnetstream.capture.file.pcapng.PcapngInterface;
+import org.jnetstream.capture.file.pcapng.PcapngRecord;
+import org.jnetstream.protocol.Protocol;
+
+/**
+ * An interface parsed from an interface description block. Statistics are
+ * filled in later if an interface statistics block for the interface is
+ * found.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class PcapngInterfaceImpl implements PcapngInterface {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final long NANOS = 1000000000L;
+
+	/**
+	 * Builds an interface description block without any options.
+	 * 
+	 * @param order
+	 *          byte order of the section
+	 * @param linktype
+	 *          pcap link type of the interface
+	 * @param snaplen
+	 *          snaplen of the interface
+	 * @return buffer containing the block, ready to be read
+	 */
+	public static ByteBuffer createBlock(final ByteOrder order,
+	    final int linktype, final long snaplen) {
+		return createBlock(order, linktype, snaplen, DEFAULT_TIMESTAMP_UNITS);
+	}
+
+	/**
+	 * Builds an interface description block with an if_tsresol option, if the
+	 * timestamp resolution is not the default microsecond resolution.
+	 * 
+	 * @param order
+	 *          byte order of the section
+	 * @param linktype
+	 *          pcap link type of the interface
+	 * @param snaplen
+	 *          snaplen of the interface
+	 * @param units
+	 *          timestamp units per second, a power of 10 or of 2
+	 * @return buffer containing the block, ready to be read
+	 */
+	public static ByteBuffer createBlock(final ByteOrder order,
+	    final int linktype, final long snaplen, final long units) {
+		final boolean tsresol = units != DEFAULT_TIMESTAMP_UNITS;
+		final int length = PcapngBlockType.InterfaceDescription.getHeaderLength()
+		    + (tsresol ? 12 : 0) + PcapngRecord.BLOCK_TRAILER_LENGTH;
+
+		final ByteBuffer b = ByteBuffer.allocate(length);
+		b.order(order);
+
+		b.putInt(PcapngBlockType.InterfaceDescription.intValue());
+		b.putInt(length);
+		b.putShort((short) linktype);
+		b.putShort((short) 0); // Reserved
+		b.putInt((int) snaplen);
+
+		if (tsresol) {
+			b.putShort((short) IF_TSRESOL);
+			b.putShort((short) 1);
+			b.put(toResolution(units));
+			b.put(new byte[3]); // Padding
+			b.putShort((short) PcapngRecord.OPT_ENDOFOPT);
+			b.putShort((short) 0);
+		}
+
+		b.putInt(length);
+
+		b.clear();
+
+		return b;
+	}
+
+	private final int id;
+
+	private final int linktype;
+
+	private final long snaplen;
+
+	private final String name;
+
+	private final String description;
+
+	private long units = DEFAULT_TIMESTAMP_UNITS;
+
+	private long tsoffset = 0;
+
+	private long received = -1;
+
+	private long dropped = -1;
+
+	private long start = -1;
+
+	private long end = -1;
+
+	/**
+	 * Parses an interface description block.
+	 * 
+	 * @param id
+	 *          interface id within its section
+	 * @param b
+	 *          buffer containing the entire block in the section's byte order
+	 * @param offset
+	 *          offset of the block within the buffer
+	 */
+	public PcapngInterfaceImpl(final int id, final ByteBuffer b, final int offset) {
+		final PcapngBlockType type = PcapngBlockType.InterfaceDescription;
+
+		this.id = id;
+		this.linktype = b.getShort(offset + HDR_LINKTYPE) & 0xFFFF;
+		this.snaplen = b.getInt(offset + HDR_SNAPLEN) & 0xFFFFFFFFL;
+
+		this.name = toString(PcapngOptions.find(b, offset, type, IF_NAME));
+		this.description = toString(PcapngOptions.find(b, offset, type,
+		    IF_DESCRIPTION));
+
+		final byte[] tsresol = PcapngOptions.find(b, offset, type, IF_TSRESOL);
+		if (tsresol != null && tsresol.length == 1) {
+			this.units = toUnits(tsresol[0]);
+		}
+
+		final long tsoffset = PcapngOptions.toLong(PcapngOptions.find(b, offset,
+		    type, IF_TSOFFSET), b.order());
+		if (tsoffset != -1) {
+			this.tsoffset = tsoffset;
+		}
+	}
+
+	/**
+	 * Creates an interface with default microsecond timestamp resolution.
+	 * 
+	 * @param id
+	 *          interface id within its section
+	 * @param linktype
+	 *          pcap link type
+	 * @param snaplen
+	 *          snaplen of the interface
+	 */
+	public PcapngInterfaceImpl(final int id, final int linktype,
+	    final long snaplen) {
+		this(id, linktype, snaplen, DEFAULT_TIMESTAMP_UNITS);
+	}
+
+	/**
+	 * Creates an interface with the timestamp resolution.
+	 * 
+	 * @param id
+	 *          interface id within its section
+	 * @param linktype
+	 *          pcap link type
+	 * @param snaplen
+	 *          snaplen
+	 * @param units
+	 *          timestamp units per second, a power of 10 or of 2
+	 */
+	public PcapngInterfaceImpl(final int id, final int linktype,
+	    final long snaplen, final long units) {
+		this.id = id;
+		this.linktype = linktype;
+		this.snaplen = snaplen;
+		this.units = units;
+		this.name = null;
+		this.description = null;
+	}
+
+	/**
+	 * Applies the options of an interface statistics block to this interface.
+	 * 
+	 * @param b
+	 *          buffer containing the entire block
+	 * @param offset
+	 *          offset of the block within the buffer
+	 */
+	public void setStatistics(final ByteBuffer b, final int offset) {
+		final PcapngBlockType type = PcapngBlockType.InterfaceStatistics;
+		final ByteOrder order = b.order();
+
+		this.received = PcapngOptions.toLong(PcapngOptions.find(b, offset, type,
+		    ISB_IFRECV), order);
+		this.dropped = PcapngOptions.toLong(PcapngOptions.find(b, offset, type,
+		    ISB_IFDROP), order);
+		this.start = PcapngOptions.toTimestamp(PcapngOptions.find(b, offset, type,
+		    ISB_STARTTIME), order);
+		this.end = PcapngOptions.toTimestamp(PcapngOptions.find(b, offset, type,
+		    ISB_ENDTIME), order);
+	}
+
+	/**
+	 * The most significant bit of if_tsresol selects a power of 2, otherwise a
+	 * power of 10. Resolutions that do not fit in a long keep the default.
+	 */
+	private static long toUnits(final byte tsresol) {
+		final int exponent = tsresol & 0x7F;
+
+		if ((tsresol & 0x80) != 0) {
+			return (exponent < 63) ? 1L << exponent : DEFAULT_TIMESTAMP_UNITS;
+		}
+
+		if (exponent > 18) {
+			return DEFAULT_TIMESTAMP_UNITS;
+		}
+
+		long units = 1;
+		for (int i = 0; i < exponent; i++) {
+			units *= 10;
+		}
+
+		return units;
+	}
+
+	/**
+	 * Encodes timestamp units as an if_tsresol value, the reverse of
+	 * {@link #toUnits(byte)}.
+	 */
+	private static byte toResolution(final long units) {
+		if (units > 0 && (units & (units - 1)) == 0 && units % 10 != 0) {
+			return (byte) (0x80 | Long.numberOfTrailingZeros(units));
+		}
+
+		int exponent = 0;
+		long u = units;
+		while (u > 1 && u % 10 == 0) {
+			u /= 10;
+			exponent++;
+		}
+
+		if (u != 1) {
+			throw new IllegalArgumentException("Timestamp units (" + units
+			    + ") are not a power of 10 or of 2");
+		}
+
+		return (byte) exponent;
+	}
+
+	private static String toString(final byte[] value) {
+		if (value == null) {
+			return null;
+		}
+
+		int length = value.length;
+		while (length > 0 && value[length - 1] == 0) {
+			length--;
+		}
+
+		return new String(value, 0, length, UTF8);
+	}
+
+	public String getDescription() {
+		return this.description;
+	}
+
+	public long getDropped() {
+		return this.dropped;
+	}
+
+	public long getEndTime() {
+		return this.end;
+	}
+
+	public int getId() {
+		return this.id;
+	}
+
+	public int getLinktype() {
+		return this.linktype;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngInterface#getNanos(long)
+	 */
+	public long getNanos(final long timestamp) {
+		final long fraction = timestamp % this.units;
+
+		if (this.units == NANOS) {
+			return fraction;
+		}
+
+		if (fraction <= Long.MAX_VALUE / NANOS) {
+			return fraction * NANOS / this.units;
+		}
+
+		return (long) ((double) fraction * NANOS / this.units);
+	}
+
+	public Protocol getProtocol() {
+		return PcapDLT.asConst(this.linktype);
+	}
+
+	public long getReceived() {
+		return this.received;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngInterface#getSeconds(long)
+	 */
+	public long getSeconds(final long timestamp) {
+		return timestamp / this.units + this.tsoffset;
+	}
+
+	public long getSnaplen() {
+		return this.snaplen;
+	}
+
+	public long getStartTime() {
+		return this.start;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngInterface#getTimestamp(long,
+	 *      long)
+	 */
+	public long getTimestamp(final long seconds, final long nanos) {
+		final long fraction;
+
+		if (this.units == NANOS) {
+			fraction = nanos;
+		} else if (nanos <= Long.MAX_VALUE / this.units) {
+			fraction = nanos * this.units / NANOS;
+		} else {
+			fraction = (long) ((double) nanos * this.units / NANOS);
+		}
+
+		return (seconds - this.tsoffset) * this.units + fraction;
+	}
+
+	public long getTimestampOffset() {
+		return this.tsoffset;
+	}
+
+	public long getTimestampUnits() {
+		return this.units;
+	}
+
+	@Override
+	public String toString() {
+		return "[if" + id + ", linktype=" + linktype + ", snaplen=" + snaplen
+		    + ", units=" + units + (name == null ? "" : ", name=" + name) + "]";
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.pcapng;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.jnetstream.capture.file.pcapng.PcapngBlockType;
+import org.jnetstream.capture.file.pcapng.PcapngPacket;
+import org.jnetstream.capture.file.pcapng.PcapngRecord;
+
+/**
+ * Utility methods for reading the options that follow the fixed part of a
+ * pcapng block. Each option is a 2 byte code, a 2 byte length and a value
+ * padded to 32 bits. The list is terminated by an end-of-options option or the
+ * end of the block.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+final class PcapngOptions {
+
+	private static final int DSB_SECRETS_LENGTH = 12;
+
+	private PcapngOptions() {
+		// Empty
+	}
+
+	/**
+	 * Rounds a length up to the next 32 bit boundary.
+	 * 
+	 * @param length
+	 *          length to pad
+	 * @return padded length
+	 */
+	public static int pad(final int length) {
+		return (length + 3) & ~3;
+	}
+
+	/**
+	 * Returns the offset of the first option within the block.
+	 * 
+	 * @param b
+	 *          buffer containing the entire block
+	 * @param offset
+	 *          offset of the block within the buffer
+	 * @param type
+	 *          type of the block
+	 * @return offset of the options or -1 if the block type has no options
+	 */
+	public static int start(final ByteBuffer b, final int offset,
+	    final PcapngBlockType type) {
+
+		switch (type) {
+			case SectionHeader:
+			case InterfaceDescription:
+			case InterfaceStatistics:
+				return offset + type.getHeaderLength();
+
+			case Packet:
+			case EnhancedPacket:
+				return offset + type.getHeaderLength()
+				    + pad(b.getInt(offset + PcapngPacket.HDR_CAPTURED_LENGTH));
+
+			case DecryptionSecrets:
+				return offset + type.getHeaderLength()
+				    + pad(b.getInt(offset + DSB_SECRETS_LENGTH));
+
+			default:
+				return -1;
+		}
+	}
+
+	/**
+	 * Finds the first option with the option code.
+	 * 
+	 * @param b
+	 *          buffer containing the entire block
+	 * @param offset
+	 *          offset of the block within the buffer
+	 * @param type
+	 *          type of the block
+	 * @param code
+	 *          option code to look for
+	 * @return copy of the option value or null if not found
+	 */
+	public static byte[] find(final ByteBuffer b, final int offset,
+	    final PcapngBlockType type, final int code) {
+
+		final long length = b.getInt(offset + PcapngRecord.HDR_BLOCK_LENGTH) & 0xFFFFFFFFL;
+		final long end = Math.min(offset + length
+		    - PcapngRecord.BLOCK_TRAILER_LENGTH, b.limit());
+
+		int p = start(b, offset, type);
+		if (p < 0) {
+			return null;
+		}
+
+		while (p + 4 <= end) {
+			final int c = b.getShort(p) & 0xFFFF;
+			final int l = b.getShort(p + 2) & 0xFFFF;
+
+			if (c == PcapngRecord.OPT_ENDOFOPT || p + 4 + l > end) {
+				break;
+			}
+
+			if (c == code) {
+				final byte[] value = new byte[l];
+				for (int i = 0; i < l; i++) {
+					value[i] = b.get(p + 4 + i);
+				}
+
+				return value;
+			}
+
+			p += 4 + pad(l);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Converts a 1, 2, 4 or 8 byte option value to an unsigned number.
+	 * 
+	 * @param value
+	 *          option value
+	 * @param order
+	 *          byte order of the section
+	 * @return the number or -1 if value is null or not of an integer size
+	 */
+	public static long toLong(final byte[] value, final ByteOrder order) {
+		if (value == null) {
+			return -1;
+		}
+
+		final ByteBuffer b = ByteBuffer.wrap(value);
+		b.order(order);
+
+		switch (value.length) {
+			case 1:
+				return b.get() & 0xFFL;
+			case 2:
+				return b.getShort() & 0xFFFFL;
+			case 4:
+				return b.getInt() & 0xFFFFFFFFL;
+			case 8:
+				return b.getLong();
+			default:
+				return -1;
+		}
+	}
+
+	/**
+	 * Converts an 8 byte timestamp option, which is stored as a high and a low
+	 * 32 bit word just like the timestamp of a packet block.
+	 * 
+	 * @param value
+	 *          option value
+	 * @param order
+	 *          byte order of the section
+	 * @return the timestamp or -1 if the value is not a timestamp
+	 */
+	public static long toTimestamp(final byte[] value, final ByteOrder order) {
+		if (value == null || value.length != 8) {
+			return -1;
+		}
+
+		final ByteBuffer b = ByteBuffer.wrap(value);
+		b.order(order);
+
+		final long high = b.getInt() & 0xFFFFFFFFL;
+		final long low = b.getInt() & 0xFFFFFFFFL;
+
+		return (high << 32) | low;
+	}
+}
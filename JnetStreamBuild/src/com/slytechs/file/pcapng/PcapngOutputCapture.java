@@ -0,0 +1,308 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.pcapng;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.jnetstream.capture.CapturePacket;
+import org.jnetstream.capture.CaptureType;
+import org.jnetstream.capture.FileFormatException;
+import org.jnetstream.capture.FormatType;
+import org.jnetstream.capture.file.Record;
+import org.jnetstream.capture.file.pcap.PcapFile;
+import org.jnetstream.capture.file.pcap.PcapFormat;
+import org.jnetstream.capture.file.pcapng.PcapngBlockType;
+import org.jnetstream.capture.file.pcapng.PcapngInterface;
+import org.jnetstream.capture.file.pcapng.PcapngOutput;
+import org.jnetstream.capture.file.pcapng.PcapngPacket;
+import org.jnetstream.capture.file.pcapng.PcapngRecord;
+import org.jnetstream.filter.Filter;
+import org.jnetstream.packet.Packet;
+import org.jnetstream.packet.ProtocolFilterTarget;
+import org.jnetstream.protocol.Protocol;
+import org.jnetstream.protocol.ProtocolRegistry;
+
+import com.slytechs.jnetstream.packet.APacket;
+import com.slytechs.utils.collection.IOSkippableIterator;
+
+/**
+ * A pcapng output stream. A section header is written before the first block,
+ * unless the first block added is itself a section header. An interface
+ * description is written the first time a packet of a link type is added.
+ * Packets are written as enhanced packet blocks with microsecond timestamps,
+ * the default resolution of an interface. Packets read from a pcapng capture
+ * keep the link type and timestamp resolution of the interface they were
+ * captured on.
+ * <p>
+ * Each section has its own byte order. Section headers added as already
+ * formatted blocks start a new section in their own byte order, which all the
+ * blocks that follow in the section must share. Otherwise the section is
+ * written in the byte order the stream was created with, or in the byte order
+ * of the first block added.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class PcapngOutputCapture implements PcapngOutput {
+
+	private final WritableByteChannel out;
+
+	/**
+	 * Byte order of the current section
+	 */
+	private ByteOrder order;
+
+	private boolean section = false;
+
+	private final List<PcapngInterfaceImpl> interfaces = new ArrayList<PcapngInterfaceImpl>();
+
+	/**
+	 * @param out
+	 *          channel to write to
+	 * @param order
+	 *          byte order of the section packets are written to, unless a
+	 *          section header block is added first
+	 */
+	public PcapngOutputCapture(final WritableByteChannel out,
+	    final ByteOrder order) {
+		this.out = out;
+		this.order = order;
+	}
+
+	/**
+	 * Writes the section header, if no section has been started yet.
+	 * 
+	 * @param order
+	 *          byte order of the section
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private void startSection(final ByteOrder order) throws IOException {
+		if (section) {
+			return;
+		}
+
+		this.order = order;
+		this.section = true;
+
+		write(PcapngBlockRecordImpl.createBuffer(order));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.OutputCapture#add(org.jnetstream.packet.Packet)
+	 */
+	public void add(final Packet packet) throws IOException {
+		final PcapngInterface netif;
+
+		if (packet instanceof PcapngPacket) {
+			netif = getInterface(((PcapngPacket) packet).getInterface());
+
+		} else {
+			final Protocol dlt = (packet instanceof APacket && ((APacket) packet)
+			    .getDlt() != null) ? ((APacket) packet).getDlt().getProtocol() : null;
+
+			if (dlt == null) {
+				throw new IllegalArgumentException("Packet's link type is unknown");
+			}
+
+			netif = getInterface(dlt);
+		}
+
+		final long ts = netif.getTimestamp(packet.getTimestampSeconds(), packet
+		    .getTimestampNanos());
+
+		write(PcapngPacketImpl.createBlock(order, netif.getId(), ts, packet
+		    .getBuffer().toByteBuffer(), packet.getOriginalLength()));
+	}
+
+	/**
+	 * Only pcapng records can be written.
+	 */
+	public <T extends Record> void add(final T record) throws IOException {
+		if (record instanceof PcapngRecord == false) {
+			throw new IllegalArgumentException(
+			    "Only pcapng records can be written to a pcapng output");
+		}
+
+		add((PcapngRecord) record);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngOutput#add(org.jnetstream.capture.file.pcapng.PcapngRecord)
+	 */
+	public void add(final PcapngRecord record) throws IOException {
+		add(record.getRecordBuffer());
+	}
+
+	/**
+	 * Writes an already formatted block. A section header starts a new section
+	 * in the byte order of its byte order magic. Any other block must be in the
+	 * byte order of the current section. Section headers and interface
+	 * descriptions are tracked so that packets added afterwards refer to the
+	 * right interfaces.
+	 */
+	public void add(final ByteBuffer raw) throws IOException {
+		final ByteBuffer b = raw.duplicate();
+		b.order(raw.order());
+
+		final int p = b.position();
+		final boolean header = b.remaining() >= PcapngBlockRecordImpl.HEADER_LENGTH
+		    && b.getInt(p) == PcapngBlockType.SectionHeader.intValue();
+
+		if (header) {
+			try {
+				b.order(PcapngBlockRecordImpl.determineByteOrder(b, p));
+			} catch (final FileFormatException e) {
+				throw new IllegalArgumentException(e.getMessage());
+			}
+		}
+
+		if (PcapngRecord.pattern.match(b) == false) {
+			throw new IllegalArgumentException("Buffer does not contain a valid"
+			    + " pcapng block");
+		}
+
+		if (header) {
+			this.order = b.order();
+			this.section = true;
+			interfaces.clear();
+
+		} else {
+			startSection(b.order());
+
+			if (b.order() != order) {
+				throw new IllegalArgumentException("Block's byte order (" + b.order()
+				    + ") does not match the section's byte order (" + order + ")");
+			}
+
+			if (PcapngBlockType.valueOf(b.getInt(p)) == PcapngBlockType.InterfaceDescription) {
+				interfaces.add(new PcapngInterfaceImpl(interfaces.size(), b, p));
+			}
+		}
+
+		write(b);
+	}
+
+	private void write(final ByteBuffer b) throws IOException {
+		while (b.hasRemaining()) {
+			out.write(b);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngOutput#getInterface(org.jnetstream.protocol.Protocol)
+	 */
+	public PcapngInterface getInterface(final Protocol dlt) throws IOException {
+		final int linktype = (dlt == null) ? -1 : ProtocolRegistry.translate(
+		    PcapFile.class, dlt);
+		if (linktype == -1) {
+			throw new IllegalArgumentException("Protocol (" + dlt
+			    + ") does not have a pcap link type");
+		}
+
+		startSection(order);
+
+		for (final PcapngInterface netif : interfaces) {
+			if (netif.getLinktype() == linktype) {
+				return netif;
+			}
+		}
+
+		return addInterface(linktype, PcapFormat.DEFAULT_SNAPLEN,
+		    PcapngInterface.DEFAULT_TIMESTAMP_UNITS);
+	}
+
+	/**
+	 * Returns the interface packets captured on the source interface are written
+	 * to, one with the same link type and timestamp resolution, writing its
+	 * interface description block first if there is none yet.
+	 */
+	private PcapngInterface getInterface(final PcapngInterface source)
+	    throws IOException {
+		if (source == null) {
+			throw new IllegalArgumentException(
+			    "Packet does not belong to any interface");
+		}
+
+		startSection(order);
+
+		for (final PcapngInterface netif : interfaces) {
+			if (netif.getLinktype() == source.getLinktype()
+			    && netif.getTimestampUnits() == source.getTimestampUnits()) {
+				return netif;
+			}
+		}
+
+		return addInterface(source.getLinktype(), source.getSnaplen(), source
+		    .getTimestampUnits());
+	}
+
+	private PcapngInterface addInterface(final int linktype, final long snaplen,
+	    final long units) throws IOException {
+		final PcapngInterfaceImpl netif = new PcapngInterfaceImpl(interfaces
+		    .size(), linktype, snaplen, units);
+
+		write(PcapngInterfaceImpl.createBlock(order, linktype, snaplen, units));
+		interfaces.add(netif);
+
+		return netif;
+	}
+
+	public void close() throws IOException {
+		try {
+			startSection(order); // An empty stream is still a valid pcapng file
+		} finally {
+			out.close();
+		}
+	}
+
+	public Filter<ProtocolFilterTarget> getFilter() {
+		return null;
+	}
+
+	public FormatType getFormatType() {
+		return FormatType.Pcapng;
+	}
+
+	public IOSkippableIterator<CapturePacket> getPacketIterator()
+	    throws IOException {
+		throw new UnsupportedOperationException(
+		    "Output stream is writeonly. Operation not supported");
+	}
+
+	public CaptureType getType() {
+		return CaptureType.StreamCapture;
+	}
+
+	public boolean isMutable() {
+		return false;
+	}
+
+	public Iterator<CapturePacket> iterator() {
+		throw new UnsupportedOperationException(
+		    "Output stream is writeonly. Operation not supported");
+	}
+}
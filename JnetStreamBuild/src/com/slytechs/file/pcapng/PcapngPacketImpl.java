@@ -0,0 +1,395 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.pcapng;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Timestamp;
+
+import org.jnetstream.capture.CaptureDevice;
+import org.jnetstream.capture.FileFormatException;
+import org.jnetstream.capture.file.RecordType;
+import org.jnetstream.capture.file.pcapng.PcapngBlockType;
+import org.jnetstream.capture.file.pcapng.PcapngInterface;
+import org.jnetstream.capture.file.pcapng.PcapngPacket;
+import org.jnetstream.capture.file.pcapng.PcapngRecord;
+import org.jnetstream.packet.Header;
+import org.jnetstream.protocol.ProtocolEntry;
+import org.jnetstream.protocol.ProtocolNotFoundException;
+
+import com.slytechs.capture.file.editor.EditorHandle;
+import com.slytechs.capture.file.editor.FileEditor;
+import com.slytechs.jnetstream.packet.AFilePacket;
+import com.slytechs.utils.io.IORuntimeException;
+import com.slytechs.utils.memory.BitBuffer;
+
+/**
+ * A packet stored in an enhanced, simple or obsolete packet block. Lengths and
+ * interface id are read from wherever the block type keeps them and the
+ * timestamp is converted using the resolution of the packet's interface.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class PcapngPacketImpl
+    extends AFilePacket implements PcapngPacket {
+
+	/**
+	 * Builds an enhanced packet block without any options.
+	 * 
+	 * @param order
+	 *          byte order of the section
+	 * @param id
+	 *          interface id
+	 * @param timestamp
+	 *          timestamp in units of the interface's resolution
+	 * @param data
+	 *          packet data between position and limit, not modified
+	 * @param original
+	 *          original length of the packet
+	 * @return buffer containing the block, ready to be read
+	 */
+	public static ByteBuffer createBlock(final ByteOrder order, final int id,
+	    final long timestamp, final ByteBuffer data, final long original) {
+		final int included = data.limit() - data.position();
+		final int length = PcapngBlockType.EnhancedPacket.getHeaderLength()
+		    + PcapngOptions.pad(included) + PcapngRecord.BLOCK_TRAILER_LENGTH;
+
+		final ByteBuffer b = ByteBuffer.allocate(length);
+		b.order(order);
+
+		b.putInt(PcapngBlockType.EnhancedPacket.intValue());
+		b.putInt(length);
+		b.putInt(id);
+		b.putInt((int) (timestamp >>> 32));
+		b.putInt((int) timestamp);
+		b.putInt(included);
+		b.putInt((int) original);
+		b.put(data.duplicate());
+
+		b.position(length - PcapngRecord.BLOCK_TRAILER_LENGTH);
+		b.putInt(length);
+
+		b.clear();
+
+		return b;
+	}
+
+	private final PcapngInterface netif;
+
+	private PcapngBlockType type;
+
+	/**
+	 * @param editor
+	 * @param handle
+	 * @param dlt
+	 *          protocol of the first header
+	 * @param netif
+	 *          interface the packet was captured on or null if not described
+	 */
+	public PcapngPacketImpl(final FileEditor editor, final EditorHandle handle,
+	    final ProtocolEntry dlt, final PcapngInterface netif) {
+		super(dlt, editor, handle);
+
+		this.netif = netif;
+	}
+
+	/**
+	 * @param buffer
+	 *          buffer containing only the packet block starting at position 0
+	 * @param position
+	 *          position of the block within the stream
+	 * @param dlt
+	 *          protocol of the first header
+	 * @param netif
+	 *          interface the packet was captured on or null if not described
+	 */
+	public PcapngPacketImpl(final ByteBuffer buffer, final long position,
+	    final ProtocolEntry dlt, final PcapngInterface netif) {
+		super(dlt, buffer, BitBuffer.wrap(buffer), position);
+
+		this.netif = netif;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngPacket#getBlockType()
+	 */
+	public PcapngBlockType getBlockType() throws IOException {
+		final ByteBuffer b = getRecordByteBuffer();
+
+		if (type == null) {
+			type = PcapngBlockType.valueOf(b.getInt(offset
+			    + PcapngRecord.HDR_BLOCK_TYPE));
+		}
+
+		return type;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.packet.Packet#getBuffer()
+	 */
+	public BitBuffer getBuffer() throws IOException {
+		final int included = (int) getIncludedLength();
+		final int start = offset + getRecordHeaderLength();
+
+		final BitBuffer b = getRecordBitBuffer();
+		b.limit((start + included) * 8);
+		b.position(start * 8);
+
+		return b;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.CapturePacket#getIncludedLength()
+	 */
+	public long getIncludedLength() throws IOException {
+		final PcapngBlockType type = getBlockType();
+		final ByteBuffer b = getRecordByteBuffer();
+
+		if (type == PcapngBlockType.SimplePacket) {
+			final long length = b.getInt(offset + PcapngRecord.HDR_BLOCK_LENGTH) & 0xFFFFFFFFL;
+			final long data = length - type.getHeaderLength()
+			    - PcapngRecord.BLOCK_TRAILER_LENGTH;
+
+			return Math.min(data, b.getInt(offset + SPB_ORIGINAL_LENGTH) & 0xFFFFFFFFL);
+		}
+
+		return b.getInt(offset + HDR_CAPTURED_LENGTH) & 0xFFFFFFFFL;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngPacket#getInterface()
+	 */
+	public PcapngInterface getInterface() throws IOException {
+		return netif;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngPacket#getInterfaceId()
+	 */
+	public int getInterfaceId() throws IOException {
+		final PcapngBlockType type = getBlockType();
+		final ByteBuffer b = getRecordByteBuffer();
+
+		switch (type) {
+			case EnhancedPacket:
+				return b.getInt(offset + HDR_INTERFACE_ID);
+
+			case Packet:
+				return b.getShort(offset + HDR_INTERFACE_ID) & 0xFFFF;
+
+			default:
+				return 0;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.packet.Packet#getLastHeader(java.lang.Class)
+	 */
+	public <T extends Header> T getLastHeader(Class<T> c)
+	    throws ProtocolNotFoundException, IllegalStateException {
+		throw new UnsupportedOperationException("Not implemented yet");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.CapturePacket#getOriginalLength()
+	 */
+	public long getOriginalLength() throws IOException {
+		final PcapngBlockType type = getBlockType();
+		final ByteBuffer b = getRecordByteBuffer();
+
+		if (type == PcapngBlockType.SimplePacket) {
+			return b.getInt(offset + SPB_ORIGINAL_LENGTH) & 0xFFFFFFFFL;
+		}
+
+		return b.getInt(offset + HDR_ORIGINAL_LENGTH) & 0xFFFFFFFFL;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.FilePacket#getPositionLocal()
+	 */
+	public int getPositionLocal() throws IOException {
+		return (int) handle.getPositionLocal();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.FilePacket#getPositionRegional()
+	 */
+	public long getPositionRegional() throws IOException {
+		return handle.getPositionRegional();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.slytechs.jnetstream.packet.AFilePacket#getRecordHeaderLength()
+	 */
+	@Override
+	public int getRecordHeaderLength() {
+		try {
+			return getBlockType().getHeaderLength();
+		} catch (final IOException e) {
+			throw new IORuntimeException(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.Record#getRecordType()
+	 */
+	public RecordType getRecordType() {
+		return RecordType.PacketRecord;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.packet.Packet#getTimestamp()
+	 */
+	public Timestamp getTimestamp() throws IOException {
+		final Timestamp ts = new Timestamp(getTimestampSeconds() * 1000L);
+		ts.setNanos((int) getTimestampNanos());
+
+		return ts;
+	}
+
+	/**
+	 * Simple packet blocks do not have a timestamp and return 0.
+	 */
+	public long getTimestampNanos() throws IOException {
+		if (getBlockType() == PcapngBlockType.SimplePacket) {
+			return 0;
+		}
+
+		return getInterfaceChecked().getNanos(readTimestamp());
+	}
+
+	/**
+	 * Simple packet blocks do not have a timestamp and return 0.
+	 */
+	public long getTimestampSeconds() throws IOException {
+		if (getBlockType() == PcapngBlockType.SimplePacket) {
+			return 0;
+		}
+
+		return getInterfaceChecked().getSeconds(readTimestamp());
+	}
+
+	private PcapngInterface getInterfaceChecked() throws IOException {
+		if (netif == null) {
+			throw new FileFormatException("Packet refers to undescribed interface ("
+			    + getInterfaceId() + ")");
+		}
+
+		return netif;
+	}
+
+	private long readTimestamp() throws IOException {
+		final ByteBuffer b = getRecordByteBuffer();
+		final long high = b.getInt(offset + HDR_TIMESTAMP_HIGH) & 0xFFFFFFFFL;
+		final long low = b.getInt(offset + HDR_TIMESTAMP_LOW) & 0xFFFFFFFFL;
+
+		return (high << 32) | low;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.CapturePacket#setCaptureDevice(org.jnetstream.capture.CaptureDevice)
+	 */
+	public void setCaptureDevice(CaptureDevice device) {
+		throw new UnsupportedOperationException("Not implemented yet");
+	}
+
+	/**
+	 * The captured length of a simple packet block is derived from the block
+	 * length and can not be set.
+	 */
+	public void setIncludedLength(final int length) throws IOException {
+		if (getBlockType() == PcapngBlockType.SimplePacket) {
+			throw new UnsupportedOperationException(
+			    "Simple packet blocks do not have a captured length field");
+		}
+
+		getEditBuffer().putInt(offset + HDR_CAPTURED_LENGTH, length);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.CapturePacket#setOriginalLength(int)
+	 */
+	public void setOriginalLength(final int length) throws IOException {
+		final int field = (getBlockType() == PcapngBlockType.SimplePacket)
+		    ? SPB_ORIGINAL_LENGTH : HDR_ORIGINAL_LENGTH;
+
+		getEditBuffer().putInt(offset + field, length);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.packet.Packet#setTimestamp(long, int)
+	 */
+	public void setTimestamp(final long seconds, final int nanos)
+	    throws IllegalArgumentException, IOException {
+
+		if (nanos < 0 || nanos > 999999999) {
+			throw new IllegalArgumentException(
+			    "Nanos value out of range for timestamp fraction. "
+			        + "Valid values are 0 to 999,999,999");
+		}
+
+		if (getBlockType() == PcapngBlockType.SimplePacket) {
+			throw new UnsupportedOperationException(
+			    "Simple packet blocks do not have a timestamp");
+		}
+
+		final long ts = getInterfaceChecked().getTimestamp(seconds, nanos);
+
+		final ByteBuffer b = getEditBuffer();
+		b.putInt(offset + HDR_TIMESTAMP_HIGH, (int) (ts >>> 32));
+		b.putInt(offset + HDR_TIMESTAMP_LOW, (int) ts);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.packet.Packet#setTimestamp(java.sql.Timestamp)
+	 */
+	public void setTimestamp(final Timestamp time) throws IOException {
+		final long seconds = time.getTime() / 1000;
+
+		setTimestamp(seconds, time.getNanos());
+	}
+}
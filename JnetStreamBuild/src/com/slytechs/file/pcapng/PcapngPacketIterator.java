@@ -0,0 +1,423 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.pcapng;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+
+import org.jnetstream.capture.CaptureDevice;
+import org.jnetstream.capture.PacketIterator;
+import org.jnetstream.capture.file.RawIterator;
+import org.jnetstream.capture.file.pcap.PcapFile;
+import org.jnetstream.capture.file.pcap.PcapFormat;
+import org.jnetstream.capture.file.pcapng.PcapngBlockType;
+import org.jnetstream.capture.file.pcapng.PcapngInterface;
+import org.jnetstream.capture.file.pcapng.PcapngPacket;
+import org.jnetstream.packet.Packet;
+import org.jnetstream.protocol.Protocol;
+import org.jnetstream.protocol.ProtocolEntry;
+import org.jnetstream.protocol.ProtocolRegistry;
+
+import com.slytechs.capture.file.AbstractPacketIterator;
+import com.slytechs.capture.file.editor.FileEditor;
+import com.slytechs.jnetstream.packet.APacket;
+
+/**
+ * Iterates over the packet blocks of a pcapng file. The first protocol of each
+ * packet is the link type of the interface it was captured on. Added packets
+ * are written as enhanced packet blocks on an interface of the section with a
+ * matching link type. If the section does not describe one yet, an interface
+ * description block is inserted in front of the packet, unless the section
+ * describes further interfaces after the position, whose ids would change.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public final class PcapngPacketIterator
+    extends AbstractPacketIterator implements PacketIterator<PcapngPacket> {
+
+	private final FileEditor editor;
+
+	private final PcapngFileCapture file;
+
+	private final PcapngPacketFactory factory;
+
+	public PcapngPacketIterator(final FileEditor editor, final RawIterator raw,
+	    final CaptureDevice captureDevice, final PcapngFileCapture file)
+	    throws IOException {
+
+		super(raw, captureDevice);
+
+		this.editor = editor;
+		this.file = file;
+		this.factory = ProtocolRegistry.getPacketFactory(
+		    PcapngPacketFactory.class,
+		    "com.slytechs.file.pcapng.DefaultPcapngPacketFactory");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.PacketIterator#add(java.nio.ByteBuffer)
+	 */
+	public void add(final ByteBuffer data) throws IOException {
+		this.add(data, null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.PacketIterator#add(java.nio.ByteBuffer, int,
+	 *      long, long, long)
+	 */
+	public void add(final ByteBuffer data, final int dlt, final long original,
+	    final long seconds, final long nanos) throws IOException {
+
+		PcapngInterface netif = null;
+		for (final PcapngInterface i : sectionInterfaces()) {
+			if (i.getLinktype() == dlt) {
+				netif = i;
+				break;
+			}
+		}
+
+		if (netif == null) {
+			netif = addInterface(dlt, PcapFormat.DEFAULT_SNAPLEN,
+			    PcapngInterface.DEFAULT_TIMESTAMP_UNITS);
+		}
+
+		this.add(data, netif, original, seconds, nanos);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.PacketIterator#add(java.nio.ByteBuffer,
+	 *      org.jnetstream.protocol.Protocol)
+	 */
+	public void add(final ByteBuffer data, final Protocol dlt) throws IOException {
+		final long original = data.limit() - data.position();
+
+		this.add(data, dlt, original);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.PacketIterator#add(java.nio.ByteBuffer,
+	 *      org.jnetstream.protocol.Protocol, long)
+	 */
+	public void add(final ByteBuffer data, final Protocol dlt, final long original)
+	    throws IOException {
+		final long millis = System.currentTimeMillis();
+		final long seconds = millis / 1000;
+		final long nanos = (millis % 1000) * 1000000L;
+
+		this.add(data, dlt, original, seconds, nanos);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.PacketIterator#add(java.nio.ByteBuffer,
+	 *      org.jnetstream.protocol.Protocol, long, long, long)
+	 */
+	public void add(final ByteBuffer data, final Protocol dlt,
+	    final long original, final long seconds, final long nanos)
+	    throws IOException {
+
+		this.add(data, interfaceOf(dlt), original, seconds, nanos);
+	}
+
+	private void add(final ByteBuffer data, final PcapngInterface netif,
+	    final long original, final long seconds, final long nanos)
+	    throws IOException {
+
+		this.raw.add(createBlock(data, netif, original, seconds, nanos));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#add(java.lang.Object)
+	 */
+	public void add(final Packet element) throws IOException {
+		this.raw.add(this.convertToBuffer(element), false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#add(java.util.List)
+	 */
+	public void addAll(final List<Packet> elements) throws IOException {
+		final Packet[] array = elements.toArray(new Packet[elements.size()]);
+
+		this.addAll(array);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#add(T[])
+	 */
+	public void addAll(final Packet... elements) throws IOException {
+
+		/*
+		 * Build up an array and add all the packets all at once. It is much more
+		 * efficient in the editor to do it this way as entire large region will be
+		 * inserted instead of small regions, one per packet.
+		 */
+		final ByteBuffer[] array = new ByteBuffer[elements.length];
+
+		for (int i = 0; i < elements.length; i++) {
+			array[i] = this.convertToBuffer(elements[i]);
+		}
+
+		this.raw.addAll(array);
+	}
+
+	/**
+	 * Packets are always rewritten as enhanced packet blocks. A block can not be
+	 * copied as is, since its interface id refers to the interfaces of the
+	 * section it came from.
+	 */
+	private ByteBuffer convertToBuffer(final Packet element) throws IOException {
+		final PcapngInterface netif;
+
+		if (element instanceof PcapngPacket) {
+			netif = interfaceOf(((PcapngPacket) element).getInterface());
+
+		} else {
+			final Protocol dlt = (element instanceof APacket && ((APacket) element)
+			    .getDlt() != null) ? ((APacket) element).getDlt().getProtocol()
+			    : null;
+
+			if (dlt == null) {
+				throw new IllegalArgumentException("Packet's link type is unknown");
+			}
+
+			netif = interfaceOf(dlt);
+		}
+
+		return createBlock(element.getBuffer().toByteBuffer(), netif, element
+		    .getOriginalLength(), element.getTimestampSeconds(), element
+		    .getTimestampNanos());
+	}
+
+	private ByteBuffer createBlock(final ByteBuffer data,
+	    final PcapngInterface netif, final long original, final long seconds,
+	    final long nanos) {
+		final long ts = netif.getTimestamp(seconds, nanos);
+
+		return PcapngPacketImpl.createBlock(this.editor.order(), netif.getId(), ts,
+		    data, original);
+	}
+
+	/**
+	 * Interface of the section at the current position with the link type or
+	 * the first interface if the link type is null. An interface is added if
+	 * there is none with the link type.
+	 */
+	private PcapngInterface interfaceOf(final Protocol dlt) throws IOException {
+		final List<PcapngInterface> list = sectionInterfaces();
+
+		for (final PcapngInterface netif : list) {
+			if (dlt == null || dlt == netif.getProtocol()) {
+				return netif;
+			}
+		}
+
+		final int linktype = (dlt == null) ? -1 : ProtocolRegistry.translate(
+		    PcapFile.class, dlt);
+		if (linktype == -1) {
+			throw new IllegalArgumentException("Protocol (" + dlt
+			    + ") does not have a pcap link type");
+		}
+
+		return addInterface(linktype, PcapFormat.DEFAULT_SNAPLEN,
+		    PcapngInterface.DEFAULT_TIMESTAMP_UNITS);
+	}
+
+	/**
+	 * Interface of the section at the current position with the link type of
+	 * the source interface, preferably one with the same timestamp resolution.
+	 */
+	private PcapngInterface interfaceOf(final PcapngInterface source)
+	    throws IOException {
+		if (source == null) {
+			throw new IllegalArgumentException(
+			    "Packet does not belong to any interface");
+		}
+
+		PcapngInterface match = null;
+		for (final PcapngInterface netif : sectionInterfaces()) {
+			if (netif.getLinktype() != source.getLinktype()) {
+				continue;
+			}
+
+			if (netif.getTimestampUnits() == source.getTimestampUnits()) {
+				return netif;
+			}
+
+			if (match == null) {
+				match = netif;
+			}
+		}
+
+		if (match == null) {
+			return addInterface(source.getLinktype(), source.getSnaplen(), source
+			    .getTimestampUnits());
+		}
+
+		return match;
+	}
+
+	/**
+	 * Inserts an interface description block at the current position, in front
+	 * of the packet about to be added. The new interface's id follows the ids of
+	 * the interfaces described before it, which is only its id in the file if
+	 * none are described after it within the section.
+	 */
+	private PcapngInterface addInterface(final int linktype, final long snaplen,
+	    final long units) throws IOException {
+		final long position = this.raw.getPosition();
+
+		if (file.hasInterfacesAfter(position)) {
+			throw new IllegalArgumentException("No interface with link type ("
+			    + linktype + ") is described in the section before the position and"
+			    + " one can not be added in front of other interface descriptions");
+		}
+
+		final int id = file.getInterfacesBefore(position).size();
+
+		this.raw.add(PcapngInterfaceImpl.createBlock(this.editor.order(),
+		    linktype, snaplen, units));
+
+		return new PcapngInterfaceImpl(id, linktype, snaplen, units);
+	}
+
+	private List<PcapngInterface> sectionInterfaces() throws IOException {
+		return file.getInterfacesBefore(this.raw.getPosition());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.slytechs.utils.collection.IOIterator#next()
+	 */
+	public PcapngPacket next() throws IOException {
+		final long position = this.raw.getPosition();
+		final ByteBuffer b = this.raw.next();
+		final int p = b.position();
+
+		final int id;
+		switch (PcapngBlockType.valueOf(b.getInt(p))) {
+			case EnhancedPacket:
+				id = b.getInt(p + PcapngPacket.HDR_INTERFACE_ID);
+				break;
+
+			case Packet:
+				id = b.getShort(p + PcapngPacket.HDR_INTERFACE_ID) & 0xFFFF;
+				break;
+
+			default:
+				id = 0;
+		}
+
+		final PcapngInterface netif = file.getInterface(position, id);
+
+		return factory.newPacket(this.editor, this.editor.generateHandle(position),
+		    entryOf(netif), netif);
+	}
+
+	/**
+	 * The packet's own interface decides its link type. A link type that is not
+	 * registered leaves the packet without one, the same as in a pcap file,
+	 * instead of decoding it as another interface's link type.
+	 */
+	private ProtocolEntry entryOf(final PcapngInterface netif) {
+		final Protocol protocol = (netif == null) ? null : netif.getProtocol();
+
+		return (protocol == null) ? null : ProtocolRegistry.lookup(protocol);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#remove(java.util.Collection)
+	 */
+	public void removeAll(final Collection<PcapngPacket> elements)
+	    throws IOException {
+		final PcapngPacket[] array = elements.toArray(new PcapngPacket[elements
+		    .size()]);
+
+		this.removeAll(array);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#remove(D[])
+	 */
+	public void removeAll(final PcapngPacket... elements) throws IOException {
+
+		for (final PcapngPacket packet : elements) {
+			final long global = packet.getPositionGlobal();
+
+			this.setPosition(global);
+
+			this.remove();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#replace(java.lang.Object)
+	 */
+	public void replace(final Packet element) throws IOException {
+		throw new UnsupportedOperationException("Not implemented yet");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#retain(java.util.List)
+	 */
+	public void retainAll(final List<PcapngPacket> elements) throws IOException {
+		throw new UnsupportedOperationException("Not implemented yet");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#retain(D[])
+	 */
+	public void retainAll(final PcapngPacket... elements) throws IOException {
+		throw new UnsupportedOperationException("Not implemented yet");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#swap(java.lang.Object,
+	 *      java.lang.Object)
+	 */
+	public void swap(final PcapngPacket dst, final PcapngPacket src)
+	    throws IOException {
+		throw new UnsupportedOperationException("Not implemented yet");
+	}
+}
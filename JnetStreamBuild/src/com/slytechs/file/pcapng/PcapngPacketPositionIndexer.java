@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.pcapng;
+
+import java.io.IOException;
+
+import com.slytechs.capture.file.indexer.PacketPositionIndexer;
+import com.slytechs.capture.file.indexer.PositionIndexer;
+import com.slytechs.utils.io.IORuntimeException;
+
+/**
+ * Packet position indexer for pcapng files. Unlike pcap, packet blocks are
+ * interleaved with section headers, interface descriptions and other blocks,
+ * so a packet index is first translated to a record index by the block index
+ * and then positioned by the record indexer.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class PcapngPacketPositionIndexer implements PacketPositionIndexer {
+
+	private final PositionIndexer recordIndexer;
+
+	private final PcapngBlockIndex index;
+
+	PcapngPacketPositionIndexer(final PositionIndexer recordIndexer,
+	    final PcapngBlockIndex index) {
+		this.recordIndexer = recordIndexer;
+		this.index = index;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.slytechs.capture.file.indexer.PositionIndexer#get(long)
+	 */
+	public Long get(final long globalIndex) throws IOException {
+		return recordIndexer.get(index.getRecordIndex(globalIndex));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.slytechs.capture.file.indexer.PositionIndexer#size()
+	 */
+	public long size() {
+		try {
+			return index.getPacketCount();
+		} catch (final IOException e) {
+			throw new IORuntimeException(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.slytechs.capture.file.indexer.PositionIndexer#getSegmentCount()
+	 */
+	public int getSegmentCount() {
+		return recordIndexer.getSegmentCount();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.slytechs.capture.file.indexer.PositionIndexer#keepInMemory(long,
+	 *      long)
+	 */
+	public Object keepInMemory(final long start, final long length)
+	    throws IOException {
+		final long first = index.getRecordIndex(start);
+		final long last = index.getRecordIndex(start + length - 1);
+
+		return recordIndexer.keepInMemory(first, last - first + 1);
+	}
+}
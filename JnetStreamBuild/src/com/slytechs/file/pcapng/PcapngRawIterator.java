@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.pcapng;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.jnetstream.capture.file.RecordFilterTarget;
+import org.jnetstream.capture.file.pcapng.PcapngBlockType;
+import org.jnetstream.capture.file.pcapng.PcapngFile;
+import org.jnetstream.capture.file.pcapng.PcapngInterface;
+import org.jnetstream.capture.file.pcapng.PcapngPacket;
+import org.jnetstream.capture.file.pcapng.PcapngRecord;
+import org.jnetstream.filter.Filter;
+
+import com.slytechs.capture.file.editor.AbstractRawIterator;
+import com.slytechs.capture.file.editor.PartialLoader;
+import com.slytechs.utils.io.AutoflushMonitor;
+import com.slytechs.utils.io.IORuntimeException;
+import com.slytechs.utils.region.FlexRegion;
+
+/**
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class PcapngRawIterator
+    extends AbstractRawIterator {
+
+	private final PcapngFileCapture file;
+
+	public PcapngRawIterator(final FlexRegion<PartialLoader> edits,
+	    final AutoflushMonitor autoflush, final Closeable closeable,
+	    final Filter<RecordFilterTarget> filter, final PcapngFileCapture file)
+	    throws IOException {
+		super(edits, PcapngFile.headerReader, autoflush, closeable, filter);
+
+		super.pattern = PcapngRecord.pattern;
+		this.file = file;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.slytechs.capture.file.editor.AbstractRawIterator#getRecordHeaderLength(java.nio.ByteBuffer)
+	 */
+	@Override
+	protected int getRecordHeaderLength(final ByteBuffer buffer) {
+		return PcapngBlockType.valueOf(buffer.getInt(buffer.position()))
+		    .getHeaderLength();
+	}
+
+	/**
+	 * Only enhanced and obsolete packet blocks carry a timestamp. Its resolution
+	 * is a property of the interface the packet was captured on.
+	 */
+	@Override
+	protected long getRecordTimestamp(final ByteBuffer buffer) {
+		final int p = buffer.position();
+		final PcapngBlockType type = PcapngBlockType.valueOf(buffer.getInt(p));
+
+		final int id;
+		if (type == PcapngBlockType.EnhancedPacket) {
+			id = buffer.getInt(p + PcapngPacket.HDR_INTERFACE_ID);
+		} else if (type == PcapngBlockType.Packet) {
+			id = buffer.getShort(p + PcapngPacket.HDR_INTERFACE_ID) & 0xFFFF;
+		} else {
+			return -1;
+		}
+
+		final long high = buffer.getInt(p + PcapngPacket.HDR_TIMESTAMP_HIGH) & 0xFFFFFFFFL;
+		final long low = buffer.getInt(p + PcapngPacket.HDR_TIMESTAMP_LOW) & 0xFFFFFFFFL;
+		final long ts = (high << 32) | low;
+
+		final PcapngInterface netif;
+		try {
+			netif = file.getInterface(getPosition(), id);
+		} catch (final IOException e) {
+			throw new IORuntimeException(e);
+		}
+
+		if (netif == null) {
+			return -1;
+		}
+
+		return netif.getSeconds(ts) * 1000000000L + netif.getNanos(ts);
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.pcapng;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.jnetstream.capture.FileCapture;
+import org.jnetstream.capture.FilePacket;
+import org.jnetstream.capture.file.Record;
+import org.jnetstream.capture.file.RecordType;
+import org.jnetstream.capture.file.pcapng.PcapngBlockType;
+import org.jnetstream.capture.file.pcapng.PcapngRecord;
+
+import com.slytechs.capture.file.AbstractRecord;
+import com.slytechs.capture.file.editor.EditorHandle;
+import com.slytechs.capture.file.editor.FileEditor;
+import com.slytechs.utils.io.IORuntimeException;
+
+/**
+ * Any pcapng block other than a section header. The record type is derived
+ * from the block type.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class PcapngRecordImpl
+    extends AbstractRecord implements PcapngRecord {
+
+	public PcapngRecordImpl(final FileCapture<? extends FilePacket> file,
+	    final FileEditor editor, final EditorHandle handle) {
+		super(file, editor, handle);
+	}
+
+	public PcapngRecordImpl(final ByteBuffer buffer, final long position) {
+		super(buffer, position);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.Record#asType(java.lang.Class)
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Record> T asType(final Class<T> c) {
+		return (T) this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngRecord#getBlockType()
+	 */
+	public PcapngBlockType getBlockType() throws IOException {
+		final ByteBuffer b = this.getRecordBuffer();
+
+		return PcapngBlockType.valueOf(b.getInt(this.offset + HDR_BLOCK_TYPE));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.pcapng.PcapngRecord#getOption(int)
+	 */
+	public byte[] getOption(final int code) throws IOException {
+		final PcapngBlockType type = this.getBlockType();
+
+		return PcapngOptions.find(this.getRecordBuffer(), this.offset, type, code);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.slytechs.capture.file.AbstractRecord#getRecordHeaderLength()
+	 */
+	@Override
+	public int getRecordHeaderLength() {
+		try {
+			return this.getBlockType().getHeaderLength();
+		} catch (final IOException e) {
+			throw new IORuntimeException(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.Record#getRecordType()
+	 */
+	public RecordType getRecordType() {
+		try {
+			return this.getBlockType().getRecordType();
+		} catch (final IOException e) {
+			throw new IORuntimeException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		try {
+			return "[" + this.getBlockType() + ", length=" + this.getRecordLength()
+			    + "]";
+		} catch (final IOException e) {
+			return "[" + e.getMessage() + "]";
+		}
+	}
+}
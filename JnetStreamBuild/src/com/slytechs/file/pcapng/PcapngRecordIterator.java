@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.pcapng;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.jnetstream.capture.file.RawIterator;
+import org.jnetstream.capture.file.RecordIterator;
+import org.jnetstream.capture.file.pcapng.PcapngBlockRecord;
+import org.jnetstream.capture.file.pcapng.PcapngBlockType;
+import org.jnetstream.capture.file.pcapng.PcapngRecord;
+
+import com.slytechs.capture.file.editor.AbstractIterator;
+import com.slytechs.capture.file.editor.FileEditor;
+import com.slytechs.utils.memory.BufferUtils;
+
+/**
+ * Iterates over all the blocks of a pcapng file. Section headers are returned
+ * as block records, all other blocks as generic pcapng records.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class PcapngRecordIterator
+    extends AbstractIterator implements RecordIterator<PcapngRecord> {
+
+	private final PcapngBlockRecord block;
+
+	private final FileEditor editor;
+
+	private final PcapngFileCapture file;
+
+	public PcapngRecordIterator(final PcapngFileCapture file,
+	    final FileEditor editor, final PcapngBlockRecord block,
+	    final RawIterator raw) throws IOException {
+		super(raw);
+		this.file = file;
+		this.editor = editor;
+		this.block = block;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#add(java.lang.Object)
+	 */
+	public void add(final PcapngRecord element) throws IOException {
+		this.raw.add(this.convertToReadonly(element));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#add(java.util.List)
+	 */
+	public void addAll(final List<PcapngRecord> elements) throws IOException {
+		final List<ByteBuffer> list = new ArrayList<ByteBuffer>(elements.size());
+
+		for (final PcapngRecord record : elements) {
+			list.add(this.convertToReadonly(record));
+		}
+
+		/*
+		 * Now add all at once
+		 */
+		this.raw.addAll(list);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#add(T[])
+	 */
+	public void addAll(final PcapngRecord... elements) throws IOException {
+		final ByteBuffer[] array = new ByteBuffer[elements.length];
+
+		for (int i = 0; i < elements.length; i++) {
+			array[i] = this.convertToReadonly(elements[i]);
+		}
+
+		/*
+		 * Now add all at once
+		 */
+		this.raw.addAll(array);
+	}
+
+	/**
+	 * Unlike pcap and snoop, pcapng block bodies can not be byte swapped
+	 * generically, therefore only records in the byte order of this file are
+	 * accepted.
+	 */
+	private ByteBuffer convertToReadonly(final PcapngRecord record)
+	    throws IOException {
+		final ByteBuffer b = record.getRecordBuffer();
+
+		if (b.order() != this.block.order()) {
+			throw new IllegalArgumentException("Record's byte order (" + b.order()
+			    + ") does not match the file's byte order (" + this.block.order()
+			    + ")");
+		}
+
+		final ByteBuffer view = (b.position() != 0 || b.limit() != b.capacity())
+		    ? b.slice() : b;
+
+		return (view.isReadOnly()) ? view : BufferUtils.asReadonly(view);
+	}
+
+	private Long[] convertToPositionArray(final PcapngRecord[] elements)
+	    throws IOException {
+		final Long[] array = new Long[elements.length];
+
+		int i = 0;
+		for (final PcapngRecord record : elements) {
+			array[i++] = record.getPositionGlobal();
+		}
+
+		return array;
+	}
+
+	private List<Long> convertToPositionList(
+	    final Collection<PcapngRecord> elements) throws IOException {
+		final List<Long> list = new ArrayList<Long>(elements.size());
+
+		for (final PcapngRecord record : elements) {
+			list.add(record.getPositionGlobal());
+		}
+
+		return list;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.slytechs.utils.collection.IOIterator#next()
+	 */
+	public PcapngRecord next() throws IOException {
+		final long position = this.raw.getPosition();
+		final ByteBuffer b = this.raw.next();
+		final PcapngBlockType type = PcapngBlockType.valueOf(b.getInt(b
+		    .position()));
+
+		if (type == PcapngBlockType.SectionHeader) {
+			return new PcapngBlockRecordImpl(this.file, this.editor, this.editor
+			    .generateHandle(position));
+		}
+
+		return new PcapngRecordImpl(this.file, this.editor, this.editor
+		    .generateHandle(position));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#remove(java.util.Collection)
+	 */
+	public void removeAll(final Collection<PcapngRecord> elements)
+	    throws IOException {
+		this.raw.removeAll(this.convertToPositionList(elements));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#remove(D[])
+	 */
+	public void removeAll(final PcapngRecord... elements) throws IOException {
+		this.raw.removeAll(this.convertToPositionArray(elements));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#replace(java.lang.Object)
+	 */
+	public void replace(final PcapngRecord element) throws IOException {
+		this.raw.replace(this.convertToReadonly(element));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#retain(java.util.List)
+	 */
+	public void retainAll(final List<PcapngRecord> elements) throws IOException {
+		this.raw.retainAll(this.convertToPositionList(elements));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#retain(D[])
+	 */
+	public void retainAll(final PcapngRecord... elements) throws IOException {
+		this.raw.retainAll(this.convertToPositionArray(elements));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetstream.capture.file.FileModifier#swap(java.lang.Object,
+	 *      java.lang.Object)
+	 */
+	public void swap(final PcapngRecord dst, final PcapngRecord src)
+	    throws IOException {
+
+		this.raw.swap(dst.getPositionGlobal(), src.getPositionGlobal());
+	}
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.file.pcapng;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jnetstream.capture.Captures;
+import org.jnetstream.capture.FileFormatException;
+import org.jnetstream.capture.FileMode;
+import org.jnetstream.capture.PacketIterator;
+import org.jnetstream.capture.file.pcapng.PcapngFile;
+import org.jnetstream.capture.file.pcapng.PcapngInterface;
+import org.jnetstream.capture.file.pcapng.PcapngPacket;
+
+/**
+ * Copies the packets of a multi-interface pcapng file into a new pcapng file
+ * through its packet iterator. The source describes an Ethernet interface with
+ * microsecond timestamps, then after some packets a raw IP interface (link
+ * type 101) with nanosecond timestamps. The new file starts out with only an
+ * Ethernet interface, so the raw IP interface must be added on demand. Every
+ * copied packet must keep its link type, timestamp and data.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestPcapngCopy {
+
+	private static final long SECONDS = 1700000000L;
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 * @throws FileFormatException
+	 */
+	public static void main(String[] args) throws IOException,
+	    FileFormatException {
+
+		final File source = File.createTempFile("source", ".pcapng");
+		final File copy = File.createTempFile("copy", ".pcapng");
+		source.deleteOnExit();
+		copy.deleteOnExit();
+		copy.delete();
+
+		write(source);
+
+		final List<PcapngPacket> expected = new ArrayList<PcapngPacket>();
+		final List<byte[]> data = new ArrayList<byte[]>();
+
+		final PcapngFile in = Captures.openFile(PcapngFile.class, source);
+		final PcapngFile out = Captures.newFile(PcapngFile.class, copy);
+		try {
+			final PacketIterator<PcapngPacket> i = in.getPacketIterator();
+			final PacketIterator<PcapngPacket> o = out.getPacketIterator();
+			while (o.hasNext()) {
+				o.next();
+			}
+
+			while (i.hasNext()) {
+				final PcapngPacket packet = i.next();
+				expected.add(packet);
+				data.add(bytes(packet));
+
+				o.add(packet);
+			}
+
+			out.flush();
+			check(in.getPacketCount() == 6, "source packets " + in.getPacketCount());
+			check(out.getPacketCount() == 6, "copied packets "
+			    + out.getPacketCount());
+
+			/*
+			 * Copied packets are compared with the source while it is still open
+			 */
+			final PacketIterator<PcapngPacket> c = out.getPacketIterator();
+			for (int k = 0; k < expected.size(); k++) {
+				check(c.hasNext(), "copied packet " + k);
+
+				final PcapngPacket e = expected.get(k);
+				final PcapngPacket p = c.next();
+
+				check(p.getInterface().getLinktype() == e.getInterface().getLinktype(),
+				    "link type of packet " + k);
+				check(p.getInterface().getTimestampUnits() == e.getInterface()
+				    .getTimestampUnits(), "timestamp units of packet " + k);
+				check(p.getTimestampSeconds() == e.getTimestampSeconds()
+				    && p.getTimestampNanos() == e.getTimestampNanos(),
+				    "timestamp of packet " + k);
+				check(Arrays.equals(bytes(p), data.get(k)), "data of packet " + k);
+			}
+
+			final List<PcapngInterface> interfaces = out.getInterfaces();
+			check(interfaces.size() == 2, "interfaces " + interfaces);
+			check(interfaces.get(1).getLinktype() == 101, "added interface "
+			    + interfaces.get(1));
+
+		} finally {
+			in.close();
+			out.close();
+		}
+
+		checkAddInterface(source);
+
+		System.out.println("copied " + expected.size() + " packets ok");
+	}
+
+	/**
+	 * A packet of a new link type can not be inserted in front of another
+	 * interface description of the section, which would change its id. At the
+	 * end of the section a new interface is described for it.
+	 */
+	private static void checkAddInterface(final File source) throws IOException,
+	    FileFormatException {
+		final PcapngFile file = Captures.openFile(PcapngFile.class, source,
+		    FileMode.ReadWrite);
+		try {
+			final PacketIterator<PcapngPacket> i = file.getPacketIterator();
+			i.next();
+
+			try {
+				i.add(ByteBuffer.wrap(ip()), 228, 20, SECONDS, 0);
+				throw new IllegalStateException("interface inserted before another");
+
+			} catch (final IllegalArgumentException e) {
+				// Expected
+			}
+
+			check(file.getInterfaces().size() == 2, "source interfaces changed");
+
+			while (i.hasNext()) {
+				i.next();
+			}
+
+			i.add(ByteBuffer.wrap(ip()), 228, 20, SECONDS, 5000);
+			file.flush();
+
+			final List<PcapngInterface> interfaces = file.getInterfaces();
+			check(interfaces.size() == 3 && interfaces.get(2).getLinktype() == 228,
+			    "appended interface " + interfaces);
+
+			PcapngPacket last = null;
+			for (final PcapngPacket p : file) {
+				last = p;
+			}
+
+			check(last.getInterfaceId() == 2, "appended packet's interface");
+			check(last.getTimestampSeconds() == SECONDS
+			    && last.getTimestampNanos() == 5000, "appended packet's timestamp");
+
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Writes 2 Ethernet packets on if0, then describes if1 and writes raw IP
+	 * packets and Ethernet packets alternating between the interfaces.
+	 */
+	private static void write(final File file) throws IOException {
+		final ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+		final FileOutputStream stream = new FileOutputStream(file);
+		final PcapngOutputCapture out = new PcapngOutputCapture(stream
+		    .getChannel(), order);
+
+		try {
+			out.add(PcapngInterfaceImpl.createBlock(order, 1, 65535));
+			out.add(packet(order, 0, SECONDS * 1000000L + 1, ethernet(1)));
+			out.add(packet(order, 0, SECONDS * 1000000L + 2, ethernet(2)));
+
+			out.add(PcapngInterfaceImpl.createBlock(order, 101, 65535,
+			    1000000000L));
+			for (int k = 0; k < 4; k++) {
+				if (k % 2 == 0) {
+					out.add(packet(order, 1, SECONDS * 1000000000L + 123456789L + k,
+					    ip()));
+				} else {
+					out.add(packet(order, 0, SECONDS * 1000000L + 10 + k, ethernet(k)));
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static ByteBuffer packet(final ByteOrder order, final int id,
+	    final long timestamp, final byte[] data) {
+		return PcapngPacketImpl.createBlock(order, id, timestamp, ByteBuffer
+		    .wrap(data), data.length);
+	}
+
+	private static byte[] ethernet(final int seed) {
+		final byte[] b = ip();
+		final ByteBuffer frame = ByteBuffer.allocate(14 + b.length);
+		frame.put(new byte[] { 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, (byte) seed });
+		frame.putShort((short) 0x0800).put(b);
+
+		return frame.array();
+	}
+
+	private static byte[] ip() {
+		final byte[] b = new byte[20];
+		b[0] = 0x45;
+		b[3] = 20;
+		b[8] = 64;
+		b[12] = 10;
+		b[15] = 1;
+		b[16] = 10;
+		b[19] = 2;
+
+		return b;
+	}
+
+	private static byte[] bytes(final PcapngPacket packet) throws IOException {
+		final ByteBuffer b = packet.getBuffer().toByteBuffer();
+		final byte[] a = new byte[b.remaining()];
+		b.get(a);
+
+		return a;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (condition == false) {
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -32,6 +32,7 @@ import org.jnetstream.capture.file.snoop.SnoopBlockRecord;
 import org.jnetstream.capture.file.snoop.SnoopDLT;
 import org.jnetstream.capture.file.snoop.SnoopFile;
 import org.jnetstream.capture.file.snoop.SnoopPacket;
+import org.jnetstream.capture.file.snoop.SnoopPacketRecord;
 import org.jnetstream.capture.file.snoop.SnoopRecord;
 import org.jnetstream.filter.Filter;
 import org.jnetstream.packet.ProtocolFilterTarget;
@@ -129,6 +130,7 @@ public class SnoopFileCapture
 	    Filter<ProtocolFilterTarget> filter) throws FileFormatException,
 	    IOException {
 		super(logger, filter, headerReader);
+		super.pattern = SnoopPacketRecord.pattern;
 
 		this.mode = mode;
 
@@ -142,6 +144,7 @@ public class SnoopFileCapture
 
 	private SnoopFileCapture(final FileMode mode) {
 		super(logger, null, headerReader);
+		super.pattern = SnoopPacketRecord.pattern;
 		this.mode = mode;
 	}
 
@@ -18,7 +18,7 @@ import java.nio.ByteBuffer;
 
 import org.jnetstream.capture.file.HeaderReader;
 import org.jnetstream.capture.file.RecordFilterTarget;
-import org.jnetstream.capture.file.snoop.SnoopBlockRecord;
+import org.jnetstream.capture.file.RecordType;
 import org.jnetstream.capture.file.snoop.SnoopFile;
 import org.jnetstream.capture.file.snoop.SnoopPacketRecord;
 import org.jnetstream.filter.Filter;
@@ -26,7 +26,6 @@ import org.jnetstream.filter.Filter;
 
 import com.slytechs.capture.file.editor.AbstractRawIterator;
 import com.slytechs.capture.file.editor.PartialLoader;
-import com.slytechs.utils.collection.SeekResult;
 import com.slytechs.utils.io.AutoflushMonitor;
 import com.slytechs.utils.region.FlexRegion;
 
@@ -68,119 +67,18 @@ public class SnoopRawIterator
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see org.jnetstream.capture.file.FileIterator#seek(long, long)
+	 * @see com.slytechs.capture.file.editor.AbstractRawIterator#getRecordTimestamp(java.nio.ByteBuffer)
 	 */
-	public SeekResult seek(final long seconds, final long nanos)
-	    throws IOException {
-		// Convert nanos to micros since PCAP only supports micros
-		final long micros = nanos / 1000;
-
-		// Calculate the start of the first record as a percentage
-		final double start = (double) SnoopBlockRecord.HEADER_LENGTH
-		    / edits.getLength();
-
-		/*
-		 * Now search for the record starting at the first record and ending at the
-		 * last record
-		 */
-		return seek(seconds, micros, start, 1. - start);
-	}
-
-	private SeekResult seek(final long seconds, final long micros, double start,
-	    double length) throws IOException {
-		ByteBuffer buffer;
-		long s, m;
-
-		seek(start);
-
-		/*
-		 * If the search area, the length as a percentage is smaller then typical
-		 * SEARCH_LENGTH, then we simply iterate over packets until we find what we
-		 * are looking for
-		 */
-		final long lengthInBytes = (long) ((double) edits.getLength() * length);
-		if (lengthInBytes <= SEARCH_LENGTH) {
-			return seekByIteration(seconds, micros);
-		}
-
-		/*
-		 * Otherwise, We divide the file into 2 half sections. Then we check which
-		 * half our timestamp should reside and we recursively call on ourselves to
-		 * subdivide each of the halfs until we narrow in on the right record
-		 */
-		if (hasNext() == false) {
-			throw new IllegalStateException(
-			    "Exhausted all records while searching for timestamp");
-		} else {
-			buffer = next();
-			s = (Long) SECONDS.read(buffer, buffer.position());
-			m = (Long) MICROS.read(buffer, buffer.position());
-
-		}
-
-		// Check if we are not already passed it
-		if (seconds < s || (seconds == s && micros < m)) {
-			seek(start);
-			return SeekResult.Fullfilled;
-		}
-
-		final double half = start + length / 2.;
-
-		seek(half);
-
-		if (hasNext() == false) {
-			throw new IllegalStateException(
-			    "Exhausted all records while searching for timestamp");
-		} else {
-			buffer = next();
-			s = (Long) SECONDS.read(buffer, buffer.position());
-			m = (Long) MICROS.read(buffer, buffer.position());
-		}
-
-		// Check if we are not already passed it
-		if (seconds < s || (seconds == s && micros < m)) {
-			return seek(seconds, micros, start, length / 2.);
-		} else {
-			return seek(seconds, micros, half, length / 2.);
+	@Override
+	protected long getRecordTimestamp(final ByteBuffer buffer) {
+		if (SnoopFile.headerReader.readType(buffer) != RecordType.PacketRecord) {
+			return -1;
 		}
-	}
-
-	/**
-	 * @param seconds
-	 * @param micros
-	 * @return
-	 * @throws IOException
-	 */
-	private SeekResult seekByIteration(long seconds, long micros)
-	    throws IOException {
-
-		long p = getPosition();
-		long s, m;
-
-		while (hasNext()) {
-			p = getPosition();
-			ByteBuffer buffer = next();
-
-			s = (Long) SECONDS.read(buffer, buffer.position());
-			m = (Long) MICROS.read(buffer, buffer.position());
-
-			if (s > seconds || (s == seconds && m >= micros)) {
-				setPosition(p);
-
-				return SeekResult.Fullfilled;
-			}
-		}
-
-		/*
-		 * If we go passed the end record, we simply align on the last record. That
-		 * is if the timestamp is way in the future, past any timestamp in the file,
-		 * then we simply use the last/oldest record as the closest one to the
-		 * timestamp.
-		 */
 
-		setPosition(p);
+		final long s = (Long) SECONDS.read(buffer, buffer.position());
+		final long m = (Long) MICROS.read(buffer, buffer.position());
 
-		return SeekResult.Fullfilled;
+		return s * 1000000000L + m * 1000L;
 	}
 
 	/* (non-Javadoc)
@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.filter.bpf.vm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jnetstream.filter.bpf.BPFCode;
+import org.jnetstream.filter.bpf.BPFInstruction;
+import org.jnetstream.filter.bpf.BPFProgram;
+import org.jnetstream.filter.bpf.BpfVM;
+import org.jnetstream.filter.bpf.IllegalInstructionException;
+
+/**
+ * A BPF VM which compiles each program to java byte code the first time the
+ * program is executed, using {@link BPFCompiler}. Compiled programs are cached
+ * for as long as the program itself is referenced. Programs which can not be
+ * compiled are executed by the {@link BPFVirtualMachine} interpreter.
+ * <p>
+ * The constructor throws UnsupportedOperationException if the platform is not
+ * able to load generated byte code, which lets the {@link
+ * org.jnetstream.filter.bpf.BpfFactory} fall back to the interpreter.
+ * </p>
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class BPFCompiledMachine implements BpfVM {
+
+	private static final Log logger = LogFactory.getLog(BPFCompiledMachine.class);
+
+	/**
+	 * Compiled programs, a null value means the program has to be interpreted
+	 */
+	private static final Map<BPFProgram, CompiledProgram> programs =
+	    new WeakHashMap<BPFProgram, CompiledProgram>();
+
+	private static Boolean supported;
+
+	private static synchronized boolean isSupported() {
+		if (supported == null) {
+			try {
+				final BPFProgram test = new BPFProgram(new BPFInstruction[] {
+				    new BPFInstruction(BPFCode.RET | BPFCode.K, 0, 0, 1) },
+				    ByteOrder.BIG_ENDIAN);
+
+				supported = BPFCompiler.compile(test).execute(null, 0, 0, 0) == 1;
+
+			} catch (final Throwable e) {
+				logger.debug("BPF compiler not supported on this platform: " + e);
+				supported = Boolean.FALSE;
+			}
+		}
+
+		return supported;
+	}
+
+	private static CompiledProgram lookup(final BPFProgram program) {
+		synchronized (programs) {
+			if (programs.containsKey(program)) {
+				return programs.get(program);
+			}
+
+			CompiledProgram compiled;
+			try {
+				compiled = BPFCompiler.compile(program);
+
+			} catch (final IllegalInstructionException e) {
+				logger.debug("Interpreting BPF program: " + e.getMessage());
+				compiled = null;
+
+			} catch (final UnsupportedOperationException e) {
+				logger.warn("Unable to compile BPF program, interpreting", e);
+				compiled = null;
+			}
+
+			programs.put(program, compiled);
+
+			return compiled;
+		}
+	}
+
+	private final BPFVirtualMachine interpreter = new BPFVirtualMachine();
+
+	private BPFProgram last;
+
+	private CompiledProgram lastCompiled;
+
+	public BPFCompiledMachine() {
+		if (isSupported() == false) {
+			throw new UnsupportedOperationException(
+			    "BPF compiler not supported on this platform");
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.filter.bpf.BpfVM#execute(org.jnetstream.filter.bpf.BPFProgram,
+	 *      byte[], int, int)
+	 */
+	public long execute(final BPFProgram program, final byte[] data,
+	    final int wirelen, final int buflen) throws IllegalInstructionException {
+		return execute(program, ByteBuffer.wrap(data), wirelen, buflen);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.filter.bpf.BpfVM#execute(org.jnetstream.filter.bpf.BPFProgram,
+	 *      java.nio.ByteBuffer, int, int)
+	 */
+	public long execute(final BPFProgram program, final ByteBuffer data,
+	    final int wirelen, final int buflen) throws IllegalInstructionException {
+
+		/*
+		 * Each thread has its own VM, remember the last program to avoid the
+		 * synchronized lookup while the same filter is being applied
+		 */
+		if (program != last) {
+			lastCompiled = lookup(program);
+			last = program;
+		}
+
+		if (lastCompiled == null) {
+			return interpreter.execute(program, data, wirelen, buflen);
+		}
+
+		return lastCompiled.execute(data, data.position(), wirelen, buflen);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.filter.bpf.BpfVM#execute(org.jnetstream.filter.bpf.BPFProgram,
+	 *      java.nio.ByteBuffer, int[], int[], int, long[])
+	 */
+	public int execute(final BPFProgram program, final ByteBuffer data,
+	    final int[] offsets, final int[] lengths, final int count,
+	    final long[] matches) throws IllegalInstructionException {
+
+		if (program != last) {
+			lastCompiled = lookup(program);
+			last = program;
+		}
+
+		if (lastCompiled == null) {
+			return interpreter.execute(program, data, offsets, lengths, count,
+			    matches);
+		}
+
+		for (int i = 0; i < (count + 63) >>> 6; i++) {
+			matches[i] = 0L;
+		}
+
+		final CompiledProgram compiled = lastCompiled;
+		int accepted = 0;
+		for (int i = 0; i < count; i++) {
+			if (compiled.execute(data, offsets[i], lengths[i], lengths[i]) != 0) {
+				matches[i >>> 6] |= 1L << i;
+				accepted++;
+			}
+		}
+
+		return accepted;
+	}
+}
@@ -0,0 +1,672 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.filter.bpf.vm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jnetpcap.util.ClassFileWriter;
+import org.jnetpcap.util.ClassFileWriter.ByteVector;
+import org.jnetstream.filter.bpf.BPFCode;
+import org.jnetstream.filter.bpf.BPFInstruction;
+import org.jnetstream.filter.bpf.BPFProgram;
+import org.jnetstream.filter.bpf.IllegalInstructionException;
+
+/**
+ * <p>
+ * Compiles a BPF program to java byte code. The program is translated once
+ * into a generated subclass of {@link CompiledProgram}, which is then executed
+ * for every packet without any instruction decoding. BPF registers and scratch
+ * memory words become local variables, constants are inlined into the byte
+ * code, jumps become direct branches and the bounds checks of all absolute
+ * loads within a basic block are combined into a single check at the start of
+ * the block.
+ * </p>
+ * <p>
+ * The semantics are exactly those of {@link BPFVirtualMachine}. The generated
+ * class is written by {@link ClassFileWriter} and defined in its own class
+ * loader so that it can be unloaded once the program is no longer referenced. On platforms that can not define classes
+ * from java byte code, such as Dalvik, {@link #compile(BPFProgram)} throws
+ * UnsupportedOperationException and the interpreter must be used instead.
+ * </p>
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public final class BPFCompiler {
+
+	private static final String SUPER = "com/slytechs/filter/bpf/vm/CompiledProgram";
+
+	private static final String VM = "com/slytechs/filter/bpf/vm/BPFVirtualMachine";
+
+	private static final String PREFIX = "com/slytechs/filter/bpf/vm/CompiledProgram$";
+
+	private static final String LOAD_DESC = "(Ljava/nio/ByteBuffer;I)J";
+
+	/*
+	 * Local variable slots of the generated execute method
+	 */
+	private static final int DATA = 1;
+
+	private static final int OFFSET = 2;
+
+	private static final int WIRELEN = 3;
+
+	private static final int BUFLEN = 4;
+
+	private static final int A = 5;
+
+	private static final int X = 7;
+
+	private static final int MEM = 9;
+
+	private static final int MAX_LOCALS = MEM + 2 * BPFVirtualMachine.BPF_MEMWORDS;
+
+	private static final int MAX_STACK = 8;
+
+	/*
+	 * Java byte code opcodes used by the compiler
+	 */
+	private static final int LCONST_0 = 0x09;
+
+	private static final int LCONST_1 = 0x0a;
+
+	private static final int ICONST_0 = 0x03;
+
+	private static final int BIPUSH = 0x10;
+
+	private static final int SIPUSH = 0x11;
+
+	private static final int LDC_W = 0x13;
+
+	private static final int LDC2_W = 0x14;
+
+	private static final int ILOAD = 0x15;
+
+	private static final int LLOAD = 0x16;
+
+	private static final int ALOAD = 0x19;
+
+	private static final int LSTORE = 0x37;
+
+	private static final int IADD = 0x60;
+
+	private static final int LADD = 0x61;
+
+	private static final int LSUB = 0x65;
+
+	private static final int LMUL = 0x69;
+
+	private static final int LDIV = 0x6d;
+
+	private static final int LNEG = 0x75;
+
+	private static final int LSHL = 0x79;
+
+	private static final int LUSHR = 0x7d;
+
+	private static final int LAND = 0x7f;
+
+	private static final int LOR = 0x81;
+
+	private static final int I2L = 0x85;
+
+	private static final int L2I = 0x88;
+
+	private static final int LCMP = 0x94;
+
+	private static final int IFEQ = 0x99;
+
+	private static final int IFNE = 0x9a;
+
+	private static final int IFLT = 0x9b;
+
+	private static final int IFGE = 0x9c;
+
+	private static final int IFGT = 0x9d;
+
+	private static final int IFLE = 0x9e;
+
+	private static final int IF_ICMPLT = 0xa1;
+
+	private static final int GOTO = 0xa7;
+
+	private static final int LRETURN = 0xad;
+
+	private static final int INVOKESTATIC = 0xb8;
+
+	private static int counter = 0;
+
+	/**
+	 * Compiles the program to java byte code and loads it.
+	 *
+	 * @param program
+	 *          program to compile
+	 * @return compiled program
+	 * @throws IllegalInstructionException
+	 *           if the program contains an invalid instruction or jump, or is too
+	 *           large to be compiled
+	 * @throws UnsupportedOperationException
+	 *           if the platform does not support loading of generated classes
+	 */
+	public static CompiledProgram compile(final BPFProgram program)
+	    throws IllegalInstructionException {
+
+		final String name;
+		synchronized (BPFCompiler.class) {
+			name = PREFIX + (counter++);
+		}
+
+		final ClassFileWriter writer = new BPFCompiler(program.getCode(), name)
+		    .generate();
+
+		try {
+			final Class<?> c = writer.define(BPFCompiler.class.getClassLoader(),
+			    null);
+
+			return (CompiledProgram) c.newInstance();
+
+		} catch (final UnsupportedOperationException e) {
+			throw e;
+
+		} catch (final Exception e) {
+			throw new UnsupportedOperationException(
+			    "Unable to load compiled BPF program", e);
+
+		} catch (final LinkageError e) {
+			throw new UnsupportedOperationException(
+			    "Unable to load compiled BPF program", e);
+		}
+	}
+
+	private final BPFInstruction[] code;
+
+	private final ClassFileWriter writer;
+
+	private final ByteVector out = new ByteVector();
+
+	/**
+	 * Byte code offset of each BPF instruction, the extra last entry is the
+	 * shared "return 0" exit
+	 */
+	private final int[] labels;
+
+	/**
+	 * Branches to be patched once all labels are known: [opcode offset, target]
+	 */
+	private final List<int[]> fixups = new ArrayList<int[]>();
+
+	private BPFCompiler(final BPFInstruction[] code, final String name) {
+		this.code = code;
+		this.writer = new ClassFileWriter(name, SUPER);
+		this.labels = new int[code.length + 1];
+	}
+
+	private ClassFileWriter generate() throws IllegalInstructionException {
+		translate();
+
+		writer.method("execute", "(Ljava/nio/ByteBuffer;III)J", MAX_STACK,
+		    MAX_LOCALS, out);
+
+		return writer;
+	}
+
+	/**
+	 * Marks the first instruction of every basic block.
+	 */
+	private boolean[] findLeaders() throws IllegalInstructionException {
+		final boolean[] leader = new boolean[code.length + 1];
+		leader[0] = true;
+
+		for (int pc = 0; pc < code.length; pc++) {
+			final BPFInstruction i = code[pc];
+			final int c = i.code;
+
+			if ((c & 0x07) == BPFCode.JMP) {
+				if ((c & 0xF0) == BPFCode.JA) {
+					leader[target(pc, i.k)] = true;
+				} else {
+					leader[target(pc, i.jt)] = true;
+					leader[target(pc, i.jf)] = true;
+				}
+
+				leader[pc + 1] = true;
+
+			} else if ((c & 0x07) == BPFCode.RET) {
+				leader[pc + 1] = true;
+			}
+		}
+
+		return leader;
+	}
+
+	private int target(final int pc, final long offset)
+	    throws IllegalInstructionException {
+		final long t = pc + 1 + offset;
+
+		if (offset < 0 || t >= code.length) {
+			throw new IllegalInstructionException("Jump out of program at OP index="
+			    + pc);
+		}
+
+		return (int) t;
+	}
+
+	/**
+	 * Returns the end of the furthest absolute load, between start and the end
+	 * of its basic block.
+	 */
+	private long blockBounds(final int start, final boolean[] leader) {
+		long max = 0;
+
+		for (int pc = start; pc < code.length && (pc == start || !leader[pc]); pc++) {
+			final BPFInstruction i = code[pc];
+			final int c = i.code;
+
+			if (c == (BPFCode.LD | BPFCode.W | BPFCode.ABS)) {
+				max = Math.max(max, i.k + 4);
+			} else if (c == (BPFCode.LD | BPFCode.H | BPFCode.ABS)) {
+				max = Math.max(max, i.k + 2);
+			} else if (c == (BPFCode.LD | BPFCode.B | BPFCode.ABS)
+			    || c == (BPFCode.LDX | BPFCode.MSH | BPFCode.B)) {
+				max = Math.max(max, i.k + 1);
+			}
+		}
+
+		return max;
+	}
+
+	private void translate() throws IllegalInstructionException {
+		final boolean[] leader = findLeaders();
+
+		/*
+		 * Registers and all the scratch memory words are zero initially
+		 */
+		out.u1(LCONST_0);
+		store(A);
+		out.u1(LCONST_0);
+		store(X);
+
+		for (int m = 0; m < BPFVirtualMachine.BPF_MEMWORDS; m++) {
+			out.u1(LCONST_0);
+			store(MEM + 2 * m);
+		}
+
+		for (int pc = 0; pc < code.length; pc++) {
+			labels[pc] = out.length();
+
+			if (leader[pc]) {
+				final long bounds = blockBounds(pc, leader);
+
+				if (bounds > Integer.MAX_VALUE) {
+					jump(GOTO, code.length);
+				} else if (bounds != 0) {
+					out.u1(ILOAD).u1(BUFLEN);
+					pushInt((int) bounds);
+					jump(IF_ICMPLT, code.length);
+				}
+			}
+
+			translate(pc, code[pc]);
+		}
+
+		/*
+		 * Shared exit for out of bounds loads, divide by zero and falling off the
+		 * end of the program
+		 */
+		labels[code.length] = out.length();
+		out.u1(LCONST_0).u1(LRETURN);
+
+		if (out.length() > Short.MAX_VALUE) {
+			throw new IllegalInstructionException(
+			    "BPF program too large to be compiled");
+		}
+
+		for (final int[] f : fixups) {
+			out.set2(f[0] + 1, labels[f[1]] - f[0]);
+		}
+	}
+
+	private void translate(final int pc, final BPFInstruction i)
+	    throws IllegalInstructionException {
+
+		switch (i.code) {
+			default:
+				throw new IllegalInstructionException(
+				    "Illegal BPF instruction encountered: opcode=" + i.code
+				        + " at OP index=" + pc);
+
+			case BPFCode.RET | BPFCode.K:
+				pushLong(i.k);
+				out.u1(LRETURN);
+				break;
+
+			case BPFCode.RET | BPFCode.A:
+				load(A);
+				out.u1(LRETURN);
+				break;
+
+			case BPFCode.LD | BPFCode.W | BPFCode.ABS:
+				loadAbsolute(i.k, "loadWord");
+				store(A);
+				break;
+
+			case BPFCode.LD | BPFCode.H | BPFCode.ABS:
+				loadAbsolute(i.k, "loadHalf");
+				store(A);
+				break;
+
+			case BPFCode.LD | BPFCode.B | BPFCode.ABS:
+				loadAbsolute(i.k, "loadByte");
+				store(A);
+				break;
+
+			case BPFCode.LD | BPFCode.W | BPFCode.LEN:
+				out.u1(ILOAD).u1(WIRELEN).u1(I2L);
+				store(A);
+				break;
+
+			case BPFCode.LDX | BPFCode.W | BPFCode.LEN:
+				out.u1(ILOAD).u1(WIRELEN).u1(I2L);
+				store(X);
+				break;
+
+			case BPFCode.LD | BPFCode.W | BPFCode.IND:
+				loadIndirect(i.k, 4, "loadWord");
+				break;
+
+			case BPFCode.LD | BPFCode.H | BPFCode.IND:
+				loadIndirect(i.k, 2, "loadHalf");
+				break;
+
+			case BPFCode.LD | BPFCode.B | BPFCode.IND:
+				loadIndirect(i.k, 1, "loadByte");
+				break;
+
+			case BPFCode.LDX | BPFCode.MSH | BPFCode.B:
+				loadAbsolute(i.k, "loadByte");
+				pushLong(0xf);
+				out.u1(LAND);
+				pushInt(2);
+				out.u1(LSHL);
+				store(X);
+				break;
+
+			case BPFCode.LDX | BPFCode.IMM:
+				pushLong(i.k);
+				store(X);
+				break;
+
+			case BPFCode.LD | BPFCode.IMM:
+				pushLong(i.k);
+				store(A);
+				break;
+
+			case BPFCode.LD | BPFCode.MEM:
+				load(memory(pc, i.k));
+				store(A);
+				break;
+
+			case BPFCode.LDX | BPFCode.MEM:
+				load(memory(pc, i.k));
+				store(X);
+				break;
+
+			case BPFCode.ST:
+				load(A);
+				store(memory(pc, i.k));
+				break;
+
+			case BPFCode.STX:
+				load(X);
+				store(memory(pc, i.k));
+				break;
+
+			case BPFCode.JMP | BPFCode.JA:
+				jump(GOTO, target(pc, i.k));
+				break;
+
+			case BPFCode.JMP | BPFCode.JGT | BPFCode.K:
+			case BPFCode.JMP | BPFCode.JGT | BPFCode.X:
+				compare(i);
+				branch(pc, i, IFGT, IFLE);
+				break;
+
+			case BPFCode.JMP | BPFCode.JGE | BPFCode.K:
+			case BPFCode.JMP | BPFCode.JGE | BPFCode.X:
+				compare(i);
+				branch(pc, i, IFGE, IFLT);
+				break;
+
+			case BPFCode.JMP | BPFCode.JEQ | BPFCode.K:
+			case BPFCode.JMP | BPFCode.JEQ | BPFCode.X:
+				compare(i);
+				branch(pc, i, IFEQ, IFNE);
+				break;
+
+			case BPFCode.JMP | BPFCode.JSET | BPFCode.K:
+			case BPFCode.JMP | BPFCode.JSET | BPFCode.X:
+				load(A);
+				operand(i);
+				out.u1(LAND).u1(LCONST_0).u1(LCMP);
+				branch(pc, i, IFNE, IFEQ);
+				break;
+
+			case BPFCode.ALU | BPFCode.ADD | BPFCode.K:
+			case BPFCode.ALU | BPFCode.ADD | BPFCode.X:
+				arithmetic(i, LADD);
+				break;
+
+			case BPFCode.ALU | BPFCode.SUB | BPFCode.K:
+			case BPFCode.ALU | BPFCode.SUB | BPFCode.X:
+				arithmetic(i, LSUB);
+				break;
+
+			case BPFCode.ALU | BPFCode.MUL | BPFCode.K:
+			case BPFCode.ALU | BPFCode.MUL | BPFCode.X:
+				arithmetic(i, LMUL);
+				break;
+
+			case BPFCode.ALU | BPFCode.DIV | BPFCode.K:
+				if (i.k == 0) {
+					jump(GOTO, code.length);
+				} else {
+					arithmetic(i, LDIV);
+				}
+				break;
+
+			case BPFCode.ALU | BPFCode.DIV | BPFCode.X:
+				load(X);
+				out.u1(LCONST_0).u1(LCMP);
+				jump(IFEQ, code.length);
+				arithmetic(i, LDIV);
+				break;
+
+			case BPFCode.ALU | BPFCode.AND | BPFCode.K:
+			case BPFCode.ALU | BPFCode.AND | BPFCode.X:
+				arithmetic(i, LAND);
+				break;
+
+			case BPFCode.ALU | BPFCode.OR | BPFCode.K:
+			case BPFCode.ALU | BPFCode.OR | BPFCode.X:
+				arithmetic(i, LOR);
+				break;
+
+			case BPFCode.ALU | BPFCode.LSH | BPFCode.K:
+			case BPFCode.ALU | BPFCode.LSH | BPFCode.X:
+				shift(i, LSHL);
+				break;
+
+			case BPFCode.ALU | BPFCode.RSH | BPFCode.K:
+			case BPFCode.ALU | BPFCode.RSH | BPFCode.X:
+				shift(i, LUSHR);
+				break;
+
+			case BPFCode.ALU | BPFCode.NEG:
+				load(A);
+				out.u1(LNEG);
+				store(A);
+				break;
+
+			case BPFCode.MISC | BPFCode.TAX:
+				load(A);
+				store(X);
+				break;
+
+			case BPFCode.MISC | BPFCode.TXA:
+				load(X);
+				store(A);
+				break;
+		}
+	}
+
+	/**
+	 * Pushes data[offset + k] onto the stack. Bounds were already checked at the
+	 * start of the basic block.
+	 */
+	private void loadAbsolute(final long k, final String method) {
+		out.u1(ALOAD).u1(DATA);
+		out.u1(ILOAD).u1(OFFSET);
+		pushInt((int) k);
+		out.u1(IADD);
+		out.u1(INVOKESTATIC).u2(
+		    writer.methodRef(VM, method, LOAD_DESC, false));
+	}
+
+	/**
+	 * A = data[offset + X + k], returns 0 if X + k + size > buflen
+	 */
+	private void loadIndirect(final long k, final int size, final String method) {
+		load(X);
+		pushLong(k + size);
+		out.u1(LADD);
+		out.u1(ILOAD).u1(BUFLEN).u1(I2L);
+		out.u1(LCMP);
+		jump(IFGT, code.length);
+
+		out.u1(ALOAD).u1(DATA);
+		out.u1(ILOAD).u1(OFFSET);
+		load(X);
+		pushLong(k);
+		out.u1(LADD).u1(L2I).u1(IADD);
+		out.u1(INVOKESTATIC).u2(
+		    writer.methodRef(VM, method, LOAD_DESC, false));
+		store(A);
+	}
+
+	private int memory(final int pc, final long k)
+	    throws IllegalInstructionException {
+		if (k < 0 || k >= BPFVirtualMachine.BPF_MEMWORDS) {
+			throw new IllegalInstructionException("Invalid memory word " + k
+			    + " at OP index=" + pc);
+		}
+
+		return MEM + 2 * (int) k;
+	}
+
+	/**
+	 * Pushes the K constant or the X register depending on instruction's source
+	 */
+	private void operand(final BPFInstruction i) {
+		if ((i.code & BPFCode.X) != 0) {
+			load(X);
+		} else {
+			pushLong(i.k);
+		}
+	}
+
+	private void compare(final BPFInstruction i) {
+		load(A);
+		operand(i);
+		out.u1(LCMP);
+	}
+
+	/**
+	 * Branches on the result of the comparison, falling through to whichever
+	 * target is the next instruction.
+	 */
+	private void branch(final int pc, final BPFInstruction i, final int ifTrue,
+	    final int ifFalse) throws IllegalInstructionException {
+		final int t = target(pc, i.jt);
+		final int f = target(pc, i.jf);
+		final int next = pc + 1;
+
+		if (t == next) {
+			jump(ifFalse, f);
+		} else {
+			jump(ifTrue, t);
+
+			if (f != next) {
+				jump(GOTO, f);
+			}
+		}
+	}
+
+	private void arithmetic(final BPFInstruction i, final int op) {
+		load(A);
+		operand(i);
+		out.u1(op);
+		store(A);
+	}
+
+	private void shift(final BPFInstruction i, final int op) {
+		load(A);
+
+		if ((i.code & BPFCode.X) != 0) {
+			load(X);
+			out.u1(L2I);
+		} else {
+			pushInt((int) i.k);
+		}
+
+		out.u1(op);
+		store(A);
+	}
+
+	private void jump(final int opcode, final int target) {
+		fixups.add(new int[] {
+		    out.length(),
+		    target });
+		out.u1(opcode).u2(0);
+	}
+
+	private void load(final int local) {
+		out.u1(LLOAD).u1(local);
+	}
+
+	private void store(final int local) {
+		out.u1(LSTORE).u1(local);
+	}
+
+	private void pushLong(final long v) {
+		if (v == 0) {
+			out.u1(LCONST_0);
+		} else if (v == 1) {
+			out.u1(LCONST_1);
+		} else {
+			out.u1(LDC2_W).u2(writer.longConst(v));
+		}
+	}
+
+	private void pushInt(final int v) {
+		if (v >= -1 && v <= 5) {
+			out.u1(ICONST_0 + v);
+		} else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+			out.u1(BIPUSH).u1(v);
+		} else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+			out.u1(SIPUSH).u2(v);
+		} else {
+			out.u1(LDC_W).u2(writer.intConst(v));
+		}
+	}
+}
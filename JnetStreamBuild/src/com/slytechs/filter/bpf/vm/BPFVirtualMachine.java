@@ -13,6 +13,10 @@
 package com.slytechs.filter.bpf.vm;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.jnetstream.filter.bpf.BPFCode;
 import org.jnetstream.filter.bpf.BPFInstruction;
@@ -20,11 +24,20 @@ import org.jnetstream.filter.bpf.BPFProgram;
 import org.jnetstream.filter.bpf.BpfVM;
 import org.jnetstream.filter.bpf.IllegalInstructionException;
 
-import com.slytechs.utils.number.IntegerUtils;
-
 /**
+ * <p>
  * Virtual State Machine that interprets and executes a BPF program.
- * 
+ * </p>
+ * <p>
+ * Programs are decoded once into a packed int[] form, see
+ * {@link #decode(BPFInstruction[])}, and the decoded form is kept for as long
+ * as the program is referenced. The scratch memory is reused between
+ * executions, so executing a program does not allocate any memory. Because of
+ * this a VM instance must not be shared between threads, use
+ * {@link org.jnetstream.filter.bpf.BpfFactory#getForThread()} to get the
+ * calling thread's VM.
+ * </p>
+ *
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
  */
@@ -32,302 +45,282 @@ public class BPFVirtualMachine implements BpfVM {
 
 	public static final int BPF_MEMWORDS = 16;
 
-	public BPFVirtualMachine() {
-		// Empty
+	/**
+	 * Number of ints used by each decoded instruction
+	 */
+	private static final int INSN = 2;
+
+	/**
+	 * Reads an unsigned 32-bit word in network byte order, regardless of the
+	 * buffer's byte order.
+	 *
+	 * @param data
+	 *          buffer to read from
+	 * @param index
+	 *          absolute index within the buffer
+	 * @return the unsigned word
+	 */
+	public static long loadWord(final ByteBuffer data, final int index) {
+		final int v = data.getInt(index);
+
+		return ((data.order() == ByteOrder.BIG_ENDIAN) ? v : Integer
+		    .reverseBytes(v)) & 0xFFFFFFFFL;
 	}
 
-	public long execute(final BPFProgram program, final byte[] data,
-	    final int wirelen, final int buflen) throws IllegalInstructionException {
-
-		long A = 0; // A register
-		long X = 0; // X register
-		long k = 0; // Memory pointer
-		int pi = 0; // Program index into the PC array
-		final long[] mem = new long[BPFVirtualMachine.BPF_MEMWORDS]; // Memory
-																																	// stack
-
-		BPFInstruction i = null;
-		pi--;
-		while (true) {
-			pi++;
-			i = program.getCode()[pi];
+	/**
+	 * Reads an unsigned 16-bit half word in network byte order, regardless of the
+	 * buffer's byte order.
+	 *
+	 * @param data
+	 *          buffer to read from
+	 * @param index
+	 *          absolute index within the buffer
+	 * @return the unsigned half word
+	 */
+	public static long loadHalf(final ByteBuffer data, final int index) {
+		return ((data.get(index) & 0xFF) << 8) | (data.get(index + 1) & 0xFF);
+	}
 
-			switch (i.getCode()) {
-				default:
-					throw new IllegalInstructionException(
-					    "Illegal BPF instruction encountered: opcode=" + i.getCode()
-					        + " at OP index=" + pi);
+	/**
+	 * Reads an unsigned byte.
+	 *
+	 * @param data
+	 *          buffer to read from
+	 * @param index
+	 *          absolute index within the buffer
+	 * @return the unsigned byte
+	 */
+	public static long loadByte(final ByteBuffer data, final int index) {
+		return data.get(index) & 0xFF;
+	}
 
-				case BPFCode.RET | BPFCode.K:
-					return i.k;
+	private static long loadWord(final byte[] array, final ByteBuffer buffer,
+	    final int index) {
+		if (array == null) {
+			return loadWord(buffer, index);
+		}
 
-				case BPFCode.RET | BPFCode.A:
-					return A;
+		return (((array[index] & 0xFF) << 24) | ((array[index + 1] & 0xFF) << 16)
+		    | ((array[index + 2] & 0xFF) << 8) | (array[index + 3] & 0xFF)) & 0xFFFFFFFFL;
+	}
 
-				case BPFCode.LD | BPFCode.W | BPFCode.ABS:
-					k = i.k;
-					if (k + 4 > buflen) {
-						return 0;
-					}
-					A = IntegerUtils.readUIntBE(data, (int) k);
-					continue;
+	private static long loadHalf(final byte[] array, final ByteBuffer buffer,
+	    final int index) {
+		if (array == null) {
+			return loadHalf(buffer, index);
+		}
 
-				case BPFCode.LD | BPFCode.H | BPFCode.ABS:
-					k = i.k;
-					if (k + 2 > buflen) {
-						return 0;
-					}
-					A = IntegerUtils.readUShortBE(data, (int) k);
-					continue;
+		return ((array[index] & 0xFF) << 8) | (array[index + 1] & 0xFF);
+	}
 
-				case BPFCode.LD | BPFCode.B | BPFCode.ABS:
-					k = i.k;
-					if (k + 1 > buflen) {
-						return 0;
-					}
-					A = IntegerUtils.readUByte(data, (int) k);
-					continue;
+	private static long loadByte(final byte[] array, final ByteBuffer buffer,
+	    final int index) {
+		if (array == null) {
+			return buffer.get(index) & 0xFF;
+		}
 
-				case BPFCode.LD | BPFCode.W | BPFCode.LEN:
-					A = wirelen;
-					continue;
+		return array[index] & 0xFF;
+	}
 
-				case BPFCode.LDX | BPFCode.W | BPFCode.LEN:
-					X = wirelen;
-					continue;
+	/**
+	 * Decodes the program into a packed int[] form. Each instruction occupies 2
+	 * ints, the first holds the opcode in bits 0-7, jt in bits 8-15 and jf in
+	 * bits 16-23, the second holds the unsigned 32-bit constant k. All jumps and
+	 * memory word references are validated so they don't have to be checked
+	 * while the program is executing.
+	 *
+	 * @param code
+	 *          program's instructions
+	 * @return the decoded program
+	 * @throws IllegalInstructionException
+	 *           if any of the instructions is not valid
+	 */
+	public static int[] decode(final BPFInstruction[] code)
+	    throws IllegalInstructionException {
+		final int[] decoded = new int[code.length * INSN];
+
+		if (code.length == 0 || (code[code.length - 1].code & 0x07) != BPFCode.RET) {
+			throw new IllegalInstructionException("BPF program does not end with "
+			    + "a return instruction");
+		}
 
-				case BPFCode.LD | BPFCode.W | BPFCode.IND:
-					k = X + i.k;
-					if (k + 4 > buflen) {
-						return 0;
-					}
-					A = IntegerUtils.readUIntBE(data, (int) k);
-					continue;
+		for (int pc = 0; pc < code.length; pc++) {
+			final BPFInstruction i = code[pc];
 
-				case BPFCode.LD | BPFCode.H | BPFCode.IND:
-					k = X + i.k;
-					if (k + 2 > buflen) {
-						return 0;
-					}
-					A = IntegerUtils.readUShortBE(data, (int) k);
-					continue;
+			if (i.code < 0 || i.code > 0xFF || i.jt < 0 || i.jt > 0xFF || i.jf < 0
+			    || i.jf > 0xFF || i.k < 0 || i.k > 0xFFFFFFFFL) {
+				throw new IllegalInstructionException("Invalid BPF instruction "
+				    + "encoding at OP index=" + pc);
+			}
 
-				case BPFCode.LD | BPFCode.B | BPFCode.IND:
-					k = X + i.k;
-					if (k + 1 > buflen) {
-						return 0;
+			switch (i.code & 0x07) {
+				case BPFCode.JMP:
+					final long t = (i.code == (BPFCode.JMP | BPFCode.JA)) ? i.k : Math
+					    .max(i.jt, i.jf);
+					if (pc + 1 + t >= code.length) {
+						throw new IllegalInstructionException("Jump out of program at "
+						    + "OP index=" + pc);
 					}
-					A = IntegerUtils.readUByte(data, (int) k);
-					continue;
-
-				case BPFCode.LDX | BPFCode.MSH | BPFCode.B:
-					k = i.k;
-					X = (IntegerUtils.readUByte(data, (int) k) & 0xf) << 2;
-					continue;
-
-				case BPFCode.LDX | BPFCode.IMM:
-					X = i.k;
-					continue;
-
-				case BPFCode.LD | BPFCode.IMM:
-					A = i.k;
-					continue;
-
-				case BPFCode.LD | BPFCode.MEM:
-					A = mem[(int) i.k];
-					continue;
-
-				case BPFCode.LDX | BPFCode.MEM:
-					X = mem[(int) i.k];
-					continue;
+					break;
 
 				case BPFCode.ST:
-					mem[(int) i.k] = A;
-					continue;
-
 				case BPFCode.STX:
-					mem[(int) i.k] = X;
-					continue;
-
-				case BPFCode.JMP | BPFCode.JA:
-					pi = (int) i.k;
-					continue;
-
-				case BPFCode.JMP | BPFCode.JGT | BPFCode.K:
-					pi += (A > i.k) ? i.jt : i.jf;
-					continue;
-
-				case BPFCode.JMP | BPFCode.JGE | BPFCode.K:
-					pi += (A >= i.k) ? i.jt : i.jf;
-					continue;
-
-				case BPFCode.JMP | BPFCode.JEQ | BPFCode.K:
-					pi += (A == i.k) ? i.jt : i.jf;
-					continue;
-
-				case BPFCode.JMP | BPFCode.JSET | BPFCode.K:
-					pi += ((A & i.k) != 0) ? i.jt : i.jf;
-					continue;
-
-				case BPFCode.JMP | BPFCode.JGT | BPFCode.X:
-					pi += (A > X) ? i.jt : i.jf;
-					continue;
-
-				case BPFCode.JMP | BPFCode.JGE | BPFCode.X:
-					pi += (A >= X) ? i.jt : i.jf;
-					continue;
-
-				case BPFCode.JMP | BPFCode.JEQ | BPFCode.X:
-					pi += (A == X) ? i.jt : i.jf;
-					continue;
-
-				case BPFCode.JMP | BPFCode.JSET | BPFCode.X:
-					pi += ((A & X) != 0) ? i.jt : i.jf;
-					continue;
-
-					/* ALUs on X */
-
-				case BPFCode.ALU | BPFCode.ADD | BPFCode.X:
-					A += X;
-					continue;
-
-				case BPFCode.ALU | BPFCode.SUB | BPFCode.X:
-					A -= X;
-					continue;
-
-				case BPFCode.ALU | BPFCode.MUL | BPFCode.X:
-					A *= X;
-					continue;
+					if (i.k >= BPF_MEMWORDS) {
+						throw new IllegalInstructionException("Invalid memory word "
+						    + i.k + " at OP index=" + pc);
+					}
+					break;
 
-				case BPFCode.ALU | BPFCode.DIV | BPFCode.X:
-					if (X == 0) {
-						return 0;
+				case BPFCode.LD:
+				case BPFCode.LDX:
+					if ((i.code & 0xE0) == BPFCode.MEM && i.k >= BPF_MEMWORDS) {
+						throw new IllegalInstructionException("Invalid memory word "
+						    + i.k + " at OP index=" + pc);
 					}
-					A /= X;
-					continue;
+					break;
+			}
 
-				case BPFCode.ALU | BPFCode.AND | BPFCode.X:
-					A &= X;
-					continue;
+			decoded[pc * INSN] = i.code | (i.jt << 8) | (i.jf << 16);
+			decoded[pc * INSN + 1] = (int) i.k;
+		}
 
-				case BPFCode.ALU | BPFCode.OR | BPFCode.X:
-					A |= X;
-					continue;
+		return decoded;
+	}
 
-				case BPFCode.ALU | BPFCode.LSH | BPFCode.X:
-					A <<= X;
-					continue;
+	/**
+	 * Scratch memory, reused between executions
+	 */
+	private final long[] mem = new long[BPFVirtualMachine.BPF_MEMWORDS];
 
-				case BPFCode.ALU | BPFCode.RSH | BPFCode.X:
-					A >>>= X;
-					continue;
+	private final Map<BPFProgram, int[]> programs =
+	    new WeakHashMap<BPFProgram, int[]>();
 
-					/* ALUs on K */
+	private BPFProgram last;
 
-				case BPFCode.ALU | BPFCode.ADD | BPFCode.K:
-					A += i.k;
-					continue;
+	private int[] lastDecoded;
 
-				case BPFCode.ALU | BPFCode.SUB | BPFCode.K:
-					A -= i.k;
-					continue;
+	public BPFVirtualMachine() {
+		// Empty
+	}
 
-				case BPFCode.ALU | BPFCode.MUL | BPFCode.K:
-					A *= i.k;
-					continue;
+	private int[] getDecoded(final BPFProgram program)
+	    throws IllegalInstructionException {
+		if (program != last) {
+			int[] decoded = programs.get(program);
+			if (decoded == null) {
+				decoded = decode(program.getCode());
+				programs.put(program, decoded);
+			}
 
-				case BPFCode.ALU | BPFCode.DIV | BPFCode.K:
-					if (X == 0) {
-						return 0;
-					}
-					A /= i.k;
-					continue;
+			last = program;
+			lastDecoded = decoded;
+		}
 
-				case BPFCode.ALU | BPFCode.AND | BPFCode.K:
-					A &= i.k;
-					continue;
+		return lastDecoded;
+	}
 
-				case BPFCode.ALU | BPFCode.OR | BPFCode.K:
-					A |= i.k;
-					continue;
+	public long execute(final BPFProgram program, final byte[] data,
+	    final int wirelen, final int buflen) throws IllegalInstructionException {
+		return run(getDecoded(program), data, null, 0, wirelen, buflen);
+	}
 
-				case BPFCode.ALU | BPFCode.LSH | BPFCode.K:
-					A <<= i.k;
-					continue;
+	public long execute(final BPFProgram program, final ByteBuffer data,
+	    final int wirelen, final int buflen) throws IllegalInstructionException {
 
-				case BPFCode.ALU | BPFCode.RSH | BPFCode.K:
-					A >>>= i.k;
-					continue;
+		final int[] code = getDecoded(program);
 
-				case BPFCode.ALU | BPFCode.NEG:
-					A = -A;
-					continue;
+		if (data.hasArray()) {
+			return run(code, data.array(), null, data.arrayOffset()
+			    + data.position(), wirelen, buflen);
+		}
 
-				case BPFCode.MISC | BPFCode.TAX:
-					X = A;
-					continue;
+		return run(code, null, data, data.position(), wirelen, buflen);
+	}
 
-				case BPFCode.MISC | BPFCode.TXA:
-					A = X;
-					continue;
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.filter.bpf.BpfVM#execute(org.jnetstream.filter.bpf.BPFProgram,
+	 *      java.nio.ByteBuffer, int[], int[], int, long[])
+	 */
+	public int execute(final BPFProgram program, final ByteBuffer data,
+	    final int[] offsets, final int[] lengths, final int count,
+	    final long[] matches) throws IllegalInstructionException {
+
+		final int[] code = getDecoded(program);
+		final byte[] array = (data.hasArray() ? data.array() : null);
+		final ByteBuffer buffer = (array == null ? data : null);
+		final int base = (array == null ? 0 : data.arrayOffset());
+
+		for (int i = 0; i < (count + 63) >>> 6; i++) {
+			matches[i] = 0L;
+		}
 
+		int accepted = 0;
+		for (int i = 0; i < count; i++) {
+			if (run(code, array, buffer, base + offsets[i], lengths[i], lengths[i]) != 0) {
+				matches[i >>> 6] |= 1L << i;
+				accepted++;
 			}
 		}
+
+		return accepted;
 	}
 
-	public long execute(final BPFProgram program, final ByteBuffer data,
-	    final int wirelen, final int buflen) throws IllegalInstructionException {
+	/**
+	 * Executes the decoded program. Packet data is read either from the array or
+	 * if that is null, from the buffer.
+	 */
+	private long run(final int[] code, final byte[] array,
+	    final ByteBuffer buffer, final int offset, final int wirelen,
+	    final int buflen) throws IllegalInstructionException {
 
 		long A = 0; // A register
 		long X = 0; // X register
 		long k = 0; // Memory pointer
-		int pi = 0; // Program index into the PC array
-		final long[] mem = new long[BPFVirtualMachine.BPF_MEMWORDS]; // Memory
-																																	// stack
+		int pc = -INSN; // Index of current instruction within the code array
 
-		// data.order(ByteOrder.BIG_ENDIAN);
-		final int offset = data.position();
+		Arrays.fill(mem, 0L);
 
-		BPFInstruction i = null;
-		pi--;
 		while (true) {
-			pi++;
-			i = program.getCode()[pi];
+			pc += INSN;
+			final int op = code[pc];
+			final long K = code[pc + 1] & 0xFFFFFFFFL;
 
-			switch (i.getCode()) {
+			switch (op & 0xFF) {
 				default:
 					throw new IllegalInstructionException(
-					    "Illegal BPF instruction encountered: opcode=" + i.getCode()
-					        + " at OP index=" + pi);
+					    "Illegal BPF instruction encountered: opcode=" + (op & 0xFF)
+					        + " at OP index=" + (pc / INSN));
 
 				case BPFCode.RET | BPFCode.K:
-					return i.k;
+					return K;
 
 				case BPFCode.RET | BPFCode.A:
 					return A;
 
 				case BPFCode.LD | BPFCode.W | BPFCode.ABS:
-					k = i.k;
+					k = K;
 					if (k + 4 > buflen) {
 						return 0;
 					}
-					A = IntegerUtils.readUInt(data, offset + (int) k);
+					A = loadWord(array, buffer, offset + (int) k);
 					continue;
 
 				case BPFCode.LD | BPFCode.H | BPFCode.ABS:
-					k = i.k;
+					k = K;
 					if (k + 2 > buflen) {
 						return 0;
 					}
-					A = IntegerUtils.readUShort(data, offset + (int) k);
+					A = loadHalf(array, buffer, offset + (int) k);
 					continue;
 
 				case BPFCode.LD | BPFCode.B | BPFCode.ABS:
-					k = i.k;
+					k = K;
 					if (k + 1 > buflen) {
 						return 0;
 					}
-					A = IntegerUtils.readUByte(data, offset + (int) k);
+					A = loadByte(array, buffer, offset + (int) k);
 					continue;
 
 				case BPFCode.LD | BPFCode.W | BPFCode.LEN:
@@ -339,92 +332,95 @@ public class BPFVirtualMachine implements BpfVM {
 					continue;
 
 				case BPFCode.LD | BPFCode.W | BPFCode.IND:
-					k = X + i.k;
+					k = X + K;
 					if (k + 4 > buflen) {
 						return 0;
 					}
-					A = IntegerUtils.readUInt(data, offset + (int) k);
+					A = loadWord(array, buffer, offset + (int) k);
 					continue;
 
 				case BPFCode.LD | BPFCode.H | BPFCode.IND:
-					k = X + i.k;
+					k = X + K;
 					if (k + 2 > buflen) {
 						return 0;
 					}
-					A = IntegerUtils.readUShort(data, offset + (int) k);
+					A = loadHalf(array, buffer, offset + (int) k);
 					continue;
 
 				case BPFCode.LD | BPFCode.B | BPFCode.IND:
-					k = X + i.k;
+					k = X + K;
 					if (k + 1 > buflen) {
 						return 0;
 					}
-					A = IntegerUtils.readUByte(data, offset + (int) k);
+					A = loadByte(array, buffer, offset + (int) k);
 					continue;
 
 				case BPFCode.LDX | BPFCode.MSH | BPFCode.B:
-					k = i.k;
-					X = (IntegerUtils.readUByte(data, offset + (int) k) & 0xf) << 2;
+					k = K;
+					if (k + 1 > buflen) {
+						return 0;
+					}
+					X = (loadByte(array, buffer, offset + (int) k) & 0xf) << 2;
 					continue;
 
 				case BPFCode.LDX | BPFCode.IMM:
-					X = i.k;
+					X = K;
 					continue;
 
 				case BPFCode.LD | BPFCode.IMM:
-					A = i.k;
+					A = K;
 					continue;
 
 				case BPFCode.LD | BPFCode.MEM:
-					A = mem[(int) i.k];
+					A = mem[(int) K];
 					continue;
 
 				case BPFCode.LDX | BPFCode.MEM:
-					X = mem[(int) i.k];
+					X = mem[(int) K];
 					continue;
 
 				case BPFCode.ST:
-					mem[(int) i.k] = A;
+					mem[(int) K] = A;
 					continue;
 
 				case BPFCode.STX:
-					mem[(int) i.k] = X;
+					mem[(int) K] = X;
 					continue;
 
 				case BPFCode.JMP | BPFCode.JA:
-					pi = (int) i.k;
+					pc += (int) K * INSN;
 					continue;
 
 				case BPFCode.JMP | BPFCode.JGT | BPFCode.K:
-					pi += (A > i.k) ? i.jt : i.jf;
+					pc += ((A > K) ? jt(op) : jf(op)) * INSN;
 					continue;
 
 				case BPFCode.JMP | BPFCode.JGE | BPFCode.K:
-					pi += (A >= i.k) ? i.jt : i.jf;
+					pc += ((A >= K) ? jt(op) : jf(op)) * INSN;
 					continue;
 
 				case BPFCode.JMP | BPFCode.JEQ | BPFCode.K:
-					pi += (A == i.k) ? i.jt : i.jf;
+					pc += ((A == K) ? jt(op) : jf(op)) * INSN;
 					continue;
 
 				case BPFCode.JMP | BPFCode.JSET | BPFCode.K:
-					pi += ((A & i.k) != 0) ? i.jt : i.jf;
+					pc += (((A & K) != 0) ? jt(op) : jf(op)) * INSN;
 					continue;
 
 				case BPFCode.JMP | BPFCode.JGT | BPFCode.X:
-					pi += (A > X) ? i.jt : i.jf;
+					pc += ((A > X) ? jt(op) : jf(op)) * INSN;
 					continue;
 
 				case BPFCode.JMP | BPFCode.JGE | BPFCode.X:
-					pi += (A >= X) ? i.jt : i.jf;
+					pc += ((A >= X) ? jt(op) : jf(op)) * INSN;
 					continue;
 
 				case BPFCode.JMP | BPFCode.JEQ | BPFCode.X:
-					pi += (A == X) ? i.jt : i.jf;
+					pc += ((A == X) ? jt(op) : jf(op)) * INSN;
 					continue;
 
 				case BPFCode.JMP | BPFCode.JSET | BPFCode.X:
-					pi += ((A & X) != 0) ? i.jt : i.jf;
+					pc += (((A & X) != 0) ? jt(op) : jf(op)) * INSN;
 					continue;
 
 					/* ALUs on X */
@@ -467,38 +463,38 @@ public class BPFVirtualMachine implements BpfVM {
 					/* ALUs on K */
 
 				case BPFCode.ALU | BPFCode.ADD | BPFCode.K:
-					A += i.k;
+					A += K;
 					continue;
 
 				case BPFCode.ALU | BPFCode.SUB | BPFCode.K:
-					A -= i.k;
+					A -= K;
 					continue;
 
 				case BPFCode.ALU | BPFCode.MUL | BPFCode.K:
-					A *= i.k;
+					A *= K;
 					continue;
 
 				case BPFCode.ALU | BPFCode.DIV | BPFCode.K:
-					if (X == 0) {
+					if (K == 0) {
 						return 0;
 					}
-					A /= i.k;
+					A /= K;
 					continue;
 
 				case BPFCode.ALU | BPFCode.AND | BPFCode.K:
-					A &= i.k;
+					A &= K;
 					continue;
 
 				case BPFCode.ALU | BPFCode.OR | BPFCode.K:
-					A |= i.k;
+					A |= K;
 					continue;
 
 				case BPFCode.ALU | BPFCode.LSH | BPFCode.K:
-					A <<= i.k;
+					A <<= K;
 					continue;
 
 				case BPFCode.ALU | BPFCode.RSH | BPFCode.K:
-					A >>>= i.k;
+					A >>>= K;
 					continue;
 
 				case BPFCode.ALU | BPFCode.NEG:
@@ -516,4 +512,12 @@ public class BPFVirtualMachine implements BpfVM {
 			}
 		}
 	}
+
+	private static int jt(final int op) {
+		return (op >>> 8) & 0xFF;
+	}
+
+	private static int jf(final int op) {
+		return (op >>> 16) & 0xFF;
+	}
 }
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.filter.bpf.vm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Base class of BPF programs compiled to java byte code by {@link BPFCompiler}.
+ * Each compiled program is a generated subclass which implements
+ * {@link #execute(ByteBuffer, int, int, int)} with the program's instructions
+ * translated to straight-line java byte code.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public abstract class CompiledProgram {
+
+	/**
+	 * Executes the compiled program.
+	 *
+	 * @param data
+	 *          packet data
+	 * @param offset
+	 *          absolute index of the first octet of packet data within the
+	 *          buffer
+	 * @param wirelen
+	 *          original length of the packet
+	 * @param buflen
+	 *          number of octets available for the program to read
+	 * @return value returned by the program, 0 means packet is rejected
+	 */
+	public abstract long execute(ByteBuffer data, int offset, int wirelen,
+	    int buflen);
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.jnetstream.analyzer.flow;
+
+import org.jnetstream.analyzer.flow.Flow;
+import org.jnetstream.analyzer.flow.FlowKey;
+
+/**
+ * Immutable copy of the counters of a {@link FlowTable} record.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class DefaultFlow implements Flow {
+
+	private final FlowKey key;
+
+	private final long[] counters;
+
+	private final long first;
+
+	private final long last;
+
+	private final int forwardFlags;
+
+	private final int reverseFlags;
+
+	/**
+	 * @param key
+	 *          the flow key
+	 * @param counters
+	 *          packet and byte counters indexed by FlowTable.FORWARD_PACKETS and
+	 *          others
+	 * @param first
+	 *          timestamp of the first packet
+	 * @param last
+	 *          timestamp of the last packet
+	 * @param forwardFlags
+	 *          TCP flags from the initiator
+	 * @param reverseFlags
+	 *          TCP flags from the responder
+	 */
+	DefaultFlow(final FlowKey key, final long[] counters, final long first,
+	    final long last, final int forwardFlags, final int reverseFlags) {
+		this.key = key;
+		this.counters = counters;
+		this.first = first;
+		this.last = last;
+		this.forwardFlags = forwardFlags;
+		this.reverseFlags = reverseFlags;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.Flow#getByteCount()
+	 */
+	public long getByteCount() {
+		return counters[FlowTable.FORWARD_BYTES]
+		    + counters[FlowTable.REVERSE_BYTES];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.Flow#getByteCount(org.jnetstream.analyzer.flow.Flow.Direction)
+	 */
+	public long getByteCount(final Direction direction) {
+		return counters[(direction == Direction.Forward) ? FlowTable.FORWARD_BYTES
+		    : FlowTable.REVERSE_BYTES];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.Flow#getFirstTimestamp()
+	 */
+	public long getFirstTimestamp() {
+		return first;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.Flow#getKey()
+	 */
+	public FlowKey getKey() {
+		return key;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.Flow#getLastTimestamp()
+	 */
+	public long getLastTimestamp() {
+		return last;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.Flow#getPacketCount()
+	 */
+	public long getPacketCount() {
+		return counters[FlowTable.FORWARD_PACKETS]
+		    + counters[FlowTable.REVERSE_PACKETS];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.Flow#getPacketCount(org.jnetstream.analyzer.flow.Flow.Direction)
+	 */
+	public long getPacketCount(final Direction direction) {
+		return counters[(direction == Direction.Forward) ? FlowTable.FORWARD_PACKETS
+		    : FlowTable.REVERSE_PACKETS];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.Flow#getTcpFlags()
+	 */
+	public int getTcpFlags() {
+		return forwardFlags | reverseFlags;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.Flow#getTcpFlags(org.jnetstream.analyzer.flow.Flow.Direction)
+	 */
+	public int getTcpFlags(final Direction direction) {
+		return (direction == Direction.Forward) ? forwardFlags : reverseFlags;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return key + " packets=" + getPacketCount() + " bytes=" + getByteCount()
+		    + " duration=" + (last - first) + "ns flags=0x"
+		    + Integer.toHexString(getTcpFlags());
+	}
+}
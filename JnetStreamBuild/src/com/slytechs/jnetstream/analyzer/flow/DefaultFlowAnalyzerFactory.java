@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.jnetstream.analyzer.flow;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jnetstream.analyzer.flow.FlowAnalyzer;
+import org.jnetstream.analyzer.flow.FlowAnalyzers;
+import org.jnetstream.analyzer.flow.FlowListener;
+
+/**
+ * Creates {@link FlowTable} based flow analyzers.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class DefaultFlowAnalyzerFactory implements FlowAnalyzers.Factory {
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.FlowAnalyzers.Factory#newFlowAnalyzer(int,
+	 *      long, long, java.util.concurrent.TimeUnit,
+	 *      org.jnetstream.analyzer.flow.FlowListener)
+	 */
+	public FlowAnalyzer newFlowAnalyzer(final int maxFlows,
+	    final long idleTimeout, final long activeTimeout, final TimeUnit unit,
+	    final FlowListener listener) {
+		return new FlowTable(maxFlows, unit.toNanos(idleTimeout), unit
+		    .toNanos(activeTimeout), listener);
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.jnetstream.analyzer.flow;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+import org.jnetstream.analyzer.flow.FlowKey;
+
+/**
+ * Flow key unpacked from the packed key words of a {@link FlowTable} record.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class DefaultFlowKey implements FlowKey {
+
+	private final int protocol;
+
+	private final byte[] source;
+
+	private final byte[] destination;
+
+	private final int sourcePort;
+
+	private final int destinationPort;
+
+	/**
+	 * @param key
+	 *          packed key words
+	 * @param reversed
+	 *          true if the initiator is the second endpoint of the packed key
+	 */
+	DefaultFlowKey(final long[] key, final boolean reversed) {
+		final int family = (int) (key[0] >>> 40);
+		final int portA = (int) (key[0] >>> 16) & 0xFFFF;
+		final int portB = (int) key[0] & 0xFFFF;
+
+		final byte[] a = address(family, key[1], key[2]);
+		final byte[] b = address(family, key[3], key[4]);
+
+		this.protocol = (int) (key[0] >>> 32) & 0xFF;
+		this.source = (reversed) ? b : a;
+		this.destination = (reversed) ? a : b;
+		this.sourcePort = (reversed) ? portB : portA;
+		this.destinationPort = (reversed) ? portA : portB;
+	}
+
+	private static byte[] address(final int family, final long high,
+	    final long low) {
+		final byte[] b = new byte[(family == 4) ? 4 : 16];
+
+		long v = low;
+		for (int i = b.length - 1; i >= 0; i--) {
+			b[i] = (byte) v;
+			v = (i == 8) ? high : v >>> 8;
+		}
+
+		return b;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.FlowKey#getDestinationAddress()
+	 */
+	public byte[] getDestinationAddress() {
+		return destination.clone();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.FlowKey#getDestinationPort()
+	 */
+	public int getDestinationPort() {
+		return destinationPort;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.FlowKey#getIpProtocol()
+	 */
+	public int getIpProtocol() {
+		return protocol;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.FlowKey#getSourceAddress()
+	 */
+	public byte[] getSourceAddress() {
+		return source.clone();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.FlowKey#getSourcePort()
+	 */
+	public int getSourcePort() {
+		return sourcePort;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (obj instanceof DefaultFlowKey == false) {
+			return false;
+		}
+
+		final DefaultFlowKey k = (DefaultFlowKey) obj;
+
+		return protocol == k.protocol && sourcePort == k.sourcePort
+		    && destinationPort == k.destinationPort
+		    && Arrays.equals(source, k.source)
+		    && Arrays.equals(destination, k.destination);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return (Arrays.hashCode(source) * 31 + Arrays.hashCode(destination)) * 31
+		    + (sourcePort << 16 | destinationPort) + protocol;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return toString(source) + ":" + sourcePort + " -> "
+		    + toString(destination) + ":" + destinationPort + " proto="
+		    + protocol;
+	}
+
+	private static String toString(final byte[] address) {
+		try {
+			return InetAddress.getByAddress(address).getHostAddress();
+		} catch (final UnknownHostException e) {
+			return Arrays.toString(address);
+		}
+	}
+}
@@ -0,0 +1,884 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.jnetstream.analyzer.flow;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.jnetstream.analyzer.flow.FlowAnalyzer;
+import org.jnetstream.analyzer.flow.FlowListener;
+import org.jnetstream.capture.CaptureDevice;
+import org.jnetstream.capture.CapturePacket;
+import org.jnetstream.protocol.Protocol;
+import org.jnetstream.protocol.ProtocolEntry;
+import org.jnetstream.protocol.codec.PacketRuntime;
+import org.jnetstream.protocol.lan.Lan;
+import org.jnetstream.protocol.tcpip.Tcpip;
+
+import com.slytechs.utils.memory.BitBuffer;
+
+/**
+ * <p>
+ * Flow analyzer which keeps only per flow counters in preallocated primitive
+ * arrays. Flows are found through an open addressing hash table, with linear
+ * probing, keyed by the packed IP 5-tuple of the packet. The key is made
+ * direction independent by always storing the lower endpoint first, so both
+ * directions of a conversation are accounted to the same flow.
+ * </p>
+ * <p>
+ * Each flow takes up a fixed number of array elements. The flow records are
+ * linked into a list ordered from the least to the most recently active flow,
+ * which is used for both the idle timeout and for eviction when the table is
+ * full. Both are O(1) per flow. Active timeouts are checked when a packet
+ * arrives for a flow, any flow which stops receiving packets is ended by the
+ * idle timeout instead. Processing a packet does not allocate any memory,
+ * objects are only created for ended flows that are reported to the listener.
+ * </p>
+ * <p>
+ * Only the first fragment of a fragmented IP packet carries the ports. The
+ * ports of each first fragment are remembered in a small direct mapped cache,
+ * keyed by the addresses, protocol and fragment identification, so that the
+ * following fragments are accounted to the same flow. Fragments which arrive
+ * before their first fragment, or whose entry has been overwritten, are
+ * accounted to a flow without ports. Ports of ESP protected packets are
+ * encrypted and those packets are also accounted to a flow without ports.
+ * </p>
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class FlowTable implements FlowAnalyzer {
+
+	/**
+	 * Number of long words in a packed key: family, protocol and ports,
+	 * followed by the 2 words of each endpoint's address
+	 */
+	static final int KEY_WORDS = 5;
+
+	/*
+	 * Counters of each flow, indexes within a record's counter words
+	 */
+	static final int FORWARD_PACKETS = 0;
+
+	static final int REVERSE_PACKETS = 1;
+
+	static final int FORWARD_BYTES = 2;
+
+	static final int REVERSE_BYTES = 3;
+
+	private static final int COUNTER_WORDS = 4;
+
+	/**
+	 * Record flag set when the flow was initiated by the second endpoint of
+	 * the packed key. The lower 16 bits hold the forward and reverse TCP flags.
+	 */
+	private static final int REVERSED = 0x10000;
+
+	/**
+	 * Largest number of flows, keeps the size of all the arrays within an int
+	 */
+	public static final int MAX_FLOWS = 1 << 28;
+
+	/**
+	 * Number of entries in the fragment cache, a power of 2
+	 */
+	private static final int FRAGMENT_CACHE = 1024;
+
+	/**
+	 * IP protocol numbers of the headers the parser walks over
+	 */
+	private static final int IPPROTO_AH = 51;
+
+	private static final int IPPROTO_FRAGMENT = 44;
+
+	private final int maxFlows;
+
+	private final long idleTimeout;
+
+	private final long activeTimeout;
+
+	private final FlowListener listener;
+
+	/*
+	 * Hash table, each slot holds a record index + 1, 0 for empty slots, and
+	 * the hash of the record's key
+	 */
+	private final int mask;
+
+	private final int[] table;
+
+	private final int[] hashes;
+
+	/*
+	 * Flow records
+	 */
+	private final long[] keys;
+
+	private final long[] counters;
+
+	private final long[] first;
+
+	private final long[] last;
+
+	private final int[] flags;
+
+	/**
+	 * Hash table slot of each record
+	 */
+	private final int[] slots;
+
+	/*
+	 * Activity list from least to most recently active record. Free records
+	 * are chained through next.
+	 */
+	private final int[] prev;
+
+	private final int[] next;
+
+	private int head = -1;
+
+	private int tail = -1;
+
+	private int free;
+
+	private int count;
+
+	/*
+	 * Key of the packet being processed
+	 */
+	private long k0;
+
+	private long k1;
+
+	private long k2;
+
+	private long k3;
+
+	private long k4;
+
+	private boolean swapped;
+
+	private int tcpFlags;
+
+	/*
+	 * Fragment of the packet being processed, -1 if not fragmented
+	 */
+	private long fragmentId;
+
+	private boolean firstFragment;
+
+	/*
+	 * Fragment cache, a fingerprint of each fragmented packet and the ports
+	 * from its first fragment
+	 */
+	private final long[] fragmentKeys = new long[FRAGMENT_CACHE];
+
+	private final int[] fragmentPorts = new int[FRAGMENT_CACHE];
+
+	/**
+	 * @param maxFlows
+	 *          maximum number of flows tracked at the same time
+	 * @param idleTimeout
+	 *          idle timeout in nanoseconds, 0 or less to disable
+	 * @param activeTimeout
+	 *          active timeout in nanoseconds, 0 or less to disable
+	 * @param listener
+	 *          listener which receives ended flows, may be null
+	 */
+	public FlowTable(final int maxFlows, final long idleTimeout,
+	    final long activeTimeout, final FlowListener listener) {
+
+		if (maxFlows <= 0 || maxFlows > MAX_FLOWS) {
+			throw new IllegalArgumentException("Invalid maximum flow count "
+			    + maxFlows);
+		}
+
+		this.maxFlows = maxFlows;
+		this.idleTimeout = (idleTimeout <= 0) ? Long.MAX_VALUE : idleTimeout;
+		this.activeTimeout = (activeTimeout <= 0) ? Long.MAX_VALUE : activeTimeout;
+		this.listener = listener;
+
+		/*
+		 * Keep the load factor at or below 0.75 so that probe sequences stay short
+		 */
+		int capacity = 2;
+		while (capacity < maxFlows + maxFlows / 3 + 1) {
+			capacity <<= 1;
+		}
+
+		this.mask = capacity - 1;
+		this.table = new int[capacity];
+		this.hashes = new int[capacity];
+
+		this.keys = new long[maxFlows * KEY_WORDS];
+		this.counters = new long[maxFlows * COUNTER_WORDS];
+		this.first = new long[maxFlows];
+		this.last = new long[maxFlows];
+		this.flags = new int[maxFlows];
+		this.slots = new int[maxFlows];
+		this.prev = new int[maxFlows];
+		this.next = new int[maxFlows];
+
+		for (int i = 0; i < maxFlows; i++) {
+			next[i] = i + 1;
+		}
+		next[maxFlows - 1] = -1;
+		this.free = 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.FlowAnalyzer#processPacket(org.jnetstream.capture.CapturePacket)
+	 */
+	public boolean processPacket(final CapturePacket packet) throws IOException {
+		final Protocol linkType = linkType(packet);
+		if (linkType == null) {
+			return false;
+		}
+
+		final long timestamp =
+		    packet.getTimestampSeconds() * 1000000000L + packet.getTimestampNanos();
+
+		/*
+		 * The packet's bit buffer delimits the packet data within the backing
+		 * buffer, whose own position is not necessarily at the start of the data
+		 */
+		final BitBuffer bits = packet.getBuffer();
+
+		return process(bits.getBackingBuffer(), bits.position() / 8,
+		    bits.limit() / 8, linkType, timestamp, (int) packet
+		        .getOriginalLength());
+	}
+
+	/**
+	 * Determines the protocol of the first header of the packet. Packets read
+	 * from files do not implement {@link CapturePacket#getCaptureDevice()}, but
+	 * carry the protocol entry of their link type, which is preferred.
+	 *
+	 * @param packet
+	 *          the packet
+	 * @return the link type or null if not known
+	 */
+	private static Protocol linkType(final CapturePacket packet) {
+		if (packet instanceof PacketRuntime) {
+			final ProtocolEntry dlt = ((PacketRuntime) packet).getDlt();
+			if (dlt != null) {
+				return dlt.getProtocol();
+			}
+		}
+
+		final CaptureDevice device = packet.getCaptureDevice();
+
+		return (device == null) ? null : device.getLinkType();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.FlowAnalyzer#processPacket(java.nio.ByteBuffer,
+	 *      org.jnetstream.protocol.Protocol, long, int)
+	 */
+	public boolean processPacket(final ByteBuffer buffer,
+	    final Protocol linkType, final long timestamp, final int wirelen) {
+
+		return process(buffer, buffer.position(), buffer.limit(), linkType,
+		    timestamp, wirelen);
+	}
+
+	private boolean process(final ByteBuffer buffer, final int offset,
+	    final int limit, final Protocol linkType, final long timestamp,
+	    final int wirelen) {
+
+		if (parse(buffer, offset, limit, linkType) == false) {
+			return false;
+		}
+
+		expire(timestamp);
+
+		final int hash = hash();
+		int r = lookup(hash);
+
+		if (r != -1 && timestamp - first[r] >= activeTimeout) {
+			end(r, FlowListener.Reason.ActiveTimeout);
+			r = -1;
+		}
+
+		if (r == -1) {
+			if (count == maxFlows) {
+				end(head, FlowListener.Reason.Evicted);
+			}
+
+			r = insert(hash, timestamp);
+		} else {
+			touch(r);
+		}
+
+		final boolean forward = swapped == ((flags[r] & REVERSED) != 0);
+		final int c = r * COUNTER_WORDS;
+		if (forward) {
+			counters[c + FORWARD_PACKETS]++;
+			counters[c + FORWARD_BYTES] += wirelen;
+			flags[r] |= tcpFlags;
+		} else {
+			counters[c + REVERSE_PACKETS]++;
+			counters[c + REVERSE_BYTES] += wirelen;
+			flags[r] |= tcpFlags << 8;
+		}
+
+		if (timestamp > last[r]) {
+			last[r] = timestamp;
+		}
+
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.FlowAnalyzer#expire(long)
+	 */
+	public int expire(final long timestamp) {
+		int ended = 0;
+
+		while (head != -1 && timestamp - last[head] > idleTimeout) {
+			end(head, FlowListener.Reason.IdleTimeout);
+			ended++;
+		}
+
+		return ended;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.FlowAnalyzer#flush()
+	 */
+	public int flush() {
+		int ended = 0;
+
+		while (head != -1) {
+			end(head, FlowListener.Reason.Flushed);
+			ended++;
+		}
+
+		return ended;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.FlowAnalyzer#getFlowCount()
+	 */
+	public int getFlowCount() {
+		return count;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.analyzer.flow.FlowAnalyzer#getMaxFlowCount()
+	 */
+	public int getMaxFlowCount() {
+		return maxFlows;
+	}
+
+	/**
+	 * Finds the record of the current key.
+	 *
+	 * @param hash
+	 *          hash of the current key
+	 * @return record index or -1 if not found
+	 */
+	private int lookup(final int hash) {
+		for (int i = hash & mask; table[i] != 0; i = (i + 1) & mask) {
+			if (hashes[i] != hash) {
+				continue;
+			}
+
+			final int r = table[i] - 1;
+			final int k = r * KEY_WORDS;
+			if (keys[k] == k0 && keys[k + 1] == k1 && keys[k + 2] == k2
+			    && keys[k + 3] == k3 && keys[k + 4] == k4) {
+				return r;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Allocates a record for the current key and adds it to the table and the
+	 * end of the activity list.
+	 *
+	 * @param hash
+	 *          hash of the current key
+	 * @param timestamp
+	 *          timestamp of the first packet
+	 * @return the new record
+	 */
+	private int insert(final int hash, final long timestamp) {
+		final int r = free;
+		free = next[r];
+		count++;
+
+		int i = hash & mask;
+		while (table[i] != 0) {
+			i = (i + 1) & mask;
+		}
+
+		table[i] = r + 1;
+		hashes[i] = hash;
+		slots[r] = i;
+
+		final int k = r * KEY_WORDS;
+		keys[k] = k0;
+		keys[k + 1] = k1;
+		keys[k + 2] = k2;
+		keys[k + 3] = k3;
+		keys[k + 4] = k4;
+
+		final int c = r * COUNTER_WORDS;
+		counters[c + FORWARD_PACKETS] = 0;
+		counters[c + REVERSE_PACKETS] = 0;
+		counters[c + FORWARD_BYTES] = 0;
+		counters[c + REVERSE_BYTES] = 0;
+
+		first[r] = timestamp;
+		last[r] = timestamp;
+		flags[r] = (swapped) ? REVERSED : 0;
+
+		prev[r] = tail;
+		next[r] = -1;
+		if (tail == -1) {
+			head = r;
+		} else {
+			next[tail] = r;
+		}
+		tail = r;
+
+		return r;
+	}
+
+	/**
+	 * Moves the record to the end of the activity list.
+	 *
+	 * @param r
+	 *          record index
+	 */
+	private void touch(final int r) {
+		if (r == tail) {
+			return;
+		}
+
+		unlink(r);
+
+		prev[r] = tail;
+		next[r] = -1;
+		next[tail] = r;
+		tail = r;
+	}
+
+	/**
+	 * Removes the record from the activity list.
+	 *
+	 * @param r
+	 *          record index
+	 */
+	private void unlink(final int r) {
+		if (prev[r] == -1) {
+			head = next[r];
+		} else {
+			next[prev[r]] = next[r];
+		}
+
+		if (next[r] == -1) {
+			tail = prev[r];
+		} else {
+			prev[next[r]] = prev[r];
+		}
+	}
+
+	/**
+	 * Ends the flow, removes its record and notifies the listener.
+	 *
+	 * @param r
+	 *          record index
+	 * @param reason
+	 *          reason the flow ended
+	 */
+	private void end(final int r, final FlowListener.Reason reason) {
+		final DefaultFlow flow = (listener == null) ? null : snapshot(r);
+
+		remove(slots[r]);
+		unlink(r);
+
+		next[r] = free;
+		free = r;
+		count--;
+
+		if (flow != null) {
+			listener.processFlowEnd(this, flow, reason);
+		}
+	}
+
+	/**
+	 * Removes the entry from the hash table slot. Entries following the slot
+	 * are shifted back so that no probe sequence is broken, which avoids the
+	 * need for deleted markers.
+	 *
+	 * @param slot
+	 *          hash table slot
+	 */
+	private void remove(int slot) {
+		table[slot] = 0;
+
+		for (int j = (slot + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+			final int home = hashes[j] & mask;
+
+			/*
+			 * The entry at j can fill the hole unless its home slot lies cyclically
+			 * within (slot, j]
+			 */
+			final boolean stays =
+			    (slot <= j) ? (slot < home && home <= j) : (slot < home || home <= j);
+			if (stays) {
+				continue;
+			}
+
+			table[slot] = table[j];
+			hashes[slot] = hashes[j];
+			slots[table[slot] - 1] = slot;
+			table[j] = 0;
+			slot = j;
+		}
+	}
+
+	/**
+	 * Copies the record into a flow object which is independent of the table.
+	 *
+	 * @param r
+	 *          record index
+	 * @return the flow
+	 */
+	private DefaultFlow snapshot(final int r) {
+		final long[] key = new long[KEY_WORDS];
+		System.arraycopy(keys, r * KEY_WORDS, key, 0, KEY_WORDS);
+
+		final long[] c = new long[COUNTER_WORDS];
+		System.arraycopy(counters, r * COUNTER_WORDS, c, 0, COUNTER_WORDS);
+
+		return new DefaultFlow(new DefaultFlowKey(key,
+		    (flags[r] & REVERSED) != 0), c, first[r], last[r], flags[r] & 0xFF,
+		    (flags[r] >> 8) & 0xFF);
+	}
+
+	/**
+	 * Hashes the current key.
+	 *
+	 * @return the hash
+	 */
+	private int hash() {
+		long h = k0;
+		h = h * 0x9E3779B97F4A7C15L + k1;
+		h = h * 0x9E3779B97F4A7C15L + k2;
+		h = h * 0x9E3779B97F4A7C15L + k3;
+		h = h * 0x9E3779B97F4A7C15L + k4;
+
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+
+		return (int) h;
+	}
+
+	/*
+	 * Packet parsing. All values are read in network byte order using absolute
+	 * gets, regardless of the buffer's byte order.
+	 */
+
+	/**
+	 * Decodes the 5-tuple of the packet into the current key.
+	 *
+	 * @param b
+	 *          packet buffer
+	 * @param start
+	 *          index of the first byte of the packet within the buffer
+	 * @param limit
+	 *          index of the byte following the packet within the buffer
+	 * @param linkType
+	 *          protocol of the first header
+	 * @return true if the packet is an IP packet
+	 */
+	private boolean parse(final ByteBuffer b, final int start, final int limit,
+	    final Protocol linkType) {
+		int offset = start;
+		int type;
+
+		if (linkType == Lan.Ethernet2 || linkType == Lan.IEEE802dot3) {
+			if (offset + 14 > limit) {
+				return false;
+			}
+
+			type = u16(b, offset + 12);
+			offset += 14;
+
+			/*
+			 * Up to 2 VLAN tags, 802.1Q and QinQ
+			 */
+			for (int i = 0; i < 2
+			    && (type == 0x8100 || type == 0x88A8 || type == 0x9100); i++) {
+				if (offset + 4 > limit) {
+					return false;
+				}
+
+				type = u16(b, offset + 2);
+				offset += 4;
+			}
+
+			/*
+			 * 802.3 length field, only SNAP encapsulated IP is supported
+			 */
+			if (type < 0x600) {
+				if (offset + 8 > limit || u16(b, offset) != 0xAAAA
+				    || u8(b, offset + 2) != 0x03) {
+					return false;
+				}
+
+				type = u16(b, offset + 6);
+				offset += 8;
+			}
+
+		} else if (linkType == Tcpip.Ip4) {
+			if (offset >= limit) {
+				return false;
+			}
+
+			final int version = u8(b, offset) >> 4;
+			type = (version == 4) ? 0x0800 : (version == 6) ? 0x86DD : 0;
+
+		} else {
+			return false;
+		}
+
+		switch (type) {
+			case 0x0800:
+				return parseIp4(b, offset, limit);
+
+			case 0x86DD:
+				return parseIp6(b, offset, limit);
+
+			default:
+				return false;
+		}
+	}
+
+	private boolean parseIp4(final ByteBuffer b, final int offset,
+	    final int limit) {
+		if (offset + 20 > limit) {
+			return false;
+		}
+
+		final int hlen = (u8(b, offset) & 0x0F) * 4;
+		if (hlen < 20) {
+			return false;
+		}
+
+		int protocol = u8(b, offset + 9);
+		final long source = u32(b, offset + 12);
+		final long destination = u32(b, offset + 16);
+
+		/*
+		 * Only the first fragment carries the ports, a packet is fragmented if
+		 * either the more fragments flag or the fragment offset are set
+		 */
+		final int fragment = u16(b, offset + 6);
+		firstFragment = (fragment & 0x1FFF) == 0;
+		fragmentId = ((fragment & 0x3FFF) == 0) ? -1 : u16(b, offset + 4);
+
+		int transport = (firstFragment) ? offset + hlen : -1;
+
+		/*
+		 * Skip the authentication header, its length is in 4 byte units minus 2
+		 */
+		if (protocol == IPPROTO_AH && transport != -1) {
+			if (transport + 8 > limit) {
+				transport = -1;
+			} else {
+				protocol = u8(b, transport);
+				transport += (u8(b, transport + 1) + 2) * 4;
+			}
+		}
+
+		return key(4, protocol, 0, source, 0, destination, b, transport, limit);
+	}
+
+	private boolean parseIp6(final ByteBuffer b, final int offset,
+	    final int limit) {
+		if (offset + 40 > limit) {
+			return false;
+		}
+
+		int protocol = u8(b, offset + 6);
+		int transport = offset + 40;
+
+		firstFragment = true;
+		fragmentId = -1;
+
+		/*
+		 * Skip extension headers, hop-by-hop, routing, fragment, authentication
+		 * and destination options
+		 */
+		for (int i = 0; i < 8 && transport != -1; i++) {
+			if (protocol != 0 && protocol != 43 && protocol != IPPROTO_FRAGMENT
+			    && protocol != IPPROTO_AH && protocol != 60) {
+				break;
+			}
+
+			if (transport + 8 > limit) {
+				transport = -1;
+				break;
+			}
+
+			final int nextHeader = u8(b, transport);
+
+			if (protocol == IPPROTO_FRAGMENT) {
+				firstFragment = (u16(b, transport + 2) & 0xFFF8) == 0;
+				fragmentId = u32(b, transport + 4);
+				transport = (firstFragment) ? transport + 8 : -1;
+
+			} else if (protocol == IPPROTO_AH) {
+				transport += (u8(b, transport + 1) + 2) * 4;
+
+			} else {
+				transport += (u8(b, transport + 1) + 1) * 8;
+			}
+
+			protocol = nextHeader;
+		}
+
+		return key(6, protocol, u64(b, offset + 8), u64(b, offset + 16), u64(b,
+		    offset + 24), u64(b, offset + 32), b, transport, limit);
+	}
+
+	/**
+	 * Reads the ports and TCP flags and packs the key with the lower endpoint
+	 * first.
+	 */
+	private boolean key(final int family, final int protocol,
+	    final long sourceHigh, final long sourceLow, final long destinationHigh,
+	    final long destinationLow, final ByteBuffer b, final int transport,
+	    final int limit) {
+
+		int sourcePort = 0;
+		int destinationPort = 0;
+		tcpFlags = 0;
+
+		if (transport != -1 && transport + 4 <= limit) {
+			switch (protocol) {
+				case 6: // TCP
+				case 17: // UDP
+				case 33: // DCCP
+				case 132: // SCTP
+					sourcePort = u16(b, transport);
+					destinationPort = u16(b, transport + 2);
+					break;
+			}
+
+			if (protocol == 6 && transport + 14 <= limit) {
+				tcpFlags = u8(b, transport + 13);
+			}
+		}
+
+		if (fragmentId != -1) {
+			final long fingerprint = fingerprint(family, protocol, sourceHigh,
+			    sourceLow, destinationHigh, destinationLow);
+			final int entry = (int) fingerprint & (FRAGMENT_CACHE - 1);
+
+			if (firstFragment) {
+				fragmentKeys[entry] = fingerprint;
+				fragmentPorts[entry] = (sourcePort << 16) | destinationPort;
+
+			} else if (fragmentKeys[entry] == fingerprint) {
+				sourcePort = fragmentPorts[entry] >>> 16;
+				destinationPort = fragmentPorts[entry] & 0xFFFF;
+			}
+		}
+
+		if (sourceHigh != destinationHigh) {
+			swapped = sourceHigh > destinationHigh;
+		} else if (sourceLow != destinationLow) {
+			swapped = sourceLow > destinationLow;
+		} else {
+			swapped = sourcePort > destinationPort;
+		}
+
+		if (swapped) {
+			k0 = pack(family, protocol, destinationPort, sourcePort);
+			k1 = destinationHigh;
+			k2 = destinationLow;
+			k3 = sourceHigh;
+			k4 = sourceLow;
+		} else {
+			k0 = pack(family, protocol, sourcePort, destinationPort);
+			k1 = sourceHigh;
+			k2 = sourceLow;
+			k3 = destinationHigh;
+			k4 = destinationLow;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Hashes the addresses, protocol and fragment identification of the current
+	 * fragment. 0 is never returned, as it marks empty cache entries.
+	 */
+	private long fingerprint(final int family, final int protocol,
+	    final long sourceHigh, final long sourceLow, final long destinationHigh,
+	    final long destinationLow) {
+		long h = pack(family, protocol, 0, 0) ^ (fragmentId << 8);
+		h = h * 0x9E3779B97F4A7C15L + sourceHigh;
+		h = h * 0x9E3779B97F4A7C15L + sourceLow;
+		h = h * 0x9E3779B97F4A7C15L + destinationHigh;
+		h = h * 0x9E3779B97F4A7C15L + destinationLow;
+
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+
+		return (h == 0) ? 1 : h;
+	}
+
+	private static long pack(final int family, final int protocol,
+	    final int portA, final int portB) {
+		return ((long) family << 40) | ((long) protocol << 32)
+		    | ((long) portA << 16) | portB;
+	}
+
+	private static int u8(final ByteBuffer b, final int index) {
+		return b.get(index) & 0xFF;
+	}
+
+	private static int u16(final ByteBuffer b, final int index) {
+		return ((b.get(index) & 0xFF) << 8) | (b.get(index + 1) & 0xFF);
+	}
+
+	private static long u32(final ByteBuffer b, final int index) {
+		return ((long) u16(b, index) << 16) | u16(b, index + 2);
+	}
+
+	private static long u64(final ByteBuffer b, final int index) {
+		return (u32(b, index) << 32) | u32(b, index + 4);
+	}
+}
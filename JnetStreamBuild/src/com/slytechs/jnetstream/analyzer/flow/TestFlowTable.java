@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.jnetstream.analyzer.flow;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jnetstream.analyzer.flow.Flow;
+import org.jnetstream.analyzer.flow.Flow.Direction;
+import org.jnetstream.analyzer.flow.FlowAnalyzer;
+import org.jnetstream.analyzer.flow.FlowListener;
+import org.jnetstream.capture.Captures;
+import org.jnetstream.capture.FileFormatException;
+import org.jnetstream.capture.PacketIterator;
+import org.jnetstream.capture.file.pcap.PcapFile;
+import org.jnetstream.capture.file.pcap.PcapPacket;
+
+/**
+ * Runs packets read from a pcap file through a {@link FlowTable}. The file
+ * holds a TCP conversation, a fragmented UDP datagram and an IPv6 TCP segment
+ * behind an authentication header, which must be accounted to 3 flows with
+ * their ports, counters, timestamps and TCP flags. Any mismatch throws an
+ * exception, ending the test with a non zero exit status.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestFlowTable {
+
+	private static final byte[] A4 = { 10, 0, 0, 1 };
+
+	private static final byte[] B4 = { 10, 0, 0, 2 };
+
+	private static final byte[] A6 = address6(1);
+
+	private static final byte[] B6 = address6(2);
+
+	private static final long NANOS = 1000000000L;
+
+	private static final int SECONDS =
+	    (int) (System.currentTimeMillis() / 1000) - 60;
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 * @throws FileFormatException
+	 */
+	public static void main(String[] args) throws IOException,
+	    FileFormatException {
+
+		final File file = File.createTempFile("flows", ".pcap");
+		file.deleteOnExit();
+
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(header());
+			out.write(record(1, ip4(6, 0, 0, A4, B4, tcp(1000, 80, 0x02))));
+			out.write(record(2, ip4(6, 0, 0, B4, A4, tcp(80, 1000, 0x12))));
+			out.write(record(3, ip4(17, 7, 0x2000, A4, B4, udp(53, 5353))));
+			out.write(record(4, ip4(17, 7, 3, A4, B4, new byte[24])));
+			out.write(record(5, ip6(51, A6, B6, ah(6, tcp(2000, 443, 0x02)))));
+		} finally {
+			out.close();
+		}
+
+		final Map<Integer, Flow> flows = new HashMap<Integer, Flow>();
+		final FlowAnalyzer analyzer = new FlowTable(16, 0, 0, new FlowListener() {
+
+			public void processFlowEnd(FlowAnalyzer source, Flow flow,
+			    Reason reason) {
+				check(flows.put(flow.getKey().getSourcePort(), flow) == null,
+				    "flow ended twice " + flow.getKey().getSourcePort());
+			}
+		});
+
+		final PcapFile capture = Captures.openFile(PcapFile.class, file);
+		try {
+			final PacketIterator<PcapPacket> i = capture.getPacketIterator();
+			while (i.hasNext()) {
+				if (analyzer.processPacket(i.next()) == false) {
+					throw new IllegalStateException("Packet not accounted to a flow");
+				}
+			}
+		} finally {
+			capture.close();
+		}
+
+		analyzer.flush();
+
+		check(flows.size() == 3, "3 flows, found " + flows.keySet());
+
+		final Flow tcp = flows.get(1000);
+		check(tcp.getKey().getIpProtocol() == 6, "TCP protocol");
+		check(tcp.getKey().getDestinationPort() == 80, "TCP destination port");
+		check(Arrays.equals(tcp.getKey().getSourceAddress(), A4), "TCP source");
+		check(tcp.getPacketCount(Direction.Forward) == 1, "TCP forward packets");
+		check(tcp.getPacketCount(Direction.Reverse) == 1, "TCP reverse packets");
+		check(tcp.getByteCount() == 2 * 54, "TCP bytes " + tcp.getByteCount());
+		check(tcp.getTcpFlags(Direction.Forward) == 0x02, "TCP forward flags");
+		check(tcp.getTcpFlags() == 0x12, "TCP flags " + tcp.getTcpFlags());
+		check(tcp.getFirstTimestamp() == (SECONDS + 1) * NANOS, "TCP first");
+		check(tcp.getLastTimestamp() == (SECONDS + 2) * NANOS, "TCP last");
+
+		final Flow udp = flows.get(53);
+		check(udp.getKey().getIpProtocol() == 17, "UDP protocol");
+		check(udp.getKey().getDestinationPort() == 5353, "UDP destination port");
+		check(udp.getPacketCount(Direction.Forward) == 2, "UDP fragments");
+		check(udp.getByteCount() == 2 * 58, "UDP bytes " + udp.getByteCount());
+		check(udp.getTcpFlags() == 0, "UDP has no TCP flags");
+
+		final Flow ip6 = flows.get(2000);
+		check(ip6.getKey().getIpProtocol() == 6, "IPv6 protocol behind AH");
+		check(ip6.getKey().getDestinationPort() == 443, "IPv6 destination port");
+		check(Arrays.equals(ip6.getKey().getDestinationAddress(), B6),
+		    "IPv6 destination");
+		check(ip6.getPacketCount() == 1, "IPv6 packets");
+		check(ip6.getByteCount() == 98, "IPv6 bytes " + ip6.getByteCount());
+
+		System.out.println("flows=" + flows.size() + " ok");
+	}
+
+	private static void check(boolean condition, String message) {
+		if (condition == false) {
+			throw new IllegalStateException(message);
+		}
+	}
+
+	private static byte[] address6(int host) {
+		final byte[] a = new byte[16];
+		a[0] = 0x20;
+		a[1] = 0x01;
+		a[2] = 0x0D;
+		a[3] = (byte) 0xB8;
+		a[15] = (byte) host;
+
+		return a;
+	}
+
+	private static byte[] header() {
+		final ByteBuffer b = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+		b.putInt(0xA1B2C3D4).putShort((short) 2).putShort((short) 4);
+		b.putInt(0).putInt(0).putInt(65535).putInt(1);
+
+		return b.array();
+	}
+
+	private static byte[] record(int seconds, byte[] ip) {
+		final boolean v6 = (ip[0] >> 4) == 6;
+		final ByteBuffer b = ByteBuffer.allocate(16 + 14 + ip.length);
+		b.order(ByteOrder.LITTLE_ENDIAN);
+		b.putInt(SECONDS + seconds);
+		b.putInt(0).putInt(14 + ip.length).putInt(14 + ip.length);
+
+		b.order(ByteOrder.BIG_ENDIAN);
+		b.put(new byte[] { 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 6 });
+		b.putShort((short) (v6 ? 0x86DD : 0x0800));
+		b.put(ip);
+
+		return b.array();
+	}
+
+	private static byte[] ip4(int protocol, int id, int fragment,
+	    byte[] source, byte[] destination, byte[] payload) {
+		final ByteBuffer b = ByteBuffer.allocate(20 + payload.length);
+		b.put((byte) 0x45).put((byte) 0).putShort((short) (20 + payload.length));
+		b.putShort((short) id).putShort((short) fragment);
+		b.put((byte) 64).put((byte) protocol).putShort((short) 0);
+		b.put(source).put(destination).put(payload);
+
+		return b.array();
+	}
+
+	private static byte[] ip6(int next, byte[] source, byte[] destination,
+	    byte[] payload) {
+		final ByteBuffer b = ByteBuffer.allocate(40 + payload.length);
+		b.putInt(0x60000000).putShort((short) payload.length);
+		b.put((byte) next).put((byte) 64);
+		b.put(source).put(destination).put(payload);
+
+		return b.array();
+	}
+
+	private static byte[] ah(int next, byte[] payload) {
+		final ByteBuffer b = ByteBuffer.allocate(24 + payload.length);
+		b.put((byte) next).put((byte) 4).putShort((short) 0);
+		b.putInt(0x100).putInt(1).put(new byte[12]).put(payload);
+
+		return b.array();
+	}
+
+	private static byte[] tcp(int source, int destination, int flags) {
+		final ByteBuffer b = ByteBuffer.allocate(20);
+		b.putShort((short) source).putShort((short) destination);
+		b.putInt(1).putInt(0).put((byte) 0x50).put((byte) flags);
+
+		return b.array();
+	}
+
+	private static byte[] udp(int source, int destination) {
+		final ByteBuffer b = ByteBuffer.allocate(24);
+		b.putShort((short) source).putShort((short) destination);
+		b.putShort((short) 100).putShort((short) 0);
+
+		return b.array();
+	}
+}
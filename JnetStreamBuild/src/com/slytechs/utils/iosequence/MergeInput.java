@@ -1,6 +1,14 @@
 package com.slytechs.utils.iosequence;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.slytechs.utils.collection.IOIterator;
+import com.slytechs.utils.collection.IOSkippableIterator;
+import com.slytechs.utils.io.IORuntimeException;
 
 /**
  * $Id$
@@ -22,30 +30,312 @@ import java.util.Iterator;
  */
 
 /**
+ * <p>
+ * Merges multiple ordered sources into a single ordered sequence using a k-way
+ * merge. Each element is assigned a long key, such as a capture timestamp,
+ * which is computed once when the element is read from its source. The sources
+ * are kept in a binary heap ordered by the key of their next element, so each
+ * element is merged in O(log k) time for k sources. Elements with equal keys
+ * are returned in source order, making the merge stable.
+ * </p>
+ * <p>
+ * Each source has a small read-ahead buffer which is refilled from the source
+ * in one go once it has been drained. Only the read-ahead buffers are held in
+ * memory, the sources are read in a single pass, so any number of sources can
+ * be merged with bounded memory. Elements must remain valid after their source
+ * has advanced when a read-ahead larger then 1 is used.
+ * </p>
+ *
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
  */
-public class MergeInput<T> implements Input<T> {
+public class MergeInput<T> implements Input<T>, IOSkippableIterator<T> {
+
+	/**
+	 * Computes the merge key of an element.
+	 *
+	 * @param <T>
+	 *          element type
+	 */
+	public interface Key<T> {
+
+		/**
+		 * @param element
+		 *          element read from a source
+		 * @return the key elements are ordered by
+		 * @throws IOException
+		 *           any IO errors while reading the key
+		 */
+		public long key(T element) throws IOException;
+	}
+
+	/**
+	 * A single source and its read-ahead buffer
+	 */
+	private static class Source<T> {
+		private final IOIterator<? extends T> iterator;
+
+		private final Object[] elements;
+
+		private final long[] keys;
+
+		private int head;
+
+		private int count;
+
+		private Source(final IOIterator<? extends T> iterator, final int readAhead) {
+			this.iterator = iterator;
+			this.elements = new Object[readAhead];
+			this.keys = new long[readAhead];
+		}
+	}
+
+	/**
+	 * Default number of elements read ahead from each source
+	 */
+	public static final int DEFAULT_READ_AHEAD = 32;
+
+	private final Source<T>[] sources;
+
+	private final Key<? super T> key;
+
+	/**
+	 * Indexes of non empty sources, ordered as a binary heap by their head
+	 * element's key
+	 */
+	private final int[] heap;
+
+	private int size;
 
+	private boolean started = false;
+
+	private long count = 0;
+
+	/**
+	 * @param sources
+	 *          ordered sources to merge
+	 * @param key
+	 *          computes the merge key of each element
+	 */
+	public MergeInput(final List<? extends IOIterator<? extends T>> sources,
+	    final Key<? super T> key) {
+		this(sources, key, DEFAULT_READ_AHEAD);
+	}
+
+	/**
+	 * @param sources
+	 *          ordered sources to merge
+	 * @param key
+	 *          computes the merge key of each element
+	 * @param readAhead
+	 *          number of elements to read ahead from each source
+	 */
+	public MergeInput(final List<? extends IOIterator<? extends T>> sources,
+	    final Key<? super T> key, final int readAhead) {
+		if (readAhead < 1) {
+			throw new IllegalArgumentException("Read-ahead must be at least 1");
+		}
+
+		@SuppressWarnings("unchecked")
+		final Source<T>[] array = (Source<T>[]) new Source<?>[sources.size()];
+
+		this.key = key;
+		this.sources = array;
+		this.heap = new int[sources.size()];
+
+		for (int i = 0; i < this.sources.length; i++) {
+			this.sources[i] = new Source<T>(sources.get(i), readAhead);
+		}
+	}
+
+	/**
+	 * Reads the next batch of elements from the source into its read-ahead
+	 * buffer.
+	 *
+	 * @return false if the source is exhausted
+	 */
+	private boolean fill(final Source<T> s) throws IOException {
+		s.head = 0;
+		s.count = 0;
+
+		while (s.count < s.elements.length && s.iterator.hasNext()) {
+			final T e = s.iterator.next();
+			s.elements[s.count] = e;
+			s.keys[s.count] = key.key(e);
+			s.count++;
+		}
+
+		return s.count != 0;
+	}
+
+	private void start() throws IOException {
+		started = true;
+
+		for (int i = 0; i < sources.length; i++) {
+			if (fill(sources[i])) {
+				heap[size++] = i;
+			}
+		}
+
+		for (int i = size / 2 - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+	}
+
+	/**
+	 * Source a goes before source b if its head key is smaller, or keys are
+	 * equal and a comes first in the list of sources
+	 */
+	private boolean before(final int a, final int b) {
+		final Source<T> sa = sources[a];
+		final Source<T> sb = sources[b];
+		final long ka = sa.keys[sa.head];
+		final long kb = sb.keys[sb.head];
+
+		return (ka < kb) || (ka == kb && a < b);
+	}
+
+	private void siftDown(int i) {
+		final int s = heap[i];
+
+		while (true) {
+			int c = 2 * i + 1;
+			if (c >= size) {
+				break;
+			}
+
+			if (c + 1 < size && before(heap[c + 1], heap[c])) {
+				c++;
+			}
+
+			if (before(s, heap[c])) {
+				break;
+			}
+
+			heap[i] = heap[c];
+			i = c;
+		}
+
+		heap[i] = s;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.utils.collection.IOIterator#hasNext()
+	 */
+	public boolean hasNext() throws IOException {
+		if (started == false) {
+			start();
+		}
+
+		return size != 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.utils.collection.IOIterator#next()
+	 */
+	@SuppressWarnings("unchecked")
+	public T next() throws IOException {
+		if (hasNext() == false) {
+			throw new NoSuchElementException();
+		}
+
+		final Source<T> s = sources[heap[0]];
+		final T e = (T) s.elements[s.head];
+		s.elements[s.head] = null;
+		s.head++;
+
+		if (s.head == s.count && fill(s) == false) {
+			heap[0] = heap[--size]; // Source exhausted, drop it from the heap
+		}
+
+		if (size != 0) {
+			siftDown(0);
+		}
+
+		count++;
+
+		return e;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.utils.collection.IOSkippable#skip()
+	 */
+	public void skip() throws IOException {
+		next();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.slytechs.utils.collection.IORemovable#remove()
+	 */
+	public void remove() throws IOException {
+		throw new UnsupportedOperationException(
+		    "Merged input is readonly. Operation not supported");
+	}
+
+	/**
+	 * @return number of elements returned so far
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the next merged element.
+	 *
+	 * @return next element or null if all the sources are exhausted
+	 * @see com.slytechs.utils.iosequence.Input#get()
+	 */
 	public T get() throws InterruptedException {
-		// TODO Auto-generated method stub
-		return null;
+		try {
+			return (hasNext() ? next() : null);
+		} catch (final IOException e) {
+			throw new IORuntimeException(e);
+		}
 	}
 
-	/* (non-Javadoc)
+	/*
+	 * (non-Javadoc)
+	 *
 	 * @see java.lang.Iterable#iterator()
 	 */
 	public Iterator<T> iterator() {
-		// TODO Auto-generated method stub
-		return null;
+		return new IOIterator.IteratorAdapter<T>(this);
 	}
 
-	/* (non-Javadoc)
-	 * @see com.slytechs.jnetstream.iosequence.Input#close()
+	/**
+	 * Closes all the sources which are closeable.
+	 *
+	 * @see com.slytechs.utils.iosequence.Input#close()
 	 */
 	public void close() {
-		// TODO Auto-generated method stub
-		
+		IOException error = null;
+
+		for (final Source<T> s : sources) {
+			s.head = s.count = 0;
+
+			if (s.iterator instanceof Closeable) {
+				try {
+					((Closeable) s.iterator).close();
+				} catch (final IOException e) {
+					error = (error == null ? e : error);
+				}
+			}
+		}
+
+		size = 0;
+		started = true;
+
+		if (error != null) {
+			throw new IORuntimeException(error);
+		}
 	}
 
 }
@@ -0,0 +1,581 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package com.slytechs.utils.memory;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * <p>
+ * A size bounded cache of buffer blocks shared by all the loaders that read
+ * capture files. The cache holds strong references to the blocks it contains
+ * and evicts blocks, using either LRU or CLOCK replacement policy, when the
+ * total length of all cached blocks exceeds the configured budget. What stays
+ * in memory is therefore determined by the budget and the access pattern, not
+ * by the timing of the garbage collector.
+ * </p>
+ * <p>
+ * Blocks are cached on behalf of an owner, typically a loader. Owners are
+ * referenced weakly, so blocks of an owner that was garbage collected without
+ * being released are evicted first. A block may be pinned by any number of
+ * holders, such as handles that are currently referencing the block, and
+ * pinned blocks are never evicted. Holders are also referenced weakly. Blocks
+ * added using {@link #reserve(Object, BufferBlock)} are permanently pinned
+ * until their owner is released; they count against the budget but can not be
+ * reloaded from anywhere if evicted.
+ * </p>
+ * <p>
+ * The default shared cache's budget is set using the "jnetstream.cache.budget"
+ * system property, in bytes, and defaults to a quarter of the maximum heap. The
+ * policy is set using "jnetstream.cache.policy" property to either LRU or
+ * CLOCK, and defaults to CLOCK.
+ * </p>
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class BlockCache {
+
+	/**
+	 * Replacement policy used to pick blocks for eviction
+	 */
+	public enum Policy {
+		/**
+		 * Least recently used block is evicted first
+		 */
+		LRU,
+
+		/**
+		 * Blocks are swept by a clock hand and evicted unless they were referenced
+		 * since the last sweep. Hits only set a flag and do not reorder the cache.
+		 */
+		CLOCK,
+	}
+
+	private static class Entry {
+		private final WeakReference<Object> owner;
+
+		private final BufferBlock block;
+
+		private final long size;
+
+		private boolean referenced;
+
+		private boolean reserved;
+
+		private List<WeakReference<Object>> pins;
+
+		private Entry next;
+
+		private Entry prev;
+
+		private Entry(final Object owner, final BufferBlock block) {
+			this.owner = (owner == null ? null : new WeakReference<Object>(owner));
+			this.block = block;
+			this.size = (block == null ? 0 : block.getLength());
+		}
+
+		private boolean isOrphan() {
+			return owner != null && owner.get() == null;
+		}
+
+		private boolean isPinned() {
+			if (reserved) {
+				return true;
+			}
+
+			if (pins == null) {
+				return false;
+			}
+
+			for (int i = pins.size() - 1; i >= 0; i--) {
+				if (pins.get(i).get() == null) {
+					pins.remove(i);
+				}
+			}
+
+			return pins.isEmpty() == false;
+		}
+	}
+
+	/**
+	 * Number of owner's blocks, preceding the requested position, checked on
+	 * lookup
+	 */
+	private static final int LOOKBACK = 4;
+
+	private static BlockCache defaultCache;
+
+	/**
+	 * Returns the cache shared by all capture file loaders.
+	 *
+	 * @return the default cache
+	 */
+	public synchronized static BlockCache getDefault() {
+		if (defaultCache == null) {
+			final long budget = Long.getLong("jnetstream.cache.budget", Runtime
+			    .getRuntime().maxMemory() / 4);
+			final Policy policy = Policy.valueOf(System.getProperty(
+			    "jnetstream.cache.policy", Policy.CLOCK.name()));
+
+			defaultCache = new BlockCache(budget, policy);
+		}
+
+		return defaultCache;
+	}
+
+	/**
+	 * Circular list sentinel. For LRU head.next is the most recently used
+	 * entry, for CLOCK it is simply the start of the ring.
+	 */
+	private final Entry head = new Entry(null, null);
+
+	/**
+	 * Entries of each owner sorted by block start, so lookups only search the
+	 * owner's own blocks
+	 */
+	private final Map<Object, TreeMap<Long, Entry>> owners =
+	    new WeakHashMap<Object, TreeMap<Long, Entry>>();
+
+	private final Map<PartialBuffer, Entry> blocks =
+	    new IdentityHashMap<PartialBuffer, Entry>();
+
+	private Entry hand = head;
+
+	private long budget;
+
+	private final Policy policy;
+
+	private long size;
+
+	private int count;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	/**
+	 * @param budget
+	 *          maximum number of bytes of all cached blocks combined
+	 * @param policy
+	 *          replacement policy
+	 */
+	public BlockCache(final long budget, final Policy policy) {
+		this.budget = budget;
+		this.policy = policy;
+
+		head.next = head;
+		head.prev = head;
+	}
+
+	/**
+	 * Looks up a cached block of the owner that contains the entire range.
+	 *
+	 * @param owner
+	 *          owner of the block
+	 * @param start
+	 *          first regional position of the range
+	 * @param last
+	 *          last regional position of the range, inclusive
+	 * @return cached block or null if not cached
+	 */
+	public synchronized BufferBlock get(final Object owner, final long start,
+	    final long last) {
+
+		final TreeMap<Long, Entry> map = owners.get(owner);
+		if (map != null) {
+			/*
+			 * Block starting closest before the range is the most likely to contain
+			 * it, but a longer block starting earlier might as well
+			 */
+			Map.Entry<Long, Entry> floor = map.floorEntry(start);
+			for (int i = 0; floor != null && i < LOOKBACK; i++) {
+				final Entry e = floor.getValue();
+
+				if (last < e.block.getEndRegional()) {
+					hits++;
+					touch(e);
+
+					return e.block;
+				}
+
+				floor = map.lowerEntry(floor.getKey());
+			}
+		}
+
+		misses++;
+
+		return null;
+	}
+
+	/**
+	 * Returns all the blocks currently cached for the owner.
+	 *
+	 * @param owner
+	 *          owner of the blocks
+	 * @return list of blocks
+	 */
+	public synchronized List<BufferBlock> getBlocks(final Object owner) {
+		final List<BufferBlock> list = new ArrayList<BufferBlock>();
+		final TreeMap<Long, Entry> map = owners.get(owner);
+
+		if (map != null) {
+			for (final Entry e : map.values()) {
+				list.add(e.block);
+			}
+		}
+
+		return list;
+	}
+
+	/**
+	 * Adds a block to the cache, evicting other blocks if the cache is over its
+	 * budget.
+	 *
+	 * @param owner
+	 *          owner of the block
+	 * @param block
+	 *          block to cache
+	 */
+	public synchronized void put(final Object owner, final BufferBlock block) {
+		add(new Entry(owner, block));
+	}
+
+	/**
+	 * Adds a block that can not be evicted, such as a block holding data that
+	 * exists only in memory. The block counts against the cache's budget until
+	 * its owner is released or garbage collected.
+	 *
+	 * @param owner
+	 *          owner of the block
+	 * @param block
+	 *          block to account for
+	 */
+	public synchronized void reserve(final Object owner, final BufferBlock block) {
+		final Entry e = new Entry(owner, block);
+		e.reserved = true;
+
+		add(e);
+	}
+
+	private void add(final Entry e) {
+		if (blocks.containsKey(e.block)) {
+			return; // Already cached
+		}
+
+		final Object owner = e.owner.get();
+		TreeMap<Long, Entry> map = owners.get(owner);
+		if (map == null) {
+			map = new TreeMap<Long, Entry>();
+			owners.put(owner, map);
+		}
+
+		/*
+		 * A block with the same start is replaced by the new one, which is
+		 * typically longer. A pinned block stays in the cache until unpinned.
+		 */
+		final Entry old = map.put(e.block.getStartRegional(), e);
+		if (old != null && old.isPinned() == false) {
+			remove(old);
+		}
+
+		blocks.put(e.block, e);
+
+		if (policy == Policy.LRU) {
+			link(e, head);
+		} else {
+			link(e, hand.prev); // Newest entries are swept last
+		}
+
+		size += e.size;
+		count++;
+
+		evict(e);
+	}
+
+	/**
+	 * Pins a cached block so that it is not evicted while the holder is
+	 * referencing it.
+	 *
+	 * @param block
+	 *          block to pin, ignored if not cached
+	 * @param holder
+	 *          holder of the pin, held weakly
+	 */
+	public synchronized void pin(final PartialBuffer block, final Object holder) {
+		final Entry e = blocks.get(block);
+		if (e == null) {
+			return;
+		}
+
+		if (e.pins == null) {
+			e.pins = new ArrayList<WeakReference<Object>>(2);
+		}
+
+		e.pins.add(new WeakReference<Object>(holder));
+	}
+
+	/**
+	 * Removes a pin previously placed by the holder.
+	 *
+	 * @param block
+	 *          block to unpin
+	 * @param holder
+	 *          holder of the pin
+	 */
+	public synchronized void unpin(final PartialBuffer block, final Object holder) {
+		final Entry e = blocks.get(block);
+		if (e == null || e.pins == null) {
+			return;
+		}
+
+		for (int i = 0; i < e.pins.size(); i++) {
+			if (e.pins.get(i).get() == holder) {
+				e.pins.remove(i);
+				break;
+			}
+		}
+
+		if (size > budget) {
+			evict(null);
+		}
+	}
+
+	/**
+	 * Removes all blocks of the owner from the cache.
+	 *
+	 * @param owner
+	 *          owner of the blocks
+	 */
+	public synchronized void release(final Object owner) {
+		release(owner, false);
+	}
+
+	/**
+	 * Removes all blocks of the owner from the cache and optionally releases the
+	 * memory of the memory mapped and direct blocks right away, see
+	 * {@link BufferUtils#unmap(java.nio.ByteBuffer)}. Blocks that are still
+	 * pinned by a holder are left to the garbage collector. Unmapping is only
+	 * safe if no other views of the unpinned blocks are accessed afterwards.
+	 *
+	 * @param owner
+	 *          owner of the blocks
+	 * @param unmap
+	 *          true to release the memory of the blocks that are not pinned
+	 */
+	public synchronized void release(final Object owner, final boolean unmap) {
+		final TreeMap<Long, Entry> map = owners.remove(owner);
+		if (map == null) {
+			return;
+		}
+
+		for (final Entry e : map.values()) {
+			remove(e);
+
+			e.reserved = false; // The owner is done with the block
+			if (unmap && e.isPinned() == false) {
+				BufferUtils.unmap(e.block.getByteBuffer());
+			}
+		}
+	}
+
+	private void touch(final Entry e) {
+		if (policy == Policy.LRU) {
+			unlink(e);
+			link(e, head);
+		} else {
+			e.referenced = true;
+		}
+	}
+
+	/**
+	 * Evicts blocks until the cache is within its budget. Blocks of owners that
+	 * have been garbage collected are removed first.
+	 *
+	 * @param keep
+	 *          entry that was just added and should be kept if possible
+	 */
+	private void evict(final Entry keep) {
+		if (size <= budget) {
+			return;
+		}
+
+		for (Entry e = head.next; e != head;) {
+			final Entry next = e.next;
+
+			if (e.isOrphan()) {
+				discard(e);
+			}
+
+			e = next;
+		}
+
+		if (policy == Policy.LRU) {
+			for (Entry e = head.prev; e != head && size > budget;) {
+				final Entry prev = e.prev;
+
+				if (e != keep && e.isPinned() == false) {
+					discard(e);
+					evictions++;
+				}
+
+				e = prev;
+			}
+
+			return;
+		}
+
+		/*
+		 * CLOCK: give every entry a second chance by clearing its referenced flag,
+		 * a full sweep after all flags are cleared without finding a victim means
+		 * everything remaining is pinned.
+		 */
+		int steps = 2 * count + 3;
+		while (size > budget && count != 0 && steps-- > 0) {
+			if (hand == head) {
+				hand = head.next;
+				continue;
+			}
+
+			final Entry e = hand;
+			hand = e.next;
+
+			if (e == keep || e.isPinned()) {
+				continue;
+			}
+
+			if (e.referenced) {
+				e.referenced = false;
+				continue;
+			}
+
+			discard(e);
+			evictions++;
+		}
+	}
+
+	private void link(final Entry e, final Entry after) {
+		e.prev = after;
+		e.next = after.next;
+		after.next.prev = e;
+		after.next = e;
+	}
+
+	private void unlink(final Entry e) {
+		if (hand == e) {
+			hand = e.next;
+		}
+
+		e.prev.next = e.next;
+		e.next.prev = e.prev;
+		e.next = null;
+		e.prev = null;
+	}
+
+	private void remove(final Entry e) {
+		unlink(e);
+		blocks.remove(e.block);
+		size -= e.size;
+		count--;
+	}
+
+	/**
+	 * Removes the entry and also drops it from its owner's list
+	 */
+	private void discard(final Entry e) {
+		remove(e);
+
+		final Object owner = e.owner.get();
+		final TreeMap<Long, Entry> map = (owner == null ? null : owners
+		    .get(owner));
+		final Long key = e.block.getStartRegional();
+		if (map != null && map.get(key) == e) {
+			map.remove(key);
+		}
+	}
+
+	/**
+	 * @return maximum number of bytes of all cached blocks combined
+	 */
+	public synchronized final long getBudget() {
+		return this.budget;
+	}
+
+	/**
+	 * Changes the budget, evicting blocks immediately if the cache is over the
+	 * new budget.
+	 *
+	 * @param budget
+	 *          maximum number of bytes of all cached blocks combined
+	 */
+	public synchronized final void setBudget(final long budget) {
+		this.budget = budget;
+
+		evict(null);
+	}
+
+	/**
+	 * @return the replacement policy
+	 */
+	public final Policy getPolicy() {
+		return this.policy;
+	}
+
+	/**
+	 * @return number of bytes of all cached blocks combined
+	 */
+	public synchronized final long getSize() {
+		return this.size;
+	}
+
+	/**
+	 * @return number of cached blocks
+	 */
+	public synchronized final int getCount() {
+		return this.count;
+	}
+
+	/**
+	 * @return number of lookups that found a cached block
+	 */
+	public synchronized final long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return number of lookups that did not find a cached block
+	 */
+	public synchronized final long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * @return number of blocks evicted to stay within the budget
+	 */
+	public synchronized final long getEvictions() {
+		return this.evictions;
+	}
+
+	public synchronized String toString() {
+		return "[" + policy + " " + size + "/" + budget + " bytes, " + count
+		    + " blocks, hits=" + hits + ", misses=" + misses + ", evictions="
+		    + evictions + "]";
+	}
+}
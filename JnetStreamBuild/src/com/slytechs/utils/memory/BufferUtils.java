@@ -13,8 +13,11 @@
 package com.slytechs.utils.memory;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
@@ -25,6 +28,39 @@ import java.nio.channels.WritableByteChannel;
  */
 public class BufferUtils {
 
+	/**
+	 * sun.misc.Unsafe instance on VMs that provide Unsafe.invokeCleaner, null
+	 * otherwise
+	 */
+	private static final Object unsafe;
+
+	private static final Method invokeCleaner;
+
+	static {
+		Object u = null;
+		Method m = null;
+
+		try {
+			final Class<?> c = Class.forName("sun.misc.Unsafe");
+			m = c.getMethod("invokeCleaner", ByteBuffer.class);
+
+			final Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			u = f.get(null);
+
+		} catch (final Exception e) {
+			/*
+			 * Older VMs do not have invokeCleaner, unmap falls back to calling the
+			 * buffer's own cleaner
+			 */
+			u = null;
+			m = null;
+		}
+
+		unsafe = u;
+		invokeCleaner = m;
+	}
+
 	/**
 	 * <p>
 	 * Creates a new byte buffer whose content is a shared subsequence of this
@@ -189,4 +225,48 @@ public class BufferUtils {
 
 		return r;
 	}
+
+	/**
+	 * Releases the memory of a memory mapped or direct buffer immediately,
+	 * instead of when the buffer is garbage collected. Only buffers returned
+	 * directly by FileChannel.map or ByteBuffer.allocateDirect can be released,
+	 * views such as slices and duplicates are ignored. Any access to the buffer
+	 * or any of its views after this call crashes the VM, therefore the caller
+	 * must be certain that the buffer is no longer in use anywhere.
+	 * 
+	 * @param buffer
+	 *          buffer to release
+	 * @return true if the buffer was released, false if it was not a mapped or
+	 *         direct buffer, was a view or the VM does not support releasing
+	 *         buffers
+	 */
+	public static boolean unmap(ByteBuffer buffer) {
+		if ((buffer instanceof MappedByteBuffer) == false
+		    || (buffer.isDirect() == false)) {
+			return false;
+		}
+
+		try {
+			if (invokeCleaner != null) {
+				invokeCleaner.invoke(unsafe, buffer);
+
+				return true;
+			}
+
+			final Method m = buffer.getClass().getMethod("cleaner");
+			m.setAccessible(true);
+
+			final Object cleaner = m.invoke(buffer);
+			if (cleaner == null) {
+				return false; // A view, memory belongs to another buffer
+			}
+
+			cleaner.getClass().getMethod("clean").invoke(cleaner);
+
+			return true;
+
+		} catch (final Exception e) {
+			return false;
+		}
+	}
 }
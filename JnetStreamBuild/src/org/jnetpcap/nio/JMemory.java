@@ -668,12 +668,14 @@ public abstract class JMemory {
 	 * has been allocated through use of one of JMemory based functions or outside
 	 * its memory management scope. For example, memory allocated by libpcap
 	 * library will return false. While packets that copied their state to new
-	 * memory will return true.
+	 * memory will return true, including copies into recyclable memory of a
+	 * {@link JMemoryPool} whose keeper is the pool's allocation.
 	 * 
 	 * @return true if physical memory is managed by JMemory, otherwise false
 	 */
 	public boolean isJMemoryBasedOwner() {
-		return physical != 0 && (owner || keeper instanceof JMemory);
+		return physical != 0
+				&& (owner || keeper instanceof JMemory || JMemoryPool.isChunk(keeper));
 	}
 
 	/**
@@ -812,6 +814,19 @@ public abstract class JMemory {
 		return size;
 	}
 
+	/**
+	 * Replaces the object that keeps the peered memory from being released. The
+	 * keeper is passed on to any other object that peers with this one. Used by
+	 * JMemoryPool to tie a sub allocation to its own keeper, so that the
+	 * allocation can be recycled once the keeper is no longer referenced.
+	 * 
+	 * @param keeper
+	 *          the keeper
+	 */
+	final void keeper(Object keeper) {
+		this.keeper = keeper;
+	}
+
 	/**
 	 * Changes the size of the current memory buffer. The size can only be reduced
 	 * in length and can not grow. The method throws exceptions if size parameter
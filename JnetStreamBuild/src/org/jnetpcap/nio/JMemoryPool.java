@@ -18,9 +18,19 @@
  */
 package org.jnetpcap.nio;
 
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.sql.Time;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jnetpcap.nio.JMemory.Type;
 
@@ -42,6 +52,20 @@ import org.jnetpcap.nio.JMemory.Type;
  * the memory management is done completely behind the scene, very efficiently
  * and automatically using java's garbage collection mechanism.
  * </p>
+ * <p>
+ * Optionally the pool can recycle memory, see {@link #setRecycling(boolean)}.
+ * In this mode each allocation is rounded up to a size class and memory that is
+ * no longer referenced is put on a free list of its size class and handed out
+ * again to the next allocation of that class, instead of being held until its
+ * entire block is garbage collected.
+ * </p>
+ * <p>
+ * All allocations are made from a per thread {@link Arena}, which owns the
+ * thread's current block and free lists, so allocating memory does not take a
+ * lock. When its current block is exhausted, an arena obtains a new block from
+ * the block supply shared by all of the arenas of the pool. Each arena keeps
+ * counters of its allocations, see {@link #getArenas()}.
+ * </p>
  * 
  * @author Sly Technologies, Inc.
  */
@@ -110,15 +134,31 @@ public class JMemoryPool {
 		}
 
 		/**
-		 * Frees the existing memory to be put back in the memory pool.
+		 * Frees the existing memory to be put back in the memory pool. Only the
+		 * most recent allocation can be returned to the block, which allows an
+		 * allocation that turned out not to be needed to be undone. Memory freed
+		 * out of order is reclaimed when the entire block is garbage collected or,
+		 * when the pool is recycling, through the pool's free lists.
 		 * 
 		 * @param offset
 		 *          the offset
 		 * @param length
 		 *          the length
+		 * @return true if the memory was returned to the block
 		 */
-		public void free(final int offset, final int length) {
-			// Do nothing for now
+		public synchronized boolean free(final int offset, int length) {
+
+			/* Align to an even boundary */
+			length += (length % BUS_WIDTH);
+
+			if (offset + length != this.current || offset < 0) {
+				return false;
+			}
+
+			this.current = offset;
+			this.available += length;
+
+			return true;
 		}
 
 		/**
@@ -143,6 +183,475 @@ public class JMemoryPool {
 		}
 	}
 
+	/**
+	 * An allocation out of a block. A recyclable chunk is the keeper of every
+	 * memory object peered with the allocation, so once the chunk is no longer
+	 * reachable, no one references the memory and it can be given out again.
+	 * Otherwise the block itself remains the keeper.
+	 */
+	private static final class Chunk {
+
+		/** The block. */
+		private final Block block;
+
+		/** The offset into the block. */
+		private final int offset;
+
+		/** The recyclable. */
+		private final boolean recyclable;
+
+		/**
+		 * Instantiates a new chunk.
+		 * 
+		 * @param block
+		 *          the block
+		 * @param offset
+		 *          the offset
+		 * @param recyclable
+		 *          if the chunk is the keeper of its memory
+		 */
+		private Chunk(Block block, int offset, boolean recyclable) {
+			this.block = block;
+			this.offset = offset;
+			this.recyclable = recyclable;
+		}
+
+		/**
+		 * Peers the memory object with a portion of this chunk and, if recyclable,
+		 * makes the chunk its keeper.
+		 * 
+		 * @param memory
+		 *          the memory
+		 * @param offset
+		 *          offset into the chunk
+		 * @param length
+		 *          the length
+		 */
+		private void peer(JMemory memory, int offset, int length) {
+			memory.peer(block, this.offset + offset, length);
+
+			if (recyclable) {
+				memory.keeper(this);
+			}
+		}
+	}
+
+	/**
+	 * Checks if the keeper of a memory object is a recyclable chunk of a pool
+	 * block, which makes the memory JMemory based even though the keeper is not
+	 * itself a JMemory object.
+	 * 
+	 * @param keeper
+	 *          the keeper
+	 * @return true if the keeper is a chunk, otherwise false
+	 */
+	static boolean isChunk(Object keeper) {
+		return keeper instanceof Chunk;
+	}
+
+	/**
+	 * Tracks a chunk and returns its memory to a free list once the chunk is no
+	 * longer reachable. References of all outstanding chunks are kept on a
+	 * doubly linked list, so they are not themselves garbage collected.
+	 */
+	private static final class ChunkReference extends PhantomReference<Chunk> {
+
+		/** The block. */
+		private final Block block;
+
+		/** The offset. */
+		private final int offset;
+
+		/** The size class. */
+		private final int sizeClass;
+
+		/** The prev. */
+		private ChunkReference prev;
+
+		/** The next. */
+		private ChunkReference next;
+
+		/**
+		 * Instantiates a new chunk reference.
+		 * 
+		 * @param chunk
+		 *          the chunk
+		 * @param queue
+		 *          the queue
+		 * @param sizeClass
+		 *          the size class
+		 */
+		private ChunkReference(Chunk chunk, ReferenceQueue<Chunk> queue,
+				int sizeClass) {
+			super(chunk, queue);
+			this.block = chunk.block;
+			this.offset = chunk.offset;
+			this.sizeClass = sizeClass;
+		}
+	}
+
+
+	/**
+	 * Per thread allocation arena. Each thread allocating from a pool gets its
+	 * own arena, which owns the thread's current block and, when the pool is
+	 * recycling, the thread's free lists. An arena is only modified by its own
+	 * thread and needs no locking. New blocks are obtained from the pool's shared
+	 * block supply. Memory is always returned to the free lists of the arena
+	 * that allocated it.
+	 * <p>
+	 * The counters may be read from any thread, but are only updated by the
+	 * arena's thread as it allocates memory.
+	 * </p>
+	 * 
+	 * @author Sly Technologies, Inc.
+	 */
+	public static final class Arena {
+
+		/** Largest number of blocks worth of memory kept on the free lists. */
+		private static final int MAX_FREE_BLOCKS = 64;
+
+		/** The pool. */
+		private final JMemoryPool pool;
+
+		/** Name of the thread that owns this arena. */
+		private final String name;
+
+		/** Blocks of free chunks, per size class. */
+		private final Block[][] freeBlocks;
+
+		/** Offsets of free chunks, per size class. */
+		private final int[][] freeOffsets;
+
+		/** Number of free chunks, per size class. */
+		private final int[] freeCounts;
+
+		/** The max free bytes. */
+		private final long maxFreeBytes;
+
+		/** Largest size class recycled by this arena. */
+		private final int maxSizeClass;
+
+		/** Current block from which new memory is allocated. */
+		private Block block;
+
+		/** Head of the list of outstanding recyclable chunks. */
+		private ChunkReference outstanding;
+
+		/** Queue of chunks that are no longer referenced. */
+		private final ReferenceQueue<Chunk> chunks = new ReferenceQueue<Chunk>();
+
+		/** References to all of the blocks this arena allocated. */
+		private final Set<Reference<Block>> blocks =
+				new HashSet<Reference<Block>>();
+
+		/** Queue of blocks that have been garbage collected. */
+		private final ReferenceQueue<Block> collected = new ReferenceQueue<Block>();
+
+		/** The allocations. */
+		private volatile long allocations = 0;
+
+		/** The bytes allocated. */
+		private volatile long bytesAllocated = 0;
+
+		/** The bytes recycled. */
+		private volatile long bytesRecycled = 0;
+
+		/** The free bytes. */
+		private volatile long freeBytes = 0;
+
+		/** The blocks allocated. */
+		private volatile long blocksAllocated = 0;
+
+		/** The blocks in use. */
+		private volatile int blocksInUse = 0;
+
+		/**
+		 * Instantiates a new arena.
+		 * 
+		 * @param pool
+		 *          the pool
+		 * @param name
+		 *          name of the owning thread
+		 */
+		private Arena(JMemoryPool pool, String name) {
+			this.pool = pool;
+			this.name = name;
+
+			final int blockSize = pool.getBlockSize();
+			this.maxFreeBytes = (long) blockSize * MAX_FREE_BLOCKS;
+
+			/* Allocations bigger than half a block are never recycled */
+			int max = sizeClass(blockSize / 2);
+			if (classSize(max) > blockSize / 2) {
+				max--;
+			}
+			this.maxSizeClass = max;
+
+			this.freeBlocks = new Block[max + 1][];
+			this.freeOffsets = new int[max + 1][];
+			this.freeCounts = new int[max + 1];
+		}
+
+		/**
+		 * Allocates memory out of the current block or when recycling, reusing
+		 * free memory of the same size class if any.
+		 * 
+		 * @param size
+		 *          number of bytes
+		 * @return the chunk
+		 */
+		private Chunk allocate(int size) {
+			collect();
+
+			allocations++;
+			bytesAllocated += size;
+
+			final int c = (size > 0) ? sizeClass(size) : Integer.MAX_VALUE;
+			if (pool.recycling == false || c > maxSizeClass) {
+				final Block b = getBlock(size);
+
+				return new Chunk(b, b.allocate(size), false);
+			}
+
+			final Chunk chunk;
+			final int n = freeCounts[c];
+			if (n != 0) {
+				final Block b = freeBlocks[c][n - 1];
+				freeBlocks[c][n - 1] = null;
+				freeCounts[c] = n - 1;
+				freeBytes -= classSize(c);
+				bytesRecycled += classSize(c);
+
+				chunk = new Chunk(b, freeOffsets[c][n - 1], true);
+
+			} else {
+				final int length = classSize(c);
+				final Block b = getBlock(length);
+
+				chunk = new Chunk(b, b.allocate(length), true);
+			}
+
+			final ChunkReference r = new ChunkReference(chunk, chunks, c);
+			r.next = outstanding;
+			if (outstanding != null) {
+				outstanding.prev = r;
+			}
+			outstanding = r;
+
+			return chunk;
+		}
+
+		/**
+		 * Gets the current block if it has room for size bytes, otherwise a new
+		 * block from the pool's block supply becomes the current block.
+		 * 
+		 * @param size
+		 *          minimum available amount of memory in the block
+		 * @return the block
+		 */
+		private Block getBlock(int size) {
+
+			/* Align to an even boundary */
+			size += (size % BUS_WIDTH);
+
+			if (block == null || block.available < size) {
+				block = pool.newBlock(size);
+
+				blocks.add(new WeakReference<Block>(block, collected));
+				blocksAllocated++;
+				blocksInUse++;
+			}
+
+			return block;
+		}
+
+		/**
+		 * Moves all chunks that are no longer referenced to the free lists and
+		 * accounts for blocks that have been garbage collected. If the free lists
+		 * are full, the chunk is dropped and its memory is released along with its
+		 * block.
+		 */
+		private void collect() {
+			Reference<? extends Block> b;
+			while ((b = collected.poll()) != null) {
+				blocks.remove(b);
+				blocksInUse--;
+			}
+
+			Reference<? extends Chunk> ref;
+			while ((ref = chunks.poll()) != null) {
+				final ChunkReference r = (ChunkReference) ref;
+
+				if (r.prev == null) {
+					outstanding = r.next;
+				} else {
+					r.prev.next = r.next;
+				}
+				if (r.next != null) {
+					r.next.prev = r.prev;
+				}
+				r.prev = null;
+				r.next = null;
+
+				final int c = r.sizeClass;
+				final int length = classSize(c);
+
+				if (freeBytes + length > maxFreeBytes) {
+					continue;
+				}
+
+				int n = freeCounts[c];
+				if (freeBlocks[c] == null || n == freeBlocks[c].length) {
+					final int capacity = (n == 0) ? 16 : n * 2;
+					final Block[] fb = new Block[capacity];
+					final int[] fo = new int[capacity];
+					if (n != 0) {
+						System.arraycopy(freeBlocks[c], 0, fb, 0, n);
+						System.arraycopy(freeOffsets[c], 0, fo, 0, n);
+					}
+
+					freeBlocks[c] = fb;
+					freeOffsets[c] = fo;
+				}
+
+				freeBlocks[c][n] = r.block;
+				freeOffsets[c][n] = r.offset;
+				freeCounts[c] = n + 1;
+				freeBytes += length;
+			}
+		}
+
+		/**
+		 * Gets the name of the thread that owns this arena.
+		 * 
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Number of allocations made from this arena.
+		 * 
+		 * @return the allocations
+		 */
+		public long getAllocations() {
+			return allocations;
+		}
+
+		/**
+		 * Total number of bytes allocated from this arena.
+		 * 
+		 * @return the bytes allocated
+		 */
+		public long getBytesAllocated() {
+			return bytesAllocated;
+		}
+
+		/**
+		 * Total number of bytes allocated by reusing recycled memory.
+		 * 
+		 * @return the bytes recycled
+		 */
+		public long getBytesRecycled() {
+			return bytesRecycled;
+		}
+
+		/**
+		 * Number of bytes currently on the free lists.
+		 * 
+		 * @return the free bytes
+		 */
+		public long getFreeBytes() {
+			return freeBytes;
+		}
+
+		/**
+		 * Total number of blocks this arena obtained from the block supply.
+		 * 
+		 * @return the blocks allocated
+		 */
+		public long getBlocksAllocated() {
+			return blocksAllocated;
+		}
+
+		/**
+		 * Number of blocks allocated by this arena that have not been garbage
+		 * collected, as of the arena's last allocation.
+		 * 
+		 * @return the blocks in use
+		 */
+		public int getBlocksInUse() {
+			return blocksInUse;
+		}
+
+		/**
+		 * To string.
+		 * 
+		 * @return the string
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			StringBuilder b = new StringBuilder(120);
+			b.append("JMemoryPool::Arena");
+			b.append('[');
+			b.append("thread=").append(name);
+			b.append(',');
+			b.append("allocations=").append(allocations);
+			b.append(',');
+			b.append("bytes=").append(bytesAllocated);
+			b.append(',');
+			b.append("recycled=").append(bytesRecycled);
+			b.append(',');
+			b.append("free=").append(freeBytes);
+			b.append(',');
+			b.append("blocks=").append(blocksInUse);
+			b.append('/').append(blocksAllocated);
+			b.append(']');
+
+			return b.toString();
+		}
+	}
+
+	/**
+	 * Size class of an allocation. Sizes up to 256 bytes are rounded up to a
+	 * multiple of 16, bigger sizes have 4 classes for every power of 2, which
+	 * wastes at most 25% of an allocation.
+	 * 
+	 * @param size
+	 *          number of bytes, greater than 0
+	 * @return the size class
+	 */
+	static int sizeClass(int size) {
+		if (size <= 256) {
+			return (size + 15) >>> 4;
+		}
+
+		final int shift = 31 - Integer.numberOfLeadingZeros(size - 1);
+		final int sub = ((size - 1) >>> (shift - 2)) & 3;
+
+		return 17 + (shift - 8) * 4 + sub;
+	}
+
+	/**
+	 * Number of bytes allocated for a size class.
+	 * 
+	 * @param sizeClass
+	 *          the size class
+	 * @return number of bytes
+	 */
+	static int classSize(int sizeClass) {
+		if (sizeClass <= 16) {
+			return sizeClass << 4;
+		}
+
+		final int c = sizeClass - 17;
+		final int shift = 8 + c / 4;
+
+		return (1 << shift) + ((c & 3) + 1) * (1 << (shift - 2));
+	}
+
 	/**
 	 * The size of the native integer which is also the bus-size in bytes of the
 	 * hardware architecture. We use the BUS_WIDTH to align our allocated memory
@@ -158,7 +667,7 @@ public class JMemoryPool {
 	public static final int DEFAULT_BLOCK_SIZE = 32 * 1024;
 
 	/** The default pool. */
-	private static JMemoryPool defaultPool;
+	private static volatile JMemoryPool defaultPool;
 
 	/**
 	 * Allocates requested size of memory from the global memory pool.
@@ -186,18 +695,39 @@ public class JMemoryPool {
 		defaultMemoryPool().allocate(size, storage);
 	}
 
-	/**
-	 * Currently active block from which memory allocations take place if its big
-	 * enough to fullfil the requests.
-	 */
-	private Block block;
-
 	/**
 	 * Current default block size when creating new memory blocks. This is user
 	 * modifiable.
 	 */
 	private int blockSize;
 
+	/** Per thread arenas, from which all allocations are made. */
+	private final ThreadLocal<Arena> arenas = new ThreadLocal<Arena>() {
+
+		@Override
+		protected Arena initialValue() {
+			final Arena arena =
+					new Arena(JMemoryPool.this, Thread.currentThread().getName());
+
+			synchronized (arenaList) {
+				arenaList.add(new WeakReference<Arena>(arena));
+			}
+
+			return arena;
+		}
+
+	};
+
+	/** All of the arenas created by this pool, for statistics. */
+	private final List<Reference<Arena>> arenaList =
+			new ArrayList<Reference<Arena>>();
+
+	/** Number of blocks supplied to all of the arenas. */
+	private final AtomicLong blocksSupplied = new AtomicLong();
+
+	/** When set, memory that is no longer referenced is reused. */
+	private volatile boolean recycling = isRecyclingProperty();
+
 	/**
 	 * Uses default allocation size and strategy.
 	 */
@@ -224,12 +754,10 @@ public class JMemoryPool {
 	 * @param memory
 	 *          memory pointer
 	 */
-	public synchronized void allocate(final int size, final JMemory memory) {
-
-		final Block block = getBlock(size);
-		final int offset = block.allocate(size);
+	public void allocate(final int size, final JMemory memory) {
+		final Chunk chunk = arenas.get().allocate(size);
 
-		memory.peer(block, offset, size);
+		chunk.peer(memory, 0, size);
 	}
 
 	/**
@@ -257,12 +785,11 @@ public class JMemoryPool {
 	 *          memory pointed to by src
 	 * @return number of bytes duplicated
 	 */
-	public synchronized int duplicate(JMemory src, JMemory dst) {
-		final Block block = getBlock(src.size);
-		final int offset = block.allocate(src.size);
+	public int duplicate(JMemory src, JMemory dst) {
+		final Chunk chunk = arenas.get().allocate(src.size);
 
-		src.transferTo(block, 0, src.size, offset);
-		dst.peer(block, offset, src.size);
+		src.transferTo(chunk.block, 0, src.size, chunk.offset);
+		chunk.peer(dst, 0, src.size);
 
 		return src.size;
 	}
@@ -285,7 +812,7 @@ public class JMemoryPool {
 	 *          length of peer
 	 * @return total number of bytes duplicated
 	 */
-	public synchronized int duplicate2(JMemory src1,
+	public int duplicate2(JMemory src1,
 			JMemory src2,
 			JMemory dst1,
 			JMemory dst2) {
@@ -294,14 +821,13 @@ public class JMemoryPool {
 
 		final int size = src1.size + src2.size;
 
-		final Block block = getBlock(size);
-		final int offset = block.allocate(size);
+		final Chunk chunk = arenas.get().allocate(size);
 
-		int o = src1.transferTo(block, 0, size1, offset);
-		src2.transferTo(block, 0, size2, offset + o);
+		int o = src1.transferTo(chunk.block, 0, size1, chunk.offset);
+		src2.transferTo(chunk.block, 0, size2, chunk.offset + o);
 
-		dst1.peer(block, offset, size1);
-		dst2.peer(block, offset + o, size2);
+		chunk.peer(dst1, 0, size1);
+		chunk.peer(dst2, o, size2);
 
 		return size;
 	}
@@ -324,7 +850,7 @@ public class JMemoryPool {
 	 *          length of peer
 	 * @return total number of bytes duplicated
 	 */
-	public synchronized int duplicate2(JMemory src1,
+	public int duplicate2(JMemory src1,
 			ByteBuffer src2,
 			JMemory dst1,
 			JMemory dst2) {
@@ -334,14 +860,13 @@ public class JMemoryPool {
 
 		final int size = size1 + size2;
 
-		final Block block = getBlock(size);
-		final int offset = block.allocate(size);
+		final Chunk chunk = arenas.get().allocate(size);
 
-		int o = src1.transferTo(block, 0, size1, offset);
-		block.transferFrom(src2, offset + o);
+		int o = src1.transferTo(chunk.block, 0, size1, chunk.offset);
+		chunk.block.transferFrom(src2, chunk.offset + o);
 
-		dst1.peer(block, offset, size1);
-		dst2.peer(block, offset + o, size2);
+		chunk.peer(dst1, 0, size1);
+		chunk.peer(dst2, o, size2);
 
 		return size;
 	}
@@ -357,16 +882,14 @@ public class JMemoryPool {
 	 *          memory pointed to by src
 	 * @return number of bytes duplicated
 	 */
-	public synchronized int duplicate(ByteBuffer src, JMemory dst) {
+	public int duplicate(ByteBuffer src, JMemory dst) {
 
 		final int size = src.limit() - src.position();
 
-		final Block block = getBlock(size);
-		final int offset = block.allocate(size);
+		final Chunk chunk = arenas.get().allocate(size);
 
-		block.transferFrom(src, offset);
-
-		dst.peer(block, offset, size);
+		chunk.block.transferFrom(src, chunk.offset);
+		chunk.peer(dst, 0, size);
 
 		return size;
 	}
@@ -380,64 +903,116 @@ public class JMemoryPool {
 	 * @return block big enough to hold size number of bytes
 	 *         {@link Block#allocate(int)} the size of memory needed. The block
 	 *         will then return an offset into the memory which has been reserved
-	 *         for this allocation. The pool of used blocks with potential of some
-	 *         available memory in them is maintained using a WeakReference. This
+	 *         for this allocation. The block is the current block of the calling
+	 *         thread's arena. The arena only holds on to its current block, which
 	 *         allows the blocks to be GCed when no references to them exist, even
 	 *         if there is still a bit of available memory left in them.
 	 * @see Block#allocate(int)
 	 */
 	public Block getBlock(int size) {
-
-		/* Align to an even boundary */
-		size += (size % BUS_WIDTH);
-
-		if (this.block == null || this.block.available < size) {
-			this.block = newBlock(size);
-		}
-
-		return this.block;
+		return arenas.get().getBlock(size);
 	}
 
 	/**
 	 * Creates a new block to be used for memory allocations of atLeast the size
-	 * supplied or possibly bigger.
+	 * supplied or possibly bigger. This is the block supply shared by all of the
+	 * arenas.
 	 * 
 	 * @param atLeastInSize
 	 *          minimum number of bytes to allocate
 	 * @return a new block to be used for allocations
 	 */
 	private Block newBlock(final int atLeastInSize) {
+		blocksSupplied.incrementAndGet();
+
 		return new Block((atLeastInSize > this.blockSize) ? atLeastInSize
 				: this.blockSize);
 	}
 
+	/**
+	 * Gets the arena of the calling thread.
+	 * 
+	 * @return the arena
+	 */
+	public Arena getArena() {
+		return arenas.get();
+	}
+
+	/**
+	 * Gets all of the arenas of this pool whose threads are still using them.
+	 * Arenas of threads that have terminated are dropped once garbage collected.
+	 * 
+	 * @return a snapshot of the arenas
+	 */
+	public List<Arena> getArenas() {
+		final List<Arena> list = new ArrayList<Arena>();
+
+		synchronized (arenaList) {
+			for (Iterator<Reference<Arena>> i = arenaList.iterator(); i.hasNext();) {
+				final Arena arena = i.next().get();
+				if (arena == null) {
+					i.remove();
+				} else {
+					list.add(arena);
+				}
+			}
+		}
+
+		return list;
+	}
+
+	/**
+	 * Total number of blocks supplied to all of the arenas of this pool.
+	 * 
+	 * @return the number of blocks
+	 */
+	public long getBlocksSupplied() {
+		return blocksSupplied.get();
+	}
+
+	/**
+	 * Total number of bytes allocated by all of the live arenas of this pool.
+	 * 
+	 * @return the number of bytes
+	 */
+	public long getBytesAllocated() {
+		long total = 0;
+		for (Arena arena : getArenas()) {
+			total += arena.getBytesAllocated();
+		}
+
+		return total;
+	}
+
 	/**
 	 * Gets the global default memory pool.
 	 * 
 	 * @return the default pool
 	 */
 	public static JMemoryPool defaultMemoryPool() {
-		if (defaultPool == null) {
-			defaultPool = new JMemoryPool();
+		JMemoryPool pool = defaultPool;
+		if (pool == null) {
+			synchronized (JMemoryPool.class) {
+				pool = defaultPool;
+				if (pool == null) {
+					defaultPool = pool = new JMemoryPool();
+				}
+			}
 		}
-		return defaultPool;
+
+		return pool;
 	}
 
 	/**
-	 * Shutdown.
+	 * Shutdown. The arenas of the default pool are released with the pool, once
+	 * their threads are done with them.
 	 */
 	public static void shutdown() {
-		if (defaultPool != null) {
-			defaultPool.block = null;
+		synchronized (JMemoryPool.class) {
 			defaultPool = null;
 		}
 	}
 
-	/**
-	 * Gets the current default block size when creating new memory blocks.
-	 * 
-	 * @return the blockSize
-	 */
 	public int getBlockSize() {
 		if (blockSize != 0) {
 			return blockSize;
@@ -471,4 +1046,42 @@ public class JMemoryPool {
 		this.blockSize = blockSize;
 	}
 
+	/**
+	 * Checks if the system properties enable recycling by default.
+	 * 
+	 * @return true, if recycling
+	 */
+	private static boolean isRecyclingProperty() {
+		Properties p = System.getProperties();
+		String s = p.getProperty("org.jnetsoft.nio.Recycle");
+		s = (s == null) ? p.getProperty("nio.recycle") : s;
+
+		return Boolean.parseBoolean(s);
+	}
+
+	/**
+	 * Checks if memory that is no longer referenced is reused.
+	 * 
+	 * @return true, if recycling
+	 */
+	public boolean isRecycling() {
+		return recycling;
+	}
+
+	/**
+	 * Enables or disables recycling of memory. When enabled, allocations are
+	 * rounded up to a size class and made from per thread blocks. Once all of the
+	 * memory objects peered with an allocation are garbage collected or peered
+	 * elsewhere, the memory is put on a per thread free list and reused by the
+	 * next allocation of the same size class, made by the same thread.
+	 * Allocations bigger than half a block are never recycled. Recycling can also
+	 * be enabled with the system property <code>nio.recycle=true</code>.
+	 * 
+	 * @param recycling
+	 *          true to reuse memory
+	 */
+	public void setRecycling(boolean recycling) {
+		this.recycling = recycling;
+	}
+
 }
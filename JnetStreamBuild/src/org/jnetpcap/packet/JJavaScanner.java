@@ -0,0 +1,460 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.nio.ByteBuffer;
+
+import org.jnetpcap.nio.JBuffer;
+import org.jnetpcap.protocol.JProtocol;
+
+// TODO: Auto-generated Javadoc
+/**
+ * A packet scanner written entirely in java. JJavaScanner decodes the core
+ * protocols, Ethernet, IEEE 802.1q, Ip4, Ip6, Tcp, Udp and Icmp, and records
+ * the headers it finds into a {@link JScanState}, using the same header IDs,
+ * header map and per header offset, length, payload and postfix as the native
+ * {@link JScanner} records into {@link JPacket.State}. Any data that is not a
+ * core protocol is recorded as a payload header.
+ * <p>
+ * Unlike JScanner, this scanner does not depend on the native jnetpcap library,
+ * nor does it use any bindings or header scanners registered with JRegistry.
+ * It is meant for platforms where the native library is not available and for
+ * decoding on any JVM, where it can be scaled across threads and profiled like
+ * any other java code. Each scanner and state is meant to be used by a single
+ * thread at a time. No memory is allocated while scanning packets held in a
+ * ByteBuffer or byte array.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class JJavaScanner {
+
+	/** Ethernet type of Ip4. */
+	private static final int ETHERTYPE_IP4 = 0x0800;
+
+	/** Ethernet type of Ip6. */
+	private static final int ETHERTYPE_IP6 = 0x86DD;
+
+	/** Ethernet type of IEEE 802.1q VLAN tag. */
+	private static final int ETHERTYPE_802DOT1Q = 0x8100;
+
+	/** Ethernet type of IEEE 802.1ad service VLAN tag. */
+	private static final int ETHERTYPE_802DOT1AD = 0x88A8;
+
+	/** The frame number. */
+	private long frameNumber = 0;
+
+	/** Most recently wrapped byte array. */
+	private ByteBuffer wrapped;
+
+	/** Copy of the most recent JBuffer. */
+	private byte[] scratch = new byte[0];
+
+	/**
+	 * Retrieves the current frame number assigned by this scanner.
+	 * 
+	 * @return current frame counter value
+	 */
+	public long getFrameNumber() {
+		return frameNumber;
+	}
+
+	/**
+	 * Sets the scanner's current frame number to user specified value.
+	 * 
+	 * @param frameNo
+	 *          new frame number
+	 */
+	public void setFrameNumber(long frameNo) {
+		this.frameNumber = frameNo;
+	}
+
+	/**
+	 * Scans the packet data between the buffer's position and limit. The buffer's
+	 * position and limit are not changed.
+	 * 
+	 * @param buffer
+	 *          packet data
+	 * @param id
+	 *          numerical ID of the data link protocol, or first header within the
+	 *          data buffer
+	 * @param wirelen
+	 *          original packet length
+	 * @param state
+	 *          state which receives the result of the scan
+	 * @return number of bytes processed
+	 */
+	public int scan(ByteBuffer buffer, int id, int wirelen, JScanState state) {
+		return scan(buffer, buffer.position(), buffer.limit() - buffer.position(),
+				id, wirelen, state);
+	}
+
+	/**
+	 * Scans the packet data in a byte array.
+	 * 
+	 * @param data
+	 *          packet data
+	 * @param offset
+	 *          offset of the packet in the array
+	 * @param length
+	 *          number of bytes of packet data
+	 * @param id
+	 *          numerical ID of the data link protocol, or first header within the
+	 *          data buffer
+	 * @param wirelen
+	 *          original packet length
+	 * @param state
+	 *          state which receives the result of the scan
+	 * @return number of bytes processed
+	 */
+	public int scan(byte[] data,
+			int offset,
+			int length,
+			int id,
+			int wirelen,
+			JScanState state) {
+		if (offset < 0 || length < 0 || offset + length > data.length) {
+			throw new IndexOutOfBoundsException("Invalid offset " + offset
+					+ " or length " + length);
+		}
+
+		if (wrapped == null || wrapped.array() != data) {
+			wrapped = ByteBuffer.wrap(data);
+		}
+
+		return scan(wrapped, offset, length, id, wirelen, state);
+	}
+
+	/**
+	 * Scans the packet data in a JBuffer. The data is first copied into java
+	 * memory, so this method requires the native library for the copy only.
+	 * 
+	 * @param buffer
+	 *          packet data
+	 * @param id
+	 *          numerical ID of the data link protocol, or first header within the
+	 *          data buffer
+	 * @param wirelen
+	 *          original packet length
+	 * @param state
+	 *          state which receives the result of the scan
+	 * @return number of bytes processed
+	 */
+	public int scan(JBuffer buffer, int id, int wirelen, JScanState state) {
+		final int size = buffer.size();
+		if (scratch.length < size) {
+			scratch = new byte[size];
+		}
+
+		buffer.getByteArray(0, scratch, 0, size);
+
+		return scan(scratch, 0, size, id, wirelen, state);
+	}
+
+	/**
+	 * Performs the actual scan.
+	 * 
+	 * @param b
+	 *          buffer containing the packet
+	 * @param base
+	 *          offset of the packet within the buffer
+	 * @param size
+	 *          number of bytes of packet data
+	 * @param id
+	 *          id of the first header
+	 * @param wirelen
+	 *          original packet length
+	 * @param state
+	 *          the state
+	 * @return number of bytes processed
+	 */
+	private int scan(ByteBuffer b,
+			int base,
+			int size,
+			int id,
+			int wirelen,
+			JScanState state) {
+
+		final boolean truncated = size < wirelen;
+
+		state.reset(frameNumber++, wirelen);
+		if (truncated) {
+			state.setFlags(JPacket.State.FLAG_TRUNCATED);
+		}
+
+		int offset = 0;
+		int end = size; // End of the current header's payload
+		int previous = -1;
+
+		while (id != JProtocol.PAYLOAD_ID && offset < end) {
+			final int o = base + offset;
+			final int available = end - offset;
+
+			int length;
+			int next = JProtocol.PAYLOAD_ID;
+			int limit = end;
+			int flags = 0;
+
+			switch (id) {
+				case JProtocol.ETHERNET_ID:
+					length = 14;
+					if (available >= length) {
+						next = etherType(u16(b, o + 12));
+					}
+					break;
+
+				case JProtocol.IEEE_802DOT1Q_ID:
+					length = 4;
+					if (available >= length) {
+						next = etherType(u16(b, o + 2));
+					}
+					break;
+
+				case JProtocol.IP4_ID: {
+					final int vhl = u8(b, o);
+					length = (vhl & 0x0F) * 4;
+					if ((vhl >> 4) != 4 || length < 20) {
+						length = -1;
+						break;
+					}
+
+					if (available < 20) {
+						break;
+					}
+
+					final int total = u16(b, o + 2);
+					if (total >= length) {
+						limit = Math.min(end, offset + total);
+					}
+
+					final int frag = u16(b, o + 6);
+					if ((frag & 0x3FFF) != 0) {
+						flags |= JHeader.State.FLAG_HEADER_FRAGMENTED;
+					}
+
+					if ((frag & 0x1FFF) == 0) { // Only first fragment has next header
+						next = ipProtocol(u8(b, o + 9));
+					}
+					break;
+				}
+
+				case JProtocol.IP6_ID: {
+					length = 40;
+					if (available < length) {
+						break;
+					}
+
+					final int plen = u16(b, o + 4);
+					if (plen != 0) { // 0 is a jumbogram
+						limit = Math.min(end, offset + 40 + plen);
+					}
+
+					int nh = u8(b, o + 6);
+					boolean first = true;
+
+					/* Extension headers are part of the Ip6 header */
+					while (offset + length + 8 <= limit) {
+						final int x = o + length;
+						if (nh == 0 || nh == 43 || nh == 60) {
+							nh = u8(b, x);
+							length += (u8(b, x + 1) + 1) * 8;
+
+						} else if (nh == 51) { // Authentication header
+							nh = u8(b, x);
+							length += (u8(b, x + 1) + 2) * 4;
+
+						} else if (nh == 44) { // Fragment header
+							flags |= JHeader.State.FLAG_HEADER_FRAGMENTED;
+							first = (u16(b, x + 2) & 0xFFF8) == 0;
+							nh = u8(b, x);
+							length += 8;
+
+						} else {
+							break;
+						}
+					}
+
+					if (first && offset + length <= limit) {
+						next = ipProtocol(nh);
+					}
+					break;
+				}
+
+				case JProtocol.TCP_ID:
+					length = 20;
+					if (available >= 13) {
+						length = (u8(b, o + 12) >> 4) * 4;
+						if (length < 20) {
+							length = -1;
+						}
+					}
+					break;
+
+				case JProtocol.UDP_ID: {
+					length = 8;
+					if (available >= length) {
+						final int ulen = u16(b, o + 4);
+						if (ulen >= length) {
+							limit = Math.min(end, offset + ulen);
+						}
+					}
+					break;
+				}
+
+				case JProtocol.ICMP_ID: {
+					length = 4;
+					final int type = u8(b, o);
+					if (type == 3 || type == 11 || type == 12) {
+						length = 8; // Error message, followed by original Ip4 header
+						next = JProtocol.IP4_ID;
+					}
+					break;
+				}
+
+				default:
+					length = -1; // Not a core protocol
+					break;
+			}
+
+			if (length == -1) {
+				break;
+			}
+
+			/* Header extends past the end of available data */
+			if (length > limit - offset) {
+				length = limit - offset;
+				flags |= JHeader.State.FLAG_HEADER_TRUNCATED;
+				next = JProtocol.PAYLOAD_ID;
+			}
+
+			final int index = state.addHeader(id, offset, length);
+			if (index == -1) {
+				break;
+			}
+
+			/* Data after a shorter payload is the postfix of the previous header */
+			if (limit < end && previous != -1) {
+				final int start = state.getHeaderOffsetByIndex(previous)
+						+ state.getHeaderLengthByIndex(previous);
+				state.setPayload(previous, limit - start, end - limit);
+			}
+
+			state.setPayload(index, limit - offset - length, 0);
+			if (truncated && limit == size) {
+				flags |= JHeader.State.FLAG_PAYLOAD_TRUNCATED;
+			}
+			state.setHeaderFlags(index, flags);
+
+			previous = index;
+			offset += length;
+			end = limit;
+			id = next;
+		}
+
+		if (offset < end) {
+			final int index =
+					state.addHeader(JProtocol.PAYLOAD_ID, offset, end - offset);
+			if (index != -1 && truncated && end == size) {
+				state.setHeaderFlags(index, JHeader.State.FLAG_PAYLOAD_TRUNCATED);
+			}
+		}
+
+		return end;
+	}
+
+	/**
+	 * Maps an ethernet type to a header ID.
+	 * 
+	 * @param type
+	 *          the type
+	 * @return the header ID
+	 */
+	private static int etherType(int type) {
+		switch (type) {
+			case ETHERTYPE_IP4:
+				return JProtocol.IP4_ID;
+
+			case ETHERTYPE_IP6:
+				return JProtocol.IP6_ID;
+
+			case ETHERTYPE_802DOT1Q:
+			case ETHERTYPE_802DOT1AD:
+				return JProtocol.IEEE_802DOT1Q_ID;
+
+			default:
+				return JProtocol.PAYLOAD_ID;
+		}
+	}
+
+	/**
+	 * Maps an ip protocol number to a header ID.
+	 * 
+	 * @param protocol
+	 *          the protocol
+	 * @return the header ID
+	 */
+	private static int ipProtocol(int protocol) {
+		switch (protocol) {
+			case 1:
+				return JProtocol.ICMP_ID;
+
+			case 4:
+				return JProtocol.IP4_ID;
+
+			case 6:
+				return JProtocol.TCP_ID;
+
+			case 17:
+				return JProtocol.UDP_ID;
+
+			case 41:
+				return JProtocol.IP6_ID;
+
+			default:
+				return JProtocol.PAYLOAD_ID;
+		}
+	}
+
+	/**
+	 * Reads an unsigned byte.
+	 * 
+	 * @param b
+	 *          the buffer
+	 * @param index
+	 *          the index
+	 * @return the value
+	 */
+	private static int u8(ByteBuffer b, int index) {
+		return b.get(index) & 0xFF;
+	}
+
+	/**
+	 * Reads an unsigned big endian short.
+	 * 
+	 * @param b
+	 *          the buffer
+	 * @param index
+	 *          the index
+	 * @return the value
+	 */
+	private static int u16(ByteBuffer b, int index) {
+		return ((b.get(index) & 0xFF) << 8) | (b.get(index + 1) & 0xFF);
+	}
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.util.Arrays;
+
+// TODO: Auto-generated Javadoc
+/**
+ * Pure java packet state, filled in by {@link JJavaScanner}. The state has the
+ * same layout as the native packet_state_t structure and its array of
+ * header_t structures, kept in java arrays instead of native memory, and the
+ * same accessors as {@link JPacket.State}. It can therefore be used on any JVM
+ * without the native jnetpcap library.
+ * 
+ * <pre>
+ * header_t:
+ *  hdr_id      numerical ID of the header, assigned by JRegistry
+ *  hdr_prefix  length of the prefix before the header
+ *  hdr_offset  offset into the packet buffer
+ *  hdr_length  length of the header
+ *  hdr_gap     length of the gap between the header and its payload
+ *  hdr_payload length of the payload
+ *  hdr_postfix length of the postfix after the payload
+ *  hdr_flags   JHeader.State.FLAG_* flags
+ * </pre>
+ * 
+ * <p>
+ * A state object is reused for every packet scanned into it. Its arrays are
+ * allocated once, sized to {@link JScanner#MAX_ENTRY_COUNT} headers.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class JScanState {
+
+	/** The frame number. */
+	private long frameNumber;
+
+	/** The flags. */
+	private int flags;
+
+	/** The wirelen. */
+	private int wirelen;
+
+	/** The bit map of headers present, one bit per header ID. */
+	private long headerMap;
+
+	/** The header count. */
+	private int headerCount;
+
+	/** Number of instances of each header ID. */
+	private final byte[] instanceCounts = new byte[JScanner.MAX_ID_COUNT];
+
+	/** The ids. */
+	private final int[] ids = new int[JScanner.MAX_ENTRY_COUNT];
+
+	/** The prefixes. */
+	private final int[] prefixes = new int[JScanner.MAX_ENTRY_COUNT];
+
+	/** The offsets. */
+	private final int[] offsets = new int[JScanner.MAX_ENTRY_COUNT];
+
+	/** The lengths. */
+	private final int[] lengths = new int[JScanner.MAX_ENTRY_COUNT];
+
+	/** The gaps. */
+	private final int[] gaps = new int[JScanner.MAX_ENTRY_COUNT];
+
+	/** The payloads. */
+	private final int[] payloads = new int[JScanner.MAX_ENTRY_COUNT];
+
+	/** The postfixes. */
+	private final int[] postfixes = new int[JScanner.MAX_ENTRY_COUNT];
+
+	/** The header flags. */
+	private final int[] headerFlags = new int[JScanner.MAX_ENTRY_COUNT];
+
+	/**
+	 * Clears the state before a new packet is scanned into it.
+	 * 
+	 * @param frameNumber
+	 *          the frame number
+	 * @param wirelen
+	 *          the wirelen
+	 */
+	void reset(long frameNumber, int wirelen) {
+		this.frameNumber = frameNumber;
+		this.wirelen = wirelen;
+		this.flags = 0;
+		this.headerMap = 0L;
+		this.headerCount = 0;
+
+		Arrays.fill(instanceCounts, (byte) 0);
+	}
+
+	/**
+	 * Records a new header.
+	 * 
+	 * @param id
+	 *          the id
+	 * @param offset
+	 *          the offset
+	 * @param length
+	 *          the length
+	 * @return index of the header or -1 if the state is full
+	 */
+	int addHeader(int id, int offset, int length) {
+		final int index = headerCount;
+		if (index == ids.length) {
+			return -1;
+		}
+
+		ids[index] = id;
+		prefixes[index] = 0;
+		offsets[index] = offset;
+		lengths[index] = length;
+		gaps[index] = 0;
+		payloads[index] = 0;
+		postfixes[index] = 0;
+		headerFlags[index] = 0;
+
+		headerMap |= (1L << id);
+		instanceCounts[id]++;
+		headerCount++;
+
+		return index;
+	}
+
+	/**
+	 * Sets the payload and postfix lengths of a header.
+	 * 
+	 * @param index
+	 *          the index
+	 * @param payload
+	 *          the payload
+	 * @param postfix
+	 *          the postfix
+	 */
+	void setPayload(int index, int payload, int postfix) {
+		payloads[index] = payload;
+		postfixes[index] = postfix;
+	}
+
+	/**
+	 * Sets flags of a header.
+	 * 
+	 * @param index
+	 *          the index
+	 * @param flags
+	 *          the flags to set
+	 */
+	void setHeaderFlags(int index, int flags) {
+		headerFlags[index] |= flags;
+	}
+
+	/**
+	 * Sets the packet flags.
+	 * 
+	 * @param flags
+	 *          the flags
+	 */
+	public void setFlags(int flags) {
+		this.flags = flags;
+	}
+
+	/**
+	 * Gets the packet flags.
+	 * 
+	 * @return the flags, such as {@link JPacket.State#FLAG_TRUNCATED}
+	 */
+	public int getFlags() {
+		return flags;
+	}
+
+	/**
+	 * Gets the frame number assigned by the scanner.
+	 * 
+	 * @return the frame number
+	 */
+	public long getFrameNumber() {
+		return frameNumber;
+	}
+
+	/**
+	 * Gets the original length of the packet.
+	 * 
+	 * @return the wirelen
+	 */
+	public int getWirelen() {
+		return wirelen;
+	}
+
+	/**
+	 * Sets the original length of the packet.
+	 * 
+	 * @param length
+	 *          the wirelen
+	 */
+	public void setWirelen(int length) {
+		this.wirelen = length;
+	}
+
+	/**
+	 * Gets the bitmap of headers present in the packet.
+	 * 
+	 * @param index
+	 *          index of the 64 bit map, only 0 is valid
+	 * @return the bitmap
+	 */
+	public long get64BitHeaderMap(int index) {
+		if (index != 0) {
+			throw new IndexOutOfBoundsException("Invalid map index " + index);
+		}
+
+		return headerMap;
+	}
+
+	/**
+	 * Checks if the header is present in the packet.
+	 * 
+	 * @param id
+	 *          the id
+	 * @return true, if the header is present
+	 */
+	public boolean hasHeader(int id) {
+		return id >= 0 && id < JScanner.MAX_ID_COUNT
+				&& (headerMap & (1L << id)) != 0;
+	}
+
+	/**
+	 * Gets the number of headers found.
+	 * 
+	 * @return the header count
+	 */
+	public int getHeaderCount() {
+		return headerCount;
+	}
+
+	/**
+	 * Gets the number of instances of a header.
+	 * 
+	 * @param id
+	 *          the id
+	 * @return the instance count
+	 */
+	public int getInstanceCount(int id) {
+		return instanceCounts[id] & 0xFF;
+	}
+
+	/**
+	 * Find header index.
+	 * 
+	 * @param id
+	 *          the id
+	 * @return index of the first instance of the header or -1 if not found
+	 */
+	public int findHeaderIndex(int id) {
+		return findHeaderIndex(id, 0);
+	}
+
+	/**
+	 * Find header index.
+	 * 
+	 * @param id
+	 *          the id
+	 * @param instance
+	 *          the instance
+	 * @return index of the header or -1 if not found
+	 */
+	public int findHeaderIndex(int id, int instance) {
+		if (hasHeader(id) == false) {
+			return -1;
+		}
+
+		for (int i = 0; i < headerCount; i++) {
+			if (ids[i] == id && instance-- == 0) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Checks the header index.
+	 * 
+	 * @param index
+	 *          the index
+	 */
+	private void check(int index) {
+		if (index < 0 || index >= headerCount) {
+			throw new IndexOutOfBoundsException("Invalid header index " + index
+					+ ", header count " + headerCount);
+		}
+	}
+
+	/**
+	 * Gets the header id by index.
+	 * 
+	 * @param index
+	 *          the index
+	 * @return the header id
+	 */
+	public int getHeaderIdByIndex(int index) {
+		check(index);
+		return ids[index];
+	}
+
+	/**
+	 * Gets the header offset by index.
+	 * 
+	 * @param index
+	 *          the index
+	 * @return offset of the header into the packet buffer
+	 */
+	public int getHeaderOffsetByIndex(int index) {
+		check(index);
+		return offsets[index];
+	}
+
+	/**
+	 * Gets the header length by index.
+	 * 
+	 * @param index
+	 *          the index
+	 * @return length of the header
+	 */
+	public int getHeaderLengthByIndex(int index) {
+		check(index);
+		return lengths[index];
+	}
+
+	/**
+	 * Gets the prefix length by index.
+	 * 
+	 * @param index
+	 *          the index
+	 * @return the prefix length
+	 */
+	public int getPrefixByIndex(int index) {
+		check(index);
+		return prefixes[index];
+	}
+
+	/**
+	 * Gets the gap length by index.
+	 * 
+	 * @param index
+	 *          the index
+	 * @return the gap length
+	 */
+	public int getGapByIndex(int index) {
+		check(index);
+		return gaps[index];
+	}
+
+	/**
+	 * Gets the payload length by index.
+	 * 
+	 * @param index
+	 *          the index
+	 * @return the payload length
+	 */
+	public int getPayloadByIndex(int index) {
+		check(index);
+		return payloads[index];
+	}
+
+	/**
+	 * Gets the postfix length by index.
+	 * 
+	 * @param index
+	 *          the index
+	 * @return the postfix length
+	 */
+	public int getPostfixByIndex(int index) {
+		check(index);
+		return postfixes[index];
+	}
+
+	/**
+	 * Gets the header flags by index.
+	 * 
+	 * @param index
+	 *          the index
+	 * @return the header flags, see JHeader.State.FLAG_* constants
+	 */
+	public int getHeaderFlagsByIndex(int index) {
+		check(index);
+		return headerFlags[index];
+	}
+
+	/**
+	 * Dumps the state in the same format as
+	 * {@link JPacket.State#toDebugString()}.
+	 * 
+	 * @return multiline string containing dump of the entire state
+	 */
+	public String toDebugString() {
+		final StringBuilder b = new StringBuilder();
+		b.append(String.format("pkt_header_map=0x%X%n", headerMap));
+		b.append(String.format("pkt_flags=0x%X%n", flags));
+		b.append(String.format("pkt_frame_num=%d%n", frameNumber));
+		b.append(String.format("pkt_wirelen=%d%n", wirelen));
+		b.append(String.format("pkt_header_count=%d%n", headerCount));
+
+		for (int i = 0; i < headerCount; i++) {
+			b.append(String.format("pkt_headers[%d]=<hdr_id=%-2d,hdr_prefix=%d"
+					+ ",hdr_offset=%-3d,hdr_length=%-3d,hdr_gap=%d,hdr_payload=%d"
+					+ ",hdr_postfix=%d,hdr_flags=0x%X>%n", i, ids[i], prefixes[i],
+					offsets[i], lengths[i], gaps[i], payloads[i], postfixes[i],
+					headerFlags[i]));
+		}
+
+		return b.toString();
+	}
+
+	/**
+	 * To string.
+	 * 
+	 * @return the string
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "JScanState[frame=" + frameNumber + ",headers=" + headerCount
+				+ ",map=0x" + Long.toHexString(headerMap) + "]";
+	}
+}
@@ -103,6 +103,10 @@ import org.jnetpcap.nio.JStruct;
  * scanner can be instantiated and configured differently from the default case
  * which uses the information in the global registry.
  * </p>
+ * <p>
+ * When the native library is not available, {@link JJavaScanner} decodes the
+ * core protocols in pure java into a {@link JScanState} of the same layout.
+ * </p>
  * 
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
@@ -757,7 +757,9 @@ public abstract class JFormatter {
 
 	/**
 	 * Performs an IP address resolution. This method is not dependent of the
-	 * boolean address resolution flags.
+	 * boolean address resolution flags. If the resolver is looking up the address
+	 * in the background, only the address is returned without waiting for the
+	 * lookup to complete.
 	 * 
 	 * @param address
 	 *          address to convert
@@ -770,7 +772,10 @@ public abstract class JFormatter {
 						: FormatUtils.asString(address, '.', 10).toUpperCase();
 		String name = ipResolver.resolve(address);
 
-		if (name == null) {
+		if (name == null && ipResolver.isCached(address) == false) {
+			return f; // Lookup still pending
+
+		} else if (name == null) {
 			return f + " (resolve failed)";
 
 		} else {
@@ -18,7 +18,6 @@
  */
 package org.jnetpcap.packet.structure;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
@@ -48,6 +47,9 @@ public class AnnotatedBindMethod
 	private final static Map<Class<?>, AnnotatedBindMethod[]> cache =
 	    new HashMap<Class<?>, AnnotatedBindMethod[]>();
 
+	/** Direct call accessor of the bind method. */
+	private final AnnotatedMethodAccessor accessor;
+
 	/**
 	 * Check signature.
 	 * 
@@ -314,6 +316,8 @@ public class AnnotatedBindMethod
 	private AnnotatedBindMethod(final Class<? extends JHeader> target,
 	    final Method method, final Object object) {
 		super(method, object);
+
+		this.accessor = AnnotatedMethodAccessor.newBindAccessor(method);
 	}
 
 	/**
@@ -327,6 +331,8 @@ public class AnnotatedBindMethod
 	private AnnotatedBindMethod(final Class<? extends JHeader> target,
 	    final Method method) {
 		super(method);
+
+		this.accessor = AnnotatedMethodAccessor.newBindAccessor(method);
 	}
 
 	/**
@@ -346,12 +352,8 @@ public class AnnotatedBindMethod
 	    final JHeader header) {
 
 		try {
-			return (Boolean) method.invoke(object, packet, header);
-		} catch (final IllegalArgumentException e) {
-			throw new IllegalStateException(e);
-		} catch (final IllegalAccessException e) {
-			throw new IllegalStateException(e);
-		} catch (final InvocationTargetException e) {
+			return accessor.isBound(object, packet, header);
+		} catch (final RuntimeException e) {
 			throw new AnnotatedMethodException(declaringClass, e);
 		}
 	}
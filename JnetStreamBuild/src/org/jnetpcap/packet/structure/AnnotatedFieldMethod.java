@@ -18,7 +18,6 @@
  */
 package org.jnetpcap.packet.structure;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.List;
@@ -138,17 +137,8 @@ public abstract class AnnotatedFieldMethod
 			}
 
 			try {
-				if (isMapped) {
-					return (boolean) (Boolean) method.invoke(header, name);
-				} else {
-					return (boolean) (Boolean) method.invoke(header);
-				}
-
-			} catch (IllegalArgumentException e) {
-				throw new IllegalStateException(e);
-			} catch (IllegalAccessException e) {
-				throw new IllegalStateException(e);
-			} catch (InvocationTargetException e) {
+				return accessor.booleanValue(header, name);
+			} catch (RuntimeException e) {
 				throw new AnnotatedMethodException(declaringClass, e);
 			}
 		}
@@ -273,17 +263,8 @@ public abstract class AnnotatedFieldMethod
 			}
 
 			try {
-				if (isMapped) {
-					return (int) (Integer) method.invoke(header, name);
-				} else {
-					return (int) (Integer) method.invoke(header);
-				}
-
-			} catch (IllegalArgumentException e) {
-				throw new IllegalStateException(e);
-			} catch (IllegalAccessException e) {
-				throw new IllegalStateException(e);
-			} catch (InvocationTargetException e) {
+				return accessor.intValue(header, name);
+			} catch (RuntimeException e) {
 				throw new AnnotatedMethodException(declaringClass, e);
 			}
 		}
@@ -423,17 +404,8 @@ public abstract class AnnotatedFieldMethod
 			}
 
 			try {
-				if (isMapped) {
-					return (long) (Long) method.invoke(header, name);
-				} else {
-					return (long) (Long) method.invoke(header);
-				}
-
-			} catch (IllegalArgumentException e) {
-				throw new IllegalStateException(e);
-			} catch (IllegalAccessException e) {
-				throw new IllegalStateException(e);
-			} catch (InvocationTargetException e) {
+				return accessor.longValue(header, name);
+			} catch (RuntimeException e) {
 				throw new AnnotatedMethodException(declaringClass, e);
 			}
 		}
@@ -545,17 +517,8 @@ public abstract class AnnotatedFieldMethod
 		public Object execute(JHeader header, String name) {
 
 			try {
-				if (isMapped) {
-					return method.invoke(header, name);
-				} else {
-					return method.invoke(header);
-				}
-
-			} catch (IllegalArgumentException e) {
-				throw new IllegalStateException(e);
-			} catch (IllegalAccessException e) {
-				throw new IllegalStateException(e);
-			} catch (InvocationTargetException e) {
+				return accessor.objectValue(header, name);
+			} catch (RuntimeException e) {
 				throw new AnnotatedMethodException(declaringClass, e.getMessage(), e);
 			}
 		}
@@ -682,17 +645,8 @@ public abstract class AnnotatedFieldMethod
 			}
 
 			try {
-				if (isMapped) {
-					return (String) method.invoke(header, name);
-				} else {
-					return (String) method.invoke(header);
-				}
-
-			} catch (IllegalArgumentException e) {
-				throw new IllegalStateException(e);
-			} catch (IllegalAccessException e) {
-				throw new IllegalStateException(e);
-			} catch (InvocationTargetException e) {
+				return (String) accessor.objectValue(header, name);
+			} catch (RuntimeException e) {
 				throw new AnnotatedMethodException(declaringClass, e);
 			}
 		}
@@ -908,6 +862,9 @@ public abstract class AnnotatedFieldMethod
 	/** The function. */
 	protected final Field.Property function;
 
+	/** Direct call accessor of the method, null if there is no method. */
+	protected final AnnotatedMethodAccessor accessor;
+
 	/**
 	 * Instantiates a new annotated field method.
 	 * 
@@ -919,6 +876,7 @@ public abstract class AnnotatedFieldMethod
 	public AnnotatedFieldMethod(AnnotatedField field, Field.Property function) {
 		super();
 		this.function = function;
+		this.accessor = null;
 
 		this.field = field.getName();
 	}
@@ -937,6 +895,7 @@ public abstract class AnnotatedFieldMethod
 	    Method method) {
 		super(method);
 		this.function = function;
+		this.accessor = AnnotatedMethodAccessor.newFieldAccessor(method);
 
 		this.field = field.getName();
 	}
@@ -952,6 +911,7 @@ public abstract class AnnotatedFieldMethod
 	public AnnotatedFieldMethod(Method method, Field.Property function) {
 		super(method);
 		this.function = function;
+		this.accessor = AnnotatedMethodAccessor.newFieldAccessor(method);
 
 		Dynamic runtime = method.getAnnotation(Dynamic.class);
 		if (runtime == null) {
@@ -0,0 +1,643 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet.structure;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jnetpcap.packet.JHeader;
+import org.jnetpcap.packet.JPacket;
+import org.jnetpcap.util.ClassFileWriter;
+import org.jnetpcap.util.ClassFileWriter.ByteVector;
+
+/**
+ * <p>
+ * Direct call accessor for an annotated method. Annotated binding and field
+ * methods are invoked for every packet that is scanned or formatted. Instead
+ * of going through <code>Method.invoke</code>, which boxes every argument and
+ * return value, a small subclass is generated once per method which calls the
+ * annotated method directly with primitive signatures.
+ * </p>
+ * <p>
+ * Generated classes can only call public methods of public classes, since
+ * they are defined in their own class loader. Methods which can not be called
+ * directly, such as those of anonymous binding classes, and platforms which do
+ * not support loading of generated classes use a reflection based accessor
+ * instead. The class files are written by {@link ClassFileWriter}. Exceptions thrown by the annotated method are passed through
+ * unwrapped by both kinds of accessors.
+ * </p>
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public abstract class AnnotatedMethodAccessor {
+
+	/**
+	 * Accessor which calls the annotated method using reflection.
+	 */
+	private static final class ReflectiveAccessor
+	    extends AnnotatedMethodAccessor {
+
+		/** The method. */
+		private final Method method;
+
+		/** The is mapped. */
+		private final boolean isMapped;
+
+		/**
+		 * Instantiates a new reflective accessor.
+		 *
+		 * @param method
+		 *          the method
+		 */
+		private ReflectiveAccessor(final Method method) {
+			this.method = method;
+			this.isMapped = method.getParameterTypes().length == 1;
+
+			try {
+				method.setAccessible(true);
+			} catch (final SecurityException e) {
+				// Only public methods of public classes can be called then
+			}
+		}
+
+		/**
+		 * Invoke.
+		 *
+		 * @param object
+		 *          the object
+		 * @param args
+		 *          the args
+		 * @return the return value
+		 */
+		private Object invoke(final Object object, final Object... args) {
+			try {
+				return method.invoke(object, args);
+
+			} catch (final IllegalAccessException e) {
+				throw new IllegalStateException(e);
+
+			} catch (final InvocationTargetException e) {
+				final Throwable cause = e.getCause();
+
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+
+				throw new UndeclaredThrowableException(cause);
+			}
+		}
+
+		/**
+		 * Invoke getter.
+		 *
+		 * @param header
+		 *          the header
+		 * @param name
+		 *          the name
+		 * @return the return value
+		 */
+		private Object get(final JHeader header, final String name) {
+			return (isMapped) ? invoke(header, name) : invoke(header);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.jnetpcap.packet.structure.AnnotatedMethodAccessor#isBound(java.lang.Object,
+		 *      org.jnetpcap.packet.JPacket, org.jnetpcap.packet.JHeader)
+		 */
+		@Override
+		public boolean isBound(final Object object, final JPacket packet,
+		    final JHeader header) {
+			return (Boolean) invoke(object, packet, header);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.jnetpcap.packet.structure.AnnotatedMethodAccessor#booleanValue(org.jnetpcap.packet.JHeader,
+		 *      java.lang.String)
+		 */
+		@Override
+		public boolean booleanValue(final JHeader header, final String name) {
+			return (Boolean) get(header, name);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.jnetpcap.packet.structure.AnnotatedMethodAccessor#intValue(org.jnetpcap.packet.JHeader,
+		 *      java.lang.String)
+		 */
+		@Override
+		public int intValue(final JHeader header, final String name) {
+			return (Integer) get(header, name);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.jnetpcap.packet.structure.AnnotatedMethodAccessor#longValue(org.jnetpcap.packet.JHeader,
+		 *      java.lang.String)
+		 */
+		@Override
+		public long longValue(final JHeader header, final String name) {
+			return (Long) get(header, name);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.jnetpcap.packet.structure.AnnotatedMethodAccessor#objectValue(org.jnetpcap.packet.JHeader,
+		 *      java.lang.String)
+		 */
+		@Override
+		public Object objectValue(final JHeader header, final String name) {
+			return get(header, name);
+		}
+	}
+
+	/** The Constant SUPER. */
+	private static final String SUPER =
+	    "org/jnetpcap/packet/structure/AnnotatedMethodAccessor";
+
+	/** The Constant PREFIX, internal name prefix of generated classes. */
+	private static final String PREFIX =
+	    "org/jnetpcap/packet/structure/AnnotatedMethodAccessor$";
+
+	/** The Constant BIND_DESC. */
+	private static final String BIND_DESC =
+	    "(Ljava/lang/Object;Lorg/jnetpcap/packet/JPacket;Lorg/jnetpcap/packet/JHeader;)Z";
+
+	/** The Constant GETTER_DESC, without the return type. */
+	private static final String GETTER_DESC =
+	    "(Lorg/jnetpcap/packet/JHeader;Ljava/lang/String;)";
+
+	/*
+	 * Java byte code opcodes used by the generator
+	 */
+	/** The Constant ALOAD_1. */
+	private static final int ALOAD_1 = 0x2b;
+
+	/** The Constant ALOAD_2. */
+	private static final int ALOAD_2 = 0x2c;
+
+	/** The Constant ALOAD_3. */
+	private static final int ALOAD_3 = 0x2d;
+
+	/** The Constant IRETURN. */
+	private static final int IRETURN = 0xac;
+
+	/** The Constant LRETURN. */
+	private static final int LRETURN = 0xad;
+
+	/** The Constant ARETURN. */
+	private static final int ARETURN = 0xb0;
+
+	/** The Constant INVOKEVIRTUAL. */
+	private static final int INVOKEVIRTUAL = 0xb6;
+
+	/** The Constant INVOKESTATIC. */
+	private static final int INVOKESTATIC = 0xb8;
+
+	/** The Constant INVOKEINTERFACE. */
+	private static final int INVOKEINTERFACE = 0xb9;
+
+	/** The Constant CHECKCAST. */
+	private static final int CHECKCAST = 0xc0;
+
+	/** The Constant PRIMITIVES, descriptors of the primitive types. */
+	private static final String PRIMITIVES = "ZBCSIJFDV";
+
+	/** The Constant PRIMITIVE_TYPES. */
+	private static final List<Class<?>> PRIMITIVE_TYPES =
+	    Arrays.<Class<?>> asList(boolean.class, byte.class, char.class,
+	        short.class, int.class, long.class, float.class, double.class,
+	        void.class);
+
+	/** The Constant WRAPPER_TYPES. */
+	private static final List<Class<?>> WRAPPER_TYPES =
+	    Arrays.<Class<?>> asList(Boolean.class, Byte.class, Character.class,
+	        Short.class, Integer.class, Long.class, Float.class, Double.class,
+	        Void.class);
+
+	/** The counter. */
+	private static int counter = 0;
+
+	/**
+	 * Creates an accessor for a binding method with the signature
+	 * <code>boolean name(JPacket, T extends JHeader)</code>, either static or
+	 * declared by a binding object.
+	 *
+	 * @param method
+	 *          the annotated bind method
+	 * @return the accessor
+	 */
+	public static AnnotatedMethodAccessor newBindAccessor(final Method method) {
+		final Class<?>[] sig = method.getParameterTypes();
+
+		if (method.getReturnType() != boolean.class || sig.length != 2
+		    || isAccessible(method, sig[1]) == false) {
+			return new ReflectiveAccessor(method);
+		}
+
+		final Class<?> c = method.getDeclaringClass();
+		final ClassFileWriter g = newWriter();
+		final ByteVector code = new ByteVector();
+		final int ref =
+		    g.methodRef(internal(c), method.getName(), descriptor(method), c
+		        .isInterface());
+		final boolean isStatic = (method.getModifiers() & Modifier.STATIC) != 0;
+
+		if (isStatic == false) {
+			code.u1(ALOAD_1).u1(CHECKCAST).u2(g.classRef(internal(c)));
+		}
+
+		code.u1(ALOAD_2).u1(ALOAD_3).u1(CHECKCAST).u2(
+		    g.classRef(internal(sig[1])));
+
+		invoke(code, c, isStatic, ref, 3);
+		code.u1(IRETURN);
+
+		g.method("isBound", BIND_DESC, 3, 4, code);
+
+		return define(g, method);
+	}
+
+	/**
+	 * Creates an accessor for a field function method with the signature
+	 * <code>R name()</code> or <code>R name(String)</code>. Methods returning
+	 * int, long or boolean are called using the matching primitive accessor
+	 * method, any return type can be retrieved using
+	 * {@link #objectValue(JHeader, String)}.
+	 *
+	 * @param method
+	 *          the annotated field method
+	 * @return the accessor
+	 */
+	public static AnnotatedMethodAccessor newFieldAccessor(final Method method) {
+		final Class<?>[] sig = method.getParameterTypes();
+		final Class<?> r = method.getReturnType();
+
+		if (r == void.class || sig.length > 1
+		    || (method.getModifiers() & Modifier.STATIC) != 0
+		    || isAccessible(method, null) == false) {
+			return new ReflectiveAccessor(method);
+		}
+
+		final ClassFileWriter g = newWriter();
+
+		if (r == int.class) {
+			getter(g, method, "intValue", "I", IRETURN, null);
+		} else if (r == long.class) {
+			getter(g, method, "longValue", "J", LRETURN, null);
+		} else if (r == boolean.class) {
+			getter(g, method, "booleanValue", "Z", IRETURN, null);
+		}
+
+		getter(g, method, "objectValue", "Ljava/lang/Object;", ARETURN, r
+		    .isPrimitive() ? box(r) : null);
+
+		return define(g, method);
+	}
+
+	/**
+	 * Generates a getter method.
+	 *
+	 * @param g
+	 *          the class file writer
+	 * @param method
+	 *          the annotated method to call
+	 * @param name
+	 *          name of the accessor method
+	 * @param returnDesc
+	 *          return type descriptor of the accessor method
+	 * @param returnOp
+	 *          return opcode
+	 * @param box
+	 *          wrapper class to box a primitive return value with or null
+	 */
+	private static void getter(final ClassFileWriter g, final Method method,
+	    final String name, final String returnDesc, final int returnOp,
+	    final Class<?> box) {
+		final Class<?> c = method.getDeclaringClass();
+		final ByteVector code = new ByteVector();
+		final int ref =
+		    g.methodRef(internal(c), method.getName(), descriptor(method), c
+		        .isInterface());
+		final boolean isMapped = method.getParameterTypes().length == 1;
+
+		code.u1(ALOAD_1).u1(CHECKCAST).u2(g.classRef(internal(c)));
+		if (isMapped) {
+			code.u1(ALOAD_2);
+		}
+
+		invoke(code, c, false, ref, (isMapped) ? 2 : 1);
+
+		if (box != null) {
+			final String desc =
+			    "(" + descriptor(method.getReturnType()) + ")L" + internal(box)
+			        + ";";
+			code.u1(INVOKESTATIC).u2(
+			    g.methodRef(internal(box), "valueOf", desc, false));
+		}
+
+		code.u1(returnOp);
+
+		g.method(name, GETTER_DESC + returnDesc, 3, 3, code);
+	}
+
+	/**
+	 * Emits the call instruction.
+	 *
+	 * @param code
+	 *          the code
+	 * @param c
+	 *          the declaring class
+	 * @param isStatic
+	 *          if the method is static
+	 * @param ref
+	 *          the method constant
+	 * @param args
+	 *          number of argument words including the object reference
+	 */
+	private static void invoke(final ByteVector code, final Class<?> c,
+	    final boolean isStatic, final int ref, final int args) {
+		if (isStatic) {
+			code.u1(INVOKESTATIC).u2(ref);
+		} else if (c.isInterface()) {
+			code.u1(INVOKEINTERFACE).u2(ref).u1(args).u1(0);
+		} else {
+			code.u1(INVOKEVIRTUAL).u2(ref);
+		}
+	}
+
+	/**
+	 * Creates a class file writer for a new accessor class.
+	 *
+	 * @return the class file writer
+	 */
+	private static ClassFileWriter newWriter() {
+		final String name;
+		synchronized (AnnotatedMethodAccessor.class) {
+			name = PREFIX + (counter++);
+		}
+
+		return new ClassFileWriter(name, SUPER);
+	}
+
+	/**
+	 * Loads the generated accessor, falls back to reflection if the platform
+	 * does not support generated classes. Classes are resolved through the
+	 * class loader of the annotated method's declaring class first, then through
+	 * the class loader of this package.
+	 *
+	 * @param g
+	 *          the class file writer
+	 * @param method
+	 *          the annotated method
+	 * @return the accessor
+	 */
+	private static AnnotatedMethodAccessor define(final ClassFileWriter g,
+	    final Method method) {
+
+		try {
+			final Class<?> c =
+			    g.define(method.getDeclaringClass().getClassLoader(),
+			        AnnotatedMethodAccessor.class.getClassLoader());
+
+			return (AnnotatedMethodAccessor) c.newInstance();
+
+		} catch (final Exception e) {
+			return new ReflectiveAccessor(method);
+
+		} catch (final LinkageError e) {
+			return new ReflectiveAccessor(method);
+		}
+	}
+
+	/**
+	 * Checks if a generated class can call the method directly.
+	 *
+	 * @param method
+	 *          the method
+	 * @param param
+	 *          parameter type that needs to be cast or null
+	 * @return true, if the method can be called from generated code
+	 */
+	private static boolean isAccessible(final Method method, final Class<?> param) {
+		if ((method.getModifiers() & Modifier.PUBLIC) == 0
+		    || isAscii(method.getName()) == false
+		    || isPublic(method.getDeclaringClass()) == false
+		    || (param != null && isPublic(param) == false)) {
+			return false;
+		}
+
+		for (final Class<?> c : method.getParameterTypes()) {
+			if (c.isPrimitive() == false && isAscii(c.getName()) == false) {
+				return false;
+			}
+		}
+
+		final Class<?> r = method.getReturnType();
+
+		return r.isPrimitive() || isAscii(r.getName());
+	}
+
+	/**
+	 * Checks if the class and all of its enclosing classes are public.
+	 *
+	 * @param c
+	 *          the c
+	 * @return true, if is public
+	 */
+	private static boolean isPublic(Class<?> c) {
+		while (c.isArray()) {
+			c = c.getComponentType();
+		}
+
+		for (; c != null; c = c.getDeclaringClass()) {
+			if ((c.getModifiers() & Modifier.PUBLIC) == 0 || c.isAnonymousClass()
+			    || c.isLocalClass()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks if the name is made up of ASCII characters only.
+	 *
+	 * @param s
+	 *          the s
+	 * @return true, if is ascii
+	 */
+	private static boolean isAscii(final String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) == 0 || s.charAt(i) > 0x7f) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Internal name.
+	 *
+	 * @param c
+	 *          the c
+	 * @return the internal name of the class
+	 */
+	private static String internal(final Class<?> c) {
+		return (c.isArray()) ? descriptor(c) : c.getName().replace('.', '/');
+	}
+
+	/**
+	 * Method descriptor.
+	 *
+	 * @param method
+	 *          the method
+	 * @return the method descriptor
+	 */
+	private static String descriptor(final Method method) {
+		final StringBuilder b = new StringBuilder("(");
+		for (final Class<?> c : method.getParameterTypes()) {
+			b.append(descriptor(c));
+		}
+
+		return b.append(')').append(descriptor(method.getReturnType()))
+		    .toString();
+	}
+
+	/**
+	 * Type descriptor.
+	 *
+	 * @param c
+	 *          the c
+	 * @return the type descriptor
+	 */
+	private static String descriptor(final Class<?> c) {
+		if (c.isArray()) {
+			return c.getName().replace('.', '/');
+		}
+
+		if (c.isPrimitive()) {
+			return String.valueOf(PRIMITIVES.charAt(PRIMITIVE_TYPES.indexOf(c)));
+		}
+
+		return "L" + c.getName().replace('.', '/') + ";";
+	}
+
+	/**
+	 * Wrapper class of a primitive type.
+	 *
+	 * @param c
+	 *          the primitive type
+	 * @return the wrapper class
+	 */
+	private static Class<?> box(final Class<?> c) {
+		return WRAPPER_TYPES.get(PRIMITIVE_TYPES.indexOf(c));
+	}
+
+	/**
+	 * Instantiates a new annotated method accessor.
+	 */
+	protected AnnotatedMethodAccessor() {
+		// Empty
+	}
+
+	/**
+	 * Calls a binding method.
+	 *
+	 * @param object
+	 *          the binding object or null for static methods
+	 * @param packet
+	 *          the packet
+	 * @param header
+	 *          the header
+	 * @return true, if is bound
+	 */
+	public boolean isBound(final Object object, final JPacket packet,
+	    final JHeader header) {
+		throw new UnsupportedOperationException("not a binding method");
+	}
+
+	/**
+	 * Calls a field method returning a boolean.
+	 *
+	 * @param header
+	 *          the header
+	 * @param name
+	 *          the field name, passed to mapped methods only
+	 * @return the value
+	 */
+	public boolean booleanValue(final JHeader header, final String name) {
+		throw new UnsupportedOperationException("return type is not boolean");
+	}
+
+	/**
+	 * Calls a field method returning an int.
+	 *
+	 * @param header
+	 *          the header
+	 * @param name
+	 *          the field name, passed to mapped methods only
+	 * @return the value
+	 */
+	public int intValue(final JHeader header, final String name) {
+		throw new UnsupportedOperationException("return type is not int");
+	}
+
+	/**
+	 * Calls a field method returning a long.
+	 *
+	 * @param header
+	 *          the header
+	 * @param name
+	 *          the field name, passed to mapped methods only
+	 * @return the value
+	 */
+	public long longValue(final JHeader header, final String name) {
+		throw new UnsupportedOperationException("return type is not long");
+	}
+
+	/**
+	 * Calls a field method, boxing a primitive return value.
+	 *
+	 * @param header
+	 *          the header
+	 * @param name
+	 *          the field name, passed to mapped methods only
+	 * @return the value
+	 */
+	public Object objectValue(final JHeader header, final String name) {
+		throw new UnsupportedOperationException("not a field method");
+	}
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Writes the class file of a small generated class and defines it in its own
+ * class loader. The class is a public final subclass of a given super class,
+ * with a public no argument constructor that calls the super class's
+ * constructor, and methods whose byte code is supplied by the caller. The
+ * class file is written in the Java 5 format, so that no stack map frames are
+ * required.
+ * </p>
+ * <p>
+ * Constant pool entries are shared, asking for the same constant twice returns
+ * the same index. Only names made up of ASCII characters are supported.
+ * </p>
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public final class ClassFileWriter {
+
+	/**
+	 * Growable byte array used to build the class file and method byte code.
+	 */
+	public static final class ByteVector {
+
+		/** The data. */
+		private byte[] data = new byte[256];
+
+		/** The length. */
+		private int length;
+
+		/**
+		 * Ensure capacity.
+		 *
+		 * @param n
+		 *          number of bytes to be added
+		 */
+		private void ensure(final int n) {
+			if (length + n > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, length + n));
+			}
+		}
+
+		/**
+		 * Number of bytes written so far.
+		 *
+		 * @return the length
+		 */
+		public int length() {
+			return length;
+		}
+
+		/**
+		 * Appends an unsigned byte.
+		 *
+		 * @param v
+		 *          the value
+		 * @return this byte vector
+		 */
+		public ByteVector u1(final int v) {
+			ensure(1);
+			data[length++] = (byte) v;
+
+			return this;
+		}
+
+		/**
+		 * Appends an unsigned 16 bit value in big endian order.
+		 *
+		 * @param v
+		 *          the value
+		 * @return this byte vector
+		 */
+		public ByteVector u2(final int v) {
+			return u1(v >>> 8).u1(v);
+		}
+
+		/**
+		 * Appends a 32 bit value in big endian order.
+		 *
+		 * @param v
+		 *          the value
+		 * @return this byte vector
+		 */
+		public ByteVector u4(final int v) {
+			return u2(v >>> 16).u2(v);
+		}
+
+		/**
+		 * Appends a 64 bit value in big endian order.
+		 *
+		 * @param v
+		 *          the value
+		 * @return this byte vector
+		 */
+		public ByteVector u8(final long v) {
+			return u4((int) (v >>> 32)).u4((int) v);
+		}
+
+		/**
+		 * Appends the contents of another byte vector.
+		 *
+		 * @param b
+		 *          the byte vector to append
+		 * @return this byte vector
+		 */
+		public ByteVector put(final ByteVector b) {
+			ensure(b.length);
+			System.arraycopy(b.data, 0, data, length, b.length);
+			length += b.length;
+
+			return this;
+		}
+
+		/**
+		 * Overwrites an unsigned 16 bit value already written, such as a branch
+		 * offset that was not known when the branch was written.
+		 *
+		 * @param index
+		 *          offset of the value
+		 * @param v
+		 *          the value
+		 */
+		public void set2(final int index, final int v) {
+			data[index] = (byte) (v >>> 8);
+			data[index + 1] = (byte) v;
+		}
+	}
+
+	/**
+	 * Defines a single generated class. Classes are resolved through the parent
+	 * class loader first, then through the fallback class loader if there is
+	 * one.
+	 */
+	private static class Loader
+	    extends ClassLoader {
+
+		/** The fallback class loader or null. */
+		private final ClassLoader fallback;
+
+		/**
+		 * Instantiates a new loader.
+		 *
+		 * @param parent
+		 *          the parent class loader
+		 * @param fallback
+		 *          class loader used for classes the parent can not load, or null
+		 */
+		private Loader(final ClassLoader parent, final ClassLoader fallback) {
+			super(parent);
+			this.fallback = fallback;
+		}
+
+		/**
+		 * Define.
+		 *
+		 * @param name
+		 *          the binary name of the class
+		 * @param b
+		 *          the class file
+		 * @return the class
+		 */
+		private Class<?> define(final String name, final byte[] b) {
+			return defineClass(name, b, 0, b.length);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.ClassLoader#findClass(java.lang.String)
+		 */
+		@Override
+		protected Class<?> findClass(final String name)
+		    throws ClassNotFoundException {
+			if (fallback == null) {
+				return super.findClass(name);
+			}
+
+			return fallback.loadClass(name);
+		}
+	}
+
+	/** The Constant ALOAD_0. */
+	private static final int ALOAD_0 = 0x2a;
+
+	/** The Constant RETURN. */
+	private static final int RETURN = 0xb1;
+
+	/** The Constant INVOKESPECIAL. */
+	private static final int INVOKESPECIAL = 0xb7;
+
+	/** Internal name of the generated class. */
+	private final String name;
+
+	/** Internal name of the super class. */
+	private final String superName;
+
+	/** The constant pool. */
+	private final ByteVector pool = new ByteVector();
+
+	/** The pool count. */
+	private int poolCount = 1;
+
+	/** The constants already in the pool. */
+	private final Map<String, Integer> constants =
+	    new HashMap<String, Integer>();
+
+	/** The generated methods. */
+	private final ByteVector methods = new ByteVector();
+
+	/** The method count. */
+	private int methodCount = 0;
+
+	/** The code attribute name. */
+	private final int codeName;
+
+	/**
+	 * Instantiates a new class file writer.
+	 *
+	 * @param name
+	 *          internal name of the generated class, such as
+	 *          <code>org/jnetpcap/Generated$1</code>
+	 * @param superName
+	 *          internal name of the super class
+	 */
+	public ClassFileWriter(final String name, final String superName) {
+		this.name = name;
+		this.superName = superName;
+		this.codeName = utf8("Code");
+	}
+
+	/**
+	 * Adds a public method to the class.
+	 *
+	 * @param method
+	 *          method name
+	 * @param desc
+	 *          method descriptor
+	 * @param maxStack
+	 *          the max stack
+	 * @param maxLocals
+	 *          the max locals
+	 * @param code
+	 *          byte code of the method
+	 */
+	public void method(final String method, final String desc,
+	    final int maxStack, final int maxLocals, final ByteVector code) {
+		methods.u2(0x0001).u2(utf8(method)).u2(utf8(desc)).u2(1);
+		methods.u2(codeName).u4(12 + code.length).u2(maxStack).u2(maxLocals)
+		    .u4(code.length);
+		methods.put(code);
+		methods.u2(0).u2(0); // exception table and code attributes
+
+		methodCount++;
+	}
+
+	/**
+	 * Writes the class file, adding the constructor.
+	 *
+	 * @return the class file
+	 */
+	public byte[] toByteArray() {
+		final int thisClass = classRef(name);
+		final int superClass = classRef(superName);
+
+		final ByteVector init = new ByteVector();
+		init.u1(ALOAD_0).u1(INVOKESPECIAL).u2(
+		    methodRef(superName, "<init>", "()V", false)).u1(RETURN);
+		method("<init>", "()V", 1, 1, init);
+
+		final ByteVector c = new ByteVector();
+		c.u4(0xCAFEBABE).u2(0).u2(49); // Java 5 format, no stack map frames
+		c.u2(poolCount).put(pool);
+		c.u2(0x0031); // public final super
+		c.u2(thisClass).u2(superClass);
+		c.u2(0); // interfaces
+		c.u2(0); // fields
+		c.u2(methodCount).put(methods);
+		c.u2(0); // class attributes
+
+		return Arrays.copyOf(c.data, c.length);
+	}
+
+	/**
+	 * Writes the class file and defines the class in a new class loader.
+	 *
+	 * @param parent
+	 *          the parent class loader
+	 * @param fallback
+	 *          class loader used for classes the parent can not load, or null
+	 * @return the class
+	 * @throws UnsupportedOperationException
+	 *           if the platform does not support loading of generated classes
+	 * @throws LinkageError
+	 *           if the class file is rejected
+	 */
+	public Class<?> define(final ClassLoader parent, final ClassLoader fallback) {
+		return new Loader(parent, fallback).define(name.replace('/', '.'),
+		    toByteArray());
+	}
+
+	/**
+	 * Utf8 constant.
+	 *
+	 * @param s
+	 *          the string
+	 * @return the constant pool index
+	 */
+	public int utf8(final String s) {
+		final Integer i = constants.get("U" + s);
+		if (i != null) {
+			return i;
+		}
+
+		pool.u1(1).u2(s.length());
+		for (int c = 0; c < s.length(); c++) {
+			pool.u1(s.charAt(c)); // Only ASCII names are accepted
+		}
+
+		return add("U" + s, 1);
+	}
+
+	/**
+	 * Class constant.
+	 *
+	 * @param internal
+	 *          internal name of the class
+	 * @return the constant pool index
+	 */
+	public int classRef(final String internal) {
+		final Integer i = constants.get("C" + internal);
+		if (i != null) {
+			return i;
+		}
+
+		final int n = utf8(internal);
+		pool.u1(7).u2(n);
+
+		return add("C" + internal, 1);
+	}
+
+	/**
+	 * Method constant.
+	 *
+	 * @param owner
+	 *          internal name of the declaring class
+	 * @param method
+	 *          the method name
+	 * @param desc
+	 *          the method descriptor
+	 * @param isInterface
+	 *          true if the owner is an interface
+	 * @return the constant pool index
+	 */
+	public int methodRef(final String owner, final String method,
+	    final String desc, final boolean isInterface) {
+		final String key = "M" + owner + "." + method + desc;
+		final Integer i = constants.get(key);
+		if (i != null) {
+			return i;
+		}
+
+		final int c = classRef(owner);
+		final int n = utf8(method);
+		final int d = utf8(desc);
+		pool.u1(12).u2(n).u2(d);
+		final int nt = add("N" + key, 1);
+
+		pool.u1(isInterface ? 11 : 10).u2(c).u2(nt);
+
+		return add(key, 1);
+	}
+
+	/**
+	 * Integer constant.
+	 *
+	 * @param v
+	 *          the value
+	 * @return the constant pool index
+	 */
+	public int intConst(final int v) {
+		final Integer i = constants.get("I" + v);
+		if (i != null) {
+			return i;
+		}
+
+		pool.u1(3).u4(v);
+
+		return add("I" + v, 1);
+	}
+
+	/**
+	 * Long constant.
+	 *
+	 * @param v
+	 *          the value
+	 * @return the constant pool index
+	 */
+	public int longConst(final long v) {
+		final Integer i = constants.get("J" + v);
+		if (i != null) {
+			return i;
+		}
+
+		pool.u1(5).u8(v);
+
+		return add("J" + v, 2); // Longs take up 2 pool entries
+	}
+
+	/**
+	 * Adds the constant.
+	 *
+	 * @param key
+	 *          the key
+	 * @param size
+	 *          number of pool entries the constant takes up
+	 * @return the constant pool index
+	 */
+	private int add(final String key, final int size) {
+		final int index = poolCount;
+		constants.put(key, index);
+		poolCount += size;
+
+		return index;
+	}
+}
@@ -26,6 +26,15 @@ package org.jnetpcap.util;
  * @author Sly Technologies, Inc.
  */
 public interface Timeout extends Comparable<Timeout> {
+
+	/**
+	 * Gets the time at which this entry times out. Used by TimeoutQueue to
+	 * schedule the entry, the entry is timed out once the time reaches this
+	 * value and {@link #isTimedout(long)} returns true.
+	 * 
+	 * @return the timeout time in millis
+	 */
+	public long getTimeoutInMillis();
 	
 	/**
 	 * Checks if is timedout.
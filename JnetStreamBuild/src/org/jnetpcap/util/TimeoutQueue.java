@@ -4,8 +4,8 @@
  * This file is part of jNetPcap.
  *
  * jNetPcap is free software: you can redistribute it and/or modify
- * it under the terms of the GNU Lesser General Public License as 
- * published by the Free Software Foundation, either version 3 of 
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
  * the License, or (at your option) any later version.
  *
  * This program is distributed in the hope that it will be useful,
@@ -18,20 +18,82 @@
  */
 package org.jnetpcap.util;
 
-import java.util.Iterator;
-import java.util.PriorityQueue;
-import java.util.Queue;
+import java.util.HashMap;
+import java.util.Map;
 
 
 // TODO: Auto-generated Javadoc
 /**
  * The Class TimeoutQueue.
- * 
+ * <p>
+ * The queue is a hashed hierarchical timing wheel. Time is divided into ticks
+ * of a fixed resolution and each entry is placed in a slot of one of 4 wheels
+ * of 256 slots, depending on how far in the future it times out. The first
+ * wheel has a slot per tick, each slot of the next wheel covers all of the
+ * slots of the previous wheel. As time advances, the slots of the higher
+ * wheels are cascaded down into the lower wheels. Adding and removing an
+ * entry is O(1) and expiring entries is amortized O(1) per entry, empty
+ * slots are skipped using a bitmap of occupied slots.
+ * </p>
+ * <p>
+ * The queue has no clock of its own. Time is advanced by calls to
+ * {@link #timeout(long)}, typically with timestamps of captured packets.
+ * </p>
+ *
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
  */
 public class TimeoutQueue {
 
+	/**
+	 * A scheduled entry, linked into its slot.
+	 */
+	private static class Node {
+
+		/** The entry. */
+		private final Timeout entry;
+
+		/** The tick at which the entry times out. */
+		private long tick;
+
+		/** The slot, or -1 if not linked. */
+		private int slot = -1;
+
+		/** The prev. */
+		private Node prev;
+
+		/** The next. */
+		private Node next;
+
+		/**
+		 * Instantiates a new node.
+		 *
+		 * @param entry
+		 *          the entry
+		 */
+		private Node(Timeout entry) {
+			this.entry = entry;
+		}
+	}
+
+	/** Number of bits of the tick used to index a wheel. */
+	private static final int BITS = 8;
+
+	/** Number of slots in each wheel. */
+	private static final int SLOTS = 1 << BITS;
+
+	/** The Constant MASK. */
+	private static final int MASK = SLOTS - 1;
+
+	/** Number of wheels. */
+	private static final int WHEELS = 4;
+
+	/**
+	 * Extra slot, after all of the wheel slots, holding entries that are
+	 * already due or were added before the first call to timeout(long).
+	 */
+	private static final int DUE = WHEELS * SLOTS;
+
 	/**
 	 * This queue contains various analysis objects that are time constrained.
 	 * Such as IP fragmentation. If all the fragments don't arrive within a
@@ -41,35 +103,92 @@ public class TimeoutQueue {
 	 * current processing time (which is different from current system clock as we
 	 * might be reading from a file using saved timestamps.
 	 */
-	private Queue<Timeout> timeoutQueue = new PriorityQueue<Timeout>();
+	private final Map<Timeout, Node> entries = new HashMap<Timeout, Node>();
+
+	/** Slot lists of all the wheels, followed by the due list. */
+	private final Node[] slots = new Node[DUE + 1];
+
+	/** Bitmap of non empty slots. */
+	private final long[] occupied = new long[DUE / 64];
+
+	/** The tick resolution in millis. */
+	private final long resolution;
+
+	/** The last tick that was processed. */
+	private long now;
+
+	/** Set after the first call to timeout(long). */
+	private boolean started = false;
 
 	/**
-	 * Timeout.
-	 * 
+	 * Instantiates a new timeout queue with a 1 millisecond resolution.
+	 */
+	public TimeoutQueue() {
+		this(1);
+	}
+
+	/**
+	 * Instantiates a new timeout queue. Entries time out at most one tick
+	 * after their timeout time and are timed out in tick order. A coarser
+	 * resolution means fewer ticks to process for the same amount of time.
+	 *
+	 * @param resolutionInMillis
+	 *          length of a tick in millis
+	 */
+	public TimeoutQueue(long resolutionInMillis) {
+		if (resolutionInMillis <= 0) {
+			throw new IllegalArgumentException("Invalid resolution "
+			    + resolutionInMillis);
+		}
+
+		this.resolution = resolutionInMillis;
+	}
+
+	/**
+	 * Advances the time and times out all entries whose timeout time has been
+	 * reached.
+	 *
 	 * @param timeInMillis
 	 *          the time in millis
 	 */
 	public void timeout(long timeInMillis) {
-		if (timeoutQueue.isEmpty()
-		    || timeoutQueue.peek().isTimedout(timeInMillis) == false) {
-			return;
+		final long target = tick(timeInMillis);
+
+		if (started == false) {
+			started = true;
+			now = target;
 		}
 
-		for (Iterator<Timeout> i = timeoutQueue.iterator(); i.hasNext();) {
-			Timeout entry = i.next();
-			if (entry.isTimedout(timeInMillis)) {
-				i.remove();
-				entry.timeout();
+		expireDue(timeInMillis);
 
-			} else {
+		while (now < target) {
+			if (entries.isEmpty()) {
+				now = target;
 				break;
 			}
+
+			/*
+			 * Skip ahead to the tick just before the next tick with either an occupied
+			 * slot of the first wheel or an occupied slot to cascade
+			 */
+			now = Math.min(nextTick() - 1, target);
+			if (now == target) {
+				break;
+			}
+
+			now++;
+
+			if ((now & MASK) == 0) {
+				cascade();
+			}
+
+			expireSlot((int) now & MASK, timeInMillis);
 		}
 	}
 
 	/**
 	 * Timeout.
-	 * 
+	 *
 	 * @param entry
 	 *          the entry
 	 * @return true, if successful
@@ -82,33 +201,283 @@ public class TimeoutQueue {
 
 	/**
 	 * Checks if is empty.
-	 * 
+	 *
 	 * @return true, if is empty
 	 */
 	public boolean isEmpty() {
-		return timeoutQueue.isEmpty();
+		return entries.isEmpty();
+	}
+
+	/**
+	 * Number of entries waiting to time out.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return entries.size();
 	}
 
 	/**
-	 * Adds the.
-	 * 
+	 * Adds the entry, scheduled using its {@link Timeout#getTimeoutInMillis()}
+	 * time. Adding an entry that is already in the queue reschedules it.
+	 *
 	 * @param o
 	 *          the o
 	 * @return true, if successful
 	 */
 	public boolean add(Timeout o) {
-		return this.timeoutQueue.add(o);
+		Node node = entries.get(o);
+		if (node == null) {
+			node = new Node(o);
+			entries.put(o, node);
+		} else {
+			unlink(node);
+		}
+
+		node.tick = tick(o.getTimeoutInMillis());
+
+		if (started == false || node.tick <= now) {
+			link(node, DUE);
+		} else {
+			schedule(node);
+		}
+
+		return true;
 	}
 
 	/**
 	 * Removes the.
-	 * 
+	 *
 	 * @param o
 	 *          the o
 	 * @return true, if successful
 	 */
 	public boolean remove(Timeout o) {
-		return this.timeoutQueue.remove(o);
+		final Node node = entries.remove(o);
+		if (node == null) {
+			return false;
+		}
+
+		unlink(node);
+
+		return true;
+	}
+
+	/**
+	 * Converts a time to a tick.
+	 *
+	 * @param timeInMillis
+	 *          the time in millis
+	 * @return the tick
+	 */
+	private long tick(long timeInMillis) {
+		return timeInMillis / resolution;
+	}
+
+	/**
+	 * Places the node in the wheel that covers its tick. Ticks beyond the reach
+	 * of the last wheel are placed in its furthest slot and rescheduled when that
+	 * slot is cascaded.
+	 *
+	 * @param node
+	 *          the node, whose tick must be at or after the current tick
+	 */
+	private void schedule(Node node) {
+		final long delta = node.tick - now;
+
+		for (int wheel = 0; wheel < WHEELS; wheel++) {
+			if (delta < (1L << (BITS * (wheel + 1)))) {
+				final int index = (int) (node.tick >>> (BITS * wheel)) & MASK;
+				link(node, wheel * SLOTS + index);
+				return;
+			}
+		}
+
+		final int last = WHEELS - 1;
+		final int index = (int) ((now >>> (BITS * last)) + MASK) & MASK;
+		link(node, last * SLOTS + index);
+	}
+
+	/**
+	 * Moves the entries of the current slot of each higher wheel down into the
+	 * lower wheels. A wheel is only cascaded when all the wheels below it have
+	 * completed a rotation.
+	 */
+	private void cascade() {
+		for (int wheel = 1; wheel < WHEELS; wheel++) {
+			final int index = (int) (now >>> (BITS * wheel)) & MASK;
+			final int slot = wheel * SLOTS + index;
+
+			Node node;
+			while ((node = slots[slot]) != null) {
+				unlink(node);
+				schedule(node);
+			}
+
+			if (index != 0) {
+				break;
+			}
+		}
 	}
 
+	/**
+	 * Times out all the entries in a slot of the first wheel.
+	 *
+	 * @param slot
+	 *          the slot
+	 * @param timeInMillis
+	 *          the time in millis
+	 */
+	private void expireSlot(int slot, long timeInMillis) {
+		Node node;
+		while ((node = slots[slot]) != null) {
+			unlink(node);
+			expire(node, timeInMillis);
+		}
+	}
+
+	/**
+	 * Times out all the entries on the due list.
+	 *
+	 * @param timeInMillis
+	 *          the time in millis
+	 */
+	private void expireDue(long timeInMillis) {
+		Node node;
+		while ((node = slots[DUE]) != null) {
+			unlink(node);
+
+			if (node.tick > now) {
+				schedule(node); // Added before the queue was started
+			} else {
+				expire(node, timeInMillis);
+			}
+		}
+	}
+
+	/**
+	 * Times out the entry, if the entry itself agrees that it has timed out.
+	 * Otherwise it is retried on the next tick.
+	 *
+	 * @param node
+	 *          an unlinked node
+	 * @param timeInMillis
+	 *          the time in millis
+	 */
+	private void expire(Node node, long timeInMillis) {
+		if (node.entry.isTimedout(timeInMillis) == false) {
+			node.tick = now + 1;
+			schedule(node);
+			return;
+		}
+
+		entries.remove(node.entry);
+		node.entry.timeout();
+	}
+
+	/**
+	 * Finds the next tick at which an occupied slot of the first wheel expires
+	 * or an occupied slot of one of the higher wheels is cascaded.
+	 *
+	 * @return the tick, always after the current tick
+	 */
+	private long nextTick() {
+		long next = Long.MAX_VALUE;
+
+		for (int wheel = 0; wheel < WHEELS; wheel++) {
+			final int shift = BITS * wheel;
+			final int distance = nextOccupied(wheel, (int) (now >>> shift) & MASK);
+
+			if (distance != -1) {
+				final long tick = (wheel == 0) ? now + distance
+				    : ((now >>> shift) + distance) << shift;
+
+				next = Math.min(next, tick);
+			}
+		}
+
+		return next;
+	}
+
+	/**
+	 * Finds the next occupied slot of a wheel, wrapping around the end of the
+	 * wheel.
+	 *
+	 * @param wheel
+	 *          the wheel
+	 * @param index
+	 *          the current slot, the search starts after it
+	 * @return number of slots from the current slot to the occupied slot, or -1
+	 *         if all of the slots are empty
+	 */
+	private int nextOccupied(int wheel, int index) {
+		final int base = wheel * SLOTS;
+
+		for (int i = index + 1, end = index + 1 + SLOTS; i < end;) {
+			final int slot = base + (i & MASK);
+			final long bits = occupied[slot >>> 6] >>> (slot & 63);
+			if (bits != 0) {
+				return i + Long.numberOfTrailingZeros(bits) - index;
+			}
+
+			i += 64 - (slot & 63);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Links the node at the head of a slot.
+	 *
+	 * @param node
+	 *          the node
+	 * @param slot
+	 *          the slot
+	 */
+	private void link(Node node, int slot) {
+		final Node head = slots[slot];
+
+		node.slot = slot;
+		node.prev = null;
+		node.next = head;
+		if (head != null) {
+			head.prev = node;
+		}
+		slots[slot] = node;
+
+		if (slot < DUE) {
+			occupied[slot >>> 6] |= 1L << slot;
+		}
+	}
+
+	/**
+	 * Unlinks the node from its slot.
+	 *
+	 * @param node
+	 *          the node
+	 */
+	private void unlink(Node node) {
+		final int slot = node.slot;
+		if (slot == -1) {
+			return;
+		}
+
+		if (node.prev == null) {
+			slots[slot] = node.next;
+		} else {
+			node.prev.next = node.next;
+		}
+
+		if (node.next != null) {
+			node.next.prev = node.prev;
+		}
+
+		if (slots[slot] == null && slot < DUE) {
+			occupied[slot >>> 6] &= ~(1L << slot);
+		}
+
+		node.prev = null;
+		node.next = null;
+		node.slot = -1;
+	}
 }
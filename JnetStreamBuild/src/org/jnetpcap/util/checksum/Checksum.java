@@ -24,6 +24,10 @@ import org.jnetpcap.nio.JBuffer;
 /**
  * Main base and utility class that provides native methods for calculating
  * various CRC on buffers.
+ * <p>
+ * Pure java implementations, which do not require the native library, are
+ * provided by {@link JavaChecksum}.
+ * </p>
  * 
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
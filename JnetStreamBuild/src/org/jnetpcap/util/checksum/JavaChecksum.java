@@ -0,0 +1,799 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util.checksum;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.jnetpcap.nio.JBuffer;
+
+// TODO: Auto-generated Javadoc
+/**
+ * Pure java implementations of the checksums and CRCs provided natively by
+ * {@link Checksum}, with the same results. The methods that take a ByteBuffer
+ * do not require the native jnetpcap library. All offsets are absolute indexes
+ * into the buffer, the buffer's position, limit and byte order are ignored and
+ * never changed.
+ * <p>
+ * The internet checksum is summed 8 bytes at a time using long arithmetic,
+ * relying on the one's complement sum being independent of byte order. The
+ * CRCs are table driven, using slicing-by-8 tables which process 8 bytes per
+ * step. Methods that take a JBuffer first copy the data into a thread local
+ * java buffer using a single native copy.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class JavaChecksum {
+
+	/**
+	 * A reflected CRC of up to 32 bits, computed using slicing-by-8 tables.
+	 */
+	private static final class Crc {
+
+		/** Tables for each of the 8 byte positions, table[0] is the classic one. */
+		private final int[][] table = new int[8][256];
+
+		/**
+		 * Builds the tables for a reflected polynomial.
+		 * 
+		 * @param poly
+		 *          the reflected polynomial
+		 */
+		private Crc(int poly) {
+			for (int i = 0; i < 256; i++) {
+				int c = i;
+				for (int k = 0; k < 8; k++) {
+					c = ((c & 1) != 0) ? (c >>> 1) ^ poly : (c >>> 1);
+				}
+				table[0][i] = c;
+			}
+
+			for (int i = 0; i < 256; i++) {
+				for (int k = 1; k < 8; k++) {
+					final int c = table[k - 1][i];
+					table[k][i] = (c >>> 8) ^ table[0][c & 0xFF];
+				}
+			}
+		}
+
+		/**
+		 * Updates the CRC register with data from the buffer.
+		 * 
+		 * @param crc
+		 *          the current register
+		 * @param b
+		 *          the buffer
+		 * @param offset
+		 *          the offset
+		 * @param length
+		 *          the length
+		 * @return the new register
+		 */
+		private int update(int crc, ByteBuffer b, int offset, int length) {
+			final int[] t0 = table[0], t1 = table[1], t2 = table[2], t3 = table[3];
+			final int[] t4 = table[4], t5 = table[5], t6 = table[6], t7 = table[7];
+			final boolean big = b.order() == ByteOrder.BIG_ENDIAN;
+			final int end = offset + length;
+
+			int i = offset;
+			for (; i + 8 <= end; i += 8) {
+				long w = b.getLong(i);
+				if (big) {
+					w = Long.reverseBytes(w); // First byte in the low bits
+				}
+
+				w ^= crc & 0xFFFFFFFFL;
+
+				crc = t7[(int) w & 0xFF] ^ t6[(int) (w >>> 8) & 0xFF]
+						^ t5[(int) (w >>> 16) & 0xFF] ^ t4[(int) (w >>> 24) & 0xFF]
+						^ t3[(int) (w >>> 32) & 0xFF] ^ t2[(int) (w >>> 40) & 0xFF]
+						^ t1[(int) (w >>> 48) & 0xFF] ^ t0[(int) (w >>> 56)];
+			}
+
+			for (; i < end; i++) {
+				crc = (crc >>> 8) ^ t0[(crc ^ b.get(i)) & 0xFF];
+			}
+
+			return crc;
+		}
+	}
+
+	/** CRC32 as used by IEEE 802 and CCITT. */
+	private static final Crc CRC32 = new Crc(0xEDB88320);
+
+	/** CRC32C, Castagnoli. */
+	private static final Crc CRC32C = new Crc(0x82F63B78);
+
+	/** CRC16 CCITT, reflected as used by X.25 and HDLC. */
+	private static final Crc CRC16 = new Crc(0x8408);
+
+	/** Ip protocol number of Tcp. */
+	private static final int PROTOCOL_TCP = 6;
+
+	/** Ip protocol number of Udp. */
+	private static final int PROTOCOL_UDP = 17;
+
+	/** Ip6 next header number of Icmp6. */
+	private static final int PROTOCOL_ICMP6 = 58;
+
+	/** Java copies of JBuffer data, one per thread. */
+	private static final ThreadLocal<ByteBuffer> scratch =
+			new ThreadLocal<ByteBuffer>();
+
+	/**
+	 * Copies a region of a JBuffer into the thread's scratch buffer at offset 0.
+	 * 
+	 * @param buffer
+	 *          the buffer
+	 * @param offset
+	 *          the offset
+	 * @param length
+	 *          the length
+	 * @return the scratch buffer
+	 */
+	private static ByteBuffer copy(JBuffer buffer, int offset, int length) {
+		ByteBuffer b = scratch.get();
+		if (b == null || b.capacity() < length) {
+			b = ByteBuffer.allocate(Math.max(length, 2048));
+			scratch.set(b);
+		}
+
+		buffer.getByteArray(offset, b.array(), 0, length);
+
+		return b;
+	}
+
+	/**
+	 * Folds a sum to 16 bits using one's complement addition.
+	 * 
+	 * @param sum
+	 *          the sum
+	 * @return the 16 bit sum
+	 */
+	private static int fold(long sum) {
+		while ((sum >>> 16) != 0) {
+			sum = (sum & 0xFFFF) + (sum >>> 16);
+		}
+
+		return (int) sum;
+	}
+
+	/**
+	 * Computes the 16 bit one's complement sum of big endian 16-bit words.
+	 * 
+	 * @param b
+	 *          the buffer
+	 * @param offset
+	 *          the offset
+	 * @param length
+	 *          the length
+	 * @return the sum, not complemented
+	 */
+	private static int sum(ByteBuffer b, int offset, int length) {
+		final int end = offset + length;
+		long sum = 0;
+
+		int i = offset;
+		for (final int end8 = offset + (length & ~7); i < end8; i += 8) {
+			final long w = b.getLong(i);
+			sum += (w >>> 32) + (w & 0xFFFFFFFFL);
+		}
+
+		/* The one's complement sum of byte swapped words is the swapped sum */
+		int s = fold(sum);
+		if (b.order() == ByteOrder.LITTLE_ENDIAN) {
+			s = ((s & 0xFF) << 8) | (s >>> 8);
+		}
+
+		sum = s;
+		for (; i + 1 < end; i += 2) {
+			sum += ((b.get(i) & 0xFF) << 8) | (b.get(i + 1) & 0xFF);
+		}
+
+		if (i < end) {
+			sum += (b.get(i) & 0xFF) << 8; // Odd byte, padded with zero
+		}
+
+		return fold(sum);
+	}
+
+	/**
+	 * Calculate the internet checksum, the one's complement of the one's
+	 * complement sum of all the 16-bit words. The result is 0 if the data
+	 * includes a valid checksum.
+	 * 
+	 * @param buffer
+	 *          buffer to reach the chunk of data
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          number of bytes to include in calculation
+	 * @return computed checksum
+	 */
+	public static int inChecksum(ByteBuffer buffer, int offset, int length) {
+		return ~sum(buffer, offset, length) & 0xFFFF;
+	}
+
+	/**
+	 * Calculate the internet checksum.
+	 * 
+	 * @param buffer
+	 *          buffer to reach the chunk of data
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          number of bytes to include in calculation
+	 * @return computed checksum
+	 * @see #inChecksum(ByteBuffer, int, int)
+	 */
+	public static int inChecksum(JBuffer buffer, int offset, int length) {
+		return inChecksum(copy(buffer, offset, length), 0, length);
+	}
+
+	/**
+	 * Continues an internet checksum over another chunk of data. All of the
+	 * previous chunks must have been of even length.
+	 * 
+	 * @param buffer
+	 *          buffer to reach the chunk of data
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          number of bytes to include in calculation
+	 * @param checksum
+	 *          checksum returned for the previous chunks
+	 * @return computed checksum of all the chunks
+	 */
+	public static int inChecksumContinue(ByteBuffer buffer,
+			int offset,
+			int length,
+			int checksum) {
+		final long sum = (~checksum & 0xFFFF) + sum(buffer, offset, length);
+
+		return ~fold(sum) & 0xFFFF;
+	}
+
+	/**
+	 * Continues an internet checksum over another chunk of data.
+	 * 
+	 * @param buffer
+	 *          buffer to reach the chunk of data
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          number of bytes to include in calculation
+	 * @param checksum
+	 *          checksum returned for the previous chunks
+	 * @return computed checksum of all the chunks
+	 * @see #inChecksumContinue(ByteBuffer, int, int, int)
+	 */
+	public static int inChecksumContinue(JBuffer buffer,
+			int offset,
+			int length,
+			int checksum) {
+		return inChecksumContinue(copy(buffer, offset, length), 0, length,
+				checksum);
+	}
+
+	/**
+	 * Computes what the checksum should be based on calculated checksum and the
+	 * checksum in the header's checksum field.
+	 * 
+	 * @param checksum
+	 *          checksum within the header's field
+	 * @param calculateChecksum
+	 *          checksum that was calculated
+	 * @return resulting checksum of the combination of the 2
+	 */
+	public static int inChecksumShouldBe(int checksum, int calculateChecksum) {
+		return fold((checksum & 0xFFFF) + (calculateChecksum & 0xFFFF));
+	}
+
+	/**
+	 * Sums the pseudo header and the data of a transport segment.
+	 * 
+	 * @param b
+	 *          the buffer
+	 * @param ipOffset
+	 *          offset of the Ip4 or Ip6 header
+	 * @param offset
+	 *          offset of the segment
+	 * @param length
+	 *          length of the segment
+	 * @param protocol
+	 *          the protocol number in the pseudo header
+	 * @return the checksum
+	 */
+	private static int pseudo(ByteBuffer b,
+			int ipOffset,
+			int offset,
+			int length,
+			int protocol) {
+		long sum = protocol + (length >>> 16) + (length & 0xFFFF);
+
+		if ((b.get(ipOffset) & 0xF0) == 0x60) {
+			sum += sum(b, ipOffset + 8, 32);
+		} else {
+			sum += sum(b, ipOffset + 12, 8);
+		}
+
+		sum += sum(b, offset, length);
+
+		return ~fold(sum) & 0xFFFF;
+	}
+
+	/**
+	 * Length of the data following a header, up to the end of the ip datagram.
+	 * 
+	 * @param b
+	 *          the buffer
+	 * @param ipOffset
+	 *          offset of the Ip4 or Ip6 header
+	 * @param offset
+	 *          offset of the header
+	 * @return the length
+	 */
+	private static int ipRemaining(ByteBuffer b, int ipOffset, int offset) {
+		if ((b.get(ipOffset) & 0xF0) == 0x60) {
+			return ipOffset + 40 + u16(b, ipOffset + 4) - offset;
+		} else {
+			return ipOffset + u16(b, ipOffset + 2) - offset;
+		}
+	}
+
+	/**
+	 * Reads an unsigned big endian short.
+	 * 
+	 * @param b
+	 *          the buffer
+	 * @param index
+	 *          the index
+	 * @return the value
+	 */
+	private static int u16(ByteBuffer b, int index) {
+		return ((b.get(index) & 0xFF) << 8) | (b.get(index + 1) & 0xFF);
+	}
+
+	/**
+	 * Calculates the Tcp checksum, including the Ip4 or Ip6 pseudo header.
+	 * 
+	 * @param buffer
+	 *          the buffer
+	 * @param ipOffset
+	 *          the ip offset
+	 * @param tcpOffset
+	 *          the tcp offset
+	 * @return the checksum, 0 if the segment has a valid checksum
+	 */
+	public static int pseudoTcp(ByteBuffer buffer, int ipOffset, int tcpOffset) {
+		final int length = ipRemaining(buffer, ipOffset, tcpOffset);
+
+		return pseudo(buffer, ipOffset, tcpOffset, length, PROTOCOL_TCP);
+	}
+
+	/**
+	 * Calculates the Tcp checksum, including the Ip4 or Ip6 pseudo header.
+	 * 
+	 * @param buffer
+	 *          the buffer
+	 * @param ipOffset
+	 *          the ip offset
+	 * @param tcpOffset
+	 *          the tcp offset
+	 * @return the checksum, 0 if the segment has a valid checksum
+	 */
+	public static int pseudoTcp(JBuffer buffer, int ipOffset, int tcpOffset) {
+		final ByteBuffer b = copy(buffer, ipOffset, buffer.size() - ipOffset);
+
+		return pseudoTcp(b, 0, tcpOffset - ipOffset);
+	}
+
+	/**
+	 * Calculates the Udp checksum, including the Ip4 or Ip6 pseudo header.
+	 * 
+	 * @param buffer
+	 *          the buffer
+	 * @param ipOffset
+	 *          the ip offset
+	 * @param udpOffset
+	 *          the udp offset
+	 * @return the checksum, 0 if the datagram has a valid checksum
+	 */
+	public static int pseudoUdp(ByteBuffer buffer, int ipOffset, int udpOffset) {
+		final int length = u16(buffer, udpOffset + 4);
+
+		return pseudo(buffer, ipOffset, udpOffset, length, PROTOCOL_UDP);
+	}
+
+	/**
+	 * Calculates the Udp checksum, including the Ip4 or Ip6 pseudo header.
+	 * 
+	 * @param buffer
+	 *          the buffer
+	 * @param ipOffset
+	 *          the ip offset
+	 * @param udpOffset
+	 *          the udp offset
+	 * @return the checksum, 0 if the datagram has a valid checksum
+	 */
+	public static int pseudoUdp(JBuffer buffer, int ipOffset, int udpOffset) {
+		final ByteBuffer b = copy(buffer, ipOffset, buffer.size() - ipOffset);
+
+		return pseudoUdp(b, 0, udpOffset - ipOffset);
+	}
+
+	/**
+	 * Calculates the Icmp checksum. For Icmp over Ip6 the Ip6 pseudo header is
+	 * included.
+	 * 
+	 * @param buffer
+	 *          the buffer
+	 * @param ipOffset
+	 *          the ip offset
+	 * @param icmpOffset
+	 *          the icmp offset
+	 * @return the checksum, 0 if the message has a valid checksum
+	 */
+	public static int icmp(ByteBuffer buffer, int ipOffset, int icmpOffset) {
+		final int length = ipRemaining(buffer, ipOffset, icmpOffset);
+
+		if ((buffer.get(ipOffset) & 0xF0) == 0x60) {
+			return pseudo(buffer, ipOffset, icmpOffset, length, PROTOCOL_ICMP6);
+		}
+
+		return inChecksum(buffer, icmpOffset, length);
+	}
+
+	/**
+	 * Calculates the Icmp checksum.
+	 * 
+	 * @param buffer
+	 *          the buffer
+	 * @param ipOffset
+	 *          the ip offset
+	 * @param icmpOffset
+	 *          the icmp offset
+	 * @return the checksum, 0 if the message has a valid checksum
+	 * @see #icmp(ByteBuffer, int, int)
+	 */
+	public static int icmp(JBuffer buffer, int ipOffset, int icmpOffset) {
+		final ByteBuffer b = copy(buffer, ipOffset, buffer.size() - ipOffset);
+
+		return icmp(b, 0, icmpOffset - ipOffset);
+	}
+
+	/**
+	 * Calculate CCITT 16-bit checksum using a custom seed.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @param seed
+	 *          starting seed
+	 * @return calculated crc
+	 */
+	public static int crc16CCITTSeed(ByteBuffer buffer,
+			int offset,
+			int length,
+			int seed) {
+		return ~CRC16.update(seed & 0xFFFF, buffer, offset, length) & 0xFFFF;
+	}
+
+	/**
+	 * Calculate CCITT 16-bit checksum using a custom seed.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @param seed
+	 *          starting seed
+	 * @return calculated crc
+	 */
+	public static int crc16CCITTSeed(JBuffer buffer,
+			int offset,
+			int length,
+			int seed) {
+		return crc16CCITTSeed(copy(buffer, offset, length), 0, length, seed);
+	}
+
+	/**
+	 * Calculate CCITT CRC16 checksum using the standard 0xFFFF seed.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @return calculated crc
+	 */
+	public static int crc16CCITT(ByteBuffer buffer, int offset, int length) {
+		return crc16CCITTSeed(buffer, offset, length, 0xFFFF);
+	}
+
+	/**
+	 * Calculate CCITT CRC16 checksum using the standard 0xFFFF seed.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @return calculated crc
+	 */
+	public static int crc16CCITT(JBuffer buffer, int offset, int length) {
+		return crc16CCITTSeed(buffer, offset, length, 0xFFFF);
+	}
+
+	/**
+	 * Calculate CCITT 16-bit checksum using a partially calculated CRC16.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @param crc
+	 *          crc returned for the previous data
+	 * @return calculated crc
+	 */
+	public static int crc16CCITTContinue(ByteBuffer buffer,
+			int offset,
+			int length,
+			int crc) {
+		return crc16CCITTSeed(buffer, offset, length, ~crc);
+	}
+
+	/**
+	 * Calculate CCITT 16-bit checksum using a partially calculated CRC16.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @param crc
+	 *          crc returned for the previous data
+	 * @return calculated crc
+	 */
+	public static int crc16CCITTContinue(JBuffer buffer,
+			int offset,
+			int length,
+			int crc) {
+		return crc16CCITTSeed(buffer, offset, length, ~crc);
+	}
+
+	/**
+	 * Calculate CCITT CRC16 X.25 checksum, the frame check sequence used by X.25
+	 * and HDLC.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @return calculated crc
+	 */
+	public static int crc16X25CCITT(ByteBuffer buffer, int offset, int length) {
+		return crc16CCITT(buffer, offset, length);
+	}
+
+	/**
+	 * Calculate CCITT CRC16 X.25 checksum.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @return calculated crc
+	 */
+	public static int crc16X25CCITT(JBuffer buffer, int offset, int length) {
+		return crc16CCITT(buffer, offset, length);
+	}
+
+	/**
+	 * Calculate CCITT CRC32 checksum using a custom seed.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @param seed
+	 *          starting seed
+	 * @return calculated crc
+	 */
+	public static int crc32CCITTSeed(ByteBuffer buffer,
+			int offset,
+			int length,
+			int seed) {
+		return ~CRC32.update(seed, buffer, offset, length);
+	}
+
+	/**
+	 * Calculate CCITT CRC32 checksum using a custom seed.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @param seed
+	 *          starting seed
+	 * @return calculated crc
+	 */
+	public static int crc32CCITTSeed(JBuffer buffer,
+			int offset,
+			int length,
+			int seed) {
+		return crc32CCITTSeed(copy(buffer, offset, length), 0, length, seed);
+	}
+
+	/**
+	 * Calculate CCITT CRC32 checksum using the standard 0xFFFFFFFF seed.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @return calculated crc
+	 */
+	public static long crc32CCITT(ByteBuffer buffer, int offset, int length) {
+		return crc32CCITTSeed(buffer, offset, length, 0xFFFFFFFF) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Calculate CCITT CRC32 checksum using the standard 0xFFFFFFFF seed.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @return calculated crc
+	 */
+	public static long crc32CCITT(JBuffer buffer, int offset, int length) {
+		return crc32CCITTSeed(buffer, offset, length, 0xFFFFFFFF) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Calculate CCITT CRC32 checksum using a partially calculated CRC32.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @param crc
+	 *          crc returned for the previous data
+	 * @return calculated crc
+	 */
+	public static int crc32CCITTContinue(ByteBuffer buffer,
+			int offset,
+			int length,
+			int crc) {
+		return crc32CCITTSeed(buffer, offset, length, ~crc);
+	}
+
+	/**
+	 * Calculate CCITT CRC32 checksum using a partially calculated CRC32.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @param crc
+	 *          crc returned for the previous data
+	 * @return calculated crc
+	 */
+	public static int crc32CCITTContinue(JBuffer buffer,
+			int offset,
+			int length,
+			int crc) {
+		return crc32CCITTSeed(buffer, offset, length, ~crc);
+	}
+
+	/**
+	 * Calculates IEEE 802 based checksums including ethernet/802.3.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate for
+	 * @param offset
+	 *          offset into the buffer in bytes
+	 * @param length
+	 *          number of bytes to run calculation on
+	 * @return calculated checksum, byte swapped so that it compares to the frame
+	 *         check sequence read in big endian byte order
+	 */
+	public static long crc32IEEE802(ByteBuffer buffer, int offset, int length) {
+		return Checksum.flip(crc32CCITT(buffer, offset, length));
+	}
+
+	/**
+	 * Calculates IEEE 802 based checksums including ethernet/802.3.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate for
+	 * @param offset
+	 *          offset into the buffer in bytes
+	 * @param length
+	 *          number of bytes to run calculation on
+	 * @return calculated checksum, byte swapped so that it compares to the frame
+	 *         check sequence read in big endian byte order
+	 */
+	public static long crc32IEEE802(JBuffer buffer, int offset, int length) {
+		return Checksum.flip(crc32CCITT(buffer, offset, length));
+	}
+
+	/**
+	 * Calculate a CRC32C checksum, as used by SCTP and iSCSI.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @param crc
+	 *          crc returned for the previous data, or 0 to start a new crc
+	 * @return calculated crc
+	 */
+	public static int crc32c(ByteBuffer buffer, int offset, int length, int crc) {
+		return ~CRC32C.update(~crc, buffer, offset, length);
+	}
+
+	/**
+	 * Calculate a CRC32C checksum, as used by SCTP and iSCSI.
+	 * 
+	 * @param buffer
+	 *          buffer to calculate crc on
+	 * @param offset
+	 *          offset into the buffer
+	 * @param length
+	 *          length within the buffer
+	 * @param crc
+	 *          crc returned for the previous data, or 0 to start a new crc
+	 * @return calculated crc
+	 */
+	public static int crc32c(JBuffer buffer, int offset, int length, int crc) {
+		return crc32c(copy(buffer, offset, length), 0, length, crc);
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util.checksum;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Checks the CRCs of {@link JavaChecksum} against known values. The Ethernet
+ * frame is a broadcast ARP request padded to the minimum frame size, followed
+ * by its frame check sequence as transmitted on the wire.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestJavaChecksum {
+
+	private static final String FRAME =
+			"ffffffffffff00000c07ac010806000108000604000100000c07ac01"
+					+ "c0a80001000000000000c0a80002000000000000000000000000"
+					+ "000000000000" + "cf1985f6";
+
+	/** CRC-32 of a frame followed by its correct FCS. */
+	private static final long RESIDUE = 0x2144DF1CL;
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		final ByteBuffer check = ByteBuffer.wrap("123456789".getBytes());
+
+		check(JavaChecksum.crc32CCITT(check, 0, 9) == 0xCBF43926L, "CRC-32");
+		check(JavaChecksum.crc32IEEE802(check, 0, 9) == 0x2639F4CBL,
+				"IEEE 802 CRC-32 is byte swapped");
+		check(JavaChecksum.crc32c(check, 0, 9, 0) == 0xE3069283, "CRC-32C");
+
+		final ByteBuffer frame = hex(FRAME);
+		final int length = frame.capacity() - 4;
+
+		/* The FCS is read the way Ethernet.checksum() reads it */
+		frame.order(ByteOrder.BIG_ENDIAN);
+		final long fcs = frame.getInt(length) & 0xFFFFFFFFL;
+
+		check(fcs == 0xCF1985F6L, "frame FCS");
+		check(JavaChecksum.crc32IEEE802(frame, 0, length) == fcs,
+				"Ethernet FCS of a valid frame");
+		check(JavaChecksum.crc32CCITT(frame, 0, length + 4) == RESIDUE,
+				"CRC-32 residue over frame and FCS");
+
+		frame.put(20, (byte) 0x02);
+		check(JavaChecksum.crc32IEEE802(frame, 0, length) != fcs,
+				"Ethernet FCS of a corrupted frame");
+
+		System.out.println("checksums ok");
+	}
+
+	private static void check(boolean condition, String message) {
+		if (condition == false) {
+			throw new IllegalStateException(message);
+		}
+	}
+
+	private static ByteBuffer hex(String s) {
+		final ByteBuffer b = ByteBuffer.allocate(s.length() / 2);
+		for (int i = 0; i < b.capacity(); i++) {
+			b.put(i, (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16));
+		}
+
+		return b;
+	}
+}
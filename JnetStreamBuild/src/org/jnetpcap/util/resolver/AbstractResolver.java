@@ -30,13 +30,6 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.URL;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -55,39 +48,6 @@ import org.jnetpcap.util.config.JConfig;
 public abstract class AbstractResolver implements Resolver,
 		PropertyChangeListener {
 
-	/**
-	 * Internal class that keeps track of timeout and which key to time out. Key
-	 * is hash of the address that was cached.
-	 * 
-	 * @author Mark Bednarczyk
-	 * @author Sly Technologies, Inc.
-	 */
-	private static class TimeoutEntry {
-
-		/** The hash. */
-		public final long hash;
-
-		/** The timeout. */
-		public final long timeout;
-
-		/**
-		 * Instantiates a new timeout entry.
-		 * 
-		 * @param key
-		 *          the key
-		 * @param timeout
-		 *          the timeout
-		 */
-		public TimeoutEntry(long key, long timeout) {
-			this.hash = key;
-			this.timeout = System.currentTimeMillis() + timeout;
-
-			if (this.timeout < 0 || (this.timeout - System.currentTimeMillis()) < 0) {
-				throw new IllegalStateException("timeout overflow " + timeout);
-			}
-		}
-	}
-
 	/** The Constant DEFAULT_BACKOFF. */
 	private static final int DEFAULT_BACKOFF = 10;
 
@@ -110,6 +70,14 @@ public abstract class AbstractResolver implements Resolver,
 	protected static final long INFINITE_TIMEOUT = 1000L * 60L * 60L * 24L * 365L
 			* 5L;
 
+	/**
+	 * Returned by {@link #resolveToName(byte[], long)} when the lookup has been
+	 * started in the background and the result is not known yet. Pending results
+	 * are not cached and {@link #resolve(byte[])} returns null for them. Compared
+	 * by reference only.
+	 */
+	protected static final String RESOLVE_PENDING = new String("pending");
+
 	/** The Constant DEFAULT_POSITIVE_TIMEOUT_IN_MILLIS. */
 	private static final long DEFAULT_POSITIVE_TIMEOUT_IN_MILLIS =
 			24 * 60 * 60 * 1000;
@@ -159,10 +127,10 @@ public abstract class AbstractResolver implements Resolver,
 	private int backoff = DEFAULT_BACKOFF;
 
 	/**
-	 * Main cache map. The timeout is maintaned using a priority queue, that
-	 * removes timedout entries from this map.
+	 * Main cache. Each entry carries its own timeout and timedout entries are
+	 * removed as they are found.
 	 */
-	private Map<Long, String> cache;
+	private ResolverCache cache;
 
 	/**
 	 * Just an initial map size.
@@ -217,9 +185,6 @@ public abstract class AbstractResolver implements Resolver,
 	/** The save cache. */
 	private boolean saveCache = DEFAULT_SAVE_CACHE;
 
-	/** The timeout queue. */
-	private Queue<AbstractResolver.TimeoutEntry> timeoutQueue;
-
 	/**
 	 * Instantiates a new abstract resolver.
 	 * 
@@ -279,34 +244,27 @@ public abstract class AbstractResolver implements Resolver,
 	 *          the timeout
 	 */
 	public void addToCache(long hash, String name, long timeout) {
+		final long now = System.currentTimeMillis();
+		final long expires = now + timeout;
 
-		if (cache.containsKey(hash)) {
-			logger.finest(String.format("[%d] replacing %X", cache.size(), hash));
-			cache.remove(hash);
-		} else {
+		if (expires < 0 || expires < now) {
+			throw new IllegalStateException("timeout overflow " + timeout);
+		}
+
+		if (cache.put(hash, name, expires)) {
 			if (logger.isLoggable(Level.FINEST)) {
-				logger.finest(String.format("[%d] adding %X %s",
-						cache.size(),
-						hash,
-						String.valueOf(name)));
+				logger.finest(String.format("adding %X %s", hash, String
+						.valueOf(name)));
 			}
+		} else {
+			logger.finest(String.format("replacing %X", hash));
 		}
 
 		isModified = true;
-		cache.put(hash, name);
-
-		TimeoutEntry e;
-		timeoutQueue.add(e = new TimeoutEntry(hash, timeout));
 
 		if (cache.size() >= maxentries) {
-			timeoutCacheOldest(maxentries * 100 / backoff);
+			timeoutCacheOldest(maxentries * backoff / 100);
 		}
-
-		long d = e.timeout - System.currentTimeMillis();
-		if (d != timeout) {
-			logger.finest(String.format("invalid timeout %d != %d", d, timeout));
-		}
-
 	}
 
 	/*
@@ -334,30 +292,13 @@ public abstract class AbstractResolver implements Resolver,
 			cache.clear();
 			isModified = true;
 		}
-
-		if (timeoutQueue != null) {
-			timeoutQueue.clear();
-			isModified = true;
-		}
 	}
 
 	/**
 	 * Creates the cache.
 	 */
 	private void createCache() {
-		cache =
-				Collections.synchronizedMap(new HashMap<Long, String>(cacheCapacity,
-						cacheLoadFactor));
-		timeoutQueue =
-				new PriorityQueue<AbstractResolver.TimeoutEntry>(cacheCapacity,
-						new Comparator<AbstractResolver.TimeoutEntry>() {
-
-							public int compare(AbstractResolver.TimeoutEntry o1,
-									AbstractResolver.TimeoutEntry o2) {
-								return (int) (o1.timeout - o2.timeout);
-							}
-
-						});
+		cache = new ResolverCache(cacheCapacity, cacheLoadFactor);
 
 	}
 
@@ -517,7 +458,8 @@ public abstract class AbstractResolver implements Resolver,
 	 * @see org.jnetpcap.util.resolver.Resolver#isCached(byte[])
 	 */
 	public boolean isCached(byte[] address) {
-		return this.cache.containsKey(toHashCode(address));
+		return this.cache.containsKey(toHashCode(address), System
+				.currentTimeMillis());
 	}
 
 	/**
@@ -679,7 +621,7 @@ public abstract class AbstractResolver implements Resolver,
 				.equals(evt.getPropertyName())) {
 			maxentries = JEvent.intValue(evt);
 			if (cache.size() > maxentries) {
-				timeoutCacheOldest(maxentries * 100 / backoff);
+				timeoutCacheOldest(maxentries * backoff / 100);
 			}
 
 		} else if (String.format(PROPERTY_BACKOFF, "")
@@ -713,7 +655,7 @@ public abstract class AbstractResolver implements Resolver,
 			maxentries = JEvent.intValue(evt);
 
 			if (cache.size() > maxentries) {
-				timeoutCacheOldest(maxentries * 100 / backoff);
+				timeoutCacheOldest(maxentries * backoff / 100);
 
 			}
 		} else if (String.format(PROPERTY_BACKOFF, this.name + ".")
@@ -741,14 +683,18 @@ public abstract class AbstractResolver implements Resolver,
 	 */
 	public final String resolve(byte[] address) {
 
-		timeoutCache();
+		final long now = System.currentTimeMillis();
+		final long hash = toHashCode(address);
 
-		long hash = toHashCode(address);
-		if (cache.containsKey(hash)) {
-			return cache.get(hash);
+		final String cached = cache.get(hash, now);
+		if (cached != null || cache.containsKey(hash, now)) {
+			return cached;
 		}
 
 		String s = resolveToName(address, hash);
+		if (s == RESOLVE_PENDING) {
+			return null;
+		}
 
 		addToCache(hash, s);
 
@@ -760,6 +706,9 @@ public abstract class AbstractResolver implements Resolver,
 	 * resolve the name. The method should not access any of the cached
 	 * information. THis method is called only after the cache has already been
 	 * checked and failed to produce a positive or negative lookup entry.
+	 * Resolvers that perform the lookup in the background return
+	 * {@link #RESOLVE_PENDING} and add the result to the cache themselves once
+	 * the lookup completes.
 	 * 
 	 * @param address
 	 *          address to resolve
@@ -794,7 +743,7 @@ public abstract class AbstractResolver implements Resolver,
 	public int saveCache() throws IOException {
 		timeoutCache();
 
-		if (saveCache == false || isModified == false || timeoutQueue.isEmpty()) {
+		if (saveCache == false || isModified == false || cache.size() == 0) {
 			return 0;
 		}
 
@@ -842,41 +791,37 @@ public abstract class AbstractResolver implements Resolver,
 	 *          the out
 	 * @return the int
 	 */
-	private int saveCache(PrintWriter out) {
-		int count = 0;
+	private int saveCache(final PrintWriter out) {
+		final int[] count = new int[1];
 
 		logger.finer(String.format("saving %d entries", cache.size()));
 
 		synchronized (cache) {
 			try {
-				/*
-				 * We use the timeout queue to save the cache. All entries in cache are
-				 * also in the timeout queue.
-				 */
-				for (Iterator<AbstractResolver.TimeoutEntry> i =
-						timeoutQueue.iterator(); i.hasNext();) {
-					final AbstractResolver.TimeoutEntry e = i.next();
-					String v = cache.get(e.hash);
-
-					if (logger.isLoggable(Level.FINEST)) {
-						logger.finest(String.format("saving %X %X\n",
-								e.hash,
-								(e.timeout - System.currentTimeMillis())));
+				cache.visit(new ResolverCache.Visitor() {
+
+					public void visit(long hash, String v, long timeout) {
+						if (logger.isLoggable(Level.FINEST)) {
+							logger.finest(String.format("saving %X %X\n",
+									hash,
+									(timeout - System.currentTimeMillis())));
+						}
+
+						out.format("%X:%d:%s" + NEWLINE_SEPARATOR,
+								hash,
+								timeout,
+								(v == null) ? "" : v);
+						count[0]++;
 					}
 
-					out.format("%X:%d:%s" + NEWLINE_SEPARATOR,
-							e.hash,
-							e.timeout,
-							(v == null) ? "" : v);
-					count++;
-				}
+				});
 
 			} finally {
 				out.close();
 			}
 		}
 
-		return count;
+		return count[0];
 	}
 
 	/**
@@ -953,49 +898,24 @@ public abstract class AbstractResolver implements Resolver,
 	 * Timeout cache.
 	 */
 	private void timeoutCache() {
-		final long t = System.currentTimeMillis();
+		final int count = cache.expire(System.currentTimeMillis());
 
-		synchronized (cache) {
-			for (Iterator<AbstractResolver.TimeoutEntry> i = timeoutQueue.iterator(); i
-					.hasNext();) {
-				AbstractResolver.TimeoutEntry e = i.next();
-				if (e.timeout < t) {
-					System.out.printf("%s: %s %s\n",
-							"timeout()",
-							logger,
-							logger.getLevel());
-					logger.finest(String.format("timedout %s\n", cache.get(e.hash)));
-					cache.remove(e.hash);
-					i.remove();
-				} else {
-					break;
-				}
-			}
+		if (count != 0) {
+			logger.finest(String.format("timedout %d entries\n", count));
 		}
 	}
 
 	/**
-	 * Removes count oldest entries from the timeout cache, presumably to make
-	 * room for newer entries.
+	 * Removes count least recently used entries from the cache, presumably to
+	 * make room for newer entries.
 	 * 
 	 * @param count
 	 *          the count
 	 */
 	private void timeoutCacheOldest(int count) {
-		synchronized (cache) {
-			for (Iterator<AbstractResolver.TimeoutEntry> i = timeoutQueue.iterator(); i
-					.hasNext();) {
-				AbstractResolver.TimeoutEntry e = i.next();
-				if (count-- > 0) {
-					logger.finest(String.format("removed due to backoff %s \n",
-							cache.get(e.hash)));
-					cache.remove(e.hash);
-					i.remove();
-				} else {
-					break;
-				}
-			}
-		}
+		final int removed = cache.evict(count);
+
+		logger.finest(String.format("removed %d due to backoff\n", removed));
 	}
 
 	/**
@@ -1028,9 +948,8 @@ public abstract class AbstractResolver implements Resolver,
 	public String toString() {
 		StringBuilder out = new StringBuilder();
 		out.append(String.format("cache[count=%d], "
-				+ "timeout[count=%d, positive=%d, negative=%d], ",
+				+ "timeout[positive=%d, negative=%d], ",
 				cache.size(),
-				timeoutQueue.size(),
 				positiveTimeout,
 				negativeTimeout));
 		return out.toString();
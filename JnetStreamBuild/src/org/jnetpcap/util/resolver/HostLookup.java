@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util.resolver;
+
+import java.net.UnknownHostException;
+
+// TODO: Auto-generated Javadoc
+/**
+ * Performs the actual address to hostname lookup for an IpResolver. The
+ * default lookup uses the system's naming services, a different lookup, such
+ * as one backed by a local hosts file, can be plugged in using
+ * {@link IpResolver#setLookup(HostLookup)}. In asynchronous mode the lookup is
+ * called from the resolver's worker threads and must be thread safe.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public interface HostLookup {
+
+	/**
+	 * Looks up the hostname of an address.
+	 * 
+	 * @param address
+	 *          IPv4 or IPv6 address
+	 * @return the hostname or null if the address does not have a name
+	 * @throws UnknownHostException
+	 *           the address could not be looked up
+	 */
+	public String lookup(byte[] address) throws UnknownHostException;
+}
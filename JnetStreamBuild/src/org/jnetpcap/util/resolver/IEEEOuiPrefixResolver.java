@@ -26,6 +26,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.logging.Level;
 
 import org.jnetpcap.packet.format.JFormatter;
@@ -39,6 +42,16 @@ import org.jnetpcap.util.config.JConfig;
  * manufacturer codes and caches that information. The resolver can also
  * download over the internet, if requested, a raw IEEE OUI database of
  * manufacturer code, parse it and produce a cache file for future use.
+ * <p>
+ * The parsed database is compiled into a binary file, see property
+ * {@value #PROPERTY_OUI_DB_BINARY}, the first time it is needed. From then on
+ * the binary file is memory mapped and prefixes are looked up directly in the
+ * mapped file, without parsing the text database at startup or keeping all of
+ * the entries in the cache. The binary file, by default
+ * <code>~/.jnp/oui-v2.db</code>, records the length and modification time of
+ * the text database it was compiled from and is compiled again automatically
+ * when either changes.
+ * </p>
  * 
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
@@ -66,9 +79,27 @@ public class IEEEOuiPrefixResolver extends AbstractResolver {
 	/** The Constant DEFAULT_OUI_DB_DOWNLOAD. */
 	private static final String DEFAULT_OUI_DB_DOWNLOAD = "false";
 
+	/**
+	 * Property with the file name of the compiled binary database. The property
+	 * is {@value #PROPERTY_OUI_DB_BINARY}.
+	 */
+	public static final String PROPERTY_OUI_DB_BINARY =
+			"resolver.OUI_PREFIX.db.binary";
+
+	/**
+	 * The compiled database is kept per user and per database format version,
+	 * in the user's home directory.
+	 */
+	private static final String DEFAULT_OUI_DB_BINARY =
+			System.getProperty("user.home") + File.separator + ".jnp"
+					+ File.separator + "oui-v" + OuiDatabase.VERSION + ".db";
+
 	/** The initialized. */
 	private boolean initialized = false;
 
+	/** Memory mapped database, null if entries are kept in the cache instead. */
+	private volatile OuiDatabase database;
+
 	/**
 	 * Creates an uninitalized Oui prefix resolver. The resolver is "late"
 	 * initialized when its first called on to do work.
@@ -80,52 +111,175 @@ public class IEEEOuiPrefixResolver extends AbstractResolver {
 
 	/**
 	 * Initializes the resolver by first checking if there are any cached entries,
-	 * if none, it reads the compressed oui database supplied with jNetPcap in the
-	 * resource directory.
+	 * if none, it maps the compiled binary database. If the binary database does
+	 * not exist yet or was compiled from a different text database, it reads the
+	 * compressed oui database supplied with jNetPcap in the resource directory
+	 * and compiles it.
 	 */
 	@Override
 	public void initializeIfNeeded() {
 		if (initialized == false && hasCacheFile() == false) {
 			initialized = true;
 
-			setCacheCapacity(13000); // There are over 12,000 entries in the db
-
 			super.initializeIfNeeded(); // Allow the baseclass to prep cache
 
 			setPositiveTimeout(INFINITE_TIMEOUT); // Never
 			setNegativeTimeout(0);
 
+			final File db =
+					new File(JConfig.getProperty(PROPERTY_OUI_DB_BINARY,
+							DEFAULT_OUI_DB_BINARY));
+
 			/*
-			 * First look for compressed OUI database.
+			 * Locate the text database, compressed one supplied with jNetPcap first
 			 */
-
+			URL url = null;
+			boolean raw = false;
 			try {
-				URL url = JConfig.getResourceURL(RESOURCE_COMPRESSED_OUI_DATABASE);
-				if (url != null) {
-					logger
-							.fine("loading compressed database file from " + url.toString());
-					readOuisFromCompressedIEEEDb(RESOURCE_COMPRESSED_OUI_DATABASE);
-					return;
-				}
-
+				url = JConfig.getResourceURL(RESOURCE_COMPRESSED_OUI_DATABASE);
 				boolean download =
 						Boolean.parseBoolean(JConfig.getProperty(PROPERTY_OUI_DB_DOWNLOAD,
 								DEFAULT_OUI_DB_DOWNLOAD));
 				String u = JConfig.getProperty(PROPERTY_OUI_DB_URL);
-				if (u != null && download) {
+
+				if (url == null && u != null && download) {
 					url = new URL(u);
-					logger.fine("loading remote database " + url.toString());
-					loadCache(url);
+					raw = true;
+				}
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "error while locating database", e);
+			}
+
+			OuiDatabase.Source source = null;
+			if (url != null) {
+				try {
+					source = OuiDatabase.Source.of(raw ? url : compressedSource(url));
+				} catch (IOException e) {
+					logger.log(Level.FINE, "unable to identify database " + url, e);
+				}
+			}
+
+			/*
+			 * Next look for an already compiled database, compiled from the same text
+			 * database
+			 */
+			if (db.canRead()) {
+				try {
+					database = OuiDatabase.open(db, source);
+					logger.fine("mapped compiled database file " + db.toString());
 					return;
+				} catch (IOException e) {
+					logger.fine(e.getMessage() + ", recompiling");
+				}
+			}
+
+			final SortedMap<Long, String> entries = new TreeMap<Long, String>();
+
+			try {
+				if (url != null && raw == false) {
+					logger
+							.fine("loading compressed database file from " + url.toString());
+					readOuisFromCompressedIEEEDb(RESOURCE_COMPRESSED_OUI_DATABASE,
+							entries);
+
+				} else if (url != null) {
+					logger.fine("loading remote database " + url.toString());
+					readOuisFromRawIEEEDb(new BufferedReader(new InputStreamReader(url
+							.openStream())), entries);
 				}
 			} catch (IOException e) {
 				logger.log(Level.WARNING, "error while reading database", e);
 			}
+
+			if (entries.isEmpty()) {
+				return;
+			}
+
+			try {
+				OuiDatabase.write(entries, db, source);
+				database = OuiDatabase.open(db, source);
+				logger.fine("compiled database file " + db.toString());
+				return;
+
+			} catch (IOException e) {
+				logger.log(Level.FINE, "unable to compile database, caching entries",
+						e);
+			}
+
+			addToCache(entries);
+
 		} else {
 			super.initializeIfNeeded();
 		}
 	}
 
+	/**
+	 * Adds all of the parsed entries to the cache.
+	 * 
+	 * @param entries
+	 *          the entries
+	 * @return number of entries added
+	 */
+	private int addToCache(Map<Long, String> entries) {
+		for (Map.Entry<Long, String> e : entries.entrySet()) {
+			super.addToCache(e.getKey(), e.getValue());
+		}
+
+		return entries.size();
+	}
+
+	/**
+	 * Compiles a text OUI database, either in raw IEEE format or the compressed
+	 * format supplied with jNetPcap, into a binary database file that can be
+	 * memory mapped by this resolver.
+	 * 
+	 * @param url
+	 *          the text database
+	 * @param raw
+	 *          true if the database is in raw IEEE format, false if in the
+	 *          compressed format
+	 * @param file
+	 *          the binary database file to create
+	 * @return number of entries compiled
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public static int compileDatabase(URL url, boolean raw, File file)
+			throws IOException {
+		final IEEEOuiPrefixResolver resolver = new IEEEOuiPrefixResolver();
+		final SortedMap<Long, String> entries = new TreeMap<Long, String>();
+		final BufferedReader in =
+				new BufferedReader(new InputStreamReader(url.openStream()));
+
+		try {
+			if (raw) {
+				resolver.readOuisFromRawIEEEDb(in, entries);
+			} else {
+				resolver.readOuisFromCompressedIEEEDb(in, entries);
+			}
+		} finally {
+			in.close();
+		}
+
+		return OuiDatabase.write(entries, file, OuiDatabase.Source.of(url));
+	}
+
+	/**
+	 * The compressed database is read from the current directory before the
+	 * resource, see {@link #readOuisFromCompressedIEEEDb(String, Map)}.
+	 * 
+	 * @param resource
+	 *          URL of the compressed database resource
+	 * @return URL of the compressed database that is read
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	private static URL compressedSource(URL resource) throws IOException {
+		final File file = new File(RESOURCE_COMPRESSED_OUI_DATABASE);
+
+		return (file.canRead()) ? file.toURI().toURL() : resource;
+	}
+
 	/**
 	 * Download IEEE supplied OUI.txt database of manufacturer prefixes and codes.
 	 * The file is downloaded using the protocol specified in the URL, parsed and
@@ -146,8 +300,11 @@ public class IEEEOuiPrefixResolver extends AbstractResolver {
 		if (url == null) {
 			url = new URL(IEEE_OUI_DATABASE_PATH);
 		}
-		return readOuisFromRawIEEEDb(new BufferedReader(new InputStreamReader(
-				url.openStream())));
+		final SortedMap<Long, String> entries = new TreeMap<Long, String>();
+		readOuisFromRawIEEEDb(new BufferedReader(new InputStreamReader(url
+				.openStream())), entries);
+
+		return addToCache(entries);
 	}
 
 	/**
@@ -155,12 +312,14 @@ public class IEEEOuiPrefixResolver extends AbstractResolver {
 	 * 
 	 * @param in
 	 *          the in
+	 * @param entries
+	 *          map to add the parsed entries to
 	 * @return the int
 	 * @throws IOException
 	 *           Signals that an I/O exception has occurred.
 	 */
-	private int readOuisFromCompressedIEEEDb(BufferedReader in)
-			throws IOException {
+	private int readOuisFromCompressedIEEEDb(BufferedReader in,
+			Map<Long, String> entries) throws IOException {
 		int count = 0;
 
 		try {
@@ -173,7 +332,7 @@ public class IEEEOuiPrefixResolver extends AbstractResolver {
 
 				Long i = Long.parseLong(c[0], 16);
 
-				super.addToCache(i, c[1]);
+				entries.put(i, c[1]);
 				count++;
 
 			}
@@ -189,20 +348,23 @@ public class IEEEOuiPrefixResolver extends AbstractResolver {
 	 * 
 	 * @param f
 	 *          the f
+	 * @param entries
+	 *          map to add the parsed entries to
 	 * @return true, if successful
 	 * @throws FileNotFoundException
 	 *           the file not found exception
 	 * @throws IOException
 	 *           Signals that an I/O exception has occurred.
 	 */
-	private boolean readOuisFromCompressedIEEEDb(String f)
-			throws FileNotFoundException, IOException {
+	private boolean readOuisFromCompressedIEEEDb(String f,
+			Map<Long, String> entries) throws FileNotFoundException, IOException {
 		/*
 		 * Try local file first, more efficient
 		 */
 		File file = new File(f);
 		if (file.canRead()) {
-			readOuisFromCompressedIEEEDb(new BufferedReader(new FileReader(file)));
+			readOuisFromCompressedIEEEDb(new BufferedReader(new FileReader(file)),
+					entries);
 			return true;
 		}
 
@@ -214,7 +376,8 @@ public class IEEEOuiPrefixResolver extends AbstractResolver {
 		if (in == null) {
 			return false; // Can't find it
 		}
-		readOuisFromCompressedIEEEDb(new BufferedReader(new InputStreamReader(in)));
+		readOuisFromCompressedIEEEDb(new BufferedReader(new InputStreamReader(in)),
+				entries);
 
 		return true;
 	}
@@ -224,11 +387,14 @@ public class IEEEOuiPrefixResolver extends AbstractResolver {
 	 * 
 	 * @param in
 	 *          the in
+	 * @param entries
+	 *          map to add the parsed entries to
 	 * @return the int
 	 * @throws IOException
 	 *           Signals that an I/O exception has occurred.
 	 */
-	private int readOuisFromRawIEEEDb(BufferedReader in) throws IOException {
+	private int readOuisFromRawIEEEDb(BufferedReader in,
+			Map<Long, String> entries) throws IOException {
 		int count = 0;
 		try {
 			String s;
@@ -273,7 +439,7 @@ public class IEEEOuiPrefixResolver extends AbstractResolver {
 						/*
 						 * Done, now cache it
 						 */
-						super.addToCache(i, p);
+						entries.put(i, p);
 						count++;
 					}
 				}
@@ -398,7 +564,9 @@ public class IEEEOuiPrefixResolver extends AbstractResolver {
 	}
 
 	/**
-	 * Resolves the supplied address to a human readable name.
+	 * Resolves the supplied address to a human readable name. When the database
+	 * is memory mapped, the prefix is looked up in the mapped file, otherwise all
+	 * known prefixes are already in the cache.
 	 * 
 	 * @param address
 	 *          the address
@@ -408,7 +576,12 @@ public class IEEEOuiPrefixResolver extends AbstractResolver {
 	 */
 	@Override
 	public String resolveToName(byte[] address, long hash) {
-		return null; // If its not in the cache, we don't know what it is
+		final OuiDatabase db = database;
+		if (db == null) {
+			return null; // If its not in the cache, we don't know what it is
+		}
+
+		return db.lookup((int) hash);
 	}
 
 	/**
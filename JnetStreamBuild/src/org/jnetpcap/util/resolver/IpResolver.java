@@ -20,12 +20,35 @@ package org.jnetpcap.util.resolver;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.jnetpcap.util.JLogger;
 
 // TODO: Auto-generated Javadoc
 /**
  * A resolver object that knows how to convert IP addresses into hostnames.
+ * <p>
+ * By default lookups are done synchronously by the calling thread, which can
+ * block for a long time on addresses that do not resolve. In asynchronous mode,
+ * enabled with {@link #setAsynchronous(int)}, lookups are handed off to a
+ * bounded pool of worker threads and {@link #resolve(byte[])} returns null
+ * immediately for any address that is not cached yet. The cache is filled in
+ * the background and concurrent requests for the same address share a single
+ * lookup.
+ * </p>
  * 
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
@@ -33,6 +56,109 @@ import org.jnetpcap.util.JLogger;
 public class IpResolver
     extends AbstractResolver {
 
+	/**
+	 * A lookup running on a worker thread. Listeners added before the lookup
+	 * completes are notified once it does.
+	 */
+	private class PendingLookup
+	    extends FutureTask<String> {
+
+		/** The address. */
+		private final byte[] address;
+
+		/** The hash. */
+		private final long hash;
+
+		/** Listeners, guarded by the pending map. */
+		private final List<ResolverListener> listeners =
+		    new ArrayList<ResolverListener>(2);
+
+		/**
+		 * Instantiates a new pending lookup.
+		 * 
+		 * @param address
+		 *          the address
+		 * @param hash
+		 *          the hash
+		 * @param lookup
+		 *          the lookup to use
+		 */
+		public PendingLookup(final byte[] address, final long hash,
+		    final HostLookup lookup) {
+			super(new Callable<String>() {
+
+				public String call() throws Exception {
+					String name = lookup(lookup, address);
+					addToCache(hash, name);
+
+					return name;
+				}
+
+			});
+
+			this.address = address;
+			this.hash = hash;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.concurrent.FutureTask#done()
+		 */
+		@Override
+		protected void done() {
+			final ResolverListener[] l;
+
+			synchronized (pending) {
+				pending.remove(hash);
+				l = listeners.toArray(new ResolverListener[listeners.size()]);
+				listeners.clear();
+			}
+
+			String name = null;
+			try {
+				name = get();
+			} catch (InterruptedException e) {
+			} catch (ExecutionException e) {
+			} catch (CancellationException e) {
+			}
+
+			for (ResolverListener listener : l) {
+				listener.resolved(address.clone(), name);
+			}
+		}
+	}
+
+	/**
+	 * Default lookup which uses the system's naming services.
+	 */
+	private final static HostLookup SYSTEM_LOOKUP = new HostLookup() {
+
+		public String lookup(byte[] address) throws UnknownHostException {
+			InetAddress i = InetAddress.getByAddress(address);
+			String host = i.getHostName();
+			if (Character.isDigit(host.charAt(0)) == false) {
+				return host;
+			}
+
+			return null;
+		}
+
+	};
+
+	/** Maximum number of lookups waiting for a worker thread. */
+	private final static int MAX_QUEUED_LOOKUPS = 1024;
+
+	/** The lookup. */
+	private volatile HostLookup lookup = SYSTEM_LOOKUP;
+
+	/** Worker threads, null when in synchronous mode. */
+	private volatile ThreadPoolExecutor executor;
+
+	/** Lookups in progress, keyed by address hash. */
+	private final Map<Long, PendingLookup> pending =
+	    new HashMap<Long, PendingLookup>();
+
 	/**
 	 * Instantiates a new ip resolver.
 	 * 
@@ -60,18 +186,195 @@ public class IpResolver
 	 */
 	@Override
 	public String resolveToName(byte[] address, long hash) {
+		final ThreadPoolExecutor executor = this.executor;
+		if (executor == null) {
+			return lookup(lookup, address);
+		}
+
+		/*
+		 * When the lookup queue is full the address is simply not cached and the
+		 * lookup is retried next time around
+		 */
+		submit(executor, address, hash, null);
+
+		return RESOLVE_PENDING;
+	}
+
+	/**
+	 * Looks up a name using the supplied lookup.
+	 * 
+	 * @param lookup
+	 *          the lookup
+	 * @param address
+	 *          the address
+	 * @return the name or null if not resolved
+	 */
+	private static String lookup(HostLookup lookup, byte[] address) {
 		try {
-			InetAddress i = InetAddress.getByAddress(address);
-			String host = i.getHostName();
-			if (Character.isDigit(host.charAt(0)) == false) {
-				return host;
-			}
+			return lookup.lookup(address);
 
 		} catch (UnknownHostException e) {
 			e.printStackTrace();
 		}
 		return null;
+	}
+
+	/**
+	 * Resolves an address in the background. If the address is already cached,
+	 * the listener is notified immediately by the calling thread, otherwise it is
+	 * notified by a worker thread once the lookup completes. If a lookup for the
+	 * same address is already in progress, no new lookup is started. In
+	 * synchronous mode the lookup is done by the calling thread.
+	 * 
+	 * @param address
+	 *          address to resolve
+	 * @param listener
+	 *          listener to notify, may be null
+	 * @return future holding the resolved name or null if the address could not
+	 *         be resolved, or null if the lookup queue is full
+	 */
+	public Future<String> resolveAsync(byte[] address, ResolverListener listener) {
+		final long hash = toHashCode(address);
+		final ThreadPoolExecutor executor = this.executor;
+
+		if (executor == null || isCached(address)) {
+			final String name = resolve(address);
+			final FutureTask<String> f = new FutureTask<String>(new Runnable() {
+				public void run() {
+				}
+			}, name);
+			f.run();
+
+			if (listener != null) {
+				listener.resolved(address.clone(), name);
+			}
+
+			return f;
+		}
+
+		return submit(executor, address, hash, listener);
+	}
 
+	/**
+	 * Starts a background lookup, unless one is already in progress.
+	 * 
+	 * @param executor
+	 *          the worker threads
+	 * @param address
+	 *          the address
+	 * @param hash
+	 *          the hash
+	 * @param listener
+	 *          the listener, may be null
+	 * @return the lookup or null if the lookup queue is full
+	 */
+	private Future<String> submit(ThreadPoolExecutor executor, byte[] address,
+	    long hash, ResolverListener listener) {
+
+		synchronized (pending) {
+			PendingLookup p = pending.get(hash);
+
+			/*
+			 * A lookup that completed after the caller checked the cache has already
+			 * been removed from the pending map but its result is cached
+			 */
+			if (p == null && isCached(address) == false) {
+				p = new PendingLookup(address.clone(), hash, lookup);
+				try {
+					executor.execute(p);
+				} catch (RejectedExecutionException e) {
+					logger.finer(String.format("lookup queue full, skipping %X", hash));
+					return null;
+				}
+
+				pending.put(hash, p);
+			}
+
+			if (p != null) {
+				if (listener != null) {
+					p.listeners.add(listener);
+				}
+
+				return p;
+			}
+		}
+
+		return resolveAsync(address, listener);
+	}
+
+	/**
+	 * Switches between synchronous and asynchronous lookups. In asynchronous mode
+	 * the lookups are done by a pool of daemon worker threads. Lookups already
+	 * submitted when switching back to synchronous mode, are still completed.
+	 * 
+	 * @param threads
+	 *          number of worker threads or 0 for synchronous lookups
+	 */
+	public synchronized void setAsynchronous(int threads) {
+		if (threads < 0) {
+			throw new IllegalArgumentException("negative thread count");
+		}
+
+		final ThreadPoolExecutor old = executor;
+		if (old != null) {
+			old.shutdown();
+			executor = null;
+		}
+
+		if (threads == 0) {
+			return;
+		}
+
+		ThreadPoolExecutor e =
+		    new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+		        new ArrayBlockingQueue<Runnable>(MAX_QUEUED_LOOKUPS),
+		        new ThreadFactory() {
+			        private int count = 0;
+
+			        public Thread newThread(Runnable r) {
+				        Thread t = new Thread(r, "IpResolver-" + (count++));
+				        t.setDaemon(true);
+
+				        return t;
+			        }
+
+		        });
+		e.allowCoreThreadTimeOut(true);
+
+		executor = e;
+	}
+
+	/**
+	 * Checks if lookups are done by background threads.
+	 * 
+	 * @return true, if in asynchronous mode
+	 */
+	public boolean isAsynchronous() {
+		return executor != null;
+	}
+
+	/**
+	 * Checks if a background lookup of the address is in progress.
+	 * 
+	 * @param address
+	 *          the address
+	 * @return true, if a lookup is in progress
+	 */
+	public boolean isPending(byte[] address) {
+		synchronized (pending) {
+			return pending.containsKey(toHashCode(address));
+		}
+	}
+
+	/**
+	 * Replaces the lookup used to resolve addresses, for example with one backed
+	 * by a local hosts file.
+	 * 
+	 * @param lookup
+	 *          the lookup or null to use the system's naming services
+	 */
+	public void setLookup(HostLookup lookup) {
+		this.lookup = (lookup == null) ? SYSTEM_LOOKUP : lookup;
 	}
 
 	/*
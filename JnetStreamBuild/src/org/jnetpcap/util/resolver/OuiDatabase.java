@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util.resolver;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.SortedMap;
+
+// TODO: Auto-generated Javadoc
+/**
+ * A compiled, read-only OUI prefix database that is memory mapped. The file is
+ * generated once from the text database and afterwards opened without any
+ * parsing. Lookups are a binary search over the mapped table of prefixes, so
+ * the database itself takes up no heap.
+ * <p>
+ * The file is big endian and laid out as follows:
+ * 
+ * <pre>
+ * int    magic      'OUIP'
+ * int    version    2
+ * int    count      number of prefixes
+ * int    poolSize   size of the name pool in bytes
+ * long   length     length of the text database compiled, -1 if unknown
+ * long   modified   last modified time of the text database compiled
+ * int[]  prefixes   count 24-bit prefixes, sorted in ascending order
+ * int[]  offsets    count offsets into the name pool, same order as prefixes
+ * byte[] pool       names, each a 2 byte length followed by UTF-8 bytes
+ * </pre>
+ * 
+ * The length and last modified time of the text database are recorded, so a
+ * database that was compiled from a different text database is detected and
+ * can be compiled again.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+class OuiDatabase {
+
+	/** The Constant MAGIC. */
+	private static final int MAGIC = 0x4F554950; // 'OUIP'
+
+	/** The Constant VERSION. */
+	static final int VERSION = 2;
+
+	/** Size of the header in bytes. */
+	private static final int HEADER_LENGTH = 32;
+
+	/** Names longer than this many bytes are truncated. */
+	private static final int MAX_NAME_LENGTH = 0xFFFF;
+
+	/**
+	 * Identity of the text database a binary database is compiled from.
+	 */
+	public static final class Source {
+
+		/**
+		 * Identifies the text database at the URL by its length and last
+		 * modified time, without reading it.
+		 * 
+		 * @param url
+		 *          the text database
+		 * @return the source or null if neither the length nor the last modified
+		 *         time are known
+		 * @throws IOException
+		 *           Signals that an I/O exception has occurred.
+		 */
+		public static Source of(URL url) throws IOException {
+			final long length;
+			final long modified;
+
+			if ("file".equals(url.getProtocol())) {
+				final File file;
+				try {
+					file = new File(url.toURI());
+				} catch (URISyntaxException e) {
+					throw new IOException("invalid file URL " + url);
+				}
+
+				if (file.canRead() == false) {
+					throw new IOException("unable to read " + file);
+				}
+
+				length = file.length();
+				modified = file.lastModified();
+
+			} else {
+				final URLConnection connection = url.openConnection();
+				if (connection instanceof HttpURLConnection) {
+					((HttpURLConnection) connection).setRequestMethod("HEAD");
+				}
+
+				try {
+					length = connection.getContentLength();
+					modified = connection.getLastModified();
+				} finally {
+					if (connection instanceof HttpURLConnection) {
+						((HttpURLConnection) connection).disconnect();
+					}
+				}
+			}
+
+			if (length < 0 && modified == 0) {
+				return null;
+			}
+
+			return new Source(length, modified);
+		}
+
+		/** The length. */
+		private final long length;
+
+		/** The modified. */
+		private final long modified;
+
+		/**
+		 * Instantiates a new source.
+		 * 
+		 * @param length
+		 *          the length, -1 if unknown
+		 * @param modified
+		 *          the last modified time, 0 if unknown
+		 */
+		public Source(long length, long modified) {
+			this.length = length;
+			this.modified = modified;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "length=" + length + ", modified=" + modified;
+		}
+	}
+
+	/**
+	 * Opens and maps a compiled database file.
+	 * 
+	 * @param file
+	 *          the file
+	 * @param source
+	 *          the text database the file must have been compiled from, or null
+	 *          to accept any source
+	 * @return the database
+	 * @throws IOException
+	 *           if the file can not be read, is not a valid database or was not
+	 *           compiled from the source
+	 */
+	public static OuiDatabase open(File file, Source source) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer map =
+			    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			map.order(ByteOrder.BIG_ENDIAN);
+
+			final OuiDatabase database = new OuiDatabase(map, file);
+
+			if (source != null
+			    && (map.getLong(16) != source.length || map.getLong(24) != source.modified)) {
+				throw new IOException("OUI database file " + file
+				    + " was not compiled from the current text database (" + source
+				    + ")");
+			}
+
+			return database;
+
+		} finally {
+			raf.close(); // The mapping stays valid after the file is closed
+		}
+	}
+
+	/**
+	 * Compiles the prefix to name entries into a database file. The file is
+	 * written to a temporary file first and renamed when complete, so that a
+	 * partially written database is never opened.
+	 * 
+	 * @param entries
+	 *          24-bit prefixes mapped to names
+	 * @param file
+	 *          the database file to create or replace
+	 * @param source
+	 *          the text database the entries were read from, or null if unknown
+	 * @return number of entries written
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public static int write(SortedMap<Long, String> entries, File file,
+	    Source source) throws IOException {
+		final int count = entries.size();
+		final byte[][] names = new byte[count][];
+
+		int poolSize = 0;
+		int i = 0;
+		for (String name : entries.values()) {
+			byte[] b = utf8(name);
+			if (b.length > MAX_NAME_LENGTH) {
+				final byte[] t = new byte[MAX_NAME_LENGTH];
+				System.arraycopy(b, 0, t, 0, t.length);
+				b = t;
+			}
+
+			names[i++] = b;
+			poolSize += 2 + b.length;
+		}
+
+		final File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null && dir.isDirectory() == false && dir.mkdirs() == false) {
+			throw new IOException("unable to create directory " + dir);
+		}
+
+		final File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		final DataOutputStream out =
+		    new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(count);
+			out.writeInt(poolSize);
+			out.writeLong(source == null ? -1 : source.length);
+			out.writeLong(source == null ? 0 : source.modified);
+
+			for (Map.Entry<Long, String> e : entries.entrySet()) {
+				out.writeInt((int) (e.getKey() & 0xFFFFFF));
+			}
+
+			int offset = 0;
+			for (byte[] b : names) {
+				out.writeInt(offset);
+				offset += 2 + b.length;
+			}
+
+			for (byte[] b : names) {
+				out.writeShort(b.length);
+				out.write(b);
+			}
+
+		} finally {
+			out.close();
+		}
+
+		if (file.exists() && file.delete() == false
+		    || tmp.renameTo(file) == false) {
+			tmp.delete();
+			throw new IOException("unable to create database file " + file);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Encodes a name as UTF-8.
+	 * 
+	 * @param s
+	 *          the s
+	 * @return the bytes
+	 */
+	private static byte[] utf8(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** The mapped file. */
+	private final ByteBuffer map;
+
+	/** Number of prefixes. */
+	private final int count;
+
+	/** Start of the offsets table. */
+	private final int offsets;
+
+	/** Start of the name pool. */
+	private final int pool;
+
+	/**
+	 * Validates the header and table sizes of a mapped database.
+	 * 
+	 * @param map
+	 *          the map
+	 * @param file
+	 *          the file, used in error messages
+	 * @throws IOException
+	 *           if not a valid database
+	 */
+	private OuiDatabase(ByteBuffer map, File file) throws IOException {
+		if (map.limit() < HEADER_LENGTH || map.getInt(0) != MAGIC
+		    || map.getInt(4) != VERSION) {
+			throw new IOException("not an OUI database file " + file);
+		}
+
+		this.map = map;
+		this.count = map.getInt(8);
+		this.offsets = HEADER_LENGTH + count * 4;
+		this.pool = offsets + count * 4;
+
+		final int poolSize = map.getInt(12);
+		if (count < 0 || poolSize < 0
+		    || (long) pool + poolSize != map.limit()) {
+			throw new IOException("corrupt OUI database file " + file);
+		}
+	}
+
+	/**
+	 * Number of prefixes in the database.
+	 * 
+	 * @return the count
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Looks up the name of a prefix.
+	 * 
+	 * @param prefix
+	 *          24-bit OUI prefix
+	 * @return the name or null if not found
+	 */
+	public String lookup(int prefix) {
+		int low = 0;
+		int high = count - 1;
+
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int p = map.getInt(HEADER_LENGTH + mid * 4);
+
+			if (p < prefix) {
+				low = mid + 1;
+			} else if (p > prefix) {
+				high = mid - 1;
+			} else {
+				return name(map.getInt(offsets + mid * 4));
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Decodes a name from the pool, using absolute gets only so that the
+	 * database can be shared between threads.
+	 * 
+	 * @param offset
+	 *          offset into the pool
+	 * @return the name
+	 */
+	private String name(int offset) {
+		final int start = pool + offset;
+		final int length = map.getShort(start) & 0xFFFF;
+		final byte[] b = new byte[length];
+
+		for (int i = 0; i < length; i++) {
+			b[i] = map.get(start + 2 + i);
+		}
+
+		try {
+			return new String(b, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,541 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util.resolver;
+
+import java.util.Arrays;
+
+// TODO: Auto-generated Javadoc
+/**
+ * Concurrent cache of resolved names, keyed by the primitive long hash of an
+ * address. The cache is split into a number of segments, each an open
+ * addressing hash table with its own lock, so that lookups of different
+ * addresses from different threads rarely contend and keys are never boxed.
+ * Each entry carries its own expiration time and is dropped lazily when it is
+ * found expired. Each segment also keeps a logical access clock which is used
+ * to evict approximately least recently used entries when the cache is full.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+class ResolverCache {
+
+	/**
+	 * Callback used to walk all of the entries in the cache.
+	 */
+	public interface Visitor {
+
+		/**
+		 * Visits a single entry. Called with the lock of the entry's segment held.
+		 * 
+		 * @param key
+		 *          the hash of the address
+		 * @param name
+		 *          the name or null for a failed lookup
+		 * @param expires
+		 *          time in millis when the entry expires
+		 */
+		public void visit(long key, String name, long expires);
+	}
+
+	/**
+	 * An open addressing table with linear probing. All access is synchronized
+	 * on the segment.
+	 */
+	private static class Segment {
+
+		/** Keys, valid only where used is set. */
+		private long[] keys;
+
+		/** The names. */
+		private String[] names;
+
+		/** Expiration times in millis. */
+		private long[] expires;
+
+		/** Access clock value of the last access. */
+		private long[] accessed;
+
+		/** The used. */
+		private boolean[] used;
+
+		/** Number of entries. */
+		private int size;
+
+		/** Logical clock, advanced on each access. */
+		private long clock;
+
+		/** The load factor. */
+		private final float loadFactor;
+
+		/**
+		 * Instantiates a new segment.
+		 * 
+		 * @param capacity
+		 *          the capacity, power of 2
+		 * @param loadFactor
+		 *          the load factor
+		 */
+		public Segment(int capacity, float loadFactor) {
+			this.loadFactor = loadFactor;
+			allocate(capacity);
+		}
+
+		/**
+		 * Allocates empty tables.
+		 * 
+		 * @param capacity
+		 *          the capacity, power of 2
+		 */
+		private void allocate(int capacity) {
+			keys = new long[capacity];
+			names = new String[capacity];
+			expires = new long[capacity];
+			accessed = new long[capacity];
+			used = new boolean[capacity];
+		}
+
+		/**
+		 * Finds the slot of a key.
+		 * 
+		 * @param key
+		 *          the key
+		 * @param hash
+		 *          mixed hash of the key
+		 * @return the slot or -1 if not found
+		 */
+		private int find(long key, int hash) {
+			final int mask = keys.length - 1;
+
+			for (int i = hash & mask; used[i]; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					return i;
+				}
+			}
+
+			return -1;
+		}
+
+		/**
+		 * Finds a key that hasn't expired, and records the access.
+		 * 
+		 * @param key
+		 *          the key
+		 * @param hash
+		 *          the hash
+		 * @param now
+		 *          the current time in millis
+		 * @return the slot or -1 if not found
+		 */
+		private int lookup(long key, int hash, long now) {
+			final int i = find(key, hash);
+			if (i == -1) {
+				return -1;
+			}
+
+			if (expires[i] < now) {
+				delete(i);
+				return -1;
+			}
+
+			accessed[i] = ++clock;
+
+			return i;
+		}
+
+		/**
+		 * Adds or replaces an entry.
+		 * 
+		 * @param key
+		 *          the key
+		 * @param hash
+		 *          the hash
+		 * @param name
+		 *          the name
+		 * @param expiration
+		 *          the expiration
+		 * @return true if a new entry was added, false if replaced
+		 */
+		private boolean put(long key, int hash, String name, long expiration) {
+			int i = find(key, hash);
+			final boolean added = (i == -1);
+
+			if (added) {
+				if (size + 1 > keys.length * loadFactor) {
+					resize(keys.length * 2);
+				}
+
+				final int mask = keys.length - 1;
+				for (i = hash & mask; used[i]; i = (i + 1) & mask) {
+				}
+
+				used[i] = true;
+				keys[i] = key;
+				size++;
+			}
+
+			names[i] = name;
+			expires[i] = expiration;
+			accessed[i] = ++clock;
+
+			return added;
+		}
+
+		/**
+		 * Rehashes all entries into new tables.
+		 * 
+		 * @param capacity
+		 *          the new capacity
+		 */
+		private void resize(int capacity) {
+			final long[] k = keys;
+			final String[] n = names;
+			final long[] e = expires;
+			final long[] a = accessed;
+			final boolean[] u = used;
+
+			allocate(capacity);
+
+			final int mask = capacity - 1;
+			for (int j = 0; j < k.length; j++) {
+				if (u[j] == false) {
+					continue;
+				}
+
+				int i = mix(k[j]) & mask;
+				while (used[i]) {
+					i = (i + 1) & mask;
+				}
+
+				used[i] = true;
+				keys[i] = k[j];
+				names[i] = n[j];
+				expires[i] = e[j];
+				accessed[i] = a[j];
+			}
+		}
+
+		/**
+		 * Deletes the entry at slot and shifts back any following entries of the
+		 * same probe sequence, so no tombstones are needed.
+		 * 
+		 * @param slot
+		 *          the slot
+		 */
+		private void delete(int slot) {
+			final int mask = keys.length - 1;
+			int hole = slot;
+
+			for (int i = (slot + 1) & mask; used[i]; i = (i + 1) & mask) {
+				final int home = mix(keys[i]) & mask;
+
+				/* Move the entry into the hole unless its home lies after the hole */
+				if (((i - home) & mask) >= ((i - hole) & mask)) {
+					used[hole] = true;
+					keys[hole] = keys[i];
+					names[hole] = names[i];
+					expires[hole] = expires[i];
+					accessed[hole] = accessed[i];
+					hole = i;
+				}
+			}
+
+			used[hole] = false;
+			names[hole] = null;
+			size--;
+		}
+
+		/**
+		 * Removes all expired entries.
+		 * 
+		 * @param now
+		 *          the current time in millis
+		 * @return number of entries removed
+		 */
+		private int expire(long now) {
+			int count = 0;
+
+			for (int i = 0; i < keys.length; i++) {
+				/* Deletion may shift another entry into this slot, so recheck it */
+				while (used[i] && expires[i] < now) {
+					delete(i);
+					count++;
+				}
+			}
+
+			return count;
+		}
+
+		/**
+		 * Removes the least recently accessed entries.
+		 * 
+		 * @param count
+		 *          number of entries to remove
+		 * @return number of entries removed
+		 */
+		private int evict(int count) {
+			if (count >= size) {
+				count = size;
+				clear();
+
+				return count;
+			}
+
+			if (count <= 0) {
+				return 0;
+			}
+
+			final long[] a = new long[size];
+			for (int i = 0, j = 0; i < keys.length; i++) {
+				if (used[i]) {
+					a[j++] = accessed[i];
+				}
+			}
+
+			Arrays.sort(a);
+			final long threshold = a[count - 1];
+
+			int removed = 0;
+			for (int i = 0; i < keys.length && removed < count; i++) {
+				while (used[i] && accessed[i] <= threshold && removed < count) {
+					delete(i);
+					removed++;
+				}
+			}
+
+			return removed;
+		}
+
+		/**
+		 * Removes all entries.
+		 */
+		private void clear() {
+			Arrays.fill(used, false);
+			Arrays.fill(names, null);
+			size = 0;
+		}
+	}
+
+	/** Number of segments, power of 2. */
+	private static final int SEGMENTS = 16;
+
+	/**
+	 * Mixes the bits of a key, so that sequential addresses spread evenly over
+	 * segments and slots.
+	 * 
+	 * @param key
+	 *          the key
+	 * @return the hash
+	 */
+	private static int mix(long key) {
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+
+		return (int) h;
+	}
+
+	/** The segments. */
+	private final Segment[] segments = new Segment[SEGMENTS];
+
+	/**
+	 * Instantiates a new cache.
+	 * 
+	 * @param capacity
+	 *          initial number of entries the cache can hold without resizing
+	 * @param loadFactor
+	 *          how full each table can get before it is resized
+	 */
+	public ResolverCache(int capacity, float loadFactor) {
+		if (loadFactor <= 0 || loadFactor >= 1) {
+			loadFactor = 0.75f; // Open addressing needs at least one free slot
+		}
+
+		int perSegment = 4;
+		while (perSegment * loadFactor < capacity / SEGMENTS + 1) {
+			perSegment <<= 1;
+		}
+
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(perSegment, loadFactor);
+		}
+	}
+
+	/**
+	 * Gets the segment of a hash.
+	 * 
+	 * @param hash
+	 *          the mixed hash
+	 * @return the segment
+	 */
+	private Segment segment(int hash) {
+		return segments[hash >>> 28];
+	}
+
+	/**
+	 * Checks if an unexpired entry, positive or negative, exists.
+	 * 
+	 * @param key
+	 *          the key
+	 * @param now
+	 *          the current time in millis
+	 * @return true, if cached
+	 */
+	public boolean containsKey(long key, long now) {
+		final int hash = mix(key);
+		final Segment s = segment(hash);
+
+		synchronized (s) {
+			return s.lookup(key, hash, now) != -1;
+		}
+	}
+
+	/**
+	 * Gets the cached name.
+	 * 
+	 * @param key
+	 *          the key
+	 * @param now
+	 *          the current time in millis
+	 * @return the name, or null if not cached or cached as a failed lookup
+	 */
+	public String get(long key, long now) {
+		final int hash = mix(key);
+		final Segment s = segment(hash);
+
+		synchronized (s) {
+			final int i = s.lookup(key, hash, now);
+
+			return (i == -1) ? null : s.names[i];
+		}
+	}
+
+	/**
+	 * Adds or replaces an entry.
+	 * 
+	 * @param key
+	 *          the key
+	 * @param name
+	 *          the name or null for a failed lookup
+	 * @param expires
+	 *          time in millis when the entry expires
+	 * @return true if a new entry was added, false if an existing one was
+	 *         replaced
+	 */
+	public boolean put(long key, String name, long expires) {
+		final int hash = mix(key);
+		final Segment s = segment(hash);
+
+		synchronized (s) {
+			return s.put(key, hash, name, expires);
+		}
+	}
+
+	/**
+	 * Number of entries, including any expired entries that have not been
+	 * removed yet. Not atomic with respect to concurrent modifications.
+	 * 
+	 * @return the number of entries
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment s : segments) {
+			synchronized (s) {
+				size += s.size;
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * Removes all expired entries.
+	 * 
+	 * @param now
+	 *          the current time in millis
+	 * @return number of entries removed
+	 */
+	public int expire(long now) {
+		int count = 0;
+		for (Segment s : segments) {
+			synchronized (s) {
+				count += s.expire(now);
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Removes approximately the least recently used entries. Each segment removes
+	 * its own least recently used entries, in proportion to its share of all of
+	 * the entries.
+	 * 
+	 * @param count
+	 *          number of entries to remove
+	 * @return number of entries removed
+	 */
+	public int evict(int count) {
+		final int total = size();
+		if (total == 0 || count <= 0) {
+			return 0;
+		}
+
+		int removed = 0;
+		for (Segment s : segments) {
+			synchronized (s) {
+				final long share = ((long) count * s.size + total - 1) / total;
+				removed += s.evict((int) share);
+			}
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		for (Segment s : segments) {
+			synchronized (s) {
+				s.clear();
+			}
+		}
+	}
+
+	/**
+	 * Visits all of the entries, one segment at a time.
+	 * 
+	 * @param visitor
+	 *          the visitor
+	 */
+	public void visit(Visitor visitor) {
+		for (Segment s : segments) {
+			synchronized (s) {
+				for (int i = 0; i < s.keys.length; i++) {
+					if (s.used[i]) {
+						visitor.visit(s.keys[i], s.names[i], s.expires[i]);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util.resolver;
+
+// TODO: Auto-generated Javadoc
+/**
+ * Listener notified when an asynchronous lookup completes.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ * @see IpResolver#resolveAsync(byte[], ResolverListener)
+ */
+public interface ResolverListener {
+
+	/**
+	 * Called once the lookup of an address completes, successfully or not. The
+	 * result has already been added to the resolver's cache. The method may be
+	 * called from a resolver worker thread.
+	 * 
+	 * @param address
+	 *          the address that was looked up
+	 * @param name
+	 *          the resolved name or null if the address could not be resolved
+	 */
+	public void resolved(byte[] address, String name);
+}
@@ -1,16 +1,16 @@
 /**
  * Copyright (C) 2007 Sly Technologies, Inc.
- * 
+ *
  * This library is free software; you can redistribute it and/or
  * modify it under the terms of the GNU Lesser General Public
  * License as published by the Free Software Foundation; either
  * version 2.1 of the License, or (at your option) any later version.
- * 
+ *
  * This library is distributed in the hope that it will be useful,
  * but WITHOUT ANY WARRANTY; without even the implied warranty of
  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
  * Lesser General Public License for more details.
- * 
+ *
  * You should have received a copy of the GNU Lesser General Public
  * License along with this library; if not, write to the Free Software
  * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
@@ -18,12 +18,99 @@
 package org.jnetstream.analyzer.flow;
 
 /**
- * A grouping of similar packets based on flow key criteria.
- * 
+ * A grouping of similar packets based on flow key criteria. A flow does not
+ * keep the packets themselves, only counters which summarize them.
+ * Timestamps are in nanoseconds since the epoch, as captured.
+ *
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
  *
  */
 public interface Flow {
 
+	/**
+	 * Direction of a packet within its flow.
+	 */
+	public enum Direction {
+		/**
+		 * From the initiator, the source of the flow key, to the responder
+		 */
+		Forward,
+
+		/**
+		 * From the responder back to the initiator
+		 */
+		Reverse,
+	}
+
+	/**
+	 * Key that all packets of this flow share.
+	 *
+	 * @return the flow key
+	 */
+	public FlowKey getKey();
+
+	/**
+	 * Number of packets in both directions.
+	 *
+	 * @return packet count
+	 */
+	public long getPacketCount();
+
+	/**
+	 * Number of packets in one direction.
+	 *
+	 * @param direction
+	 *          direction to count
+	 * @return packet count
+	 */
+	public long getPacketCount(Direction direction);
+
+	/**
+	 * Number of bytes, as seen on the wire, in both directions.
+	 *
+	 * @return byte count
+	 */
+	public long getByteCount();
+
+	/**
+	 * Number of bytes, as seen on the wire, in one direction.
+	 *
+	 * @param direction
+	 *          direction to count
+	 * @return byte count
+	 */
+	public long getByteCount(Direction direction);
+
+	/**
+	 * Capture timestamp of the first packet.
+	 *
+	 * @return timestamp in nanoseconds since the epoch
+	 */
+	public long getFirstTimestamp();
+
+	/**
+	 * Capture timestamp of the last packet.
+	 *
+	 * @return timestamp in nanoseconds since the epoch
+	 */
+	public long getLastTimestamp();
+
+	/**
+	 * Union of the TCP flags of all packets in both directions, 0 for non TCP
+	 * flows.
+	 *
+	 * @return TCP flags
+	 */
+	public int getTcpFlags();
+
+	/**
+	 * Union of the TCP flags of all packets in one direction, 0 for non TCP
+	 * flows.
+	 *
+	 * @param direction
+	 *          direction of the packets
+	 * @return TCP flags
+	 */
+	public int getTcpFlags(Direction direction);
 }
@@ -1,30 +1,110 @@
 /**
  * Copyright (C) 2007 Sly Technologies, Inc.
- * 
+ *
  * This library is free software; you can redistribute it and/or
  * modify it under the terms of the GNU Lesser General Public
  * License as published by the Free Software Foundation; either
  * version 2.1 of the License, or (at your option) any later version.
- * 
+ *
  * This library is distributed in the hope that it will be useful,
  * but WITHOUT ANY WARRANTY; without even the implied warranty of
  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
  * Lesser General Public License for more details.
- * 
+ *
  * You should have received a copy of the GNU Lesser General Public
  * License along with this library; if not, write to the Free Software
  * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
  */
 package org.jnetstream.analyzer.flow;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.jnetstream.capture.CapturePacket;
+import org.jnetstream.protocol.Protocol;
+
 /**
  * Analyzer which analyzes incomming packets and determines which packet
  * belongs to which flow.
- * 
+ * <p>
+ * The analyzer is driven by the capture timestamps of the packets, not by the
+ * system clock. Each packet advances the analyzer's time and any flows which
+ * have been idle for longer than the idle timeout are ended. When the
+ * maximum number of flows is reached, the least recently active flow is ended
+ * to make room for the new one. Ended flows are reported to the
+ * {@link FlowListener}.
+ * </p>
+ * <p>
+ * A flow analyzer is not thread safe.
+ * </p>
+ *
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
- *
+ * @see FlowAnalyzers#newFlowAnalyzer(int, long, long,
+ *      java.util.concurrent.TimeUnit, FlowListener)
  */
 public interface FlowAnalyzer {
 
+	/**
+	 * Accounts the packet to its flow.
+	 *
+	 * @param packet
+	 *          packet to process
+	 * @return true if the packet was accounted to a flow, false if it is not an
+	 *         IP packet or its link type is not supported
+	 * @throws IOException
+	 *           any IO errors while reading the packet
+	 */
+	public boolean processPacket(CapturePacket packet) throws IOException;
+
+	/**
+	 * Accounts the packet to its flow. The packet data is read using absolute
+	 * gets and the buffer's position and limit are not modified.
+	 *
+	 * @param buffer
+	 *          buffer containing the packet data between its position and limit
+	 * @param linkType
+	 *          protocol of the first header within the packet, such as
+	 *          Lan.Ethernet2 or Tcpip.Ip4
+	 * @param timestamp
+	 *          capture timestamp in nanoseconds since the epoch
+	 * @param wirelen
+	 *          original length of the packet on the wire
+	 * @return true if the packet was accounted to a flow, false if it is not an
+	 *         IP packet or its link type is not supported
+	 */
+	public boolean processPacket(ByteBuffer buffer, Protocol linkType,
+	    long timestamp, int wirelen);
+
+	/**
+	 * Ends all flows which have been idle for longer than the idle timeout at
+	 * the given time. This happens automatically as packets are processed, but
+	 * can be used to advance the time while no packets arrive.
+	 *
+	 * @param timestamp
+	 *          current time in nanoseconds since the epoch
+	 * @return number of flows ended
+	 */
+	public int expire(long timestamp);
+
+	/**
+	 * Ends all the flows currently tracked.
+	 *
+	 * @return number of flows ended
+	 */
+	public int flush();
+
+	/**
+	 * Number of flows currently tracked.
+	 *
+	 * @return flow count
+	 */
+	public int getFlowCount();
+
+	/**
+	 * Maximum number of flows which can be tracked at the same time.
+	 *
+	 * @return maximum flow count
+	 */
+	public int getMaxFlowCount();
 }
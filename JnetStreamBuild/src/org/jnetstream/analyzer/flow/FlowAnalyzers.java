@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jnetstream.analyzer.flow;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.slytechs.utils.factory.FactoryLoader;
+
+/**
+ * Factory class which creates flow analyzers using the default
+ * implementation.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class FlowAnalyzers {
+	private final static Log logger = LogFactory.getLog(FlowAnalyzers.class);
+
+	/**
+	 * Factory interface implemented by flow analyzer implementations.
+	 */
+	public interface Factory {
+
+		/**
+		 * Creates a new flow analyzer, see
+		 * {@link FlowAnalyzers#newFlowAnalyzer(int, long, long, TimeUnit, FlowListener)}.
+		 */
+		public FlowAnalyzer newFlowAnalyzer(int maxFlows, long idleTimeout,
+		    long activeTimeout, TimeUnit unit, FlowListener listener);
+	}
+
+	/**
+	 * Property name which can be used to override the default implementation of
+	 * the flow analyzer. The system property should contain the name of the
+	 * class that provides the FlowAnalyzers.Factory implementation.
+	 */
+	public static final String FLOW_ANALYZER = "org.jnetstream.analyzer.flow";
+
+	private static final String FLOW_ANALYZER_DEFAULT =
+	    "com.slytechs.jnetstream.analyzer.flow.DefaultFlowAnalyzerFactory";
+
+	private static final FactoryLoader<Factory> factory =
+	    new FactoryLoader<Factory>(logger, FLOW_ANALYZER, FLOW_ANALYZER_DEFAULT);
+
+	/**
+	 * Creates a new flow analyzer. All of the memory for the maximum number of
+	 * flows is allocated up front, so the memory used does not grow with the
+	 * number of flows or packets.
+	 *
+	 * @param maxFlows
+	 *          maximum number of flows tracked at the same time
+	 * @param idleTimeout
+	 *          flows without any packets for this long are ended
+	 * @param activeTimeout
+	 *          flows active for this long are ended and restarted, to report
+	 *          long lived flows periodically
+	 * @param unit
+	 *          time unit of both timeouts
+	 * @param listener
+	 *          listener which receives all the ended flows
+	 * @return new flow analyzer
+	 */
+	public static FlowAnalyzer newFlowAnalyzer(final int maxFlows,
+	    final long idleTimeout, final long activeTimeout, final TimeUnit unit,
+	    final FlowListener listener) {
+		return factory.getFactory().newFlowAnalyzer(maxFlows, idleTimeout,
+		    activeTimeout, unit, listener);
+	}
+}
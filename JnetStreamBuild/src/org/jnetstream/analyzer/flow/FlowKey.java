@@ -1,16 +1,16 @@
 /**
  * Copyright (C) 2007 Sly Technologies, Inc.
- * 
+ *
  * This library is free software; you can redistribute it and/or
  * modify it under the terms of the GNU Lesser General Public
  * License as published by the Free Software Foundation; either
  * version 2.1 of the License, or (at your option) any later version.
- * 
+ *
  * This library is distributed in the hope that it will be useful,
  * but WITHOUT ANY WARRANTY; without even the implied warranty of
  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
  * Lesser General Public License for more details.
- * 
+ *
  * You should have received a copy of the GNU Lesser General Public
  * License along with this library; if not, write to the Free Software
  * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
@@ -21,11 +21,50 @@ package org.jnetstream.analyzer.flow;
  * Defines criteria for packets for each individual flow. Flow key are
  * typically defined right in the main protocol NPL definition and contain
  * the flow criteria on a per protocol basis.
- * 
+ * <p>
+ * The flow analyzer uses the IP 5-tuple as the flow key. Both directions of a
+ * conversation share the same key, the source is always the endpoint which
+ * sent the first packet of the flow.
+ * </p>
+ *
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
  *
  */
 public interface FlowKey {
 
+	/**
+	 * IP protocol number of the flow, such as 6 for TCP or 17 for UDP.
+	 *
+	 * @return IP protocol number
+	 */
+	public int getIpProtocol();
+
+	/**
+	 * Address of the endpoint which initiated the flow.
+	 *
+	 * @return 4 byte IPv4 or 16 byte IPv6 address
+	 */
+	public byte[] getSourceAddress();
+
+	/**
+	 * Address of the endpoint which responds to the initiator.
+	 *
+	 * @return 4 byte IPv4 or 16 byte IPv6 address
+	 */
+	public byte[] getDestinationAddress();
+
+	/**
+	 * Port of the initiator, 0 for protocols without ports.
+	 *
+	 * @return source port
+	 */
+	public int getSourcePort();
+
+	/**
+	 * Port of the responder, 0 for protocols without ports.
+	 *
+	 * @return destination port
+	 */
+	public int getDestinationPort();
 }
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jnetstream.analyzer.flow;
+
+/**
+ * A listener that is notified each time a flow is removed from the flow
+ * analyzer. This is the only way to receive the final counters of a flow.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public interface FlowListener {
+
+	/**
+	 * Reason a flow was removed from the analyzer.
+	 */
+	public enum Reason {
+		/**
+		 * No packets were seen for longer than the idle timeout
+		 */
+		IdleTimeout,
+
+		/**
+		 * The flow has been active for longer than the active timeout. Any
+		 * further packets start a new flow with the same key.
+		 */
+		ActiveTimeout,
+
+		/**
+		 * The analyzer reached its maximum number of flows and this was the least
+		 * recently active flow
+		 */
+		Evicted,
+
+		/**
+		 * The analyzer was flushed
+		 */
+		Flushed,
+	}
+
+	/**
+	 * Notifies the listener that a flow has ended.
+	 *
+	 * @param source
+	 *          analyzer that tracked the flow
+	 * @param flow
+	 *          final state of the flow
+	 * @param reason
+	 *          why the flow was removed
+	 */
+	public void processFlowEnd(FlowAnalyzer source, Flow flow, Reason reason);
+}
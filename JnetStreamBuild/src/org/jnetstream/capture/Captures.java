@@ -21,6 +21,7 @@ import java.net.NetworkInterface;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -35,6 +36,8 @@ import org.jnetstream.packet.format.PacketFormatter;
 import com.slytechs.utils.collection.IOIterator;
 import com.slytechs.utils.collection.IOSkippableIterator;
 import com.slytechs.utils.factory.FactoryLoader;
+import com.slytechs.utils.io.IORuntimeException;
+import com.slytechs.utils.iosequence.MergeInput;
 
 /**
  * <P>
@@ -61,6 +64,17 @@ public final class Captures {
 	 */
 	public static final Log logger = LogFactory.getLog(Captures.class);
 
+	/**
+	 * Orders packets by capture timestamp when merging
+	 */
+	private static final MergeInput.Key<CapturePacket> TIMESTAMP =
+	    new MergeInput.Key<CapturePacket>() {
+		    public long key(final CapturePacket packet) throws IOException {
+			    return packet.getTimestampSeconds() * 1000000000L
+			        + packet.getTimestampNanos();
+		    }
+	    };
+
 	/**
 	 * A factory interface for interfacing with implementation of jNetStream API.
 	 * Factory interfaces are made up of 3 parts. A common part and 1 remote and 1
@@ -997,6 +1011,117 @@ public final class Captures {
 		return Captures.getLocal().listCaptureDevices();
 	}
 
+	/**
+	 * <p>
+	 * Merges packets from multiple sources into a single iterator ordered by
+	 * capture timestamp. Each source must already be in timestamp order, as is
+	 * the case with captures from a single interface or rotated capture files.
+	 * Packets with equal timestamps are returned in the order of their sources.
+	 * </p>
+	 * <p>
+	 * The merge is a single pass k-way merge which only holds a small number of
+	 * read-ahead packets per source in memory, see {@link MergeInput}. Closing
+	 * the returned iterator closes all of the source iterators.
+	 * </p>
+	 * 
+	 * @param sources
+	 *          packet iterators to merge, such as from
+	 *          {@link InputCapture#getPacketIterator()} or
+	 *          {@link FileCapture#getPacketIterator()}
+	 * @return iterator over the merged packets
+	 */
+	public static InputIterator<CapturePacket> merge(
+	    final List<? extends IOIterator<? extends CapturePacket>> sources) {
+		return mergeIterator(new MergeInput<CapturePacket>(sources, TIMESTAMP),
+		    new ArrayList<Capture<? extends CapturePacket>>());
+	}
+
+	/**
+	 * Opens each file in {@link FileMode#ReadOnlySequential} mode and merges all
+	 * of their packets into a single iterator ordered by capture timestamp. The
+	 * files are read sequentially in a single pass, so any number of files can
+	 * be merged with bounded memory. Closing the returned iterator closes all of
+	 * the files.
+	 * 
+	 * @param files
+	 *          capture files to merge, each in timestamp order
+	 * @return iterator over the merged packets
+	 * @throws IOException
+	 *           any IO errors
+	 * @see #merge(List)
+	 */
+	public static InputIterator<CapturePacket> mergeFiles(final File... files)
+	    throws IOException {
+		final List<Capture<? extends CapturePacket>> inputs =
+		    new ArrayList<Capture<? extends CapturePacket>>(files.length);
+		final List<IOIterator<? extends CapturePacket>> sources =
+		    new ArrayList<IOIterator<? extends CapturePacket>>(files.length);
+
+		try {
+			for (final File file : files) {
+				final FileCapture<? extends FilePacket> in =
+				    Captures.getLocal().openFile(file, FileMode.ReadOnlySequential);
+				inputs.add(in);
+				sources.add(in.getPacketIterator());
+			}
+		} catch (final IOException e) {
+			closeAll(inputs);
+			throw e;
+		}
+
+		return mergeIterator(new MergeInput<CapturePacket>(sources, TIMESTAMP),
+		    inputs);
+	}
+
+	private static InputIterator<CapturePacket> mergeIterator(
+	    final MergeInput<CapturePacket> merge,
+	    final List<Capture<? extends CapturePacket>> inputs) {
+
+		return new InputIterator<CapturePacket>() {
+
+			public void close() throws IOException {
+				try {
+					merge.close();
+				} catch (final IORuntimeException e) {
+					throw new IOException("Unable to close merged sources", e);
+				} finally {
+					closeAll(inputs);
+				}
+			}
+
+			public long getPosition() {
+				return merge.getCount();
+			}
+
+			public boolean hasNext() throws IOException {
+				return merge.hasNext();
+			}
+
+			public CapturePacket next() throws IOException {
+				return merge.next();
+			}
+
+			public void remove() throws IOException {
+				merge.remove();
+			}
+
+			public void skip() throws IOException {
+				merge.skip();
+			}
+		};
+	}
+
+	private static void closeAll(
+	    final List<Capture<? extends CapturePacket>> inputs) {
+		for (final Capture<? extends CapturePacket> in : inputs) {
+			try {
+				in.close();
+			} catch (final IOException e) {
+				logger.warn("Unable to close merged input " + in, e);
+			}
+		}
+	}
+
 	/**
 	 * <P>
 	 * Creates a new file of the request type. The new file will contain the
@@ -170,6 +170,29 @@ public enum FileMode {
 
 	ReadOnlyNoMap(false, false, false, false),
 
+	/**
+	 * <p>
+	 * File is opened in read only mode for fast forward only iteration, such as
+	 * offline analysis of large capture files. All mutable operations are
+	 * disabled and the buffers returned to the user are read only.
+	 * </p>
+	 * <p>
+	 * File content is memory mapped in large windows, regardless of the size of
+	 * the file, and packets and records are returned as read only views into the
+	 * mapped window without any intermediate copy. While the current window is
+	 * being iterated, the next window is mapped and loaded into physical memory
+	 * by a background thread, so that the iteration does not stall on page
+	 * faults when it crosses into the next window. Random access is still
+	 * permitted, but windows that are not used sequentially are simply mapped on
+	 * demand.
+	 * </p>
+	 * <p>
+	 * This mode suffers from the same file manipulation issues as
+	 * {@link #ReadOnly} mode, described in the main description.
+	 * </p>
+	 */
+	ReadOnlySequential(true, false, false, false, true),
+
 	/**
 	 * <p>
 	 * The file is opened in read-write mode and no memory map functions are
@@ -271,6 +294,8 @@ public enum FileMode {
 
 	private final boolean append;
 
+	private final boolean sequential;
+
 	/**
 	 * @param map
 	 *          are maps permitted
@@ -283,10 +308,29 @@ public enum FileMode {
 	 */
 	private FileMode(boolean map, boolean content, boolean structure,
 	    boolean append) {
+		this(map, content, structure, append, false);
+	}
+
+	/**
+	 * @param map
+	 *          are maps permitted
+	 * @param content
+	 *          is content modification permitted
+	 * @param structure
+	 *          is structure modification permitted in general
+	 * @param append
+	 *          is the only structure modification permitted append
+	 * @param sequential
+	 *          is the file primarily iterated forward using large prefetched
+	 *          memory maps
+	 */
+	private FileMode(boolean map, boolean content, boolean structure,
+	    boolean append, boolean sequential) {
 		this.map = map;
 		this.content = content;
 		this.structure = structure;
 		this.append = append;
+		this.sequential = sequential;
 
 	}
 
@@ -325,6 +369,18 @@ public enum FileMode {
 		return this.map;
 	}
 
+	/**
+	 * Checks if capture file is optimized for forward only iteration. In this
+	 * mode the file is memory mapped in large windows and the next window is
+	 * prefetched in the background.
+	 * 
+	 * @return true means that file contents are mapped and prefetched
+	 *         sequentially, otherwise false
+	 */
+	public final boolean isSequential() {
+		return this.sequential;
+	}
+
 	/**
 	 * Determines if record structure can be modified. Record structure is
 	 * modified by methods such as add, remove, retain, swap or replace.
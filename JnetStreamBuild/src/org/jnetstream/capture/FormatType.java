@@ -14,6 +14,7 @@ package org.jnetstream.capture;
 
 import org.jnetstream.capture.file.nap.NapFile;
 import org.jnetstream.capture.file.pcap.PcapFile;
+import org.jnetstream.capture.file.pcapng.PcapngFile;
 import org.jnetstream.capture.file.snoop.SnoopFile;
 
 import com.slytechs.utils.namespace.Named;
@@ -42,6 +43,11 @@ public enum FormatType implements Named {
 	 */
 	Snoop(SnoopFile.class, ".snoop"),
 	
+	/**
+	 * PCAP Next Generation file format
+	 */
+	Pcapng(PcapngFile.class, ".pcapng", ".ntar"),
+	
 	/**
 	 * Format type that does not have a "hard" implementation distributed part of
 	 * the core "capture framework" distribution. This is typically NPL based file
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package org.jnetstream.capture.file;
+
+/**
+ * Result of a {@link PacketCounterModel#StatisticalCount} packet count. Besides
+ * the estimated count, the estimate reports the bounds of the confidence
+ * interval computed from the sampled regions of the file. When the file was
+ * small enough to be counted exactly, the bounds are equal to the count and
+ * {@link #isExact()} returns true.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public final class PacketCountEstimate {
+
+	/**
+	 * Confidence level of the interval reported by statistical estimates
+	 */
+	public final static double CONFIDENCE = 0.95;
+
+	private final long count;
+
+	private final long lower;
+
+	private final long upper;
+
+	private final int samples;
+
+	private final boolean exact;
+
+	/**
+	 * Creates an estimate for a count that was calculated exactly.
+	 *
+	 * @param count
+	 *          exact number of packets
+	 */
+	public PacketCountEstimate(long count) {
+		this(count, count, count, 0, true);
+	}
+
+	/**
+	 * Creates a statistical estimate.
+	 *
+	 * @param count
+	 *          estimated number of packets
+	 * @param lower
+	 *          lower bound of the confidence interval
+	 * @param upper
+	 *          upper bound of the confidence interval
+	 * @param samples
+	 *          number of file regions that were sampled
+	 */
+	public PacketCountEstimate(long count, long lower, long upper, int samples) {
+		this(count, lower, upper, samples, false);
+	}
+
+	private PacketCountEstimate(long count, long lower, long upper, int samples,
+	    boolean exact) {
+		this.count = count;
+		this.lower = lower;
+		this.upper = upper;
+		this.samples = samples;
+		this.exact = exact;
+	}
+
+	/**
+	 * @return the estimated number of packets
+	 */
+	public final long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * @return lower bound of the {@link #CONFIDENCE} interval
+	 */
+	public final long getLower() {
+		return this.lower;
+	}
+
+	/**
+	 * @return upper bound of the {@link #CONFIDENCE} interval
+	 */
+	public final long getUpper() {
+		return this.upper;
+	}
+
+	/**
+	 * @return number of file regions that were sampled, 0 for exact counts
+	 */
+	public final int getSamples() {
+		return this.samples;
+	}
+
+	/**
+	 * @return true if the count was not estimated but calculated exactly
+	 */
+	public final boolean isExact() {
+		return this.exact;
+	}
+
+	public String toString() {
+		if (exact) {
+			return Long.toString(count);
+		}
+
+		return count + " [" + lower + " - " + upper + "] @"
+		    + (int) (CONFIDENCE * 100) + "% (" + samples + " samples)";
+	}
+}
@@ -38,7 +38,8 @@ public enum PacketCounterModel {
 	 * number of packets. The statistical approach is not 100% accurate, but the
 	 * count returned is typically very close to the actual number. This type of
 	 * model is much more efficient, especially on large files, and can return a
-	 * count very quickly.
+	 * count very quickly. The confidence interval of the estimate is reported by
+	 * {@link PacketCountEstimate}.
 	 */
 	StatisticalCount
 
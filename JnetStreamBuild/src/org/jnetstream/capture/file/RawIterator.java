@@ -72,6 +72,39 @@ public interface RawIterator extends
 	 */
 	public SeekResult seekToIndex(long recordIndex) throws IOException;
 
+	/**
+	 * Seeks to the first record with a capture timestamp equal or later than the
+	 * supplied timestamp. Records are expected to be in timestamp order, which
+	 * allows the implementation to binary search the file using O(log n) record
+	 * reads. If all of the records are older than the timestamp, the iterator is
+	 * positioned at the end.
+	 * 
+	 * @param timestamp
+	 *          timestamp in nanos since 1970
+	 * @return result of the seek
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public SeekResult seekTime(long timestamp) throws IOException;
+
+	/**
+	 * Returns an iterator over the records with capture timestamps that fall
+	 * within the time range. This iterator is first positioned on the first
+	 * record of the range using {@link #seekTime(long)}, then the returned
+	 * iterator advances this iterator until the first record that is past the
+	 * end of the range.
+	 * 
+	 * @param startTimestamp
+	 *          inclusive start of the range in nanos since 1970
+	 * @param endTimestamp
+	 *          exclusive end of the range in nanos since 1970
+	 * @return iterator over the records within the range
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public IOIterator<ByteBuffer> timeRange(long startTimestamp,
+	    long endTimestamp) throws IOException;
+
 	/**
 	 * Seek the first record from the current position that will match the
 	 * supplied filter.
@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package org.jnetstream.capture.file;
+
+import java.nio.ByteBuffer;
+
+import org.jnetstream.filter.BatchFilter;
+import org.jnetstream.filter.Filter;
+import org.jnetstream.filter.FilterException;
+import org.jnetstream.packet.ProtocolFilterTarget;
+
+/**
+ * Adapts a protocol filter to a record filter, see
+ * {@link HeaderReader#asRecordFilter(Filter, ProtocolFilterTarget)}. Only
+ * packet records are passed to the protocol filter, with the buffer shifted
+ * past the record's header to the beginning of packet data. Batches of
+ * records are passed on as a batch if the protocol filter supports it.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class RecordFilterAdapter implements BatchFilter<RecordFilterTarget> {
+
+	private final Filter<ProtocolFilterTarget> filter;
+
+	private final ProtocolFilterTarget protocol;
+
+	private final RecordFilterTarget packetRecord;
+
+	private final int headerLength;
+
+	/**
+	 * @param filter
+	 *          the protocol filter to adapt
+	 * @param protocol
+	 *          the protocol or the DLT of the first protocol within the packet's
+	 *          data
+	 * @param packetRecord
+	 *          record filter target of packet records, all other records are
+	 *          rejected
+	 * @param headerLength
+	 *          length of packet record's header
+	 */
+	public RecordFilterAdapter(final Filter<ProtocolFilterTarget> filter,
+	    final ProtocolFilterTarget protocol,
+	    final RecordFilterTarget packetRecord, final int headerLength) {
+		this.filter = filter;
+		this.protocol = protocol;
+		this.packetRecord = packetRecord;
+		this.headerLength = headerLength;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.filter.Filter#accept(java.nio.ByteBuffer,
+	 *      org.jnetstream.filter.FilterTarget)
+	 */
+	public boolean accept(final ByteBuffer buffer,
+	    final RecordFilterTarget target) throws FilterException {
+		if (target != packetRecord) {
+			return false;
+		}
+
+		/*
+		 * Shift buffer position past the record's header to the beginning of
+		 * packet data. This is the main part of the adapting process.
+		 */
+		final int p = buffer.position();
+		buffer.position(p + headerLength);
+
+		final boolean r = filter.accept(buffer, protocol);
+
+		buffer.position(p);
+
+		return r;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.filter.Filter#execute(java.nio.ByteBuffer,
+	 *      org.jnetstream.filter.FilterTarget)
+	 */
+	public long execute(final ByteBuffer buffer, final RecordFilterTarget target)
+	    throws FilterException {
+		if (target != packetRecord) {
+			return 0;
+		}
+
+		final int p = buffer.position();
+		buffer.position(p + headerLength);
+
+		final long r = filter.execute(buffer, protocol);
+
+		buffer.position(p);
+
+		return r;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.filter.BatchFilter#accept(java.nio.ByteBuffer, int[],
+	 *      int[], int, org.jnetstream.filter.FilterTarget, long[])
+	 */
+	public int accept(final ByteBuffer buffer, final int[] offsets,
+	    final int[] lengths, final int count, final RecordFilterTarget target,
+	    final long[] matches) throws FilterException {
+
+		if (target != packetRecord) {
+			clear(matches, count);
+			return 0;
+		}
+
+		if (filter instanceof BatchFilter == false) {
+			return acceptEach(buffer, offsets, lengths, count, matches);
+		}
+
+		/*
+		 * Same as the single record case, shift each record past its header and
+		 * restore afterwards
+		 */
+		for (int i = 0; i < count; i++) {
+			offsets[i] += headerLength;
+			lengths[i] -= headerLength;
+		}
+
+		try {
+			return ((BatchFilter<ProtocolFilterTarget>) filter).accept(buffer,
+			    offsets, lengths, count, protocol, matches);
+
+		} finally {
+			for (int i = 0; i < count; i++) {
+				offsets[i] -= headerLength;
+				lengths[i] += headerLength;
+			}
+		}
+	}
+
+	private int acceptEach(final ByteBuffer buffer, final int[] offsets,
+	    final int[] lengths, final int count, final long[] matches)
+	    throws FilterException {
+
+		clear(matches, count);
+
+		final int p = buffer.position();
+		final int l = buffer.limit();
+		int accepted = 0;
+
+		try {
+			for (int i = 0; i < count; i++) {
+				buffer.limit(offsets[i] + lengths[i]);
+				buffer.position(offsets[i] + headerLength);
+
+				if (filter.accept(buffer, protocol)) {
+					matches[i >>> 6] |= 1L << i;
+					accepted++;
+				}
+			}
+		} finally {
+			buffer.limit(l);
+			buffer.position(p);
+		}
+
+		return accepted;
+	}
+
+	private static void clear(final long[] matches, final int count) {
+		for (int i = 0; i < (count + 63) >>> 6; i++) {
+			matches[i] = 0L;
+		}
+	}
+}
@@ -20,12 +20,14 @@ package org.jnetstream.capture.file.nap;
 import java.net.URI;
 import java.net.URISyntaxException;
 
+import org.jnetstream.capture.file.RecordFilterTarget;
+
 
 /**
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
  */
-public enum NAPType {
+public enum NAPType implements RecordFilterTarget {
 	BlockRecord(0x1, 
 			"Block record. Contains file header type information", 
 			"file:///E:/Documents%20and%20Settings/markbe/My%20Documents/jNetPCAP/docs/draft-slytechs-network-nap-00.htm#_Toc134508389"),
@@ -23,13 +23,13 @@ import org.jnetstream.capture.PacketIterator;
 import org.jnetstream.capture.file.HeaderReader;
 import org.jnetstream.capture.file.RawIndexer;
 import org.jnetstream.capture.file.RawIterator;
+import org.jnetstream.capture.file.RecordFilterAdapter;
 import org.jnetstream.capture.file.RecordFilterTarget;
 import org.jnetstream.capture.file.RecordIndexer;
 import org.jnetstream.capture.file.RecordIterator;
 import org.jnetstream.capture.file.RecordType;
 import org.jnetstream.capture.file.pcap.PcapPacketRecord.PcapPacketHeader;
 import org.jnetstream.filter.Filter;
-import org.jnetstream.filter.FilterException;
 import org.jnetstream.packet.ProtocolFilterTarget;
 import org.jnetstream.protocol.Protocol;
 
@@ -154,50 +154,8 @@ public interface PcapFile extends FileCapture<PcapPacket>, PcapFormat {
 				return null;
 			}
 			
-			return new Filter<RecordFilterTarget>() {
-
-				public boolean accept(ByteBuffer buffer, RecordFilterTarget target)
-				    throws FilterException {
-					if (target != PCAPRecordType.PacketRecord) {
-						return false;
-					}
-
-					/*
-					 * Shift buffer position past the record's header to the beginning of
-					 * packet data. This is the main part of the adapting process.
-					 */
-					final int p = buffer.position();
-					buffer.position(p + PcapPacketRecord.HEADER_LENGTH);
-
-					final boolean r = filter.accept(buffer, protocol);
-
-					buffer.position(p);
-
-					return r;
-				}
-
-				public long execute(ByteBuffer buffer, RecordFilterTarget target)
-				    throws FilterException {
-					if (target != PCAPRecordType.PacketRecord) {
-						return 0;
-					}
-
-					/*
-					 * Shift buffer position past the record's header to the beginning of
-					 * packet data. This is the main part of the adapting process.
-					 */
-					final int p = buffer.position();
-					buffer.position(p + PcapPacketRecord.HEADER_LENGTH);
-
-					final long r = filter.execute(buffer, protocol);
-
-					buffer.position(p);
-
-					return r;
-
-				}
-
-			};
+			return new RecordFilterAdapter(filter, protocol,
+			    PCAPRecordType.PacketRecord, PcapPacketRecord.HEADER_LENGTH);
 		}
 
 	};
@@ -212,6 +212,64 @@ public interface PcapPacketRecord extends DataRecord, PcapRecord {
 
 	public static final int MIN_MICRO = 0;
 	public static final int MIN_ORIGINAL = 32;
+
+	/**
+	 * Search pattern for packet records of a file with a known snaplen. Unlike
+	 * {@link PcapPacketRecord#pattern}, which only accepts typical ethernet
+	 * frame lengths, the included length is checked against the snaplen from
+	 * the file header and the original length must be at least the included
+	 * length. Files with jumbo or segmentation offloaded frames can therefore
+	 * be resynchronized on.
+	 */
+	public static class SnaplenPattern implements SeekPattern {
+
+		private final long snaplen;
+
+		/**
+		 * @param snaplen
+		 *          snaplen from the file header
+		 */
+		public SnaplenPattern(final long snaplen) {
+			this.snaplen = (snaplen > 0 && snaplen <= Integer.MAX_VALUE) ? snaplen
+			    : Integer.MAX_VALUE;
+		}
+
+		public boolean match(ByteBuffer buffer) throws IOException {
+
+			final TimeUtils.Interval timeframe = TimeUtils.Interval.THREE_DECADES;
+
+			final long seconds = System.currentTimeMillis() / 1000;
+			final long earliest = seconds - timeframe.seconds();
+			final long latest = seconds + timeframe.seconds();
+
+			final long timestamp = buffer.getInt() & 0xFFFFFFFFL;
+			if (timestamp < earliest || timestamp > latest) {
+				return false;
+			}
+
+			final int micros = buffer.getInt();
+			if (micros < MIN_MICRO || micros > MAX_MICRO) {
+				return false;
+			}
+
+			final int included = buffer.getInt();
+			if (included <= 0 || included > snaplen) {
+				return false;
+			}
+
+			final int original = buffer.getInt();
+			if (original < included) {
+				return false;
+			}
+
+			return true;
+		}
+
+		public int minLength() {
+			return HEADER_LENGTH;
+		}
+	}
+
 	public final static SeekPattern pattern = new SeekPattern() {
   	public boolean match(ByteBuffer buffer) throws IOException {
   		
@@ -219,15 +277,18 @@ public interface PcapPacketRecord extends DataRecord, PcapRecord {
 			
 			final long millis = System.currentTimeMillis();
 			final long seconds = millis / 1000;
-			final int earliest = (int) (seconds - timeframe.seconds());
-			final int latest = (int) (seconds + timeframe.seconds());
+			final long earliest = seconds - timeframe.seconds();
+			final long latest = seconds + timeframe.seconds();
   
-  		int field = buffer.getInt();
-  		if (field < earliest || field > latest) {
+  		/*
+  		 * Seconds field is unsigned, and latest no longer fits in an int
+  		 */
+  		final long timestamp = buffer.getInt() & 0xFFFFFFFFL;
+  		if (timestamp < earliest || timestamp > latest) {
   			return false;
   		}
   
-  		field = buffer.getInt();
+  		int field = buffer.getInt();
   		if (field < MIN_MICRO || field > MAX_MICRO) {
   			return false;
   		}
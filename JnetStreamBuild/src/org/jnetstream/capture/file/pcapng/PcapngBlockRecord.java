@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package org.jnetstream.capture.file.pcapng;
+
+import java.io.IOException;
+
+import org.jnetstream.capture.file.BlockRecord;
+
+/**
+ * Section Header Block. Every pcapng file starts with one and a file may
+ * contain several sections, each starting with its own section header.
+ * Interface ids are local to a section.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public interface PcapngBlockRecord extends BlockRecord, PcapngRecord {
+
+	public static final int HDR_BYTE_ORDER_MAGIC = 8;
+
+	public static final int HDR_MAJOR_VERSION = 12;
+
+	public static final int HDR_MINOR_VERSION = 14;
+
+	public static final int HDR_SECTION_LENGTH = 16;
+
+	public static final int HEADER_LENGTH = 24;
+
+	/**
+	 * Section length value used when the length of the section is not known
+	 */
+	public static final long SECTION_LENGTH_UNKNOWN = -1L;
+
+	public static final int SHB_HARDWARE = 2;
+
+	public static final int SHB_OS = 3;
+
+	public static final int SHB_USERAPPL = 4;
+
+	public long getMajorVersion() throws IOException;
+
+	public int getMinorVersion() throws IOException;
+
+	public void setMinorVersion(int minor) throws IOException;
+
+	/**
+	 * Length of the section in bytes, not including this section header block.
+	 * When known, the next section header starts immediately after the section.
+	 *
+	 * @return section length or {@link #SECTION_LENGTH_UNKNOWN}
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public long getSectionLength() throws IOException;
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package org.jnetstream.capture.file.pcapng;
+
+import org.jnetstream.capture.file.RecordFilterTarget;
+import org.jnetstream.capture.file.RecordType;
+
+/**
+ * Types of blocks found in a pcapng file. Every block starts with a 32-bit
+ * block type and a 32-bit total block length and ends with a copy of the
+ * total block length.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public enum PcapngBlockType implements RecordFilterTarget {
+
+	/**
+	 * Section Header Block, starts a section and defines its byte order
+	 */
+	SectionHeader(0x0A0D0D0A, RecordType.BlockRecord, 24),
+
+	/**
+	 * Interface Description Block, describes an interface packets were captured
+	 * on
+	 */
+	InterfaceDescription(0x00000001, RecordType.MetaRecord, 16),
+
+	/**
+	 * Obsolete Packet Block, superseded by the enhanced packet block
+	 */
+	Packet(0x00000002, RecordType.PacketRecord, 28),
+
+	/**
+	 * Simple Packet Block, a packet captured on the first interface without a
+	 * timestamp
+	 */
+	SimplePacket(0x00000003, RecordType.PacketRecord, 12),
+
+	/**
+	 * Name Resolution Block
+	 */
+	NameResolution(0x00000004, RecordType.MetaRecord, 8),
+
+	/**
+	 * Interface Statistics Block, capture statistics of an interface
+	 */
+	InterfaceStatistics(0x00000005, RecordType.MetaRecord, 20),
+
+	/**
+	 * Enhanced Packet Block, a packet with its interface and timestamp
+	 */
+	EnhancedPacket(0x00000006, RecordType.PacketRecord, 28),
+
+	/**
+	 * Systemd Journal Export Block
+	 */
+	SystemdJournal(0x00000009, RecordType.MetaRecord, 8),
+
+	/**
+	 * Decryption Secrets Block
+	 */
+	DecryptionSecrets(0x0000000A, RecordType.MetaRecord, 16),
+
+	/**
+	 * Custom Block that may be copied to other files
+	 */
+	Custom(0x00000BAD, RecordType.MetaRecord, 12),
+
+	/**
+	 * Custom Block that should not be copied to other files
+	 */
+	CustomNoCopy(0x40000BAD, RecordType.MetaRecord, 12),
+
+	/**
+	 * Any block type not known to this implementation. Such blocks are skipped
+	 * over using their total block length.
+	 */
+	Unknown(-1, RecordType.MetaRecord, 8), ;
+
+	private final int type;
+
+	private final RecordType recordType;
+
+	private final int headerLength;
+
+	private PcapngBlockType(int type, RecordType recordType, int headerLength) {
+		this.type = type;
+		this.recordType = recordType;
+		this.headerLength = headerLength;
+	}
+
+	/**
+	 * Block type code as stored in the file.
+	 *
+	 * @return block type code
+	 */
+	public int intValue() {
+		return type;
+	}
+
+	/**
+	 * Generic record type this block maps to.
+	 *
+	 * @return record type
+	 */
+	public RecordType getRecordType() {
+		return recordType;
+	}
+
+	/**
+	 * Length of the fixed part of the block, including the 8 byte block type and
+	 * length fields. Packet data, variable length fields and options follow it.
+	 *
+	 * @return length in bytes
+	 */
+	public int getHeaderLength() {
+		return headerLength;
+	}
+
+	/**
+	 * Checks if this block type carries packet data.
+	 *
+	 * @return true if this is one of the packet blocks
+	 */
+	public boolean isPacket() {
+		return recordType == RecordType.PacketRecord;
+	}
+
+	/**
+	 * Looks up the block type for a block type code.
+	 *
+	 * @param type
+	 *          block type code
+	 * @return the matching block type or {@link #Unknown}
+	 */
+	public static PcapngBlockType valueOf(int type) {
+		switch (type) {
+			case 0x0A0D0D0A:
+				return SectionHeader;
+			case 0x00000001:
+				return InterfaceDescription;
+			case 0x00000002:
+				return Packet;
+			case 0x00000003:
+				return SimplePacket;
+			case 0x00000004:
+				return NameResolution;
+			case 0x00000005:
+				return InterfaceStatistics;
+			case 0x00000006:
+				return EnhancedPacket;
+			case 0x00000009:
+				return SystemdJournal;
+			case 0x0000000A:
+				return DecryptionSecrets;
+			case 0x00000BAD:
+				return Custom;
+			case 0x40000BAD:
+				return CustomNoCopy;
+
+			default:
+				return Unknown;
+		}
+	}
+}
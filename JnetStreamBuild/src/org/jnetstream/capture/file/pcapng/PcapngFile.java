@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package org.jnetstream.capture.file.pcapng;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jnetstream.capture.FileCapture;
+import org.jnetstream.capture.PacketIndexer;
+import org.jnetstream.capture.PacketIterator;
+import org.jnetstream.capture.file.HeaderReader;
+import org.jnetstream.capture.file.RawIndexer;
+import org.jnetstream.capture.file.RawIterator;
+import org.jnetstream.capture.file.RecordFilterTarget;
+import org.jnetstream.capture.file.RecordIndexer;
+import org.jnetstream.capture.file.RecordIterator;
+import org.jnetstream.capture.file.RecordType;
+import org.jnetstream.filter.Filter;
+import org.jnetstream.packet.ProtocolFilterTarget;
+
+import com.slytechs.utils.collection.IOSkippableIterator;
+
+/**
+ * PCAP Next Generation capture file format. The file is made up of one or more
+ * sections, each starting with a section header block followed by interface
+ * description blocks, packet blocks and other blocks. Unlike pcap, the link
+ * type and timestamp resolution are per interface and a single file may
+ * contain packets captured on several interfaces.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public interface PcapngFile extends FileCapture<PcapngPacket> {
+
+	/**
+	 * Byte order magic of the section header block, as written in the byte
+	 * order of the section
+	 */
+	public static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+
+	public static final int MAJOR_VERSION = 1;
+
+	public static final int MINOR_VERSION = 0;
+
+	public static final HeaderReader headerReader = new HeaderReader() {
+
+		public String toString() {
+			return "[PcapngHeader, min=12]";
+		}
+
+		public int getMinLength() {
+			return PcapngRecord.MIN_BLOCK_LENGTH;
+		}
+
+		/*
+		 * The length of a section header is read before the byte order of the
+		 * section is known, the byte order magic tells if it needs swapping.
+		 */
+		public long readLength(ByteBuffer buffer) {
+			final int p = buffer.position();
+			final int length = buffer.getInt(p + PcapngRecord.HDR_BLOCK_LENGTH);
+
+			if (buffer.getInt(p) == PcapngBlockType.SectionHeader.intValue()
+			    && buffer.getInt(p + PcapngBlockRecord.HDR_BYTE_ORDER_MAGIC) != BYTE_ORDER_MAGIC) {
+				return Integer.reverseBytes(length) & 0xFFFFFFFFL;
+			}
+
+			return length & 0xFFFFFFFFL;
+		}
+
+		public int getOffset() {
+			return PcapngRecord.HDR_BLOCK_LENGTH;
+		}
+
+		public RecordType readType(ByteBuffer buffer) {
+			return PcapngBlockType.valueOf(buffer.getInt(buffer.position()))
+			    .getRecordType();
+		}
+
+		public int getHeaderLength(ByteBuffer buffer) {
+			return PcapngBlockType.valueOf(buffer.getInt(buffer.position()))
+			    .getHeaderLength();
+		}
+
+		public RecordFilterTarget readRecordFilterTarget(ByteBuffer buffer) {
+			return PcapngBlockType.valueOf(buffer.getInt(buffer.position()));
+		}
+
+		public Filter<RecordFilterTarget> asRecordFilter(
+		    final Filter<ProtocolFilterTarget> filter,
+		    final ProtocolFilterTarget protocol) {
+			return new PcapngRecordFilter(filter, protocol);
+		}
+
+	};
+
+	/**
+	 * Record filter which accepts only packet blocks
+	 */
+	public static final Filter<RecordFilterTarget> PACKET_FILTER = new PcapngRecordFilter(
+	    null);
+
+	public static final Log logger = LogFactory.getLog(PcapngFile.class);
+
+	public IOSkippableIterator<PcapngBlockRecord> getBlockIterator()
+	    throws IOException;
+
+	/**
+	 * Section header of the first section.
+	 */
+	public PcapngBlockRecord getBlockRecord();
+
+	/**
+	 * Returns all the interfaces of all the sections in the order they are
+	 * described in the file. Interface ids are local to each section.
+	 *
+	 * @return list of interfaces
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public List<PcapngInterface> getInterfaces() throws IOException;
+
+	public PacketIndexer<PcapngPacket> getPacketIndexer() throws IOException;
+
+	public PacketIterator<PcapngPacket> getPacketIterator() throws IOException;
+
+	public RawIndexer getRawIndexer() throws IOException;
+
+	public RawIterator getRawIterator() throws IOException;
+
+	public RecordIndexer<PcapngRecord> getRecordIndexer() throws IOException;
+
+	public RecordIterator<PcapngRecord> getRecordIterator() throws IOException;
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package org.jnetstream.capture.file.pcapng;
+
+import org.jnetstream.protocol.Protocol;
+
+/**
+ * An interface described by an Interface Description Block. Packet blocks
+ * refer to their interface by its id, which is the order of the interface
+ * description within its section. The interface defines the link type and the
+ * resolution of packet timestamps. The statistics are taken from the last
+ * Interface Statistics Block of the interface, if the file has any.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public interface PcapngInterface {
+
+	public static final int HDR_LINKTYPE = 8;
+
+	public static final int HDR_SNAPLEN = 12;
+
+	public static final int IF_NAME = 2;
+
+	public static final int IF_DESCRIPTION = 3;
+
+	public static final int IF_TSRESOL = 9;
+
+	public static final int IF_TSOFFSET = 14;
+
+	public static final int ISB_STARTTIME = 2;
+
+	public static final int ISB_ENDTIME = 3;
+
+	public static final int ISB_IFRECV = 4;
+
+	public static final int ISB_IFDROP = 5;
+
+	/**
+	 * Timestamp units per second when the interface does not have an
+	 * if_tsresol option, which is microseconds
+	 */
+	public static final long DEFAULT_TIMESTAMP_UNITS = 1000000L;
+
+	/**
+	 * Id of the interface within its section.
+	 *
+	 * @return interface id
+	 */
+	public int getId();
+
+	/**
+	 * Link type of the interface, using the same link type values as pcap.
+	 *
+	 * @return link type
+	 */
+	public int getLinktype();
+
+	/**
+	 * Link type translated to a protocol.
+	 *
+	 * @return the data link protocol or null if not known
+	 */
+	public Protocol getProtocol();
+
+	/**
+	 * Maximum number of bytes captured from each packet.
+	 *
+	 * @return snaplen or 0 for no limit
+	 */
+	public long getSnaplen();
+
+	public String getName();
+
+	public String getDescription();
+
+	/**
+	 * Number of timestamp units per second.
+	 *
+	 * @return units per second
+	 */
+	public long getTimestampUnits();
+
+	/**
+	 * Offset in seconds added to all timestamps of this interface.
+	 *
+	 * @return offset in seconds
+	 */
+	public long getTimestampOffset();
+
+	/**
+	 * Converts a packet block timestamp of this interface to seconds.
+	 *
+	 * @param timestamp
+	 *          timestamp in the interface's units
+	 * @return seconds since epoch
+	 */
+	public long getSeconds(long timestamp);
+
+	/**
+	 * Converts a packet block timestamp of this interface to the nanosecond
+	 * fraction of a second.
+	 *
+	 * @param timestamp
+	 *          timestamp in the interface's units
+	 * @return nanos between 0 and 999,999,999
+	 */
+	public long getNanos(long timestamp);
+
+	/**
+	 * Converts seconds and nanos to a packet block timestamp of this interface.
+	 *
+	 * @param seconds
+	 *          seconds since epoch
+	 * @param nanos
+	 *          nanosecond fraction
+	 * @return timestamp in the interface's units
+	 */
+	public long getTimestamp(long seconds, long nanos);
+
+	/**
+	 * Number of packets received by the interface, from isb_ifrecv.
+	 *
+	 * @return packet count or -1 if not known
+	 */
+	public long getReceived();
+
+	/**
+	 * Number of packets dropped by the interface, from isb_ifdrop.
+	 *
+	 * @return packet count or -1 if not known
+	 */
+	public long getDropped();
+
+	/**
+	 * Timestamp of the start of the capture, from isb_starttime.
+	 *
+	 * @return timestamp in the interface's units or -1 if not known
+	 */
+	public long getStartTime();
+
+	/**
+	 * Timestamp of the end of the capture, from isb_endtime.
+	 *
+	 * @return timestamp in the interface's units or -1 if not known
+	 */
+	public long getEndTime();
+}
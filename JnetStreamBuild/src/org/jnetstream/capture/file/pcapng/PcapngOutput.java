@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package org.jnetstream.capture.file.pcapng;
+
+import java.io.IOException;
+
+import org.jnetstream.capture.OutputCapture;
+import org.jnetstream.protocol.Protocol;
+
+/**
+ * A pcapng output stream. A section header is written first, followed by an
+ * interface description for each distinct link type as packets of that link
+ * type are added. Packets are written as enhanced packet blocks.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public interface PcapngOutput extends OutputCapture {
+
+	public void add(PcapngRecord record) throws IOException;
+
+	/**
+	 * Returns the interface packets of the link type are written to, writing
+	 * its interface description block first if this is the first packet of the
+	 * link type.
+	 *
+	 * @param dlt
+	 *          link type of the packets
+	 * @return the interface
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public PcapngInterface getInterface(Protocol dlt) throws IOException;
+
+}
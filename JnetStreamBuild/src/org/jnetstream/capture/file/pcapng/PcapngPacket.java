@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package org.jnetstream.capture.file.pcapng;
+
+import java.io.IOException;
+
+import org.jnetstream.capture.FilePacket;
+
+/**
+ * A packet stored in an Enhanced Packet Block, a Simple Packet Block or the
+ * obsolete Packet Block.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public interface PcapngPacket extends FilePacket {
+
+	public static final int HDR_INTERFACE_ID = 8;
+
+	public static final int HDR_TIMESTAMP_HIGH = 12;
+
+	public static final int HDR_TIMESTAMP_LOW = 16;
+
+	public static final int HDR_CAPTURED_LENGTH = 20;
+
+	public static final int HDR_ORIGINAL_LENGTH = 24;
+
+	/**
+	 * Original length field of a Simple Packet Block
+	 */
+	public static final int SPB_ORIGINAL_LENGTH = 8;
+
+	public PcapngBlockType getBlockType() throws IOException;
+
+	/**
+	 * Id of the interface the packet was captured on. Simple packet blocks
+	 * always belong to interface 0.
+	 *
+	 * @return interface id
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public int getInterfaceId() throws IOException;
+
+	public PcapngInterface getInterface() throws IOException;
+}
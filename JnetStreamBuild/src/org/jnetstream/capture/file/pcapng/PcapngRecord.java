@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package org.jnetstream.capture.file.pcapng;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.jnetstream.capture.file.Record;
+import org.jnetstream.capture.file.SeekPattern;
+
+/**
+ * A pcapng block. All blocks share the same framing, a block type, a total
+ * block length, the block body and a trailing copy of the total block length,
+ * which allows the file to be traversed in both directions.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public interface PcapngRecord extends Record {
+
+	public static final int HDR_BLOCK_TYPE = 0;
+
+	public static final int HDR_BLOCK_LENGTH = 4;
+
+	public static final int BLOCK_HEADER_LENGTH = 8;
+
+	public static final int BLOCK_TRAILER_LENGTH = 4;
+
+	public static final int MIN_BLOCK_LENGTH = BLOCK_HEADER_LENGTH
+	    + BLOCK_TRAILER_LENGTH;
+
+	/**
+	 * Largest block length accepted when searching for a block start. Longer
+	 * blocks are valid but are never matched by a seek.
+	 */
+	public static final int MAX_BLOCK_LENGTH = 16 * 1024 * 1024;
+
+	/**
+	 * Option code that terminates the list of options
+	 */
+	public static final int OPT_ENDOFOPT = 0;
+
+	/**
+	 * Option code of a UTF-8 comment, valid in all blocks that have options
+	 */
+	public static final int OPT_COMMENT = 1;
+
+	/**
+	 * Matches a block header of a known block type whose total length is a
+	 * multiple of 4, large enough for the block type and no longer than
+	 * {@link #MAX_BLOCK_LENGTH}. If the end of the block is within the buffer, the
+	 * trailing length must match the leading length.
+	 */
+	public final static SeekPattern pattern = new SeekPattern() {
+
+		public boolean match(ByteBuffer buffer) throws IOException {
+			final int p = buffer.position();
+
+			if (buffer.limit() - p < MIN_BLOCK_LENGTH) {
+				return false;
+			}
+
+			final PcapngBlockType type = PcapngBlockType.valueOf(buffer.getInt(p
+			    + HDR_BLOCK_TYPE));
+			if (type == PcapngBlockType.Unknown) {
+				return false;
+			}
+
+			final long length = PcapngFile.headerReader.readLength(buffer);
+			if (length < type.getHeaderLength() + BLOCK_TRAILER_LENGTH
+			    || length > MAX_BLOCK_LENGTH || length % 4 != 0) {
+				return false;
+			}
+
+			/*
+			 * The trailer is stored in the same byte order as the leading length so
+			 * the raw values can be compared even for section headers.
+			 */
+			final long trailer = p + length - BLOCK_TRAILER_LENGTH;
+			if (trailer + BLOCK_TRAILER_LENGTH <= buffer.limit()
+			    && buffer.getInt((int) trailer) != buffer.getInt(p
+			        + HDR_BLOCK_LENGTH)) {
+				return false;
+			}
+
+			return true;
+		}
+
+		public int minLength() {
+			return MIN_BLOCK_LENGTH;
+		}
+	};
+
+	/**
+	 * Type of this block.
+	 *
+	 * @return block type
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public PcapngBlockType getBlockType() throws IOException;
+
+	/**
+	 * Returns the value of the first option with the supplied option code.
+	 *
+	 * @param code
+	 *          option code
+	 * @return the option's value or null if the block does not contain the
+	 *         option or the block type does not have options
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public byte[] getOption(int code) throws IOException;
+}
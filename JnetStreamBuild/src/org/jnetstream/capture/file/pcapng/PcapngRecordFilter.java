@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package org.jnetstream.capture.file.pcapng;
+
+import java.nio.ByteBuffer;
+
+import org.jnetstream.capture.file.RecordFilterTarget;
+import org.jnetstream.filter.Filter;
+import org.jnetstream.filter.FilterException;
+import org.jnetstream.packet.ProtocolFilterTarget;
+
+/**
+ * Record filter that only accepts packet blocks. Unlike
+ * {@link org.jnetstream.capture.file.RecordFilterAdapter} the packet data
+ * starts at a different offset for each type of packet block and the first
+ * protocol depends on the interface the packet was captured on. The protocol
+ * filter is passed the protocol of the packet's interface, looked up by
+ * interface id in the supplied array.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class PcapngRecordFilter implements Filter<RecordFilterTarget> {
+
+	private final Filter<ProtocolFilterTarget> filter;
+
+	private final ProtocolFilterTarget[] protocols;
+
+	/**
+	 * @param filter
+	 *          protocol filter to apply to packet data, or null to accept all
+	 *          packet blocks
+	 * @param protocols
+	 *          the protocol of the first header within the packet's data,
+	 *          indexed by interface id. Packets of interfaces without an entry
+	 *          use the first protocol.
+	 */
+	public PcapngRecordFilter(final Filter<ProtocolFilterTarget> filter,
+	    final ProtocolFilterTarget... protocols) {
+		this.filter = filter;
+		this.protocols = protocols;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.filter.Filter#accept(java.nio.ByteBuffer,
+	 *      org.jnetstream.filter.FilterTarget)
+	 */
+	public boolean accept(final ByteBuffer buffer,
+	    final RecordFilterTarget target) throws FilterException {
+		if (isPacket(target) == false) {
+			return false;
+		}
+
+		if (filter == null) {
+			return true;
+		}
+
+		final PcapngBlockType type = (PcapngBlockType) target;
+		final int p = buffer.position();
+		final ProtocolFilterTarget protocol = protocolOf(buffer, p, type);
+
+		buffer.position(p + type.getHeaderLength());
+
+		final boolean r = filter.accept(buffer, protocol);
+
+		buffer.position(p);
+
+		return r;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.jnetstream.filter.Filter#execute(java.nio.ByteBuffer,
+	 *      org.jnetstream.filter.FilterTarget)
+	 */
+	public long execute(final ByteBuffer buffer, final RecordFilterTarget target)
+	    throws FilterException {
+		if (isPacket(target) == false) {
+			return 0;
+		}
+
+		final PcapngBlockType type = (PcapngBlockType) target;
+		if (filter == null) {
+			return type.getHeaderLength();
+		}
+
+		final int p = buffer.position();
+		final ProtocolFilterTarget protocol = protocolOf(buffer, p, type);
+
+		buffer.position(p + type.getHeaderLength());
+
+		final long r = filter.execute(buffer, protocol);
+
+		buffer.position(p);
+
+		return r;
+	}
+
+	private boolean isPacket(final RecordFilterTarget target) {
+		return (target instanceof PcapngBlockType)
+		    && ((PcapngBlockType) target).isPacket();
+	}
+
+	private ProtocolFilterTarget protocolOf(final ByteBuffer buffer,
+	    final int offset, final PcapngBlockType type) {
+		if (protocols.length == 0) {
+			return null;
+		}
+
+		final int id;
+		switch (type) {
+			case EnhancedPacket:
+				id = buffer.getInt(offset + PcapngPacket.HDR_INTERFACE_ID);
+				break;
+
+			case Packet:
+				id = buffer.getShort(offset + PcapngPacket.HDR_INTERFACE_ID) & 0xFFFF;
+				break;
+
+			default:
+				id = 0;
+		}
+
+		return (id >= 0 && id < protocols.length) ? protocols[id] : protocols[0];
+	}
+
+	public String toString() {
+		return "[PcapngRecordFilter, filter=" + filter + "]";
+	}
+}
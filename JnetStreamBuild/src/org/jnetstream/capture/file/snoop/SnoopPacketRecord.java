@@ -250,8 +250,8 @@ public interface SnoopPacketRecord extends DataRecord, SnoopRecord {
 
 			final long millis = System.currentTimeMillis();
 			final long seconds = millis / 1000;
-			final int earliest = (int) (seconds - timeframe.seconds());
-			final int latest = (int) (seconds + timeframe.seconds());
+			final long earliest = seconds - timeframe.seconds();
+			final long latest = seconds + timeframe.seconds();
 
 			/*
 			 * Included length
@@ -283,15 +283,15 @@ public interface SnoopPacketRecord extends DataRecord, SnoopRecord {
 			/*
 			 * Seconds
 			 */
-			int field = buffer.getInt();
-			if (field <= earliest || field > latest) {
+			final long timestamp = buffer.getInt() & 0xFFFFFFFFL;
+			if (timestamp <= earliest || timestamp > latest) {
 				return false;
 			}
 
 			/*
 			 * Micros
 			 */
-			field = buffer.getInt();
+			int field = buffer.getInt();
 			if (field < 0 || field > FIELD_MAX_MICROS) {
 				return false;
 			}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2007 Sly Technologies, Inc. This library is free software; you
+ * can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version. This
+ * library is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details. You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+package org.jnetstream.filter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A filter which can evaluate many records in a single call. All the records
+ * must reside within the same buffer and share the same filter target. The
+ * cost of looking up the filter program and the filter engine is paid once per
+ * call instead of once per record.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public interface BatchFilter<T extends FilterTarget> extends Filter<T> {
+
+	/**
+	 * Evaluates the filter against a vector of records. Bit <code>i</code> of
+	 * the matches bitmask, that is bit <code>i % 64</code> of
+	 * <code>matches[i / 64]</code>, is set if the record <code>i</code> was
+	 * accepted and cleared otherwise. The buffer's position and limit are not
+	 * used or modified.
+	 *
+	 * @param buffer
+	 *          buffer containing all the records
+	 * @param offsets
+	 *          absolute index of each record within the buffer
+	 * @param lengths
+	 *          length of each record
+	 * @param count
+	 *          number of records to evaluate
+	 * @param target
+	 *          filter target shared by all the records
+	 * @param matches
+	 *          bitmask which receives the result, must hold at least
+	 *          <code>(count + 63) / 64</code> elements
+	 * @return number of records accepted
+	 * @throws FilterException
+	 *           any errors while evaluating the filter
+	 */
+	public int accept(ByteBuffer buffer, int[] offsets, int[] lengths,
+	    int count, T target, long[] matches) throws FilterException;
+}
@@ -19,7 +19,7 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jnetstream.capture.file.pcap.PcapDLT;
-import org.jnetstream.filter.Filter;
+import org.jnetstream.filter.BatchFilter;
 import org.jnetstream.filter.FilterException;
 import org.jnetstream.filter.FilterExpression;
 import org.jnetstream.filter.FilterNotFoundException;
@@ -47,7 +47,7 @@ import org.jnetstream.packet.ProtocolFilterTarget;
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
  */
-public class BPFFilter<T extends FilterTarget> implements Filter<T> {
+public class BPFFilter<T extends FilterTarget> implements BatchFilter<T> {
 
 	public static class BPFProtocolFilter
 	    extends BPFFilter<ProtocolFilterTarget> {
@@ -167,40 +167,83 @@ public class BPFFilter<T extends FilterTarget> implements Filter<T> {
 	public long execute(final ByteBuffer buffer, final FilterTarget target)
 	    throws FilterException {
 
-		BPFProgram program = map.get(target);
-
-		if (program == null) {
-			program = compile(target);
-			map.put(target, program);
+		final BPFProgram p = getProgram(target);
+		if (p == null) {
+			return 0; // Automatic rejection, no filter specified for this type of
+			// target
 		}
 
 		try {
+			final long length = BpfFactory.getForThread().execute(p, buffer,
+			    buffer.remaining(), buffer.remaining());
+
+			return length;
+
+		} catch (final Exception e) {
+			logger.error("Invalid BPF instruction encountered", e);
+			throw new IllegalStateException("Invalid BPF instruction", e);
+		}
+	}
 
-			/*
-			 * Pick either the static program or use the expression to compile to BPF
-			 * program for each different target. We rely on expression object to
-			 * cache filters, of course.
-			 */
-			final BPFProgram p;
-			if (expression != null) {
-				p = expression.compile(target);
-
-			} else if (program != null && this.target == target) {
-				p = program;
-
-			} else {
-				return 0; // Automatic rejection, no filter specified for this type of
-				// target
+	/**
+	 * Executes the filter against a vector of records with a single program
+	 * lookup and a single BPF VM lookup for the entire batch.
+	 * 
+	 * @throws FilterNotFoundException
+	 *           if a program could not be generated or found for the specified
+	 *           target
+	 * @see org.jnetstream.filter.BatchFilter#accept(java.nio.ByteBuffer, int[],
+	 *      int[], int, org.jnetstream.filter.FilterTarget, long[])
+	 */
+	public int accept(final ByteBuffer buffer, final int[] offsets,
+	    final int[] lengths, final int count, final FilterTarget target,
+	    final long[] matches) throws FilterException {
+
+		final BPFProgram p = getProgram(target);
+		if (p == null) {
+			for (int i = 0; i < (count + 63) >>> 6; i++) {
+				matches[i] = 0L;
 			}
 
-			final long length = BpfFactory.getForThread().execute(p, buffer, 0,
-			    buffer.limit());
+			return 0;
+		}
 
-			return length;
+		try {
+			return BpfFactory.getForThread().execute(p, buffer, offsets, lengths,
+			    count, matches);
 
 		} catch (final Exception e) {
 			logger.error("Invalid BPF instruction encountered", e);
 			throw new IllegalStateException("Invalid BPF instruction", e);
 		}
 	}
+
+	/**
+	 * Pick either the static program or use the expression to compile to BPF
+	 * program for each different target. We rely on expression object to cache
+	 * filters, of course.
+	 * 
+	 * @return the program or null if no filter was specified for this type of
+	 *         target
+	 */
+	private BPFProgram getProgram(final FilterTarget target)
+	    throws FilterException {
+
+		BPFProgram program = map.get(target);
+
+		if (program == null) {
+			program = compile(target);
+			map.put(target, program);
+		}
+
+		if (expression != null) {
+			return expression.compile(target);
+
+		} else if (program != null && this.target == target) {
+			return program;
+
+		} else {
+			return null;
+		}
+	}
 }
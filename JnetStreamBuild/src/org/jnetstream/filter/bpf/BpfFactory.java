@@ -29,9 +29,26 @@ public class BpfFactory {
 	
 	private static final Log logger = LogFactory.getLog(BpfFactory.class);
 	
+	/**
+	 * Compiles BPF programs to java byte code
+	 */
 	public static final String DEFAULT_BPF_IMPLEMENTATION = 
+		"com.slytechs.filter.bpf.vm.BPFCompiledMachine";
+
+	/**
+	 * Interpreter used when the default implementation is not available, such
+	 * as on platforms that can not load generated byte code
+	 */
+	public static final String FALLBACK_BPF_IMPLEMENTATION = 
 		"com.slytechs.filter.bpf.vm.BPFVirtualMachine";
 
+	/**
+	 * Set system property "jnetstream.bpf.compile" to false to always use the
+	 * interpreter
+	 */
+	public static boolean compile = Boolean.parseBoolean(System.getProperty(
+	    "jnetstream.bpf.compile", "true"));
+
 	private static ThreadLocal<BpfVM> global = new ThreadLocal<BpfVM>() {
 
 		/* (non-Javadoc)
@@ -40,9 +57,17 @@ public class BpfFactory {
     @Override
     protected BpfVM initialValue() {
       BpfVM vm;
+      if (compile) {
+      	try {
+      		return (BpfVM) Class.forName(DEFAULT_BPF_IMPLEMENTATION).newInstance();
+      	} catch (Exception e) {
+      		logger.debug("BPF compiler unavailable, using interpreter: " + e);
+      	}
+      }
+
       try {
 
-				vm = (BpfVM) Class.forName(DEFAULT_BPF_IMPLEMENTATION).newInstance();
+				vm = (BpfVM) Class.forName(FALLBACK_BPF_IMPLEMENTATION).newInstance();
       } catch (Exception e) {
       	logger.error("Unable to find BPF VM", e);
       	throw new IllegalStateException("Unable to find BPF VM class", e);
@@ -33,4 +33,30 @@ public interface BpfVM {
 	public long execute(BPFProgram program, ByteBuffer p, int wirelen, int buflen)
 	    throws IllegalInstructionException;
 
+	/**
+	 * Executes the program against a vector of packets stored within the same
+	 * buffer. The program is looked up once for the entire batch. Bit
+	 * <code>i % 64</code> of <code>matches[i / 64]</code> is set if the program
+	 * returned a non zero value for packet <code>i</code>.
+	 * 
+	 * @param program
+	 *          program to execute
+	 * @param buffer
+	 *          buffer containing all the packets
+	 * @param offsets
+	 *          absolute index of each packet within the buffer
+	 * @param lengths
+	 *          length of each packet
+	 * @param count
+	 *          number of packets
+	 * @param matches
+	 *          bitmask which receives the result
+	 * @return number of packets accepted
+	 * @throws IllegalInstructionException
+	 *           if the program contains an invalid instruction
+	 */
+	public int execute(BPFProgram program, ByteBuffer buffer, int[] offsets,
+	    int[] lengths, int count, long[] matches)
+	    throws IllegalInstructionException;
+
 }
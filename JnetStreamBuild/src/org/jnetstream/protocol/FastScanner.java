@@ -177,6 +177,10 @@ public class FastScanner
    */
 	public boolean scan(ProtocolEntry p) {
 
+		if (p == null) {
+			return true; // Unregistered link type, the packet has no headers
+		}
+
 		final int i = p.getIndex();
 
 		/*